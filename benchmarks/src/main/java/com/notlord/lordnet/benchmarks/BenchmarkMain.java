@@ -0,0 +1,35 @@
+package com.notlord.lordnet.benchmarks;
+
+import com.notlord.lordnet.ConnectionMode;
+import com.notlord.lordnet.Threads;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+/**
+ * runs the benchmarks with the gc profiler, so every result reports its allocation rate next to its time.
+ * takes the usual jmh arguments, for example: java -jar benchmarks.jar RoundTrip -p mode=EVENT_LOOP
+ * unless modes are given with -p mode=..., benchmarks of connection modes run every mode the jvm supports.
+ */
+public final class BenchmarkMain {
+	private BenchmarkMain() {
+	}
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLine).addProfiler(GCProfiler.class);
+		if(!commandLine.getParameter("mode").hasValue() && Threads.virtualThreadsSupported()) {
+			// the defaults of the @Param annotations leave VIRTUAL_THREAD out, since it fails before java 21.
+			builder.param("mode", Arrays.stream(ConnectionMode.values()).map(Enum::name).toArray(String[]::new));
+		}
+		Options options = builder.build();
+		new Runner(options).run();
+	}
+}
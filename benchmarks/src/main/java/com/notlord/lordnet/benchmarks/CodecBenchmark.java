@@ -0,0 +1,58 @@
+package com.notlord.lordnet.benchmarks;
+
+import com.notlord.lordnet.PacketCodec;
+import com.notlord.lordnet.WireProtocol;
+import com.notlord.lordnet.serialization.GsonSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * encoding and decoding a packet with gson, by class name and separator id or by registered type id.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+	@Param({"STRING", "BINARY"})
+	public WireProtocol protocol;
+	private PacketCodec codec;
+	private Position packet;
+	private ByteBuffer frame;
+
+	@Setup
+	public void setup(){
+		String separatorId = UUID.randomUUID() + "-sepId";
+		codec = protocol == WireProtocol.BINARY ?
+				new PacketCodec(separatorId, new GsonSerializer(), List.of(Position.class)) :
+				new PacketCodec(separatorId, new GsonSerializer());
+		packet = new Position(7, 1.5f, -20.25f, 300f, "player-7");
+		frame = ByteBuffer.wrap(codec.encodeToArray(packet));
+	}
+
+	@Benchmark
+	public ByteBuffer encode(){
+		return codec.encode(packet);
+	}
+
+	@Benchmark
+	public Object decode() throws ClassNotFoundException {
+		return codec.decode(frame.rewind());
+	}
+}
@@ -0,0 +1,80 @@
+package com.notlord.lordnet.benchmarks;
+
+import com.notlord.lordnet.Client;
+import com.notlord.lordnet.ConnectionMode;
+import com.notlord.lordnet.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * throughput of {@link Server#sendAll(Object)} to many clients, counted once every client received the packets.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FanOutBenchmark {
+	private static final int BATCH = 100;
+	@Param({"10", "100"})
+	public int clients;
+	@Param({"THREAD", "EVENT_LOOP"})
+	public ConnectionMode mode;
+	private final AtomicLong received = new AtomicLong();
+	private Server server;
+	private Client[] connected;
+	private Position packet;
+	private long expected = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		int port = Loopback.freePort();
+		server = new Server(port);
+		server.setConnectionMode(mode);
+		Loopback.Echo echo = new Loopback.Echo(clients);
+		server.addListener(echo);
+		server.start();
+		Loopback.awaitListening();
+		connected = new Client[clients];
+		for (int i = 0; i < clients; i++) {
+			connected[i] = new Client("localhost", port);
+			connected[i].addListener(new Loopback.Counter(received));
+			connected[i].start();
+		}
+		echo.awaitConnected();
+		packet = new Position(7, 1.5f, -20.25f, 300f, "player-7");
+	}
+
+	@TearDown
+	public void tearDown(){
+		for (Client client : connected) {
+			client.close();
+		}
+		server.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void sendAll(){
+		for (int i = 0; i < BATCH; i++) {
+			server.sendAll(packet);
+		}
+		expected += (long) BATCH * clients;
+		Loopback.awaitCount(received, expected);
+	}
+}
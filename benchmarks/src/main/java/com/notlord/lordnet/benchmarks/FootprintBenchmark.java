@@ -0,0 +1,107 @@
+package com.notlord.lordnet.benchmarks;
+
+import com.notlord.lordnet.Client;
+import com.notlord.lordnet.ConnectionMode;
+import com.notlord.lordnet.Server;
+import com.notlord.lordnet.Threads;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * heap and platform threads taken by idle connections, per connection mode of the server.
+ * every iteration opens the connections, the time is how long that took,
+ * the footprint is reported in the heapBytesPerConnection and platformThreads counters.
+ * <br>
+ * the clients run in the same jvm, on virtual threads when supported, and cost the same in every mode,
+ * so modes are compared by the difference of their counters.
+ * virtual threads keep their stacks in the heap and are not platform threads, so both counters are needed.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FootprintBenchmark {
+	@Param({"100", "1000"})
+	public int connections;
+	@Param({"THREAD", "EVENT_LOOP"})
+	public ConnectionMode mode;
+	private Server server;
+	private Loopback.Echo echo;
+	private Client[] connected;
+	private long baselineHeap;
+	private int baselineThreads;
+
+	/**
+	 * counters reported next to the time of every iteration.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Footprint {
+		public long heapBytesPerConnection;
+		public long platformThreads;
+	}
+
+	@Setup(Level.Iteration)
+	public void setup() throws Exception {
+		int port = Loopback.freePort();
+		server = new Server(port);
+		server.setConnectionMode(mode);
+		echo = new Loopback.Echo(connections);
+		server.addListener(echo);
+		server.start();
+		Loopback.awaitListening();
+		connected = new Client[connections];
+		for (int i = 0; i < connections; i++) {
+			connected[i] = new Client("localhost", port);
+			connected[i].setVirtualThread(Threads.virtualThreadsSupported());
+		}
+		baselineHeap = usedHeap();
+		baselineThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown(){
+		for (Client client : connected) {
+			client.close();
+		}
+		server.close();
+	}
+
+	@Benchmark
+	public void idleConnections(Footprint footprint) throws Exception {
+		for (Client client : connected) {
+			client.start();
+		}
+		echo.awaitConnected();
+		footprint.heapBytesPerConnection = (usedHeap() - baselineHeap) / connections;
+		footprint.platformThreads = ManagementFactory.getThreadMXBean().getThreadCount() - baselineThreads;
+	}
+
+	/**
+	 * returns the heap in use once what is unreachable was collected, as far as the gc allows.
+	 */
+	private static long usedHeap() throws InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
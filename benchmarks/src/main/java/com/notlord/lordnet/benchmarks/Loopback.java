@@ -0,0 +1,112 @@
+package com.notlord.lordnet.benchmarks;
+
+import com.notlord.lordnet.IClientInstance;
+import com.notlord.lordnet.listeners.ClientListener;
+import com.notlord.lordnet.listeners.ServerListener;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * helpers of benchmarks running a server and clients over loopback.
+ */
+final class Loopback {
+	private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+	private static final int SPINS = 1000;
+
+	private Loopback() {
+	}
+
+	static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	/**
+	 * waits for a started server to bind, servers start listening on their own thread.
+	 */
+	static void awaitListening() throws InterruptedException {
+		Thread.sleep(300);
+	}
+
+	/**
+	 * spins until the counter reaches the target, spinning keeps wake up latency out of the measurement.
+	 * after a short spin it yields, so on few cores the network threads it waits for still get to run.
+	 */
+	static void awaitCount(AtomicLong counter, long target){
+		long deadline = System.nanoTime() + TIMEOUT_NANOS;
+		for (int spins = 0; counter.get() < target; spins++) {
+			if(spins < SPINS) {
+				Thread.onSpinWait();
+				continue;
+			}
+			if(System.nanoTime() > deadline) {
+				throw new IllegalStateException("Timed out at " + counter.get() + " of " + target);
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * a server listener sending every packet back to its client.
+	 */
+	static final class Echo implements ServerListener {
+		private final CountDownLatch connected;
+
+		Echo(int clients) {
+			connected = new CountDownLatch(clients);
+		}
+
+		void awaitConnected() throws InterruptedException {
+			if(!connected.await(30, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("Clients did not connect");
+			}
+		}
+
+		@Override
+		public void clientConnect(IClientInstance client) {
+			connected.countDown();
+		}
+
+		@Override
+		public void clientReceive(IClientInstance client, Object o) {
+			client.send(o);
+		}
+
+		@Override
+		public void clientDisconnect(IClientInstance client) {
+		}
+
+		@Override
+		public void serverClose() {
+		}
+	}
+
+	/**
+	 * a client listener counting received packets.
+	 */
+	static final class Counter implements ClientListener {
+		final AtomicLong received;
+
+		Counter(AtomicLong received) {
+			this.received = received;
+		}
+
+		@Override
+		public void connect() {
+		}
+
+		@Override
+		public void disconnect() {
+		}
+
+		@Override
+		public void receive(Object o) {
+			received.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.notlord.lordnet.benchmarks;
+
+/**
+ * a small, typical game packet.
+ */
+public class Position {
+	public int id;
+	public float x;
+	public float y;
+	public float z;
+	public String name;
+
+	public Position() {
+	}
+
+	public Position(int id, float x, float y, float z, String name) {
+		this.id = id;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.name = name;
+	}
+}
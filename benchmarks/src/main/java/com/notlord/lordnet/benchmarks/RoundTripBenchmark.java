@@ -0,0 +1,68 @@
+package com.notlord.lordnet.benchmarks;
+
+import com.notlord.lordnet.Client;
+import com.notlord.lordnet.ConnectionMode;
+import com.notlord.lordnet.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * latency of a packet going from a client to the server and back, over loopback.
+ * VIRTUAL_THREAD is added to the modes on java 21+ by {@link BenchmarkMain}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+	@Param({"THREAD", "EVENT_LOOP"})
+	public ConnectionMode mode;
+	private final AtomicLong received = new AtomicLong();
+	private Server server;
+	private Client client;
+	private Position packet;
+	private long sent = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		int port = Loopback.freePort();
+		server = new Server(port);
+		server.setConnectionMode(mode);
+		Loopback.Echo echo = new Loopback.Echo(1);
+		server.addListener(echo);
+		server.start();
+		Loopback.awaitListening();
+		client = new Client("localhost", port);
+		client.addListener(new Loopback.Counter(received));
+		client.start();
+		echo.awaitConnected();
+		packet = new Position(7, 1.5f, -20.25f, 300f, "player-7");
+	}
+
+	@TearDown
+	public void tearDown(){
+		client.close();
+		server.close();
+	}
+
+	@Benchmark
+	public void roundTrip(){
+		client.send(packet);
+		Loopback.awaitCount(received, ++sent);
+	}
+}
@@ -0,0 +1,148 @@
+package com.notlord.lordnet.benchmarks;
+
+import com.notlord.lordnet.secured.KeyPairPool;
+import com.notlord.lordnet.secured.SecuredClient;
+import com.notlord.lordnet.secured.SecuredServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * cost of {@link SecuredServer} connections, the handshake and the per packet encryption.
+ */
+@Fork(1)
+public class SecuredBenchmark {
+
+	/**
+	 * where the client key pair of a handshake comes from.
+	 */
+	public enum Keys {
+		/**
+		 * a key pair the pool generated ahead, the common case.
+		 */
+		POOLED,
+		/**
+		 * a key pair generated during the handshake, as when the pool runs dry.
+		 */
+		GENERATED
+	}
+
+	/**
+	 * a running secured server with an echo listener.
+	 */
+	@State(Scope.Benchmark)
+	public static class Running {
+		SecuredServer server;
+		int port;
+
+		@Setup
+		public void setup() throws Exception {
+			port = Loopback.freePort();
+			server = new SecuredServer(port);
+			server.addListener(new Loopback.Echo(0));
+			server.start();
+			// the server takes its key pair on start.
+			Thread.sleep(2000);
+		}
+
+		@TearDown
+		public void tearDown(){
+			server.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Handshake {
+		@Param({"POOLED", "GENERATED"})
+		public Keys keys;
+		KeyPairPool pool;
+
+		@Setup(Level.Invocation)
+		public void awaitKeys() throws InterruptedException {
+			if(keys == Keys.GENERATED) {
+				// an empty pool generates on the connecting thread.
+				pool = new KeyPairPool();
+				return;
+			}
+			if(pool == null) {
+				pool = new KeyPairPool();
+				pool.prefill();
+			}
+			while (pool.available() == 0) {
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	/**
+	 * a connected secured client.
+	 */
+	@State(Scope.Benchmark)
+	public static class Connected {
+		final AtomicLong received = new AtomicLong();
+		SecuredClient client;
+		Object packet;
+		long sent = 0;
+
+		@Setup
+		public void setup(Running running) throws Exception {
+			client = new SecuredClient("localhost", running.port);
+			client.addListener(new Loopback.Counter(received));
+			client.start();
+			packet = new Position(7, 1.5f, -20.25f, 300f, "player-7");
+			// the first send waits for the handshake.
+			client.send(packet);
+			Loopback.awaitCount(received, ++sent);
+		}
+
+		@TearDown
+		public void tearDown(){
+			client.close();
+		}
+	}
+
+	/**
+	 * connects a client and waits for its first packet to come back, so the key exchange is complete.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	public void handshake(Running running, Handshake handshake){
+		AtomicLong received = new AtomicLong();
+		SecuredClient client = new SecuredClient("localhost", running.port);
+		client.setKeyPairPool(handshake.pool);
+		client.addListener(new Loopback.Counter(received));
+		client.start();
+		client.send(Boolean.TRUE);
+		Loopback.awaitCount(received, 1);
+		client.close();
+	}
+
+	/**
+	 * a packet going from a client to the server and back, compare with {@link RoundTripBenchmark} for the cost of encryption.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	public void roundTrip(Connected connected){
+		connected.client.send(connected.packet);
+		Loopback.awaitCount(connected.received, ++connected.sent);
+	}
+}
@@ -0,0 +1,127 @@
+package com.notlord.lordnet;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkAssemblerTest {
+	private final BufferPool pool = new BufferPool(1024, false);
+	private final ChunkAssembler assembler = new ChunkAssembler(pool);
+
+	/**
+	 * a pooled chunk holding a slice of a frame, as received.
+	 */
+	private ByteBuffer chunk(int channel, boolean more, byte[] bytes, int from, int to){
+		ByteBuffer chunk = pool.acquire(PacketCodec.chunkHeaderSize(channel) + to - from);
+		PacketCodec.writeChunkHeader(chunk, channel, more);
+		return chunk.put(bytes, from, to - from).flip();
+	}
+
+	private static byte[] frame(int length, int seed){
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i * 31 + seed);
+		}
+		return bytes;
+	}
+
+	private static byte[] bytes(ByteBuffer buffer){
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	@Test
+	void reassemblesAFrame() throws IOException {
+		byte[] frame = frame(700, 1);
+		assertNull(assembler.add(chunk(0, true, frame, 0, 100)));
+		assertNull(assembler.add(chunk(0, true, frame, 100, 400)));
+		ByteBuffer assembled = assembler.add(chunk(0, false, frame, 400, 700));
+		assertArrayEquals(frame, bytes(assembled));
+	}
+
+	@Test
+	void singleChunkFrame() throws IOException {
+		byte[] frame = frame(10, 2);
+		assertArrayEquals(frame, bytes(assembler.add(chunk(3, false, frame, 0, 10))));
+	}
+
+	@Test
+	void channelsAreAssembledOnTheirOwn() throws IOException {
+		byte[] low = frame(300, 3), high = frame(200, 4);
+		assertNull(assembler.add(chunk(0, true, low, 0, 150)));
+		assertNull(assembler.add(chunk(7, true, high, 0, 100)));
+		assertArrayEquals(high, bytes(assembler.add(chunk(7, false, high, 100, 200))));
+		assertArrayEquals(low, bytes(assembler.add(chunk(0, false, low, 150, 300))));
+	}
+
+	@Test
+	void isChunk(){
+		byte[] frame = frame(4, 5);
+		assertTrue(ChunkAssembler.isChunk(chunk(0, false, frame, 0, 4)));
+		assertFalse(ChunkAssembler.isChunk(ByteBuffer.wrap(new byte[]{0, 1})));
+		assertFalse(ChunkAssembler.isChunk(ByteBuffer.allocate(0)));
+	}
+
+	@Test
+	void unknownFlags(){
+		ByteBuffer chunk = pool.acquire(2);
+		chunk.put((byte) (PacketCodec.CHUNK | 1 << 7)).put((byte) 0).flip();
+		assertThrows(IOException.class, () -> assembler.add(chunk));
+	}
+
+	@Test
+	void channelOutOfRange(){
+		ByteBuffer zero = pool.acquire(3);
+		zero.put((byte) (PacketCodec.CHUNK | PacketCodec.CHANNEL)).put((byte) 0).put((byte) 0).flip();
+		assertThrows(IOException.class, () -> assembler.add(zero));
+		ByteBuffer large = pool.acquire(4);
+		large.put((byte) (PacketCodec.CHUNK | PacketCodec.CHANNEL));
+		Varint.write(large, ChannelPriorities.MAX_CHANNELS);
+		large.put((byte) 0).flip();
+		assertThrows(IOException.class, () -> assembler.add(large));
+		ByteBuffer truncated = pool.acquire(1);
+		truncated.put((byte) (PacketCodec.CHUNK | PacketCodec.CHANNEL)).flip();
+		assertThrows(IOException.class, () -> assembler.add(truncated));
+	}
+
+	@Test
+	void framesLargerThanTheMaxFrameSize() throws IOException {
+		byte[] frame = frame(1500, 6);
+		assertNull(assembler.add(chunk(0, true, frame, 0, 600)));
+		assertThrows(IOException.class, () -> assembler.add(chunk(0, false, frame, 600, 1500 - 100)));
+		assembler.clear();
+		// a new frame starts over once the partial one is cleared.
+		byte[] next = frame(20, 7);
+		assertArrayEquals(next, bytes(assembler.add(chunk(0, false, next, 0, 20))));
+	}
+
+	@Test
+	void reassemblesChunksOfTheOutboundQueue() throws IOException {
+		OutboundQueueTest.RecordingChannel channel = new OutboundQueueTest.RecordingChannel();
+		BufferPool sendPool = new BufferPool(BufferPool.DEFAULT_MAX_FRAME_SIZE, false);
+		OutboundQueue queue = new OutboundQueue(channel, Runnable::run, sendPool, null, e -> {});
+		queue.setChannels(new ChannelPriorities(Map.of(2, 1), ChannelPriorities.MIN_CHUNK_SIZE));
+		byte[] frame = frame(1000, 8);
+		queue.send(ByteBuffer.wrap(frame), 2);
+		ByteBuffer assembled = null;
+		int chunks = 0;
+		for (ByteBuffer received : channel.frames()) {
+			assertTrue(received.remaining() + Integer.BYTES <= ChannelPriorities.MIN_CHUNK_SIZE);
+			assertTrue(ChunkAssembler.isChunk(received));
+			assertNull(assembled);
+			assembled = assembler.add(pool.acquire(received.remaining()).put(received).flip());
+			chunks++;
+		}
+		assertTrue(chunks > 1);
+		assertArrayEquals(frame, bytes(assembled));
+	}
+}
@@ -0,0 +1,152 @@
+package com.notlord.lordnet;
+
+import com.notlord.lordnet.metrics.ConnectionMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientGroupsTest {
+	private final ClientGroups<Member> groups = new ClientGroups<>();
+
+	private record Member(int id) implements IClientInstance {
+		@Override
+		public void close(){}
+
+		@Override
+		public void send(Object o){}
+
+		@Override
+		public void send(Object o, int channel){}
+
+		@Override
+		public CompletableFuture<Void> sendAsync(Object o){
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public CompletableFuture<Void> sendAsync(Object o, int channel){
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public CompletableFuture<Void> sendStream(InputStream in, Object metadata){
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public CompletableFuture<Void> sendStream(Path file, Object metadata){
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public int getID(){
+			return id;
+		}
+
+		@Override
+		public ConnectionMetrics getMetrics(){
+			return null;
+		}
+	}
+
+	/**
+	 * checks every member is in the groups it belongs to, and every group lists its members.
+	 */
+	private void assertConsistent(List<Member> members){
+		for (String name : groups.names()) {
+			assertFalse(groups.members(name).isEmpty(), name);
+			for (Member member : groups.members(name)) {
+				assertTrue(groups.groupsOf(member).contains(name), member + " in " + name);
+			}
+		}
+		for (Member member : members) {
+			for (String name : groups.groupsOf(member)) {
+				assertTrue(groups.members(name).contains(member), member + " in " + name);
+			}
+		}
+	}
+
+	@Test
+	void joinAndLeave(){
+		Member a = new Member(1), b = new Member(2);
+		assertTrue(groups.join("room", a));
+		assertFalse(groups.join("room", a));
+		assertTrue(groups.join("room", b));
+		assertTrue(groups.join("lobby", a));
+		assertEquals(Set.of(a, b), Set.copyOf(groups.members("room")));
+		assertEquals(Set.of("room", "lobby"), groups.groupsOf(a));
+		assertTrue(groups.leave("room", a));
+		assertFalse(groups.leave("room", a));
+		assertEquals(Set.of("lobby"), groups.groupsOf(a));
+		assertTrue(groups.leave("room", b));
+		// groups are removed with their last member.
+		assertEquals(Set.of("lobby"), groups.names());
+		assertTrue(groups.groupsOf(b).isEmpty());
+	}
+
+	@Test
+	void leaveAllLeavesEveryGroup(){
+		Member a = new Member(1), b = new Member(2);
+		groups.join("room", a);
+		groups.join("lobby", a);
+		groups.join("room", b);
+		groups.leaveAll(a);
+		assertTrue(groups.groupsOf(a).isEmpty());
+		assertEquals(Set.of(b), Set.copyOf(groups.members("room")));
+		assertEquals(Set.of("room"), groups.names());
+		groups.leaveAll(a);
+		assertConsistent(List.of(a, b));
+	}
+
+	@Test
+	void racingJoinsAndLeaveAllStayConsistent() throws Exception {
+		List<Member> members = List.of(new Member(1), new Member(2), new Member(3));
+		String[] names = {"a", "b", "c", "d"};
+		for (int round = 0; round < 200; round++) {
+			CyclicBarrier start = new CyclicBarrier(members.size() * 2);
+			Thread[] threads = new Thread[members.size() * 2];
+			for (int i = 0; i < members.size(); i++) {
+				Member member = members.get(i);
+				threads[i * 2] = new Thread(() -> {
+					await(start);
+					for (int j = 0; j < 100; j++) {
+						groups.join(names[j % names.length], member);
+					}
+				});
+				threads[i * 2 + 1] = new Thread(() -> {
+					await(start);
+					for (int j = 0; j < 20; j++) {
+						groups.leaveAll(member);
+					}
+				});
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertConsistent(members);
+			members.forEach(groups::leaveAll);
+			assertTrue(groups.names().isEmpty());
+		}
+	}
+
+	private static void await(CyclicBarrier barrier){
+		try {
+			barrier.await();
+		}
+		catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
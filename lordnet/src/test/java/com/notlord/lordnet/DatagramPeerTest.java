@@ -0,0 +1,147 @@
+package com.notlord.lordnet;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DatagramPeerTest {
+	private static final SocketAddress CLIENT = new InetSocketAddress("localhost", 4000);
+	private static final SocketAddress ATTACKER = new InetSocketAddress("localhost", 5000);
+	private final DatagramPeer server = new DatagramPeer();
+	private final DatagramPeer client = new DatagramPeer(server.getToken(), server.getKey(), CLIENT);
+
+	private static ByteBuffer seal(DatagramPeer peer, String body){
+		ByteBuffer datagram = ByteBuffer.allocate(DatagramEndpoint.MAX_DATAGRAM_SIZE);
+		peer.seal(ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)), datagram);
+		return datagram.flip();
+	}
+
+	private static String body(ByteBuffer datagram){
+		return StandardCharsets.UTF_8.decode(datagram).toString();
+	}
+
+	@Test
+	void sealedDatagramIsAccepted(){
+		ByteBuffer datagram = seal(client, "position");
+		assertEquals(DatagramEndpoint.HEADER_SIZE + "position".length() + DatagramPeer.MAC_SIZE, datagram.remaining());
+		assertTrue(server.accept(datagram, CLIENT));
+		assertEquals("position", body(datagram));
+		assertEquals(CLIENT, server.getAddress());
+	}
+
+	@Test
+	void staleAndReplayedDatagramsAreDropped(){
+		ByteBuffer first = seal(client, "first"), second = seal(client, "second");
+		ByteBuffer replay = second.duplicate();
+		assertTrue(server.accept(second, CLIENT));
+		assertFalse(server.accept(first, CLIENT));
+		assertFalse(server.accept(replay, ATTACKER));
+		assertEquals(CLIENT, server.getAddress());
+	}
+
+	@Test
+	void forgedDatagramsDoNotMoveTheAddress(){
+		// a datagram seen on the way, sent again with a higher sequence.
+		ByteBuffer raised = seal(client, "move");
+		raised.putInt(Long.BYTES, 1000);
+		assertFalse(server.accept(raised, ATTACKER));
+		// or with another body.
+		ByteBuffer changed = seal(client, "move");
+		changed.put(DatagramEndpoint.HEADER_SIZE, (byte) 'x');
+		assertFalse(server.accept(changed, ATTACKER));
+		// or sealed with the token alone.
+		DatagramPeer guess = new DatagramPeer(server.getToken(), new byte[DatagramPeer.KEY_SIZE], ATTACKER);
+		assertFalse(server.accept(seal(guess, "move"), ATTACKER));
+		assertNull(server.getAddress());
+		// the client's own datagram is still accepted afterwards.
+		assertTrue(server.accept(seal(client, "move"), CLIENT));
+	}
+
+	@Test
+	void datagramOfAnotherConnectionIsDropped(){
+		DatagramPeer other = new DatagramPeer();
+		assertFalse(server.accept(seal(new DatagramPeer(other.getToken(), other.getKey(), CLIENT), "x"), CLIENT));
+	}
+
+	@Test
+	void truncatedDatagramIsDropped(){
+		ByteBuffer datagram = seal(client, "");
+		assertFalse(server.accept(datagram.limit(datagram.limit() - 1), CLIENT));
+	}
+
+	@Test
+	void keyMustBeFull(){
+		assertThrows(IllegalArgumentException.class, () -> new DatagramPeer(1, new byte[8], CLIENT));
+	}
+
+	@Test
+	void packetsTravelBothWaysOverTheUnreliableChannel() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		Server server = new Server(port);
+		server.setUnreliablePort(0);
+		CompletableFuture<Server.ClientInstance> ping = new CompletableFuture<>();
+		server.on(String.class, (client, packet) -> {
+			if(packet.equals("ping")) {
+				ping.complete((Server.ClientInstance) client);
+			}
+		});
+		server.start();
+		Client client = new Client("localhost", port);
+		CompletableFuture<String> pong = new CompletableFuture<>();
+		client.on(String.class, pong::complete);
+		try {
+			awaitListening(port);
+			client.start();
+			// datagrams may be lost, so they are sent until one arrives.
+			for (int i = 0; i < 500 && !ping.isDone(); i++) {
+				client.sendUnreliable("ping");
+				Thread.sleep(20);
+			}
+			Server.ClientInstance instance = ping.get(1, TimeUnit.SECONDS);
+			for (int i = 0; i < 500 && !pong.isDone(); i++) {
+				instance.sendUnreliable("pong");
+				Thread.sleep(20);
+			}
+			assertEquals("pong", pong.get(1, TimeUnit.SECONDS));
+		}
+		finally {
+			client.close();
+			server.close();
+		}
+	}
+
+	/**
+	 * waits for a started server to bind, servers start listening on their own thread.
+	 */
+	private static void awaitListening(int port) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (true) {
+			try (Socket ignored = new Socket("localhost", port)) {
+				return;
+			}
+			catch (ConnectException e) {
+				if(System.nanoTime() > deadline) {
+					throw e;
+				}
+				Thread.sleep(20);
+			}
+		}
+	}
+}
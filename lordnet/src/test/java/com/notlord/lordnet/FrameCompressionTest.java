@@ -0,0 +1,157 @@
+package com.notlord.lordnet;
+
+import com.notlord.lordnet.serialization.BinarySerializer;
+import com.notlord.lordnet.serialization.MalformedPacketException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameCompressionTest {
+	private static final byte[] TEXT = "{\"player\":\"lord\",\"x\":12,\"y\":40,\"health\":100}".getBytes(StandardCharsets.UTF_8);
+
+	static class Blob {
+		byte[] bytes;
+	}
+
+	private static byte[] repeated(int length){
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = TEXT[i % TEXT.length];
+		}
+		return bytes;
+	}
+
+	private static byte[] random(int length){
+		byte[] bytes = new byte[length];
+		new Random(7).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] bytes(ByteBuffer buffer){
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * deflates the body into a buffer of the given capacity, returns the deflated bytes or null if they do not fit.
+	 */
+	private static byte[] deflate(FrameCompression compression, byte[] body, int capacity){
+		ByteBuffer out = ByteBuffer.allocate(capacity);
+		return compression.deflate(ByteBuffer.wrap(body), out) ? bytes(out.flip()) : null;
+	}
+
+	private static PacketCodec codec(FrameCompression compression){
+		PacketCodec codec = new PacketCodec("\0", new BinarySerializer(), List.of(Blob.class));
+		codec.setCompression(compression);
+		return codec;
+	}
+
+	private static Blob blob(byte[] bytes){
+		Blob blob = new Blob();
+		blob.bytes = bytes;
+		return blob;
+	}
+
+	@Test
+	void deflatedBodyInflatesBack() throws DataFormatException {
+		FrameCompression compression = new FrameCompression();
+		byte[] body = repeated(2000);
+		byte[] deflated = deflate(compression, body, body.length);
+		assertTrue(deflated.length < body.length / 4);
+		ByteBuffer inflated = ByteBuffer.allocate(body.length);
+		compression.inflate(ByteBuffer.wrap(deflated), inflated);
+		assertArrayEquals(body, inflated.array());
+	}
+
+	@Test
+	void presetDictionaryShrinksSmallFrames() throws DataFormatException {
+		FrameCompression plain = new FrameCompression(0, Deflater.DEFAULT_COMPRESSION, null);
+		FrameCompression preset = new FrameCompression(0, Deflater.DEFAULT_COMPRESSION, TEXT);
+		byte[] withoutDictionary = deflate(plain, TEXT, 256), withDictionary = deflate(preset, TEXT, 256);
+		assertTrue(withDictionary.length < withoutDictionary.length / 2);
+		ByteBuffer inflated = ByteBuffer.allocate(TEXT.length);
+		preset.inflate(ByteBuffer.wrap(withDictionary), inflated);
+		assertArrayEquals(TEXT, inflated.array());
+		// the other side must use the same dictionary.
+		assertThrows(DataFormatException.class, () -> plain.inflate(ByteBuffer.wrap(withDictionary), ByteBuffer.allocate(TEXT.length)));
+	}
+
+	@Test
+	void deflateFailsIfTheBodyDoesNotFit(){
+		byte[] body = random(1000);
+		assertNull(deflate(new FrameCompression(), body, body.length - 1));
+	}
+
+	@Test
+	void framesBelowTheThresholdAreStored() throws ClassNotFoundException {
+		FrameCompression compression = new FrameCompression(512, Deflater.DEFAULT_COMPRESSION, null);
+		assertFalse(compression.shouldCompress(511));
+		assertTrue(compression.shouldCompress(512));
+		PacketCodec codec = codec(compression);
+		ByteBuffer small = codec.encode(blob(repeated(100)));
+		assertEquals(FrameCompression.STORED, small.get(0) & FrameCompression.DEFLATED);
+		assertArrayEquals(repeated(100), ((Blob) codec.decode(small)).bytes);
+		ByteBuffer large = codec.encode(blob(repeated(2000)));
+		assertEquals(FrameCompression.DEFLATED, large.get(0) & FrameCompression.DEFLATED);
+		assertTrue(large.remaining() < 1000);
+		assertArrayEquals(repeated(2000), ((Blob) codec.decode(large)).bytes);
+	}
+
+	@Test
+	void framesThatDoNotShrinkAreStored() throws ClassNotFoundException {
+		PacketCodec codec = codec(new FrameCompression(0, Deflater.DEFAULT_COMPRESSION, null));
+		ByteBuffer frame = codec.encode(blob(random(1000)));
+		assertEquals(FrameCompression.STORED, frame.get(0) & FrameCompression.DEFLATED);
+		assertArrayEquals(random(1000), ((Blob) codec.decode(frame)).bytes);
+	}
+
+	@Test
+	void trainedDictionaryEndsWithTheMostFrequentSample(){
+		byte[] rare = "rare".getBytes(StandardCharsets.UTF_8), common = "common".getBytes(StandardCharsets.UTF_8);
+		byte[] dictionary = FrameCompression.trainDictionary(List.of(common, rare, common), 100);
+		assertArrayEquals("rarecommon".getBytes(StandardCharsets.UTF_8), dictionary);
+		// samples that do not fit are cut from the front, keeping the most frequent ones whole.
+		assertArrayEquals("recommon".getBytes(StandardCharsets.UTF_8), FrameCompression.trainDictionary(List.of(common, rare, common), 8));
+		byte[] large = random(FrameCompression.MAX_DICTIONARY_SIZE * 2);
+		assertEquals(FrameCompression.MAX_DICTIONARY_SIZE, FrameCompression.trainDictionary(List.of(large), Integer.MAX_VALUE).length);
+	}
+
+	@Test
+	void truncatedCompressedFrameIsMalformed(){
+		PacketCodec codec = codec(new FrameCompression());
+		byte[] frame = bytes(codec.encode(blob(repeated(2000))));
+		assertEquals(FrameCompression.DEFLATED, frame[0] & FrameCompression.DEFLATED);
+		ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(frame, frame.length - 4));
+		assertThrows(MalformedPacketException.class, () -> codec.decode(truncated));
+	}
+
+	@Test
+	void compressedFrameLargerThanTheMaxFrameSizeIsMalformed(){
+		byte[] frame = bytes(codec(new FrameCompression()).encode(blob(repeated(2000))));
+		PacketCodec receiver = codec(new FrameCompression());
+		receiver.setMaxFrameSize(1000);
+		assertThrows(MalformedPacketException.class, () -> receiver.decode(ByteBuffer.wrap(frame)));
+	}
+
+	@Test
+	void compressedFrameWithoutCompressionIsMalformed(){
+		byte[] frame = bytes(codec(new FrameCompression()).encode(blob(repeated(2000))));
+		PacketCodec receiver = codec(null);
+		receiver.setFrameHeaders(true);
+		assertThrows(MalformedPacketException.class, () -> receiver.decode(ByteBuffer.wrap(frame)));
+	}
+}
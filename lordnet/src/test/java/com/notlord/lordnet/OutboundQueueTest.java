@@ -0,0 +1,360 @@
+package com.notlord.lordnet;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+	private final BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_FRAME_SIZE, false);
+	private final RecordingChannel channel = new RecordingChannel();
+	// the writer only runs when the test runs it, so frames wait in the queue meanwhile.
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final Executor manual = tasks::add;
+
+	/**
+	 * a channel keeping everything written, one gathering write at a time.
+	 */
+	static final class RecordingChannel implements GatheringByteChannel {
+		private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		private int writes = 0;
+
+		@Override
+		public synchronized long write(ByteBuffer[] sources, int offset, int length) {
+			writes++;
+			long n = 0;
+			for (int i = offset; i < offset + length; i++) {
+				while (sources[i].hasRemaining()) {
+					written.write(sources[i].get());
+					n++;
+				}
+			}
+			return n;
+		}
+
+		@Override
+		public long write(ByteBuffer[] sources) {
+			return write(sources, 0, sources.length);
+		}
+
+		@Override
+		public int write(ByteBuffer source) {
+			return (int) write(new ByteBuffer[]{source}, 0, 1);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {}
+
+		synchronized int writes(){
+			return writes;
+		}
+
+		/**
+		 * splits what was written into the bodies of its frames.
+		 */
+		synchronized List<ByteBuffer> frames(){
+			ByteBuffer bytes = ByteBuffer.wrap(written.toByteArray());
+			List<ByteBuffer> frames = new ArrayList<>();
+			while (bytes.hasRemaining()) {
+				int length = bytes.getInt();
+				frames.add(bytes.slice(bytes.position(), length));
+				bytes.position(bytes.position() + length);
+			}
+			return frames;
+		}
+	}
+
+	private void runTasks(){
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	private static ByteBuffer body(int... values){
+		ByteBuffer body = ByteBuffer.allocate(values.length * Integer.BYTES);
+		for (int value : values) {
+			body.putInt(value);
+		}
+		return body.flip();
+	}
+
+	private OutboundQueue bounded(OutboundLimits limits, AtomicReference<Throwable> error){
+		OutboundQueue queue = new OutboundQueue(channel, manual, pool, null, error::set);
+		queue.setLimits(limits, null, null);
+		return queue;
+	}
+
+	private static Throwable failure(CompletableFuture<Void> future){
+		return assertThrows(CompletionException.class, future::join).getCause();
+	}
+
+	private List<Integer> writtenValues(){
+		List<Integer> values = new ArrayList<>();
+		for (ByteBuffer frame : channel.frames()) {
+			values.add(frame.getInt());
+		}
+		return values;
+	}
+
+	@Test
+	void concurrentSendersKeepTheirOrder() throws Exception {
+		OutboundQueue queue = new OutboundQueue(channel, Threads.writers(false), pool, null, e -> {});
+		int senders = 8, frames = 5000;
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		Queue<CompletableFuture<Void>> futures = new ConcurrentLinkedQueue<>();
+		for (int t = 0; t < senders; t++) {
+			int sender = t;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < frames - 1; i++) {
+					queue.send(body(sender, i));
+				}
+				futures.add(queue.sendAsync(body(sender, frames - 1)));
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+		int[] next = new int[senders];
+		List<ByteBuffer> written = channel.frames();
+		assertEquals(senders * frames, written.size());
+		for (ByteBuffer frame : written) {
+			int sender = frame.getInt();
+			assertEquals(next[sender]++, frame.getInt(), "frame of sender " + sender);
+		}
+	}
+
+	@Test
+	void framesQueuedMeanwhileAreWrittenInOneBatch(){
+		OutboundQueue queue = new OutboundQueue(channel, manual, pool, null, e -> {});
+		for (int i = 0; i < 10; i++) {
+			queue.send(body(i));
+		}
+		runTasks();
+		assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), writtenValues());
+		assertEquals(1, channel.writes());
+		for (int i = 0; i < OutboundQueue.MAX_BATCH_FRAMES + 1; i++) {
+			queue.send(body(i));
+		}
+		runTasks();
+		// a batch holds at most MAX_BATCH_FRAMES frames.
+		assertEquals(3, channel.writes());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	void sendCopiesTheBody(){
+		OutboundQueue queue = new OutboundQueue(channel, manual, pool, null, e -> {});
+		ByteBuffer body = body(1);
+		queue.send(body);
+		body.clear().putInt(2);
+		runTasks();
+		assertEquals(List.of(1), writtenValues());
+	}
+
+	@Test
+	void closeFailsQueuedFrames(){
+		OutboundQueue queue = new OutboundQueue(channel, manual, pool, null, e -> {});
+		CompletableFuture<Void> queued = queue.sendAsync(body(1));
+		queue.close();
+		runTasks();
+		CompletionException e = assertThrows(CompletionException.class, queued::join);
+		assertInstanceOf(ClosedChannelException.class, e.getCause());
+		assertInstanceOf(ClosedChannelException.class, assertThrows(CompletionException.class, () -> queue.sendAsync(body(2)).join()).getCause());
+		assertEquals(0, channel.frames().size());
+	}
+
+	@Test
+	void dropNewest(){
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		OutboundQueue queue = bounded(new OutboundLimits(2, Long.MAX_VALUE, OverflowPolicy.DROP_NEWEST), error);
+		queue.sendAsync(body(1));
+		queue.sendAsync(body(2));
+		assertInstanceOf(OutboundOverflowException.class, failure(queue.sendAsync(body(3))));
+		runTasks();
+		assertEquals(List.of(1, 2), writtenValues());
+		assertNull(error.get());
+		assertEquals(0, queue.queuedBytes());
+	}
+
+	@Test
+	void dropOldest(){
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		OutboundQueue queue = bounded(new OutboundLimits(2, Long.MAX_VALUE, OverflowPolicy.DROP_OLDEST), error);
+		CompletableFuture<Void> oldest = queue.sendAsync(body(1));
+		queue.sendAsync(body(2));
+		CompletableFuture<Void> newest = queue.sendAsync(body(3));
+		assertInstanceOf(OutboundOverflowException.class, failure(oldest));
+		runTasks();
+		newest.join();
+		assertEquals(List.of(2, 3), writtenValues());
+		assertNull(error.get());
+	}
+
+	@Test
+	void dropOldestKeepsStreamFrames(){
+		OutboundQueue queue = bounded(new OutboundLimits(1, Long.MAX_VALUE, OverflowPolicy.DROP_OLDEST), new AtomicReference<>());
+		queue.sendStreamAsync(body(1));
+		queue.sendAsync(body(2));
+		queue.sendAsync(body(3));
+		runTasks();
+		// the stream frame can not be dropped, so the frame queued after it makes room for the newest.
+		assertEquals(List.of(1, 3), writtenValues());
+	}
+
+	@Test
+	void disconnect(){
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		OutboundQueue queue = bounded(new OutboundLimits(Integer.MAX_VALUE, 8, OverflowPolicy.DISCONNECT), error);
+		// a frame always fits an empty queue, even if it is larger than the limit.
+		queue.sendAsync(body(1, 2, 3));
+		assertInstanceOf(OutboundOverflowException.class, failure(queue.sendAsync(body(4))));
+		assertInstanceOf(OutboundOverflowException.class, error.get());
+	}
+
+	@Test
+	void blockWaitsForSpace() throws Exception {
+		OutboundQueue queue = bounded(new OutboundLimits(2, Long.MAX_VALUE, OverflowPolicy.BLOCK, 10_000, Long.MAX_VALUE, 0), new AtomicReference<>());
+		queue.send(body(1));
+		queue.send(body(2));
+		CompletableFuture<CompletableFuture<Void>> third = CompletableFuture.supplyAsync(() -> queue.sendAsync(body(3)));
+		Thread.sleep(100);
+		assertFalse(third.isDone());
+		runTasks();
+		CompletableFuture<Void> written = third.get(10, TimeUnit.SECONDS);
+		runTasks();
+		written.join();
+		assertEquals(List.of(1, 2, 3), writtenValues());
+	}
+
+	@Test
+	void blockGivesUpAfterTheTimeout(){
+		OutboundQueue queue = bounded(new OutboundLimits(1, Long.MAX_VALUE, OverflowPolicy.BLOCK, 50, Long.MAX_VALUE, 0), new AtomicReference<>());
+		queue.send(body(1));
+		long start = System.nanoTime();
+		assertInstanceOf(OutboundOverflowException.class, failure(queue.sendAsync(body(2))));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+	}
+
+	@Test
+	void waterMarks(){
+		AtomicInteger high = new AtomicInteger(), low = new AtomicInteger();
+		OutboundQueue queue = new OutboundQueue(channel, manual, pool, null, e -> {});
+		// frames of a single int take 8 bytes with their length prefix.
+		queue.setLimits(new OutboundLimits(Integer.MAX_VALUE, 1024, OverflowPolicy.DROP_NEWEST, 0, 24, 8), high::incrementAndGet, low::incrementAndGet);
+		queue.send(body(1));
+		queue.send(body(2));
+		assertEquals(0, high.get());
+		queue.send(body(3));
+		queue.send(body(4));
+		assertEquals(1, high.get());
+		assertEquals(32, queue.queuedBytes());
+		runTasks();
+		assertEquals(1, low.get());
+		assertEquals(0, queue.queuedBytes());
+	}
+
+	/**
+	 * chunks a frame of the default channel is split into, every chunk holding its length prefix and a chunk header.
+	 */
+	private static int chunkCount(int length, int chunkSize){
+		int chunkLength = chunkSize - Integer.BYTES - PacketCodec.chunkHeaderSize(0);
+		return (length + chunkLength - 1) / chunkLength;
+	}
+
+	@Test
+	void higherLanesAreWrittenFirst(){
+		OutboundQueue queue = new OutboundQueue(channel, manual, pool, null, e -> {});
+		queue.setChannels(new ChannelPriorities(Map.of(1, 10, 2, 5), ChannelPriorities.DEFAULT_CHUNK_SIZE));
+		queue.send(body(0), 0);
+		queue.send(body(1), 0);
+		queue.send(body(2), 2);
+		queue.send(body(3), 1);
+		queue.send(body(4), 2);
+		queue.send(body(5), 1);
+		runTasks();
+		assertEquals(List.of(3, 5, 2, 4, 0, 1), writtenValues());
+	}
+
+	@Test
+	void chunksOfAFrameStayTogetherInTheirLane() throws Exception {
+		OutboundQueue queue = new OutboundQueue(channel, manual, pool, null, e -> {});
+		queue.setChannels(new ChannelPriorities(Map.of(1, 10), ChannelPriorities.MIN_CHUNK_SIZE));
+		byte[] large = new byte[1000];
+		Arrays.fill(large, (byte) 7);
+		CompletableFuture<Void> written = queue.sendAsync(ByteBuffer.wrap(large), 0);
+		queue.send(body(1), 0);
+		queue.send(body(2), 1);
+		runTasks();
+		written.get(1, TimeUnit.SECONDS);
+		List<ByteBuffer> frames = channel.frames();
+		assertEquals(2, frames.get(0).getInt());
+		int chunks = 0;
+		while (ChunkAssembler.isChunk(frames.get(1 + chunks))) {
+			chunks++;
+		}
+		assertEquals(chunkCount(large.length, ChannelPriorities.MIN_CHUNK_SIZE), chunks);
+		assertEquals(1, frames.get(1 + chunks).getInt());
+		assertEquals(2 + chunks, frames.size());
+	}
+
+	@Test
+	void sharedFramesAreSplitOnceForEveryQueue(){
+		ChannelPriorities channels = new ChannelPriorities(Map.of(1, 10), ChannelPriorities.MIN_CHUNK_SIZE);
+		RecordingChannel other = new RecordingChannel();
+		OutboundQueue first = new OutboundQueue(channel, manual, pool, null, e -> {});
+		OutboundQueue second = new OutboundQueue(other, manual, pool, null, e -> {});
+		first.setChannels(channels);
+		second.setChannels(channels);
+		byte[] large = new byte[1000];
+		Arrays.fill(large, (byte) 9);
+		SharedFrame frame = SharedFrame.of(ByteBuffer.wrap(large), pool);
+		first.send(frame);
+		second.send(frame);
+		frame.release();
+		runTasks();
+		List<ByteBuffer> frames = channel.frames();
+		assertEquals(frames, other.frames());
+		assertEquals(chunkCount(large.length, ChannelPriorities.MIN_CHUNK_SIZE), frames.size());
+		for (ByteBuffer chunk : frames) {
+			assertTrue(ChunkAssembler.isChunk(chunk));
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.notlord.lordnet;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PacketHandlersTest {
+	private final PacketHandlers<List<String>> handlers = new PacketHandlers<>();
+	private final List<String> calls = new ArrayList<>();
+
+	interface Shared {}
+
+	interface Movement extends Shared {}
+
+	interface Tracked {}
+
+	static class Base implements Tracked {}
+
+	static class Move extends Base implements Movement {}
+
+	static class Both extends Base implements Movement, Shared {}
+
+	private void record(Class<?> type, String name){
+		handlers.on(type, (calls, packet) -> calls.add(name));
+	}
+
+	@Test
+	void lookupOrderIsClassSuperclassesInterfacesBreadthFirstThenObject(){
+		assertEquals(List.of(Move.class, Base.class, Movement.class, Tracked.class, Shared.class, Object.class),
+				PacketHandlers.lookupOrder(Move.class));
+		// an interface reached twice is visited once, where it is first reached.
+		assertEquals(List.of(Both.class, Base.class, Movement.class, Shared.class, Tracked.class, Object.class),
+				PacketHandlers.lookupOrder(Both.class));
+		assertEquals(List.of(Object.class), PacketHandlers.lookupOrder(Object.class));
+	}
+
+	@Test
+	void handlersRunInLookupOrder(){
+		record(Object.class, "object");
+		record(Shared.class, "shared");
+		record(Tracked.class, "tracked");
+		record(Movement.class, "movement");
+		record(Base.class, "base");
+		record(Move.class, "move");
+		record(Move.class, "move again");
+		assertTrue(handlers.dispatch(calls, new Move()));
+		assertEquals(List.of("move", "move again", "base", "movement", "tracked", "shared", "object"), calls);
+	}
+
+	@Test
+	void packetWithoutHandlers(){
+		assertFalse(handlers.dispatch(calls, "text"));
+		record(Base.class, "base");
+		assertFalse(handlers.dispatch(calls, "text"));
+		assertTrue(calls.isEmpty());
+	}
+
+	@Test
+	void registeringAfterDispatchClearsTheCache(){
+		record(Base.class, "base");
+		assertTrue(handlers.dispatch(calls, new Move()));
+		assertFalse(handlers.dispatch(calls, "text"));
+		record(Movement.class, "movement");
+		record(String.class, "string");
+		assertTrue(handlers.dispatch(calls, new Move()));
+		assertTrue(handlers.dispatch(calls, "text"));
+		assertEquals(List.of("base", "base", "movement", "string"), calls);
+	}
+}
@@ -0,0 +1,146 @@
+package com.notlord.lordnet;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PendingRequestsTest {
+	private final PendingRequests requests = new PendingRequests();
+
+	private static RpcMessage response(int id, Object payload){
+		return new RpcMessage(PacketCodec.RESPONSE, id, payload);
+	}
+
+	private static Throwable failure(CompletableFuture<?> future){
+		return assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS)).getCause();
+	}
+
+	@Test
+	void responsesCompleteTheRequestOfTheirId() throws Exception {
+		PendingRequests.Pending<String> first = requests.open(String.class, null);
+		PendingRequests.Pending<String> second = requests.open(String.class, null);
+		assertNotEquals(first.id(), second.id());
+		assertEquals(2, requests.size());
+		// responses of pipelined requests may arrive in any order.
+		assertTrue(requests.complete(response(second.id(), "second")));
+		assertFalse(first.isDone());
+		assertTrue(requests.complete(response(first.id(), "first")));
+		assertEquals("first", first.get());
+		assertEquals("second", second.get());
+		assertEquals(0, requests.size());
+	}
+
+	@Test
+	void aResponseIsOnlyMatchedOnce(){
+		PendingRequests.Pending<String> request = requests.open(String.class, null);
+		assertTrue(requests.complete(response(request.id(), "once")));
+		assertFalse(requests.complete(response(request.id(), "twice")));
+		assertFalse(requests.complete(response(request.id() + 1, "unknown")));
+	}
+
+	@Test
+	void failuresCompleteWithARequestException(){
+		PendingRequests.Pending<String> request = requests.open(String.class, null);
+		requests.complete(new RpcMessage(PacketCodec.FAILURE, request.id(), "no handler"));
+		Throwable failure = failure(request);
+		assertInstanceOf(RequestException.class, failure);
+		assertEquals("no handler", failure.getMessage());
+	}
+
+	@Test
+	void aResponseOfAnotherTypeFails() throws Exception {
+		PendingRequests.Pending<String> request = requests.open(String.class, null);
+		requests.complete(response(request.id(), 5));
+		assertInstanceOf(ClassCastException.class, failure(request));
+		PendingRequests.Pending<String> empty = requests.open(String.class, null);
+		requests.complete(response(empty.id(), null));
+		assertNull(empty.get());
+	}
+
+	@Test
+	void requestsWithoutAResponseTimeOut(){
+		PendingRequests.Pending<String> request = requests.open(String.class, Duration.ofMillis(100));
+		assertInstanceOf(TimeoutException.class, failure(request));
+		assertEquals(0, requests.size());
+		assertFalse(requests.complete(response(request.id(), "late")), "a late response is dropped");
+	}
+
+	@Test
+	void aResponseCancelsTheTimeout() throws Exception {
+		PendingRequests.Pending<String> request = requests.open(String.class, Duration.ofMillis(100));
+		requests.complete(response(request.id(), "in time"));
+		Thread.sleep(400);
+		assertEquals("in time", request.get());
+	}
+
+	@Test
+	void failAllCompletesEveryPendingRequest(){
+		PendingRequests.Pending<String> first = requests.open(String.class, null);
+		PendingRequests.Pending<String> second = requests.open(String.class, Duration.ofMinutes(1));
+		IOException lost = new IOException("Connection lost");
+		requests.failAll(lost);
+		assertEquals(lost, failure(first));
+		assertEquals(lost, failure(second));
+		assertEquals(0, requests.size());
+	}
+
+	@Test
+	void requestsFailWhenTheServerCloses() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		Server server = new Server(port);
+		// the handler never answers, so the request only ends with the connection.
+		server.onRequest(String.class, (client, request) -> new CompletableFuture<String>());
+		server.start();
+		Client client = new Client("localhost", port);
+		try {
+			awaitListening(port);
+			client.start();
+			CompletableFuture<String> request = client.request("ping", String.class, null);
+			Thread.sleep(200);
+			assertFalse(request.isDone());
+			server.close();
+			assertInstanceOf(IOException.class, failure(request));
+		}
+		finally {
+			client.close();
+			server.close();
+		}
+	}
+
+	/**
+	 * waits for a started server to bind, servers start listening on their own thread.
+	 */
+	private static void awaitListening(int port) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (true) {
+			try (Socket ignored = new Socket("localhost", port)) {
+				return;
+			}
+			catch (ConnectException e) {
+				if(System.nanoTime() > deadline) {
+					throw e;
+				}
+				Thread.sleep(20);
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.notlord.lordnet;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ReplayBufferTest {
+	private static ByteBuffer body(int size, int value){
+		ByteBuffer body = ByteBuffer.allocate(size);
+		while (body.hasRemaining()) {
+			body.put((byte) value);
+		}
+		return body.flip();
+	}
+
+	@Test
+	void replaysTheFramesAfterWhatThePeerReceived(){
+		ReplayBuffer replay = new ReplayBuffer(1024);
+		for (int i = 0; i < 5; i++) {
+			replay.record(body(4, i));
+		}
+		List<byte[]> frames = replay.from(2);
+		assertEquals(3, frames.size());
+		assertArrayEquals(new byte[]{2, 2, 2, 2}, frames.get(0));
+		assertArrayEquals(new byte[]{4, 4, 4, 4}, frames.get(2));
+		// what the peer received is dropped.
+		assertEquals(2, replay.first());
+		assertEquals(5, replay.next());
+	}
+
+	@Test
+	void recordingKeepsThePosition(){
+		ReplayBuffer replay = new ReplayBuffer(1024);
+		ByteBuffer body = body(8, 1);
+		replay.record(body);
+		assertEquals(8, body.remaining());
+	}
+
+	@Test
+	void acknowledgedFramesAreDropped(){
+		ReplayBuffer replay = new ReplayBuffer(1024);
+		for (int i = 0; i < 4; i++) {
+			replay.record(body(4, i));
+		}
+		replay.acknowledge(3);
+		assertEquals(3, replay.first());
+		assertEquals(1, replay.from(3).size());
+		assertNull(replay.from(2), "acknowledged frames can not be replayed");
+	}
+
+	@Test
+	void dropsTheOldestFramesOnceFull(){
+		ReplayBuffer replay = new ReplayBuffer(10);
+		for (int i = 0; i < 4; i++) {
+			replay.record(body(4, i));
+		}
+		assertEquals(2, replay.first());
+		assertNull(replay.from(1), "dropped frames can not be replayed");
+		assertEquals(2, replay.from(2).size());
+	}
+
+	@Test
+	void aCountAheadOfWhatWasSentIsRefused(){
+		ReplayBuffer replay = new ReplayBuffer(1024);
+		replay.record(body(4, 0));
+		assertNull(replay.from(2));
+		assertEquals(0, replay.from(1).size());
+	}
+}
@@ -0,0 +1,110 @@
+package com.notlord.lordnet;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StripedExecutorTest {
+	@Test
+	void tasksOfAKeyRunInOrderUnderConcurrency() throws InterruptedException {
+		int keys = 16, tasks = 5000;
+		StripedExecutor executor = new StripedExecutor(4);
+		List<List<Integer>> runs = new ArrayList<>();
+		AtomicInteger[] running = new AtomicInteger[keys];
+		AtomicInteger overlaps = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(keys * tasks);
+		Thread[] producers = new Thread[keys];
+		for (int key = 0; key < keys; key++) {
+			List<Integer> run = new ArrayList<>();
+			runs.add(run);
+			running[key] = new AtomicInteger();
+			int k = key;
+			producers[key] = new Thread(() -> {
+				for (int i = 0; i < tasks; i++) {
+					int sequence = i;
+					executor.execute(k, () -> {
+						if(running[k].incrementAndGet() != 1) {
+							overlaps.incrementAndGet();
+						}
+						run.add(sequence);
+						running[k].decrementAndGet();
+						done.countDown();
+					});
+				}
+			});
+		}
+		for (Thread producer : producers) {
+			producer.start();
+		}
+		try {
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			assertEquals(0, overlaps.get());
+			for (List<Integer> run : runs) {
+				assertEquals(tasks, run.size());
+				for (int i = 0; i < tasks; i++) {
+					assertEquals(i, run.get(i));
+				}
+			}
+		}
+		finally {
+			executor.close();
+		}
+	}
+
+	@Test
+	void busyStripeIsRescheduledAfterMaxTasksPerRun(){
+		ArrayDeque<Runnable> pool = new ArrayDeque<>();
+		StripedExecutor executor = new StripedExecutor(pool::add, 1);
+		int tasks = StripedExecutor.MAX_TASKS_PER_RUN * 2 + 10;
+		AtomicInteger ran = new AtomicInteger();
+		for (int i = 0; i < tasks; i++) {
+			executor.execute(7, ran::incrementAndGet);
+		}
+		// the stripe is scheduled once however many tasks it holds.
+		assertEquals(1, pool.size());
+		pool.poll().run();
+		assertEquals(StripedExecutor.MAX_TASKS_PER_RUN, ran.get());
+		assertEquals(1, pool.size());
+		pool.poll().run();
+		assertEquals(StripedExecutor.MAX_TASKS_PER_RUN * 2, ran.get());
+		pool.poll().run();
+		assertEquals(tasks, ran.get());
+		assertTrue(pool.isEmpty());
+		// an idle stripe is scheduled again by its next task.
+		executor.execute(7, ran::incrementAndGet);
+		assertEquals(1, pool.size());
+	}
+
+	@Test
+	void aFailingTaskDoesNotStopTheStripe(){
+		ArrayDeque<Runnable> pool = new ArrayDeque<>();
+		StripedExecutor executor = new StripedExecutor(pool::add, 2);
+		List<Integer> ran = new ArrayList<>();
+		executor.execute(0, () -> ran.add(1));
+		executor.execute(0, () -> {
+			throw new IllegalStateException("expected by the test");
+		});
+		executor.execute(0, () -> ran.add(3));
+		while (!pool.isEmpty()) {
+			pool.poll().run();
+		}
+		assertEquals(List.of(1, 3), ran);
+		executor.execute(0, () -> ran.add(4));
+		pool.poll().run();
+		assertEquals(List.of(1, 3, 4), ran);
+	}
+
+	@Test
+	void invalidStripeCount(){
+		assertThrows(IllegalArgumentException.class, () -> new StripedExecutor(Runnable::run, 0));
+	}
+}
@@ -0,0 +1,119 @@
+package com.notlord.lordnet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest {
+	// a round of the wheel lasts 80 milliseconds.
+	private final TimerWheel wheel = new TimerWheel("TestWheel", Duration.ofMillis(10), 8);
+
+	@AfterEach
+	void close(){
+		wheel.close();
+	}
+
+	@Test
+	void firesOnceItsDelayPassed() throws InterruptedException {
+		CountDownLatch fired = new CountDownLatch(1);
+		AtomicLong elapsed = new AtomicLong();
+		long start = System.nanoTime();
+		wheel.schedule(() -> {
+			elapsed.set(System.nanoTime() - start);
+			fired.countDown();
+		}, 50, TimeUnit.MILLISECONDS);
+		assertTrue(fired.await(5, TimeUnit.SECONDS));
+		assertTrue(elapsed.get() >= TimeUnit.MILLISECONDS.toNanos(50), "fired after " + elapsed.get() + "ns");
+	}
+
+	@Test
+	void delaysLongerThanARoundWaitForTheirRound() throws InterruptedException {
+		CountDownLatch fired = new CountDownLatch(1);
+		AtomicLong elapsed = new AtomicLong();
+		long start = System.nanoTime();
+		wheel.schedule(() -> {
+			elapsed.set(System.nanoTime() - start);
+			fired.countDown();
+		}, 250, TimeUnit.MILLISECONDS);
+		assertTrue(fired.await(5, TimeUnit.SECONDS));
+		assertTrue(elapsed.get() >= TimeUnit.MILLISECONDS.toNanos(250), "fired after " + elapsed.get() + "ns");
+	}
+
+	@Test
+	void pastDeadlinesFireOnTheNextTick() throws InterruptedException {
+		CountDownLatch fired = new CountDownLatch(2);
+		wheel.schedule(fired::countDown, 0, TimeUnit.MILLISECONDS);
+		wheel.schedule(fired::countDown, -5, TimeUnit.SECONDS);
+		assertTrue(fired.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void cancelled() throws InterruptedException {
+		AtomicInteger runs = new AtomicInteger();
+		TimerWheel.Timeout timeout = wheel.schedule(runs::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+		assertTrue(timeout.cancel());
+		assertTrue(timeout.isCancelled());
+		assertFalse(timeout.cancel());
+		CountDownLatch later = new CountDownLatch(1);
+		wheel.schedule(later::countDown, 100, TimeUnit.MILLISECONDS);
+		assertTrue(later.await(5, TimeUnit.SECONDS));
+		assertEquals(0, runs.get());
+	}
+
+	@Test
+	void cancellingAFiredTimeoutFails() throws InterruptedException {
+		CountDownLatch fired = new CountDownLatch(1);
+		TimerWheel.Timeout timeout = wheel.schedule(fired::countDown, 10, TimeUnit.MILLISECONDS);
+		assertTrue(fired.await(5, TimeUnit.SECONDS));
+		assertFalse(timeout.cancel());
+		assertFalse(timeout.isCancelled());
+	}
+
+	@Test
+	void manyTimeoutsFireOnceEach() throws InterruptedException {
+		int count = 10_000;
+		AtomicInteger runs = new AtomicInteger();
+		CountDownLatch fired = new CountDownLatch(count / 2);
+		Random random = new Random(1);
+		for (int i = 0; i < count; i++) {
+			TimerWheel.Timeout timeout = wheel.schedule(() -> {
+				runs.incrementAndGet();
+				fired.countDown();
+			}, random.nextInt(300), TimeUnit.MILLISECONDS);
+			if(i % 2 == 1) {
+				timeout.cancel();
+			}
+		}
+		assertTrue(fired.await(5, TimeUnit.SECONDS));
+		// a tick and a round later anything left over would have fired.
+		Thread.sleep(100);
+		assertEquals(count / 2, runs.get());
+	}
+
+	@Test
+	void aFailingTaskDoesNotStopTheWheel() throws InterruptedException {
+		wheel.schedule(() -> {
+			throw new IllegalStateException("expected by the test");
+		}, 0, TimeUnit.MILLISECONDS);
+		CountDownLatch fired = new CountDownLatch(1);
+		wheel.schedule(fired::countDown, 20, TimeUnit.MILLISECONDS);
+		assertTrue(fired.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void invalidWheels(){
+		assertThrows(IllegalArgumentException.class, () -> new TimerWheel("Invalid", Duration.ZERO, 8));
+		assertThrows(IllegalArgumentException.class, () -> new TimerWheel("Invalid", Duration.ofMillis(10), 0));
+	}
+}
@@ -0,0 +1,77 @@
+package com.notlord.lordnet;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VarintTest {
+	private static final int[] VALUES = {0, 1, 127, 128, 300, 16383, 16384, 2097151, 2097152, 268435455, 268435456, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+
+	@Test
+	void sizes(){
+		assertEquals(1, Varint.size(0));
+		assertEquals(1, Varint.size(127));
+		assertEquals(2, Varint.size(128));
+		assertEquals(2, Varint.size(16383));
+		assertEquals(3, Varint.size(16384));
+		assertEquals(4, Varint.size(268435455));
+		assertEquals(5, Varint.size(268435456));
+		// negative values are written as unsigned, so they take the most bytes.
+		assertEquals(5, Varint.size(-1));
+	}
+
+	@Test
+	void roundTripsThroughBuffers(){
+		ByteBuffer buffer = ByteBuffer.allocate(VALUES.length * 5);
+		for (int value : VALUES) {
+			int start = buffer.position();
+			Varint.write(buffer, value);
+			assertEquals(Varint.size(value), buffer.position() - start, "size of " + value);
+		}
+		buffer.flip();
+		for (int value : VALUES) {
+			assertEquals(value, Varint.read(buffer));
+		}
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	void arraysMatchBuffers(){
+		for (int value : VALUES) {
+			byte[] bytes = new byte[5];
+			int end = Varint.write(bytes, 0, value);
+			ByteBuffer buffer = ByteBuffer.allocate(5);
+			Varint.write(buffer, value);
+			assertEquals(buffer.position(), end);
+			byte[] written = new byte[end];
+			buffer.flip().get(written);
+			assertArrayEquals(written, Arrays.copyOf(bytes, end));
+		}
+	}
+
+	@Test
+	void littleEndianGroupsOfSevenBits(){
+		byte[] bytes = new byte[2];
+		Varint.write(bytes, 0, 300);
+		assertArrayEquals(new byte[]{(byte) 0xAC, 0x02}, bytes);
+	}
+
+	@Test
+	void rejectsMoreThanFiveBytes(){
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01});
+		assertThrows(IllegalArgumentException.class, () -> Varint.read(buffer));
+	}
+
+	@Test
+	void truncated(){
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80});
+		assertThrows(BufferUnderflowException.class, () -> Varint.read(buffer));
+	}
+}
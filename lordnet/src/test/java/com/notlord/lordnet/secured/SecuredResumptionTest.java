@@ -0,0 +1,273 @@
+package com.notlord.lordnet.secured;
+
+import com.notlord.lordnet.BufferPool;
+import com.notlord.lordnet.IClientInstance;
+import com.notlord.lordnet.OutboundQueue;
+import com.notlord.lordnet.PacketCodec;
+import com.notlord.lordnet.Session;
+import com.notlord.lordnet.SessionResumption;
+import com.notlord.lordnet.listeners.ServerListener;
+import com.notlord.lordnet.metrics.TransportMetrics;
+import com.notlord.lordnet.serialization.GsonSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * resumes sessions of a secured server with a client speaking the protocol by hand, so tests choose what it sends.
+ */
+class SecuredResumptionTest {
+	private static final int MAX_FRAME_SIZE = BufferPool.DEFAULT_MAX_FRAME_SIZE;
+	private final int port;
+	private final SecuredServer server;
+	private final CountDownLatch connected = new CountDownLatch(1);
+	private final CountDownLatch received = new CountDownLatch(1);
+	private final AtomicInteger connects = new AtomicInteger();
+	private final AtomicInteger disconnects = new AtomicInteger();
+	private volatile IClientInstance instance;
+	private RawClient raw;
+
+	SecuredResumptionTest() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		server = new SecuredServer(port);
+		server.setSessionResumption(new SessionResumption(Duration.ofSeconds(30)));
+		server.setHandshakeTimeout(Duration.ofSeconds(1));
+		server.addListener(new ServerListener() {
+			@Override
+			public void clientConnect(IClientInstance client) {
+				instance = client;
+				connects.incrementAndGet();
+				connected.countDown();
+			}
+
+			@Override
+			public void clientReceive(IClientInstance client, Object o) {
+				received.countDown();
+			}
+
+			@Override
+			public void clientDisconnect(IClientInstance client) {
+				disconnects.incrementAndGet();
+			}
+
+			@Override
+			public void serverClose() {}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	void close() throws IOException {
+		if(raw != null) {
+			raw.close();
+		}
+		server.close();
+	}
+
+	/**
+	 * a connection of a client, on the client side.
+	 */
+	private static final class RawClient implements AutoCloseable {
+		private final TransportMetrics metrics = new TransportMetrics();
+		// taken before connecting, so generating it does not count against the handshake timeout.
+		private final KeyPair pair = KeyPairPool.shared().take();
+		private final SocketChannel channel;
+		private final DataOutputStream writer;
+		private final DataInputStream reader;
+		private final OutboundQueue outbound;
+		private SessionCipher cipher;
+		private PacketCodec codec;
+		private byte[] sessionKey;
+
+		private RawClient(int port) throws Exception {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			SocketChannel channel;
+			while (true) {
+				try {
+					channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+					break;
+				}
+				catch (ConnectException e) {
+					// the server starts listening on its own thread.
+					if(System.nanoTime() > deadline) {
+						throw e;
+					}
+					Thread.sleep(20);
+				}
+			}
+			this.channel = channel;
+			channel.socket().setSoTimeout(10_000);
+			writer = new DataOutputStream(channel.socket().getOutputStream());
+			reader = new DataInputStream(channel.socket().getInputStream());
+			outbound = new OutboundQueue(channel, Runnable::run, new BufferPool(MAX_FRAME_SIZE, false), null, e -> {});
+		}
+
+		private byte[] readBlock() throws IOException {
+			byte[] bytes = new byte[reader.readInt()];
+			reader.readFully(bytes);
+			return bytes;
+		}
+
+		/**
+		 * runs the full handshake, like {@link SecuredClient}, and says the client may resume.
+		 */
+		private void handshake() throws Exception {
+			byte[] key = pair.getPublic().getEncoded();
+			writer.writeInt(key.length);
+			writer.write(key);
+			writer.flush();
+			codec = PacketCodec.fromHandshake(readBlock(), new GsonSerializer());
+			PublicKey serverKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(readBlock()));
+			byte[] serverHalf = SecuredUtilities.decryptKeyHalf(pair.getPrivate(), readBlock());
+			byte[] clientHalf = SecuredUtilities.newKeyHalf();
+			byte[] encrypted = SecuredUtilities.encryptKeyHalf(serverKey, clientHalf);
+			writer.writeInt(encrypted.length);
+			writer.write(encrypted);
+			writer.flush();
+			sessionKey = SecuredUtilities.deriveSessionKey(serverHalf, clientHalf);
+			cipher = new SessionCipher(sessionKey, false, outbound, metrics);
+			cipher.send(Session.hello(true));
+		}
+
+		/**
+		 * asks to resume the session of the token with the key.
+		 * @return the server's answer, null if it does not have the session.
+		 */
+		private ByteBuffer resume(byte[] token, byte[] sessionKey, long received) throws Exception {
+			byte[] clientNonce = SecuredUtilities.newKeyHalf();
+			writer.writeInt(SecuredServer.RESUME_MARKER);
+			writer.write(token);
+			writer.write(clientNonce);
+			writer.flush();
+			int l = reader.readInt();
+			if(l == 0) {
+				return null;
+			}
+			byte[] serverNonce = new byte[l];
+			reader.readFully(serverNonce);
+			cipher = new SessionCipher(SecuredUtilities.deriveResumeKey(sessionKey, clientNonce, serverNonce), false, outbound, metrics);
+			cipher.send(Session.resume(token, received, 0));
+			return cipher.read(reader, MAX_FRAME_SIZE);
+		}
+
+		private Object receive() throws Exception {
+			return codec.decode(cipher.read(reader, MAX_FRAME_SIZE));
+		}
+
+		@Override
+		public void close() throws IOException {
+			outbound.close();
+			channel.close();
+		}
+	}
+
+	/**
+	 * connects a client, returns once the server handled its first packet, so the server knows it may resume.
+	 */
+	private RawClient connect() throws Exception {
+		RawClient client = new RawClient(port);
+		client.handshake();
+		assertTrue(connected.await(10, TimeUnit.SECONDS), "server did not see the client connect");
+		client.cipher.send(client.codec.encode("hi"));
+		assertTrue(received.await(10, TimeUnit.SECONDS), "server did not receive from the client");
+		return client;
+	}
+
+	/**
+	 * loses the connection of a client that received one packet, then sends two more while it is gone.
+	 */
+	private RawClient loseConnection() throws Exception {
+		RawClient lost = connect();
+		instance.send("one");
+		assertEquals("one", lost.receive());
+		lost.close();
+		instance.send("two");
+		instance.send("three");
+		return lost;
+	}
+
+	private RawClient resumeConnection(RawClient lost) throws Exception {
+		raw = new RawClient(port);
+		raw.codec = lost.codec;
+		ByteBuffer answer = raw.resume(lost.codec.getSessionToken(), lost.sessionKey, 1);
+		assertNotNull(answer, "server no longer has the session");
+		assertTrue(Session.isControl(answer));
+		assertEquals(Session.RESUMED, Session.readType(answer));
+		return raw;
+	}
+
+	@Test
+	void replaysWhatTheClientMissedAfterAReconnect() throws Exception {
+		RawClient lost = loseConnection();
+		RawClient resumed = resumeConnection(lost);
+		assertEquals("two", resumed.receive());
+		assertEquals("three", resumed.receive());
+		instance.send("four");
+		assertEquals("four", resumed.receive());
+		assertEquals(1, connects.get());
+		assertEquals(0, disconnects.get());
+	}
+
+	@Test
+	void anUnknownTokenGoesOnWithAFullHandshake() throws Exception {
+		raw = new RawClient(port);
+		byte[] token = new byte[Session.TOKEN_SIZE];
+		assertNull(raw.resume(token, SecuredUtilities.newKeyHalf(), 0));
+		raw.handshake();
+		assertTrue(connected.await(10, TimeUnit.SECONDS), "server did not see the client connect");
+		instance.send("new");
+		assertEquals("new", raw.receive());
+	}
+
+	@Test
+	void aResumeWithoutTheSessionKeyIsRejectedAndKeepsTheSession() throws Exception {
+		RawClient lost = loseConnection();
+		try (RawClient forged = new RawClient(port)) {
+			forged.codec = lost.codec;
+			// the token is right, but the proof is sealed with a key the client made up.
+			assertThrows(EOFException.class, () -> forged.resume(lost.codec.getSessionToken(), SecuredUtilities.newKeyHalf(), 3));
+		}
+		RawClient resumed = resumeConnection(lost);
+		assertEquals("two", resumed.receive());
+		assertEquals("three", resumed.receive());
+		assertEquals(0, disconnects.get());
+	}
+
+	@Test
+	void aClientSilentAfterAskingToResumeOnlyEndsItsOwnConnection() throws Exception {
+		try (RawClient silent = new RawClient(port)) {
+			silent.writer.writeInt(SecuredServer.RESUME_MARKER);
+			silent.writer.flush();
+			raw = connect();
+			instance.send("other");
+			assertEquals("other", raw.receive());
+			// the server ends the connection once the handshake timed out.
+			assertEquals(-1, silent.reader.read());
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.notlord.lordnet.secured;
+
+import com.notlord.lordnet.IClientInstance;
+import com.notlord.lordnet.listeners.ClientListener;
+import com.notlord.lordnet.listeners.ServerListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SecuredServerTest {
+	private final Events events = new Events();
+	private final int port;
+	private final SecuredServer server;
+	private SecuredClient client;
+
+	SecuredServerTest() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		server = new SecuredServer(port);
+		server.addListener(events);
+	}
+
+	@AfterEach
+	void close(){
+		if(client != null) {
+			client.close();
+		}
+		server.close();
+	}
+
+	/**
+	 * counts what the server tells its listeners.
+	 */
+	static final class Events implements ServerListener {
+		final CountDownLatch connected = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+
+		@Override
+		public void clientConnect(IClientInstance client) {
+			connected.countDown();
+		}
+
+		@Override
+		public void clientReceive(IClientInstance client, Object o) {}
+
+		@Override
+		public void clientDisconnect(IClientInstance client) {}
+
+		@Override
+		public void serverClose() {
+			closed.countDown();
+		}
+	}
+
+	/**
+	 * connects a raw socket, retrying while the server has not bound yet, it starts listening on its own thread.
+	 */
+	static Socket rawSocket(int port) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (true) {
+			try {
+				Socket socket = new Socket("localhost", port);
+				socket.setSoTimeout(10_000);
+				return socket;
+			}
+			catch (ConnectException e) {
+				if(System.nanoTime() > deadline) {
+					throw e;
+				}
+				Thread.sleep(20);
+			}
+		}
+	}
+
+	/**
+	 * starts a client, returns once it completed its handshake.
+	 * its key pair is generated before it connects, so generating it does not count against the handshake timeout.
+	 */
+	static SecuredClient connectClient(int port) throws InterruptedException {
+		KeyPairPool keys = new KeyPairPool(1, 0);
+		keys.prefill();
+		while (keys.available() == 0) {
+			Thread.sleep(10);
+		}
+		CountDownLatch connected = new CountDownLatch(1);
+		SecuredClient client = new SecuredClient("localhost", port);
+		client.setKeyPairPool(keys);
+		client.addListener(new ClientListener() {
+			@Override
+			public void connect() {
+				connected.countDown();
+			}
+
+			@Override
+			public void disconnect() {}
+
+			@Override
+			public void receive(Object o) {}
+		});
+		client.start();
+		assertTrue(connected.await(10, TimeUnit.SECONDS), "client did not connect");
+		return client;
+	}
+
+	private void assertStillAccepting() throws InterruptedException {
+		client = connectClient(port);
+		assertTrue(events.connected.await(10, TimeUnit.SECONDS), "server did not see the client connect");
+		assertTrue(server.isRunning());
+		assertEquals(1, events.closed.getCount(), "server closed");
+	}
+
+	@Test
+	void aClientClosingDuringTheKeyExchangeDoesNotStopAccepting() throws Exception {
+		server.start();
+		byte[] key = KeyPairPool.shared().take().getPublic().getEncoded();
+		try (Socket socket = rawSocket(port)) {
+			DataOutputStream writer = new DataOutputStream(socket.getOutputStream());
+			writer.writeInt(key.length);
+			writer.write(key);
+			writer.flush();
+		}
+		assertStillAccepting();
+	}
+
+	@Test
+	void aSilentClientDoesNotHoldUpOthersAndTimesOut() throws Exception {
+		server.setHandshakeTimeout(Duration.ofSeconds(1));
+		server.start();
+		try (Socket socket = rawSocket(port)) {
+			assertStillAccepting();
+			// the server ends the connection once the handshake timed out.
+			assertEquals(-1, socket.getInputStream().read());
+		}
+	}
+
+	@Test
+	void aPublicKeyOfAnInvalidLengthEndsOnlyItsConnection() throws Exception {
+		server.start();
+		try (Socket socket = rawSocket(port)) {
+			DataOutputStream writer = new DataOutputStream(socket.getOutputStream());
+			writer.writeInt(Integer.MAX_VALUE);
+			writer.flush();
+			assertEquals(-1, socket.getInputStream().read());
+		}
+		assertStillAccepting();
+	}
+}
@@ -0,0 +1,135 @@
+package com.notlord.lordnet.secured;
+
+import com.notlord.lordnet.BufferPool;
+import com.notlord.lordnet.OutboundQueue;
+import com.notlord.lordnet.metrics.TransportMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SessionCipherTest {
+	private final byte[] key = SecuredUtilities.newKeyHalf();
+	private final TransportMetrics metrics = new TransportMetrics();
+	private final BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_FRAME_SIZE, false);
+	private final Pipe pipe;
+	private final OutboundQueue outbound;
+	private final DataInputStream reader;
+
+	SessionCipherTest() throws IOException {
+		pipe = Pipe.open();
+		// sealed frames are written to the pipe on the sending thread, and read back from its other end.
+		outbound = new OutboundQueue(pipe.sink(), Runnable::run, pool, null, e -> {});
+		reader = new DataInputStream(Channels.newInputStream(pipe.source()));
+	}
+
+	@AfterEach
+	void closePipe() throws IOException {
+		outbound.close();
+		pipe.sink().close();
+		pipe.source().close();
+	}
+
+	private static ByteBuffer body(String text){
+		return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String text(ByteBuffer body){
+		return StandardCharsets.UTF_8.decode(body).toString();
+	}
+
+	/**
+	 * reads the next sealed frame as it was written.
+	 */
+	private ByteBuffer sealedFrame() throws IOException {
+		byte[] frame = new byte[reader.readInt()];
+		reader.readFully(frame);
+		return ByteBuffer.wrap(frame);
+	}
+
+	private static ByteBuffer open(SessionCipher cipher, ByteBuffer frame) throws GeneralSecurityException {
+		ByteBuffer out = ByteBuffer.allocate(frame.remaining() - SessionCipher.TAG_LENGTH);
+		cipher.open(frame, out);
+		return out.flip();
+	}
+
+	@Test
+	void opensWhatTheOtherSideSealed() throws Exception {
+		SessionCipher server = new SessionCipher(key, true, outbound, metrics);
+		SessionCipher client = new SessionCipher(key, false, null, metrics);
+		server.send(body("first"));
+		server.send(body(""));
+		server.send(body("third"));
+		assertEquals("first", text(client.read(reader, BufferPool.DEFAULT_MAX_FRAME_SIZE)));
+		assertEquals("", text(client.read(reader, BufferPool.DEFAULT_MAX_FRAME_SIZE)));
+		assertEquals("third", text(client.read(reader, BufferPool.DEFAULT_MAX_FRAME_SIZE)));
+	}
+
+	@Test
+	void sealedFramesHideTheirBody() throws Exception {
+		new SessionCipher(key, true, outbound, metrics).send(body("secret"));
+		ByteBuffer frame = sealedFrame();
+		assertEquals("secret".length() + SessionCipher.TAG_LENGTH, frame.remaining());
+		assertEquals(-1, text(frame).indexOf("secret"));
+	}
+
+	@Test
+	void rejectsAlteredFrames() throws Exception {
+		new SessionCipher(key, true, outbound, metrics).send(body("altered"));
+		ByteBuffer frame = sealedFrame();
+		frame.put(2, (byte) (frame.get(2) ^ 1));
+		SessionCipher client = new SessionCipher(key, false, null, metrics);
+		assertThrows(GeneralSecurityException.class, () -> open(client, frame));
+	}
+
+	@Test
+	void rejectsFramesOfAnotherKey() throws Exception {
+		new SessionCipher(key, true, outbound, metrics).send(body("other"));
+		SessionCipher client = new SessionCipher(SecuredUtilities.newKeyHalf(), false, null, metrics);
+		ByteBuffer frame = sealedFrame();
+		assertThrows(GeneralSecurityException.class, () -> open(client, frame));
+	}
+
+	@Test
+	void rejectsFramesOutOfOrder() throws Exception {
+		SessionCipher server = new SessionCipher(key, true, outbound, metrics);
+		server.send(body("first"));
+		server.send(body("second"));
+		sealedFrame();
+		ByteBuffer second = sealedFrame();
+		SessionCipher client = new SessionCipher(key, false, null, metrics);
+		assertThrows(GeneralSecurityException.class, () -> open(client, second));
+	}
+
+	@Test
+	void directionsNeverShareNonces() throws Exception {
+		// both sides start counting at zero under the same key, so only the direction keeps their nonces apart.
+		new SessionCipher(key, true, outbound, metrics).send(body("to client"));
+		ByteBuffer fromServer = sealedFrame();
+		new SessionCipher(key, false, outbound, metrics).send(body("to client"));
+		ByteBuffer fromClient = sealedFrame();
+		assertNotEquals(fromServer, fromClient);
+		assertThrows(GeneralSecurityException.class, () -> open(new SessionCipher(key, true, null, metrics), fromServer.duplicate()));
+		assertThrows(GeneralSecurityException.class, () -> open(new SessionCipher(key, false, null, metrics), fromClient.duplicate()));
+		assertEquals("to client", text(open(new SessionCipher(key, false, null, metrics), fromServer)));
+	}
+
+	@Test
+	void readRejectsFramesShorterThanATagOrLongerThanTheMax() throws Exception {
+		SessionCipher client = new SessionCipher(key, false, null, metrics);
+		pipe.sink().write(ByteBuffer.allocate(Integer.BYTES).putInt(SessionCipher.TAG_LENGTH - 1).flip());
+		assertThrows(IOException.class, () -> client.read(reader, BufferPool.DEFAULT_MAX_FRAME_SIZE));
+		pipe.sink().write(ByteBuffer.allocate(Integer.BYTES).putInt(1025).flip());
+		assertThrows(IOException.class, () -> client.read(reader, 1024));
+	}
+}
@@ -0,0 +1,194 @@
+package com.notlord.lordnet.serialization;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinarySerializerTest {
+	private final BinarySerializer serializer = new BinarySerializer();
+
+	enum Color { RED, GREEN, BLUE }
+
+	static class Base {
+		int baseValue;
+	}
+
+	static class Sample extends Base {
+		boolean flag;
+		byte b;
+		short s;
+		char c;
+		int i;
+		long l;
+		float f;
+		double d;
+		Integer boxed;
+		Long missing;
+		String text;
+		String nothing;
+		Color color;
+		int[] ints;
+		byte[] bytes;
+		String[] names;
+		List<String> list;
+		Set<Integer> set;
+		Map<String, List<Integer>> map;
+		Sample child;
+		transient int skipped;
+	}
+
+	static class Wrapper {
+		List<Integer> values;
+	}
+
+	static class Tinted {
+		Color color;
+	}
+
+	static class Named {
+		String name;
+	}
+
+	static class Untyped {
+		Object value;
+	}
+
+	private static Sample sample(){
+		Sample sample = new Sample();
+		sample.baseValue = 7;
+		sample.flag = true;
+		sample.b = -3;
+		sample.s = Short.MIN_VALUE;
+		sample.c = 'é';
+		sample.i = Integer.MAX_VALUE;
+		sample.l = Long.MIN_VALUE;
+		sample.f = 1.5f;
+		sample.d = -0.25;
+		sample.boxed = 42;
+		sample.text = "héllo 🚀";
+		sample.color = Color.BLUE;
+		sample.ints = new int[]{1, -2, 3};
+		sample.bytes = new byte[]{9, 8, 7};
+		sample.names = new String[]{"a", null, ""};
+		sample.list = new ArrayList<>(List.of("x", "y"));
+		sample.set = new LinkedHashSet<>(List.of(3, 1, 2));
+		sample.map = new LinkedHashMap<>();
+		sample.map.put("one", List.of(1));
+		sample.map.put("none", null);
+		sample.child = new Sample();
+		sample.child.text = "child";
+		sample.skipped = 99;
+		return sample;
+	}
+
+	private ByteBuffer serialize(Object o){
+		ByteBuffer out = ByteBuffer.allocate(4096);
+		serializer.serialize(o, out);
+		return out.flip();
+	}
+
+	@Test
+	void roundTrip(){
+		Sample read = serializer.deserialize(serialize(sample()), Sample.class);
+		assertEquals(7, read.baseValue);
+		assertEquals(true, read.flag);
+		assertEquals(-3, read.b);
+		assertEquals(Short.MIN_VALUE, read.s);
+		assertEquals('é', read.c);
+		assertEquals(Integer.MAX_VALUE, read.i);
+		assertEquals(Long.MIN_VALUE, read.l);
+		assertEquals(1.5f, read.f);
+		assertEquals(-0.25, read.d);
+		assertEquals(42, read.boxed);
+		assertNull(read.missing);
+		assertEquals("héllo 🚀", read.text);
+		assertNull(read.nothing);
+		assertEquals(Color.BLUE, read.color);
+		assertArrayEquals(new int[]{1, -2, 3}, read.ints);
+		assertArrayEquals(new byte[]{9, 8, 7}, read.bytes);
+		assertArrayEquals(new String[]{"a", null, ""}, read.names);
+		assertEquals(List.of("x", "y"), read.list);
+		assertEquals(List.of(3, 1, 2), new ArrayList<>(read.set));
+		assertEquals(List.of(1), read.map.get("one"));
+		assertEquals(true, read.map.containsKey("none"));
+		assertNull(read.map.get("none"));
+		assertEquals("child", read.child.text);
+		assertNull(read.child.child);
+		assertEquals(0, read.skipped);
+	}
+
+	@Test
+	void emptyObject(){
+		Sample read = serializer.deserialize(serialize(new Sample()), Sample.class);
+		assertNull(read.text);
+		assertNull(read.list);
+		assertNull(read.child);
+	}
+
+	@Test
+	void readsFromThePositionOfDirectBuffers(){
+		ByteBuffer heap = serialize(sample());
+		ByteBuffer direct = ByteBuffer.allocateDirect(heap.remaining() + 3);
+		direct.position(3);
+		direct.put(heap).position(3);
+		assertEquals("héllo 🚀", serializer.deserialize(direct, Sample.class).text);
+	}
+
+	@Test
+	void everyTruncationIsMalformed(){
+		ByteBuffer bytes = serialize(sample());
+		for (int length = 0; length < bytes.limit(); length++) {
+			ByteBuffer truncated = bytes.duplicate().limit(length);
+			assertThrows(MalformedPacketException.class, () -> serializer.deserialize(truncated, Sample.class), "truncated to " + length);
+		}
+	}
+
+	@Test
+	void lengthsBeyondTheFrameAreRejectedBeforeAllocating(){
+		// a list of Integer.MAX_VALUE - 1 elements in a frame of 6 bytes.
+		ByteBuffer list = ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0});
+		assertThrows(MalformedPacketException.class, () -> serializer.deserialize(list, Wrapper.class));
+		ByteBuffer string = ByteBuffer.wrap(new byte[]{(byte) 0xFF, 0x01, 'a'});
+		assertThrows(MalformedPacketException.class, () -> serializer.deserialize(string, Named.class));
+	}
+
+	@Test
+	void malformedSizes(){
+		ByteBuffer varint = ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01});
+		assertThrows(MalformedPacketException.class, () -> serializer.deserialize(varint, Wrapper.class));
+		// a size + 1 that wraps around to a negative size.
+		ByteBuffer negative = ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+		assertThrows(MalformedPacketException.class, () -> serializer.deserialize(negative, Wrapper.class));
+	}
+
+	@Test
+	void enumOrdinalOutOfRange(){
+		// ordinal 3 + 1, Color has 3 constants.
+		ByteBuffer ordinal = ByteBuffer.wrap(new byte[]{4});
+		assertThrows(MalformedPacketException.class, () -> serializer.deserialize(ordinal, Tinted.class));
+		assertEquals(Color.GREEN, serializer.deserialize(ByteBuffer.wrap(new byte[]{2}), Tinted.class).color);
+	}
+
+	@Test
+	void bufferTooSmall(){
+		ByteBuffer out = ByteBuffer.allocate(8);
+		assertThrows(BufferOverflowException.class, () -> serializer.serialize(sample(), out));
+	}
+
+	@Test
+	void unsupportedFieldType(){
+		assertThrows(IllegalArgumentException.class, () -> serialize(new Untyped()));
+	}
+}
@@ -0,0 +1,82 @@
+package com.notlord.lordnet.serialization;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ByteBufferReaderTest {
+	private static final String TEXT = "plain ascii, café, € 100, 漢字, 🚀 🎉";
+
+	private static String read(ByteBuffer buffer, int start, int end, int chunk){
+		ByteBufferReader reader = new ByteBufferReader(buffer, start, end);
+		StringBuilder text = new StringBuilder();
+		char[] chars = new char[chunk];
+		int n;
+		while ((n = reader.read(chars, 0, chars.length)) != -1) {
+			text.append(chars, 0, n);
+		}
+		return text.toString();
+	}
+
+	private static String read(byte[] bytes){
+		return read(ByteBuffer.wrap(bytes), 0, bytes.length, 64);
+	}
+
+	@Test
+	void decodesLikeStringDoes(){
+		byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+		assertEquals(TEXT, read(bytes));
+	}
+
+	@Test
+	void splitsSurrogatePairsAcrossReads(){
+		byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+		// a single char per read leaves the low surrogate of every pair for the next read.
+		assertEquals(TEXT, read(ByteBuffer.wrap(bytes), 0, bytes.length, 1));
+		assertEquals(TEXT, read(ByteBuffer.wrap(bytes), 0, bytes.length, 3));
+	}
+
+	@Test
+	void readsOnlyTheSliceAndKeepsThePosition(){
+		byte[] text = "été".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(text.length + 4);
+		buffer.put((byte) 'x').put((byte) 'y').put(text).put((byte) 'z').put((byte) 'w').position(1);
+		assertEquals("été", read(buffer, 2, 2 + text.length, 64));
+		assertEquals(1, buffer.position());
+	}
+
+	@Test
+	void directBuffers(){
+		byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+		assertEquals(TEXT, read(buffer, 0, bytes.length, 5));
+	}
+
+	@Test
+	void endOfInput(){
+		ByteBufferReader reader = new ByteBufferReader(ByteBuffer.allocate(4), 2, 2);
+		assertEquals(-1, reader.read(new char[4], 0, 4));
+		assertEquals(0, reader.read(new char[4], 0, 0));
+	}
+
+	@Test
+	void replacesMalformedInput(){
+		// a continuation byte without a lead byte.
+		assertEquals("a�b", read(new byte[]{'a', (byte) 0x80, 'b'}));
+		// a lead byte followed by a byte that does not continue it, which is decoded on its own.
+		assertEquals("�A", read(new byte[]{(byte) 0xE2, 'A'}));
+		// a sequence cut short by the end of the slice.
+		assertEquals("a�", read(new byte[]{'a', (byte) 0xE2, (byte) 0x82}));
+		// an overlong encoding of '/'.
+		assertEquals("�", read(new byte[]{(byte) 0xC0, (byte) 0xAF}));
+		// an encoded surrogate.
+		assertEquals("�", read(new byte[]{(byte) 0xED, (byte) 0xA0, (byte) 0x80}));
+		// a code point above U+10FFFF.
+		assertEquals("�", read(new byte[]{(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80}));
+		// a byte that never starts a sequence.
+		assertEquals("�!", read(new byte[]{(byte) 0xFF, '!'}));
+	}
+}
@@ -0,0 +1,184 @@
+package com.notlord.lordnet.state;
+
+import com.notlord.lordnet.IClientInstance;
+import com.notlord.lordnet.Server;
+import com.notlord.lordnet.metrics.ConnectionMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ReplicatedTest {
+	private final StateServer server = new StateServer(new Server(0));
+
+	static class Position {
+		int x;
+		int y;
+	}
+
+	/**
+	 * a client that keeps the deltas sent to it.
+	 */
+	private record Viewer(int id, List<StateDelta> deltas) implements IClientInstance {
+		private Viewer(int id) {
+			this(id, new ArrayList<>());
+		}
+
+		StateDelta last(){
+			return deltas.get(deltas.size() - 1);
+		}
+
+		@Override
+		public void close(){}
+
+		@Override
+		public void send(Object o){
+			deltas.add((StateDelta) o);
+		}
+
+		@Override
+		public void send(Object o, int channel){
+			send(o);
+		}
+
+		@Override
+		public CompletableFuture<Void> sendAsync(Object o){
+			send(o);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public CompletableFuture<Void> sendAsync(Object o, int channel){
+			return sendAsync(o);
+		}
+
+		@Override
+		public CompletableFuture<Void> sendStream(InputStream in, Object metadata){
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public CompletableFuture<Void> sendStream(Path file, Object metadata){
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public int getID(){
+			return id;
+		}
+
+		@Override
+		public ConnectionMetrics getMetrics(){
+			return null;
+		}
+	}
+
+	@Test
+	void firstUpdateSendsTheWholeObject(){
+		Position position = new Position();
+		Replicated<Position> replicated = server.register(position);
+		Viewer viewer = new Viewer(1);
+		replicated.addClient(viewer);
+		replicated.update();
+		StateDelta delta = viewer.last();
+		assertEquals(1, delta.getVersion());
+		assertEquals(0, delta.getBaseline());
+		assertEquals(Position.class.getName(), delta.getType());
+		assertEquals(2, Snapshot.apply(null, 1, 2, delta.getData()).fields.length);
+		// an unchanged object is not sent again.
+		replicated.update();
+		assertEquals(1, viewer.deltas().size());
+	}
+
+	@Test
+	void deltaIsAgainstTheAcknowledgedVersion(){
+		Position position = new Position();
+		Replicated<Position> replicated = server.register(position);
+		Viewer viewer = new Viewer(1);
+		replicated.addClient(viewer);
+		replicated.update();
+		position.x = 5;
+		replicated.update();
+		// nothing acknowledged yet, so the whole object is sent again.
+		assertEquals(0, viewer.last().getBaseline());
+		replicated.acknowledged(viewer, 2);
+		position.y = 7;
+		replicated.update();
+		StateDelta delta = viewer.last();
+		assertEquals(3, delta.getVersion());
+		assertEquals(2, delta.getBaseline());
+		assertNull(delta.getType());
+		// only y, the second field, changed.
+		assertArrayEquals(new byte[]{1, 4, 0, 0, 0, 7}, delta.getData());
+	}
+
+	@Test
+	void viewersWithTheSameBaselineShareTheDelta(){
+		Position position = new Position();
+		Replicated<Position> replicated = server.register(position);
+		Viewer first = new Viewer(1), second = new Viewer(2), late = new Viewer(3);
+		replicated.addClient(first);
+		replicated.addClient(second);
+		replicated.update();
+		replicated.acknowledged(first, 1);
+		replicated.acknowledged(second, 1);
+		replicated.addClient(late);
+		position.x = 1;
+		replicated.update();
+		assertSame(first.last(), second.last());
+		assertEquals(1, first.last().getBaseline());
+		assertEquals(0, late.last().getBaseline());
+	}
+
+	@Test
+	void baselineOlderThanTheHistoryGetsTheWholeObject(){
+		Position position = new Position();
+		Replicated<Position> replicated = server.register(position);
+		Viewer viewer = new Viewer(1);
+		replicated.addClient(viewer);
+		replicated.update();
+		replicated.acknowledged(viewer, 1);
+		// the last version whose history slot does not overwrite the baseline.
+		for (int version = 2; version <= StateServer.HISTORY; version++) {
+			position.x = version;
+			replicated.update();
+		}
+		assertEquals(StateServer.HISTORY, viewer.last().getVersion());
+		assertEquals(1, viewer.last().getBaseline());
+		// the history wraps onto the baseline's slot.
+		position.x = -1;
+		replicated.update();
+		StateDelta delta = viewer.last();
+		assertEquals(StateServer.HISTORY + 1, delta.getVersion());
+		assertEquals(0, delta.getBaseline());
+		assertEquals(Position.class.getName(), delta.getType());
+		assertEquals(2, Snapshot.apply(null, delta.getVersion(), 2, delta.getData()).fields.length);
+	}
+
+	@Test
+	void staleAcknowledgementsAreIgnored(){
+		Position position = new Position();
+		Replicated<Position> replicated = server.register(position);
+		Viewer viewer = new Viewer(1);
+		replicated.addClient(viewer);
+		replicated.update();
+		position.x = 1;
+		replicated.update();
+		replicated.acknowledged(viewer, 2);
+		// a lower ack is from a resent delta, a higher one was never sent.
+		replicated.acknowledged(viewer, 1);
+		replicated.acknowledged(viewer, 9);
+		position.x = 2;
+		replicated.update();
+		assertEquals(2, viewer.last().getBaseline());
+		assertEquals(3, viewer.deltas().size());
+	}
+}
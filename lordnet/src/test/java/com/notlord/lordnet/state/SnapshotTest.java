@@ -0,0 +1,52 @@
+package com.notlord.lordnet.state;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SnapshotTest {
+	private static final byte[] A = {1}, B = {2, 2}, C = {3, 3, 3};
+
+	@Test
+	void deltaWithoutBaselineHoldsEveryField(){
+		Snapshot snapshot = new Snapshot(1, new byte[][]{A, B, C});
+		byte[] delta = snapshot.delta(null);
+		assertArrayEquals(new byte[]{0, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3}, delta);
+		Snapshot applied = Snapshot.apply(null, 1, 3, delta);
+		assertEquals(1, applied.version);
+		assertArrayEquals(snapshot.fields, applied.fields);
+	}
+
+	@Test
+	void deltaHoldsOnlyChangedFields(){
+		Snapshot baseline = new Snapshot(1, new byte[][]{A, B, C});
+		Snapshot snapshot = new Snapshot(2, new byte[][]{A, C, C});
+		byte[] delta = snapshot.delta(baseline);
+		assertArrayEquals(new byte[]{1, 3, 3, 3, 3}, delta);
+		Snapshot applied = Snapshot.apply(baseline, 2, 3, delta);
+		assertArrayEquals(snapshot.fields, applied.fields);
+		// unchanged fields share the bytes of the baseline.
+		assertSame(A, applied.fields[0]);
+	}
+
+	@Test
+	void emptyDeltaKeepsTheBaseline(){
+		Snapshot baseline = new Snapshot(1, new byte[][]{A, B});
+		assertEquals(0, new Snapshot(2, new byte[][]{A, B}).delta(baseline).length);
+		assertArrayEquals(baseline.fields, Snapshot.apply(baseline, 2, 2, new byte[0]).fields);
+	}
+
+	@Test
+	void malformedDeltaIsRejected(){
+		Snapshot baseline = new Snapshot(1, new byte[][]{A, B});
+		// field out of range.
+		assertThrows(IllegalArgumentException.class, () -> Snapshot.apply(baseline, 2, 2, new byte[]{2, 1, 0}));
+		// length beyond the delta.
+		assertThrows(IllegalArgumentException.class, () -> Snapshot.apply(baseline, 2, 2, new byte[]{0, 5, 0}));
+		// a full snapshot must set every field.
+		assertThrows(IllegalArgumentException.class, () -> Snapshot.apply(null, 1, 2, new byte[]{0, 1, 1}));
+	}
+}
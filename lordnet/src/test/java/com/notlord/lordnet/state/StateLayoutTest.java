@@ -0,0 +1,126 @@
+package com.notlord.lordnet.state;
+
+import com.notlord.lordnet.serialization.GsonSerializer;
+import com.notlord.lordnet.serialization.MalformedPacketException;
+import com.notlord.lordnet.serialization.PacketSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StateLayoutTest {
+	private final PacketSerializer serializer = new GsonSerializer();
+
+	enum Team { RED, BLUE }
+
+	static class Base {
+		int z;
+		int a;
+	}
+
+	static class Player extends Base {
+		static int created;
+		transient int cached;
+		boolean alive;
+		long score;
+		double speed;
+		Integer boxed;
+		Long missing;
+		String name;
+		Team team;
+		Team none;
+		int[] items;
+	}
+
+	private static StateLayout layout(){
+		return new StateLayout(Player.class);
+	}
+
+	private static int field(StateLayout layout, String name){
+		for (int i = 0; i < layout.size(); i++) {
+			if(layout.name(i).equals(name)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException(name);
+	}
+
+	private byte[] write(StateLayout layout, Object owner, String name){
+		ByteBuffer out = ByteBuffer.allocate(256);
+		layout.write(owner, field(layout, name), out, serializer);
+		return Arrays.copyOf(out.array(), out.position());
+	}
+
+	@Test
+	void fieldsAreOrderedByNameFromTheTopSuperclass(){
+		StateLayout layout = layout();
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < layout.size(); i++) {
+			names.add(layout.name(i));
+		}
+		// static and transient fields are not replicated.
+		assertEquals(List.of("a", "z", "alive", "boxed", "items", "missing", "name", "none", "score", "speed", "team"), names);
+	}
+
+	@Test
+	void everyFieldReadsBack(){
+		StateLayout layout = layout();
+		Player player = new Player();
+		player.z = 3;
+		player.a = -1;
+		player.alive = true;
+		player.score = Long.MAX_VALUE;
+		player.speed = 2.5;
+		player.boxed = 42;
+		player.name = "lörd";
+		player.team = Team.BLUE;
+		player.items = new int[]{4, 5};
+		Player copy = (Player) layout.newInstance();
+		for (int i = 0; i < layout.size(); i++) {
+			layout.read(copy, i, write(layout, player, layout.name(i)), serializer);
+		}
+		assertEquals(3, copy.z);
+		assertEquals(-1, copy.a);
+		assertEquals(true, copy.alive);
+		assertEquals(Long.MAX_VALUE, copy.score);
+		assertEquals(2.5, copy.speed);
+		assertEquals(42, copy.boxed);
+		assertNull(copy.missing);
+		assertEquals("lörd", copy.name);
+		assertEquals(Team.BLUE, copy.team);
+		assertNull(copy.none);
+		assertArrayEquals(new int[]{4, 5}, copy.items);
+	}
+
+	@Test
+	void boxesAndEnumsAreWrittenCompactly(){
+		StateLayout layout = layout();
+		Player player = new Player();
+		player.boxed = 258;
+		player.team = Team.BLUE;
+		// a presence byte, then the primitive or the ordinal.
+		assertArrayEquals(new byte[]{1, 0, 0, 1, 2}, write(layout, player, "boxed"));
+		assertArrayEquals(new byte[]{0}, write(layout, player, "missing"));
+		assertArrayEquals(new byte[]{1, 1}, write(layout, player, "team"));
+		assertArrayEquals(new byte[]{0}, write(layout, player, "none"));
+	}
+
+	@Test
+	void enumOrdinalOutOfRangeIsMalformed(){
+		StateLayout layout = layout();
+		int team = field(layout, "team");
+		Player player = new Player();
+		assertThrows(MalformedPacketException.class, () -> layout.read(player, team, new byte[]{1, 2}, serializer));
+		// a five byte varint reads as a negative ordinal.
+		byte[] negative = {1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+		assertThrows(MalformedPacketException.class, () -> layout.read(player, team, negative, serializer));
+		assertNull(player.team);
+	}
+}
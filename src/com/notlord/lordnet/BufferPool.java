@@ -0,0 +1,109 @@
+package com.notlord.lordnet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * pool of reusable buffers, split into power of two size classes.
+ * the largest class is the max frame size, so the pool never holds buffers larger than a frame,
+ * and every class only keeps a bounded amount of free buffers.
+ */
+public final class BufferPool {
+	/**
+	 * default max frame size, 16 MiB.
+	 */
+	public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+	private static final int MIN_CLASS_SHIFT = 8;
+	private static final int RETAINED_BYTES_PER_CLASS = 4 * 1024 * 1024;
+	private static final int MAX_RETAINED_PER_CLASS = 256;
+	private final int maxFrameSize;
+	private final boolean direct;
+	private final ArrayDeque<ByteBuffer>[] classes;
+	private final int[] retained;
+
+	/**
+	 * creates a pool.
+	 * @param maxFrameSize largest buffer that can be acquired.
+	 * @param direct if the pool should hold direct buffers instead of heap buffers.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public BufferPool(int maxFrameSize, boolean direct) {
+		if(maxFrameSize <= 0) {
+			throw new IllegalArgumentException("Max frame size must be positive: " + maxFrameSize);
+		}
+		this.maxFrameSize = maxFrameSize;
+		this.direct = direct;
+		int count = Math.max(0, classIndex(maxFrameSize)) + 1;
+		classes = new ArrayDeque[count];
+		retained = new int[count];
+		for (int i = 0; i < count; i++) {
+			int size = 1 << (i + MIN_CLASS_SHIFT);
+			retained[i] = Math.max(2, Math.min(MAX_RETAINED_PER_CLASS, RETAINED_BYTES_PER_CLASS / size));
+			classes[i] = new ArrayDeque<>(retained[i]);
+		}
+	}
+
+	/**
+	 * returns the max frame size of the pool.
+	 */
+	public int getMaxFrameSize(){
+		return maxFrameSize;
+	}
+
+	/**
+	 * returns if the pool holds direct buffers.
+	 */
+	public boolean isDirect(){
+		return direct;
+	}
+
+	/**
+	 * acquires a buffer with position 0 and limit of size, return it using {@link #release(ByteBuffer)}.
+	 * @throws IllegalArgumentException if size is larger than the max frame size.
+	 */
+	public ByteBuffer acquire(int size){
+		if(size > maxFrameSize || size < 0) {
+			throw new IllegalArgumentException("Frame of " + size + " bytes exceeds max frame size of " + maxFrameSize);
+		}
+		int index = classIndex(size);
+		ByteBuffer buffer;
+		ArrayDeque<ByteBuffer> free = classes[index];
+		synchronized (free) {
+			buffer = free.pollLast();
+		}
+		if(buffer == null) {
+			int capacity = 1 << (index + MIN_CLASS_SHIFT);
+			buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		}
+		buffer.limit(size);
+		return buffer;
+	}
+
+	/**
+	 * returns a buffer to the pool, the buffer must not be used after.
+	 */
+	public void release(ByteBuffer buffer){
+		int capacity = buffer.capacity();
+		if(buffer.isDirect() != direct || Integer.bitCount(capacity) != 1) {
+			return;
+		}
+		int index = classIndex(capacity);
+		if(index >= classes.length || 1 << (index + MIN_CLASS_SHIFT) != capacity) {
+			return;
+		}
+		buffer.clear();
+		ArrayDeque<ByteBuffer> free = classes[index];
+		synchronized (free) {
+			if(free.size() < retained[index]) {
+				free.addLast(buffer);
+			}
+		}
+	}
+
+	private static int classIndex(int size){
+		if(size <= 1 << MIN_CLASS_SHIFT) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+	}
+}
@@ -0,0 +1,49 @@
+package com.notlord.lordnet;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * listeners of packets received on a channel.
+ * @param <C> what listeners get along with the packet, such as the client instance that sent it.
+ */
+public final class ChannelListeners<C> {
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final CopyOnWriteArrayList<BiConsumer<? super C, Object>>[] listeners = new CopyOnWriteArrayList[ChannelPriorities.MAX_CHANNELS];
+	private volatile boolean empty = true;
+
+	/**
+	 * adds a listener of packets received on the channel.
+	 * @throws IllegalArgumentException if the channel is out of range.
+	 */
+	public synchronized void on(int channel, BiConsumer<? super C, Object> listener){
+		ChannelPriorities.checkChannel(channel);
+		if(listeners[channel] == null) {
+			listeners[channel] = new CopyOnWriteArrayList<>();
+		}
+		listeners[channel].add(listener);
+		empty = false;
+	}
+
+	/**
+	 * returns if no listener is registered.
+	 */
+	public boolean isEmpty(){
+		return empty;
+	}
+
+	/**
+	 * passes the packet to the listeners of its channel.
+	 * @return false if the channel has no listeners.
+	 */
+	public boolean dispatch(C context, ChannelPacket packet){
+		CopyOnWriteArrayList<BiConsumer<? super C, Object>> list = listeners[packet.getChannel()];
+		if(list == null || list.isEmpty()) {
+			return false;
+		}
+		for (BiConsumer<? super C, Object> listener : list) {
+			listener.accept(context, packet.getPacket());
+		}
+		return true;
+	}
+}
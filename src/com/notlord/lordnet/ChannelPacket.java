@@ -0,0 +1,22 @@
+package com.notlord.lordnet;
+
+/**
+ * a packet received on a channel other than the default channel, decoded by {@link PacketCodec}.
+ */
+public final class ChannelPacket {
+	private final int channel;
+	private final Object packet;
+
+	ChannelPacket(int channel, Object packet) {
+		this.channel = channel;
+		this.packet = packet;
+	}
+
+	public int getChannel(){
+		return channel;
+	}
+
+	public Object getPacket(){
+		return packet;
+	}
+}
@@ -0,0 +1,90 @@
+package com.notlord.lordnet;
+
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * priorities of the logical channels multiplexed over a connection, and the size frames are split into.
+ * <br>
+ * every distinct priority is a lane of the outbound queue, the writer always takes frames of the highest lane first.
+ * frames larger than the chunk size are split into chunks, so a large frame of a low lane
+ * holds back a higher lane for at most one chunk.
+ */
+public final class ChannelPriorities {
+	/**
+	 * channels are numbered from 0 to this, exclusive. channel 0 is the default channel.
+	 */
+	public static final int MAX_CHANNELS = 256;
+	/**
+	 * default size of chunks, length prefix and chunk header included.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+	/**
+	 * smallest allowed chunk size.
+	 */
+	public static final int MIN_CHUNK_SIZE = 256;
+	/**
+	 * a single lane, frames are written in the order they are sent and never split.
+	 */
+	public static final ChannelPriorities NONE = new ChannelPriorities(Map.of(), DEFAULT_CHUNK_SIZE);
+	private final byte[] lanes = new byte[MAX_CHANNELS];
+	private final int laneCount;
+	private final int chunkSize;
+
+	/**
+	 * @param priorities priority by channel, a higher priority is sent first, channels not in the map have priority 0.
+	 * @param chunkSize frames larger than this are split into chunks, at least {@link #MIN_CHUNK_SIZE}.
+	 * @throws IllegalArgumentException if a channel is out of range or the chunk size is too small.
+	 */
+	public ChannelPriorities(Map<Integer, Integer> priorities, int chunkSize) {
+		if(chunkSize < MIN_CHUNK_SIZE) {
+			throw new IllegalArgumentException("Chunk size " + chunkSize + " is below " + MIN_CHUNK_SIZE);
+		}
+		TreeSet<Integer> distinct = new TreeSet<>(priorities.values());
+		if(priorities.size() < MAX_CHANNELS) {
+			distinct.add(0);
+		}
+		for (int channel : priorities.keySet()) {
+			checkChannel(channel);
+		}
+		// lane 0 is the highest priority.
+		Integer[] order = distinct.descendingSet().toArray(new Integer[0]);
+		for (int channel = 0; channel < MAX_CHANNELS; channel++) {
+			int priority = priorities.getOrDefault(channel, 0);
+			for (int lane = 0; lane < order.length; lane++) {
+				if(order[lane] == priority) {
+					lanes[channel] = (byte) lane;
+				}
+			}
+		}
+		this.laneCount = order.length;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the channel is out of range.
+	 */
+	public static void checkChannel(int channel){
+		if(channel < 0 || channel >= MAX_CHANNELS) {
+			throw new IllegalArgumentException("Channel " + channel + " out of range 0-" + (MAX_CHANNELS - 1));
+		}
+	}
+
+	/**
+	 * returns the amount of distinct priorities.
+	 */
+	public int getLaneCount(){
+		return laneCount;
+	}
+
+	/**
+	 * returns the lane of the channel, 0 is the highest priority.
+	 */
+	public int getLane(int channel){
+		return lanes[channel];
+	}
+
+	public int getChunkSize(){
+		return chunkSize;
+	}
+}
@@ -0,0 +1,99 @@
+package com.notlord.lordnet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * reassembles frames split into chunks by the sender's {@link OutboundQueue}, one per connection.
+ * <br>
+ * a chunk frame is a flags byte marking it as a chunk and telling if more chunks follow,
+ * the channel if it is not the default one, and a slice of the original frame.
+ * chunks of a channel always arrive in order and are never mixed with another frame of the same channel,
+ * while chunks of different channels may interleave, so every channel is assembled on its own.
+ * not thread safe, chunks must be added by the thread reading the connection.
+ */
+public final class ChunkAssembler {
+	private static final int CHUNK_FLAGS = PacketCodec.CHUNK | PacketCodec.MORE | PacketCodec.CHANNEL;
+	private final BufferPool pool;
+	private final ByteBuffer[] partial = new ByteBuffer[ChannelPriorities.MAX_CHANNELS];
+
+	/**
+	 * @param pool the pool received frames are taken from, assembled frames are taken from it as well.
+	 */
+	public ChunkAssembler(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * returns if the frame between position and limit is a chunk, only valid on connections with frame headers.
+	 */
+	public static boolean isChunk(ByteBuffer frame){
+		return frame.hasRemaining() && (frame.get(frame.position()) & PacketCodec.CHUNK) != 0;
+	}
+
+	/**
+	 * adds a received chunk, takes ownership of the pooled chunk.
+	 * @return the reassembled frame once its last chunk arrived, a pooled buffer owned by the caller, otherwise null.
+	 * @throws IOException if the chunk is malformed or the reassembled frame exceeds the max frame size.
+	 */
+	public ByteBuffer add(ByteBuffer chunk) throws IOException {
+		try {
+			byte flags = chunk.get();
+			if((flags & ~CHUNK_FLAGS) != 0) {
+				throw new IOException("Unknown chunk flags " + flags);
+			}
+			int channel = 0;
+			if((flags & PacketCodec.CHANNEL) != 0) {
+				try {
+					channel = Varint.read(chunk);
+				}
+				catch (RuntimeException e) {
+					throw new IOException("Malformed chunk header", e);
+				}
+				if(channel <= 0 || channel >= ChannelPriorities.MAX_CHANNELS) {
+					throw new IOException("Channel " + channel + " out of range");
+				}
+			}
+			ByteBuffer frame = append(partial[channel], chunk);
+			if((flags & PacketCodec.MORE) != 0) {
+				partial[channel] = frame;
+				return null;
+			}
+			partial[channel] = null;
+			return frame.flip();
+		}
+		finally {
+			pool.release(chunk);
+		}
+	}
+
+	private ByteBuffer append(ByteBuffer frame, ByteBuffer chunk) throws IOException {
+		int size = (frame == null ? 0 : frame.position()) + chunk.remaining();
+		if(size > pool.getMaxFrameSize()) {
+			throw new IOException("Frame of " + size + " bytes exceeds max frame size");
+		}
+		if(frame == null || frame.capacity() < size) {
+			// grows by doubling, so a frame of n chunks is copied about twice in total.
+			int capacity = frame == null ? size : Math.max(size, Math.min(pool.getMaxFrameSize(), frame.capacity() * 2));
+			ByteBuffer grown = pool.acquire(capacity).clear();
+			if(frame != null) {
+				grown.put(frame.flip());
+				pool.release(frame);
+			}
+			frame = grown;
+		}
+		return frame.limit(frame.capacity()).put(chunk);
+	}
+
+	/**
+	 * returns the buffers of partly received frames to the pool, called once the connection ends.
+	 */
+	public void clear(){
+		for (int channel = 0; channel < partial.length; channel++) {
+			if(partial[channel] != null) {
+				pool.release(partial[channel]);
+				partial[channel] = null;
+			}
+		}
+	}
+}
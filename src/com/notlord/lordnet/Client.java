@@ -1,24 +1,65 @@
 package com.notlord.lordnet;
 
-import com.google.gson.Gson;
 import com.notlord.lordnet.listeners.ClientListener;
+import com.notlord.lordnet.metrics.ConnectionMetrics;
+import com.notlord.lordnet.metrics.TransportMetrics;
+import com.notlord.lordnet.serialization.GsonSerializer;
+import com.notlord.lordnet.serialization.PacketSerializer;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class Client {
-	private volatile String separatorId = null;
-	private static final Gson gson = new Gson();
+	private static final int DATAGRAM_GREETINGS = 3;
+	private volatile PacketCodec codec = null;
+	private int maxFrameSize = BufferPool.DEFAULT_MAX_FRAME_SIZE;
+	private PacketSerializer serializer = new GsonSerializer();
 	private Socket socket;
-	private DataOutputStream writer;
+	private BufferPool bufferPool;
+	private volatile OutboundQueue outbound;
 	private DataInputStream reader;
+	private boolean connectionOpen = false;
+	private ReconnectPolicy reconnect = null;
+	private Heartbeats heartbeats = null;
+	private HeartbeatMonitor heartbeat = null;
+	private volatile Session session = null;
+	// the session whose frames are only kept for replay while the connection is lost, guarded by that session.
+	private Session suspended = null;
+	private final PacketHandlers<Object> handlers = new PacketHandlers<>();
+	private final PendingRequests requests = new PendingRequests();
+	private final ChannelListeners<Object> channelListeners = new ChannelListeners<>();
+	private final List<Consumer<InboundStream>> streamListeners = new CopyOnWriteArrayList<>();
+	private InboundStreams streams;
+	private StreamSender streamSender;
+	private final Map<Integer, Integer> channelPriorities = new HashMap<>();
+	private int chunkSize = ChannelPriorities.DEFAULT_CHUNK_SIZE;
+	private ChunkAssembler chunks;
+	private DatagramEndpoint datagrams;
+	private DatagramPeer datagramPeer;
+	private final TransportMetrics metrics = new TransportMetrics();
+	private ConnectionMetrics connectionMetrics;
 	private final List<ClientListener> listeners = new ArrayList<>();
 	private volatile boolean running = false;
+	private boolean virtualThread = false;
+	private StripedExecutor dispatcher = null;
+	private volatile StripedExecutor activeDispatcher = null;
 	private String host;
 	private int port;
 
@@ -42,6 +83,41 @@ public class Client {
 		this.port = port;
 	}
 
+	/**
+	 * set if the client reads on a virtual thread instead of a platform thread, requires java 21+.
+	 */
+	public void setVirtualThread(boolean virtualThread){
+		if(virtualThread && !Threads.virtualThreadsSupported()) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+		}
+		this.virtualThread = virtualThread;
+	}
+
+	/**
+	 * set the largest frame the client accepts from the server, also caps the size of pooled receive buffers.
+	 * @param maxFrameSize max frame size in bytes, {@link BufferPool#DEFAULT_MAX_FRAME_SIZE} by default.
+	 */
+	public void setMaxFrameSize(int maxFrameSize){
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * set the serializer of packets, must be the serializer the server uses.
+	 * @param serializer {@link GsonSerializer} by default.
+	 */
+	public void setSerializer(PacketSerializer serializer){
+		this.serializer = serializer;
+	}
+
+	/**
+	 * set where packets are decoded and passed to listeners, takes effect on the next start.
+	 * with a dispatcher, the reading thread only reads, packets are still handled in order.
+	 * @param dispatcher null to handle packets inline on the reading thread, the default and lowest latency.
+	 */
+	public void setDispatcher(StripedExecutor dispatcher){
+		this.dispatcher = dispatcher;
+	}
+
 	/**
 	 * add listener to the client.
 	 */
@@ -49,13 +125,85 @@ public class Client {
 		listeners.add(listener);
 	}
 
+	/**
+	 * registers a handler of packets of the type, including subclasses and implementations.
+	 * handlers run before the listeners, which still receive every packet.
+	 * example: client.on(MovePacket.class, packet -> ...);
+	 */
+	public <T> void on(Class<T> type, Consumer<? super T> handler){
+		handlers.on(type, (client, packet) -> handler.accept(packet));
+	}
+
+	/**
+	 * registers a listener of packets the server sends on the channel, they are not passed to handlers and listeners.
+	 * packets on channels without a channel listener are passed to handlers and listeners like any other packet.
+	 */
+	public void onChannel(int channel, Consumer<Object> listener){
+		channelListeners.on(channel, (client, packet) -> listener.accept(packet));
+	}
+
+	/**
+	 * set the priority of packets sent to the server on the channel, takes effect on the next start.
+	 * only used if the server has channels configured, see {@link Server#setChannelPriority(int, int)}.
+	 * @param priority higher is more urgent, channels have priority 0 by default.
+	 */
+	public void setChannelPriority(int channel, int priority){
+		ChannelPriorities.checkChannel(channel);
+		channelPriorities.put(channel, priority);
+	}
+
+	/**
+	 * set the size frames to the server are split into when channels have different priorities, takes effect on the next start.
+	 * @param chunkSize {@link ChannelPriorities#DEFAULT_CHUNK_SIZE} by default.
+	 */
+	public void setChunkSize(int chunkSize){
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * registers a listener of streams the server sends, called when a stream opens, on the thread reading the connection.
+	 * the listener chooses where the data goes, see {@link InboundStream}.
+	 * example: client.onStream(stream -> stream.onData(chunk -> ...));
+	 */
+	public void onStream(Consumer<InboundStream> listener){
+		streamListeners.add(listener);
+	}
+
+	/**
+	 * set if the client reconnects when its connection is lost, instead of closing.
+	 * if the server keeps sessions the client resumes its own, see {@link Server#setSessionResumption(SessionResumption)},
+	 * packets sent meanwhile are sent once it is resumed and listeners see neither a disconnect nor a connect.
+	 * otherwise listeners see a disconnect and a connect once it reconnected.
+	 * @param reconnect null to close when the connection is lost, the default.
+	 */
+	public void setReconnect(ReconnectPolicy reconnect){
+		this.reconnect = reconnect;
+	}
+
+	/**
+	 * set the heartbeats and timeouts of the connection, see {@link Heartbeats}, takes effect on the next connection.
+	 * a connection that timed out is lost like any other, so the client reconnects if it has a reconnect policy, or closes.
+	 * @param heartbeats null for no heartbeats, the default.
+	 */
+	public void setHeartbeats(Heartbeats heartbeats){
+		this.heartbeats = heartbeats;
+	}
+
+	/**
+	 * returns the traffic counters and latencies of the client, across all its connections.
+	 * not registered over jmx by default, see {@link TransportMetrics#register(String)}.
+	 */
+	public TransportMetrics getMetrics(){
+		return metrics;
+	}
+
 	/**
 	 * starts the client.
 	 */
 	public void start(){
 		if(!running) {
 			running = true;
-			new Thread(this::run,"Client").start();
+			Threads.start("Client", this::run, virtualThread);
 		}
 	}
 
@@ -71,32 +219,161 @@ public class Client {
 	}
 
 	private void initialize() throws IOException{
-		socket = new Socket(host, port);
-		writer = new DataOutputStream(socket.getOutputStream());
-		reader = new DataInputStream(socket.getInputStream());
+		long start = System.nanoTime();
+		bufferPool = new BufferPool(maxFrameSize, false);
+		connect();
 		try {
-			int l = reader.readInt();
-			byte[] bytes = new byte[l];
-			reader.readFully(bytes,0,l);
-			separatorId = new String(bytes, StandardCharsets.UTF_8);
+			PacketCodec handshakeCodec = readHandshake();
+			byte[] token = handshakeCodec.getSessionToken();
+			if(token != null) {
+				// the server keeps what it sends for replay only if the client may resume.
+				ReconnectPolicy reconnect = this.reconnect;
+				outbound.send(Session.hello(reconnect != null));
+				session = reconnect == null ? null : new Session(token, reconnect.getReplayBytes());
+			}
+			open(handshakeCodec);
+			metrics.handshake().recordSince(start);
 		}
 		catch (Exception e){
 			System.out.println("Failed to acquire separator Id from server");
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * opens a connection to the server, packets are sent on it once it is opened for the codec of its handshake.
+	 * @throws IOException if connecting fails or the client was closed.
+	 */
+	private void connect() throws IOException {
+		Socket socket = SocketChannel.open(new InetSocketAddress(host, port)).socket();
+		synchronized (this) {
+			if(!running) {
+				socket.close();
+				throw new IOException("Client closed");
+			}
+			socket.setTcpNoDelay(true);
+			this.socket = socket;
+			// a failed write closes the socket, which ends reading, so the client reconnects or closes.
+			outbound = new OutboundQueue(socket.getChannel(), Threads.writers(virtualThread), bufferPool, null, e -> closeSocket(socket));
+			connectionMetrics = metrics.openConnection();
+			connectionOpen = true;
+			outbound.setMetrics(connectionMetrics);
+			chunks = new ChunkAssembler(bufferPool);
+			reader = new DataInputStream(socket.getInputStream());
+			if(heartbeats != null) {
+				heartbeat = new HeartbeatMonitor(heartbeats, connectionMetrics, outbound, () -> {
+					metrics.timeout();
+					closeSocket(socket);
+				});
+				heartbeat.start();
+			}
+		}
+	}
+
+	/**
+	 * reads the handshake frame of the server.
+	 * @throws IOException if its length is negative or larger than the max frame size.
+	 */
+	private PacketCodec readHandshake() throws IOException {
+		int l = reader.readInt();
+		if(l < 0 || l > maxFrameSize) {
+			throw new IOException("Invalid handshake of " + l + " bytes");
+		}
+		byte[] bytes = new byte[l];
+		reader.readFully(bytes,0,l);
+		PacketCodec handshakeCodec = PacketCodec.fromHandshake(bytes, serializer);
+		handshakeCodec.setMaxFrameSize(maxFrameSize);
+		handshakeCodec.setMetrics(metrics);
+		return handshakeCodec;
+	}
+
+	/**
+	 * sets up the connection for the codec of its handshake, packets are sent once the codec is set.
+	 */
+	private void open(PacketCodec handshakeCodec) throws IOException {
+		streams = new InboundStreams(handshakeCodec, stream -> streamListeners.forEach(listener -> listener.accept(stream)));
+		OutboundQueue outbound = this.outbound;
+		streamSender = new StreamSender(outbound::sendStreamAsync, outbound);
+		if(handshakeCodec.hasFrameHeaders() && handshakeCodec.getSessionToken() == null) {
+			// the server reassembles chunks only if it speaks frame headers, sessions need frames written in order.
+			outbound.setChannels(new ChannelPriorities(channelPriorities, chunkSize));
+		}
+		datagrams = handshakeCodec.getDatagramPort() > 0 ? openDatagrams(handshakeCodec) : null;
+		codec = handshakeCodec;
+	}
+
+	private DatagramEndpoint openDatagrams(PacketCodec handshakeCodec) throws IOException {
+		InetSocketAddress server = new InetSocketAddress(socket.getInetAddress(), handshakeCodec.getDatagramPort());
+		datagramPeer = new DatagramPeer(handshakeCodec.getDatagramToken(), handshakeCodec.getDatagramKey(), server);
+		DatagramEndpoint datagrams = DatagramEndpoint.connect(server, this::datagramReceived);
+		datagrams.start("Client-Datagrams");
+		// the server learns where to send from the client's datagrams, a few empty ones in case some are lost.
+		for (int i = 0; i < DATAGRAM_GREETINGS; i++) {
+			datagrams.send(datagramPeer, ByteBuffer.allocate(0), connectionMetrics);
+		}
+		return datagrams;
+	}
+
+	private void datagramReceived(long token, ByteBuffer body, SocketAddress sender){
+		int size = body.remaining();
+		// datagrams arriving before the handshake is done are dropped like lost ones.
+		if(codec == null || !datagramPeer.accept(body, sender) || !body.hasRemaining()) {
+			return;
+		}
+		connectionMetrics.frameIn(size);
+		// chunks, streams and control frames are only sent over the connection.
+		if(body.remaining() > bufferPool.getMaxFrameSize() || ChunkAssembler.isChunk(body) || InboundStreams.isStream(body)
+				|| Session.isControl(body)) {
+			return;
+		}
+		ByteBuffer frame = bufferPool.acquire(body.remaining());
+		frame.put(body).flip();
+		receive(frame);
+	}
+
 	protected void handleClient() throws IOException, ClassNotFoundException {
-		listeners.forEach(ClientListener::connect);
-		byte[] bytes;
+		activeDispatcher = dispatcher;
+		dispatch(() -> listeners.forEach(ClientListener::connect));
+		boolean ended;
+		do {
+			ended = readFrames();
+			chunks.clear();
+			if(streams != null) {
+				// not opened if the handshake failed.
+				streams.closeAll();
+			}
+		} while (running && !ended && reconnect());
+		if(running) close();
+	}
+
+	/**
+	 * reads frames until the connection ends.
+	 * @return true if the server closed the connection on purpose, the client then does not reconnect.
+	 */
+	private boolean readFrames(){
+		BufferPool pool = bufferPool;
+		Socket socket = this.socket;
+		DataInputStream reader = this.reader;
+		ByteBuffer buffer;
 		while (!socket.isClosed()){
 			try {
 				int l = reader.readInt();
+				if(l > pool.getMaxFrameSize() || l < 0){
+					throw new IOException("Frame of " + l + " bytes exceeds max frame size");
+				}
 				if(l > 0){
-					bytes = new byte[l];
-					reader.readFully(bytes,0,l);
+					buffer = pool.acquire(l);
+					try {
+						reader.readFully(buffer.array(), buffer.arrayOffset(), l);
+					}
+					catch (IOException e){
+						pool.release(buffer);
+						throw e;
+					}
 				}
 				else{
-					bytes = null;
+					buffer = null;
+					connectionMetrics.heartbeatIn();
 				}
 			}
 			catch (Exception e) {
@@ -105,33 +382,384 @@ public class Client {
 				}
 				break;
 			}
-			if(bytes != null) {
-				try {
-					String input = new String(bytes, StandardCharsets.UTF_8);
-					Object o = gson.fromJson(input.split(separatorId)[0], Class.forName(input.split(separatorId)[1]));
-					listeners.forEach(clientListener -> clientListener.receive(o));
-				} catch (ClassNotFoundException ignored) {}
+			if(buffer != null) {
+				connectionMetrics.frameIn(buffer.remaining() + Integer.BYTES);
+				if(codec.hasFrameHeaders() && ChunkAssembler.isChunk(buffer)) {
+					try {
+						buffer = chunks.add(buffer);
+					}
+					catch (IOException e) {
+						e.printStackTrace();
+						break;
+					}
+				}
+				if(buffer != null && codec.hasFrameHeaders() && Session.isControl(buffer)) {
+					boolean goodbye;
+					try {
+						goodbye = control(buffer);
+					}
+					catch (IOException e) {
+						e.printStackTrace();
+						break;
+					}
+					finally {
+						pool.release(buffer);
+					}
+					if(goodbye) {
+						return true;
+					}
+				}
+				else if(buffer != null && codec.hasFrameHeaders() && InboundStreams.isStream(buffer)) {
+					// handled on the reading thread, so a slow stream consumer slows the server down.
+					try {
+						streams.receive(buffer);
+					}
+					catch (IOException e) {
+						e.printStackTrace();
+						break;
+					}
+					finally {
+						pool.release(buffer);
+					}
+				}
+				else if(buffer != null) {
+					Session session = this.session;
+					if(session != null && session.received()) {
+						outbound.send(Session.ack(session.getReceived()));
+					}
+					receive(buffer);
+				}
 			}
 		}
-		if(running) close();
+		return false;
+	}
+
+	/**
+	 * @return true if the frame is a goodbye.
+	 * @throws IOException if the control frame is malformed.
+	 */
+	private boolean control(ByteBuffer frame) throws IOException {
+		Session session = this.session;
+		try {
+			byte type = Session.readType(frame);
+			if(type == Session.ACK && session != null) {
+				session.acknowledge(frame.getLong());
+			}
+			return type == Session.GOODBYE;
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Server sent a malformed control frame", e);
+		}
+	}
+
+	/**
+	 * reconnects after the connection was lost, resuming the session if the server still has it.
+	 * @return false if the client does not reconnect, every attempt failed, or it was closed meanwhile.
+	 */
+	private boolean reconnect(){
+		ReconnectPolicy reconnect = this.reconnect;
+		if(reconnect == null) {
+			return false;
+		}
+		long start = System.nanoTime();
+		Session session = this.session;
+		if(session != null) {
+			synchronized (session) {
+				suspended = session;
+			}
+		}
+		closeConnection();
+		for (int attempt = 0; attempt < reconnect.getMaxAttempts() && running; attempt++) {
+			try {
+				Thread.sleep(reconnect.delayMillis(attempt));
+				connect();
+				PacketCodec handshakeCodec = readHandshake();
+				if(session == null || handshakeCodec.getSessionToken() == null) {
+					restart(handshakeCodec, reconnect, false);
+				}
+				else if(!resume(session, handshakeCodec)) {
+					restart(handshakeCodec, reconnect, true);
+				}
+				metrics.reconnect().recordSince(start);
+				return true;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			catch (IOException | RuntimeException e) {
+				closeConnection();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * resumes the session on the new connection, then sends the server what it did not receive.
+	 * @return false if the server no longer has the session, the connection then goes on as a new client.
+	 * @throws IOException if the connection fails, or the client no longer holds what the server did not receive.
+	 */
+	private boolean resume(Session session, PacketCodec handshakeCodec) throws IOException {
+		outbound.send(Session.resume(session.getToken(), session.getReceived(), session.getFirstKept()));
+		// the server answers before sending anything else.
+		int l = reader.readInt();
+		if(l < 2 || l > bufferPool.getMaxFrameSize()) {
+			throw new IOException("Invalid answer to resume");
+		}
+		byte[] bytes = new byte[l];
+		reader.readFully(bytes);
+		ByteBuffer answer = ByteBuffer.wrap(bytes);
+		byte type = Session.isControl(answer) ? Session.readType(answer) : -1;
+		if(type == Session.REJECTED) {
+			return false;
+		}
+		if(type != Session.RESUMED) {
+			throw new IOException("Invalid answer to resume");
+		}
+		long bytesResent = 0;
+		int framesResent;
+		synchronized (session) {
+			List<byte[]> replay = session.replayFrom(answer.getLong());
+			if(replay == null) {
+				throw new IOException("Frames the server did not receive are no longer kept");
+			}
+			for (byte[] frame : replay) {
+				outbound.send(ByteBuffer.wrap(frame));
+				bytesResent += frame.length;
+			}
+			framesResent = replay.size();
+			open(handshakeCodec);
+			suspended = null;
+		}
+		metrics.resumed(framesResent, bytesResent);
+		return true;
+	}
+
+	/**
+	 * goes on with the new connection as a new client, listeners see a disconnect and a connect.
+	 * @param rejected true if the server rejected a resume, it then takes the connection as a new client without a hello.
+	 */
+	private void restart(PacketCodec handshakeCodec, ReconnectPolicy reconnect, boolean rejected) throws IOException {
+		requests.failAll(new IOException("Connection lost"));
+		dispatch(() -> listeners.forEach(ClientListener::disconnect));
+		byte[] token = handshakeCodec.getSessionToken();
+		if(token != null && !rejected) {
+			outbound.send(Session.hello(true));
+		}
+		// frames of the old session that were only kept stay unsent.
+		session = token == null ? null : new Session(token, reconnect.getReplayBytes());
+		open(handshakeCodec);
+		dispatch(() -> listeners.forEach(ClientListener::connect));
+	}
+
+	/**
+	 * decodes a received frame and passes the packet to the listeners, inline or on the dispatcher.
+	 * takes ownership of the pooled frame.
+	 */
+	private void receive(ByteBuffer frame){
+		StripedExecutor dispatcher = activeDispatcher;
+		if(dispatcher == null) {
+			decode(frame);
+		}
+		else {
+			dispatcher.execute(System.identityHashCode(this), () -> decode(frame));
+		}
+	}
+
+	private void decode(ByteBuffer frame){
+		try {
+			Object o = codec.decode(frame);
+			long start = System.nanoTime();
+			if(o instanceof RpcMessage message) {
+				requests.complete(message);
+			}
+			else if(o instanceof ChannelPacket packet) {
+				if(!channelListeners.dispatch(this, packet)) {
+					dispatch(packet.getPacket());
+				}
+			}
+			else {
+				dispatch(o);
+			}
+			metrics.handler().recordSince(start);
+		}
+		catch (ClassNotFoundException ignored) {}
+		catch (RuntimeException e) {
+			// a malformed packet or a failing listener closes the client, instead of the thread reading it.
+			e.printStackTrace();
+			close();
+		}
+		finally {
+			bufferPool.release(frame);
+		}
+	}
+
+	private void dispatch(Object o){
+		handlers.dispatch(this, o);
+		listeners.forEach(clientListener -> clientListener.receive(o));
+	}
+
+	private void dispatch(Runnable task){
+		StripedExecutor dispatcher = activeDispatcher;
+		if(dispatcher == null) {
+			task.run();
+		}
+		else {
+			dispatcher.execute(System.identityHashCode(this), task);
+		}
 	}
 
 	/**
 	 * send packet to the server.
-	 * can send any object.
+	 * can send any object, the packet is queued and written by the connection's writer, so this never blocks.
 	 */
 	public void send(Object o) {
-		while (separatorId == null) {
+		while (codec == null) {
+			Thread.onSpinWait();
+		}
+		queue(codec.encode(o), 0);
+	}
+
+	/**
+	 * send packet to the server.
+	 * @return completes once the packet is written to the socket, or exceptionally if the connection closes first.
+	 * while the client resumes its session, it completes once the packet is kept for replay.
+	 */
+	public CompletableFuture<Void> sendAsync(Object o) {
+		while (codec == null) {
+			Thread.onSpinWait();
+		}
+		return queueAsync(codec.encode(o), 0);
+	}
+
+	/**
+	 * queues a frame, recorded for replay first if the client has a session,
+	 * under the session lock so frames are recorded in the order they are written.
+	 * while the session is being resumed the frame is only recorded.
+	 */
+	private void queue(ByteBuffer body, int channel){
+		Session session = this.session;
+		if(session == null) {
+			outbound.send(body, channel);
+			return;
+		}
+		synchronized (session) {
+			session.record(body);
+			if(suspended != session) {
+				outbound.send(body, channel);
+			}
+		}
+	}
+
+	/**
+	 * queues a frame like {@link #queue(ByteBuffer, int)}.
+	 * @return completes once the frame is written, or at once if the session is being resumed.
+	 */
+	private CompletableFuture<Void> queueAsync(ByteBuffer body, int channel){
+		Session session = this.session;
+		if(session == null) {
+			return outbound.sendAsync(body, channel);
+		}
+		synchronized (session) {
+			session.record(body);
+			return suspended == session ? CompletableFuture.completedFuture(null) : outbound.sendAsync(body, channel);
+		}
+	}
+
+	/**
+	 * send packet to the server on a channel, packets of a channel arrive in order,
+	 * a channel of a higher priority is written first, see {@link #setChannelPriority(int, int)}.
+	 * @throws IllegalStateException if the server has no channels configured and the channel is not 0.
+	 */
+	public void send(Object o, int channel) {
+		while (codec == null) {
+			Thread.onSpinWait();
+		}
+		queue(codec.encode(o, channel), channel);
+	}
+
+	/**
+	 * send packet to the server on a channel, like {@link #send(Object, int)}.
+	 * @return completes once the packet is written to the socket, or exceptionally if the connection closes first.
+	 */
+	public CompletableFuture<Void> sendAsync(Object o, int channel) {
+		while (codec == null) {
+			Thread.onSpinWait();
+		}
+		return queueAsync(codec.encode(o, channel), channel);
+	}
+
+	/**
+	 * send packet to the server over the unreliable channel, see {@link Server#setUnreliablePort(int)}.
+	 * the packet may be lost, and is dropped by the server if a later one arrived first, so it suits state sent many times a second.
+	 * received unreliable packets are passed to handlers and listeners like any other packet, on the thread reading datagrams.
+	 * @throws IllegalStateException if the server has no unreliable channel.
+	 * @throws IllegalArgumentException if the encoded packet does not fit in a datagram.
+	 */
+	public void sendUnreliable(Object o) {
+		while (codec == null) {
+			Thread.onSpinWait();
+		}
+		if(datagrams == null) {
+			throw new IllegalStateException("Server has no unreliable channel");
+		}
+		datagrams.send(datagramPeer, codec.encode(o), connectionMetrics);
+	}
+
+	/**
+	 * sends the bytes of the input stream to the server without holding them in memory, the input stream is closed at the end.
+	 * the server receives it in its stream listener.
+	 * @param metadata a packet passed along with the stream, such as a file name, may be null.
+	 * @return completes once the whole stream is written, or exceptionally if reading fails or the connection closes.
+	 * @throws IllegalStateException if the server has no stream listeners.
+	 */
+	public CompletableFuture<Void> sendStream(InputStream in, Object metadata) {
+		ByteBuffer encoded = streamMetadata(metadata);
+		return streamSender.send(in, encoded);
+	}
+
+	/**
+	 * sends the file to the server like {@link #sendStream(InputStream, Object)}, straight from the file to the socket.
+	 */
+	public CompletableFuture<Void> sendStream(Path file, Object metadata) {
+		ByteBuffer encoded = streamMetadata(metadata);
+		return streamSender.send(file, encoded);
+	}
+
+	private ByteBuffer streamMetadata(Object metadata){
+		while (codec == null) {
+			Thread.onSpinWait();
+		}
+		PacketCodec codec = this.codec;
+		if(!codec.hasFrameHeaders()) {
+			throw new IllegalStateException("Server has no stream listeners");
+		}
+		return metadata == null ? null : codec.encode(metadata);
+	}
+
+	/**
+	 * sends a request to the server, which replies with what its request handler returns.
+	 * requests are pipelined, any number of them may wait for their response at once.
+	 * @param type class of the response.
+	 * @param timeout the request fails with a TimeoutException if no response arrives in time, null to wait until the connection closes.
+	 * @return completes with the response, or exceptionally with a {@link RequestException} if the server failed to handle the request.
+	 */
+	public <R> CompletableFuture<R> request(Object request, Class<R> type, Duration timeout) {
+		while (codec == null) {
 			Thread.onSpinWait();
 		}
-		byte[] bytes = (gson.toJson(o) + separatorId + o.getClass().toString().split(" ")[1]).getBytes(StandardCharsets.UTF_8);
+		PacketCodec codec = this.codec;
+		if(!codec.hasFrameHeaders()) {
+			return CompletableFuture.failedFuture(new RequestException("Server has no request handlers"));
+		}
+		PendingRequests.Pending<R> pending = requests.open(type, timeout);
 		try {
-			writer.writeInt(bytes.length);
-			writer.write(bytes);
+			queue(codec.encodeRequest(pending.id(), request), 0);
 		}
-		catch (IOException e){
-			e.printStackTrace();
+		catch (RuntimeException e) {
+			requests.fail(pending.id(), e);
 		}
+		return pending;
 	}
 
 	/**
@@ -140,25 +768,58 @@ public class Client {
 	public void close() {
 		if(running) {
 			running = false;
-			listeners.forEach(ClientListener::disconnect);
-			try {
-				writer.close();
-				reader.close();
+			requests.failAll(new IOException("Connection closed"));
+			dispatch(() -> listeners.forEach(ClientListener::disconnect));
+			OutboundQueue outbound = this.outbound;
+			if(session != null && outbound != null) {
+				// the server ends the session right away instead of waiting for a resume, once what was sent before is written.
+				outbound.sendAsync(Session.goodbye())
+						.orTimeout(Session.GOODBYE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+						.whenComplete((written, e) -> closeConnection());
 			}
-			catch (IOException e){
-				System.out.println("Failed to close input stream.");
-				e.printStackTrace();
-			}
-			try {
-				socket.close();
-			}
-			catch (IOException e){
-				System.out.println("Failed to close socket.");
-				e.printStackTrace();
+			else {
+				closeConnection();
 			}
 		}
 	}
 
+	/**
+	 * closes the current connection, if it is still open.
+	 */
+	private synchronized void closeConnection(){
+		if(!connectionOpen) {
+			return;
+		}
+		connectionOpen = false;
+		if(heartbeat != null) {
+			heartbeat.stop();
+			heartbeat = null;
+		}
+		metrics.closeConnection();
+		if(datagrams != null) {
+			datagrams.close();
+		}
+		try {
+			outbound.close();
+			reader.close();
+		}
+		catch (IOException e){
+			System.out.println("Failed to close input stream.");
+			e.printStackTrace();
+		}
+		closeSocket(socket);
+	}
+
+	private static void closeSocket(Socket socket){
+		try {
+			socket.close();
+		}
+		catch (IOException e){
+			System.out.println("Failed to close socket.");
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * returns if the client is connected to server
 	 */
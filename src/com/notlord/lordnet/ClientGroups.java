@@ -0,0 +1,108 @@
+package com.notlord.lordnet;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * named groups of clients of a server, such as rooms or topics.
+ * <br>
+ * members are kept per group, and the groups of every client, so joining and leaving are O(1),
+ * a client leaves all its groups in O(its groups), and sending to a group only visits its members.
+ * groups are created on their first member and removed with their last.
+ * membership changes of different groups do not contend, iterating members is weakly consistent like {@link ClientRegistry}.
+ */
+public final class ClientGroups<C extends IClientInstance> {
+	private final ConcurrentHashMap<String, Set<C>> groups = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<C, Set<String>> memberships = new ConcurrentHashMap<>();
+
+	/**
+	 * adds the client to the group.
+	 * @return false if the client already is a member.
+	 */
+	public boolean join(String group, C client){
+		boolean[] joined = {false};
+		// the groups of the client change under the lock of the group, so both stay in agreement.
+		groups.compute(group, (name, members) -> {
+			if(members == null) {
+				members = ConcurrentHashMap.newKeySet();
+			}
+			if(members.add(client)) {
+				joined[0] = true;
+				memberships.compute(client, (member, names) -> {
+					if(names == null) {
+						names = ConcurrentHashMap.newKeySet();
+					}
+					names.add(name);
+					return names;
+				});
+			}
+			return members;
+		});
+		return joined[0];
+	}
+
+	/**
+	 * removes the client from the group.
+	 * @return false if the client was not a member.
+	 */
+	public boolean leave(String group, C client){
+		boolean[] left = {false};
+		groups.computeIfPresent(group, (name, members) -> {
+			if(members.remove(client)) {
+				left[0] = true;
+				memberships.computeIfPresent(client, (member, names) -> {
+					names.remove(name);
+					return names.isEmpty() ? null : names;
+				});
+			}
+			return members.isEmpty() ? null : members;
+		});
+		return left[0];
+	}
+
+	/**
+	 * removes the client from all its groups.
+	 * every group is left under its own lock like {@link #leave(String, IClientInstance)},
+	 * so a join racing with it keeps the groups and memberships in agreement.
+	 */
+	public void leaveAll(C client){
+		Set<String> names = memberships.get(client);
+		if(names == null) {
+			return;
+		}
+		for (String name : names) {
+			leave(name, client);
+		}
+	}
+
+	/**
+	 * returns a live, read only view of the members of the group.
+	 * @return an empty collection if the group has no members.
+	 */
+	public Collection<C> members(String group){
+		Set<C> members = groups.get(group);
+		return members == null ? Collections.emptySet() : Collections.unmodifiableSet(members);
+	}
+
+	/**
+	 * returns a live, read only view of the groups of the client.
+	 */
+	public Set<String> groupsOf(C client){
+		Set<String> names = memberships.get(client);
+		return names == null ? Collections.emptySet() : Collections.unmodifiableSet(names);
+	}
+
+	/**
+	 * returns the names of the groups that have members.
+	 */
+	public Set<String> names(){
+		return Collections.unmodifiableSet(groups.keySet());
+	}
+
+	public void clear(){
+		groups.clear();
+		memberships.clear();
+	}
+}
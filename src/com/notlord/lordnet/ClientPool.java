@@ -0,0 +1,237 @@
+package com.notlord.lordnet;
+
+import com.notlord.lordnet.listeners.ClientListener;
+import com.notlord.lordnet.serialization.PacketSerializer;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * several connections to one server used as a single client, for more throughput than one connection and reading thread give.
+ * <br>
+ * packets are sent on the connections by key, so packets of a key stay in order, or taking turns.
+ * packets received on any connection go to the same handlers and listeners, from the reading thread of each connection,
+ * so from several threads at once, packets of different connections have no order between them.
+ * <br>
+ * every connection tells the server which pool it belongs to with its first packet,
+ * the server groups them as one {@link PooledClient}, see {@link Server#getPool(IClientInstance)}.
+ */
+public class ClientPool {
+	private static final SecureRandom random = new SecureRandom();
+	private static final long JOIN_POLL_MILLIS = 10;
+	private final long id = random.nextLong();
+	private final Client[] connections;
+	// 1 once the connection of the index joined, read without locking on every send.
+	private final AtomicIntegerArray joined;
+	// notified when a connection joins or leaves, senders only wait on it until their connection joined.
+	private final Object joins = new Object();
+	private final List<ClientListener> listeners = new CopyOnWriteArrayList<>();
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicInteger connected = new AtomicInteger();
+
+	/**
+	 * creates a client pool.
+	 * @param host ip/dns address of the server.
+	 * @param port port of the server.
+	 * @param connections amount of connections to open, up to {@link PooledClient#MAX_CONNECTIONS}.
+	 */
+	public ClientPool(String host, int port, int connections) {
+		if(connections <= 0 || connections > PooledClient.MAX_CONNECTIONS) {
+			throw new IllegalArgumentException("A pool has 1 to " + PooledClient.MAX_CONNECTIONS + " connections: " + connections);
+		}
+		this.connections = new Client[connections];
+		this.joined = new AtomicIntegerArray(connections);
+		for (int i = 0; i < connections; i++) {
+			this.connections[i] = new Client(host, port);
+			this.connections[i].addListener(listener(i));
+		}
+	}
+
+	private ClientListener listener(int index){
+		return new ClientListener() {
+			@Override
+			public void connect() {
+				// the first packet of the connection, before anything sent through the pool.
+				connections[index].send(new PoolJoin(id, index, connections.length));
+				joined.set(index, 1);
+				synchronized (joins) {
+					joins.notifyAll();
+				}
+				if(connected.getAndIncrement() == 0) {
+					listeners.forEach(ClientListener::connect);
+				}
+			}
+
+			@Override
+			public void disconnect() {
+				joined.set(index, 0);
+				synchronized (joins) {
+					joins.notifyAll();
+				}
+				if(connected.decrementAndGet() == 0) {
+					listeners.forEach(ClientListener::disconnect);
+				}
+			}
+
+			@Override
+			public void receive(Object o) {
+				listeners.forEach(listener -> listener.receive(o));
+			}
+		};
+	}
+
+	/**
+	 * set the serializer of packets of every connection, must be the serializer the server uses.
+	 */
+	public void setSerializer(PacketSerializer serializer){
+		for (Client connection : connections) {
+			connection.setSerializer(serializer);
+		}
+	}
+
+	/**
+	 * set the largest frame every connection accepts from the server.
+	 */
+	public void setMaxFrameSize(int maxFrameSize){
+		for (Client connection : connections) {
+			connection.setMaxFrameSize(maxFrameSize);
+		}
+	}
+
+	/**
+	 * set if the connections read on virtual threads, requires java 21+.
+	 */
+	public void setVirtualThread(boolean virtualThread){
+		for (Client connection : connections) {
+			connection.setVirtualThread(virtualThread);
+		}
+	}
+
+	/**
+	 * set where packets are decoded and passed to listeners, packets of a connection are still handled in order.
+	 * @param dispatcher null to handle packets inline on the reading threads, the default.
+	 */
+	public void setDispatcher(StripedExecutor dispatcher){
+		for (Client connection : connections) {
+			connection.setDispatcher(dispatcher);
+		}
+	}
+
+	/**
+	 * add listener to the pool, connect is called once the first connection is up, disconnect once the last is down.
+	 */
+	public void addListener(ClientListener listener){
+		listeners.add(listener);
+	}
+
+	/**
+	 * registers a handler of packets of the type received on any connection.
+	 */
+	public <T> void on(Class<T> type, Consumer<? super T> handler){
+		for (Client connection : connections) {
+			connection.on(type, handler);
+		}
+	}
+
+	/**
+	 * starts every connection.
+	 */
+	public void start(){
+		for (Client connection : connections) {
+			connection.start();
+		}
+	}
+
+	/**
+	 * send packet on the next connection, taking turns.
+	 */
+	public void send(Object o){
+		connection(next.getAndIncrement()).send(o);
+	}
+
+	/**
+	 * send packet on the connection of the key, packets of a key arrive in order.
+	 * @param key any object, such as an entity id, its hash code picks the connection.
+	 */
+	public void send(Object o, Object key){
+		connection(key.hashCode()).send(o);
+	}
+
+	/**
+	 * send packet on the connection of the key, like {@link #send(Object, Object)}.
+	 * @return completes once the packet is written to the socket, or exceptionally if the connection closes first.
+	 */
+	public CompletableFuture<Void> sendAsync(Object o, Object key){
+		return connection(key.hashCode()).sendAsync(o);
+	}
+
+	/**
+	 * sends a request on the next connection, see {@link Client#request(Object, Class, Duration)}.
+	 */
+	public <R> CompletableFuture<R> request(Object request, Class<R> type, Duration timeout){
+		return connection(next.getAndIncrement()).request(request, type, timeout);
+	}
+
+	/**
+	 * returns the connection of the index, for what the pool does not offer, such as channels and streams.
+	 */
+	public Client getConnection(int index){
+		return connections[index];
+	}
+
+	/**
+	 * returns the amount of connections of the pool.
+	 */
+	public int size(){
+		return connections.length;
+	}
+
+	/**
+	 * closes every connection.
+	 */
+	public void close(){
+		for (Client connection : connections) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * returns if any connection of the pool is connected.
+	 */
+	public boolean isConnected(){
+		return connected.get() > 0;
+	}
+
+	/**
+	 * returns the connection of the hash, once it has joined the pool, so nothing is sent before the join.
+	 * @throws IllegalStateException if the connection is not connected, or failed to connect.
+	 */
+	private Client connection(int hash){
+		int index = Math.floorMod(hash, connections.length);
+		Client connection = connections[index];
+		if(joined.get(index) == 1) {
+			return connection;
+		}
+		synchronized (joins) {
+			while (joined.get(index) == 0) {
+				if(!connection.isConnected()) {
+					throw new IllegalStateException("Connection " + index + " of the pool is not connected");
+				}
+				try {
+					// a failed connect is not announced, so it is polled.
+					joins.wait(JOIN_POLL_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for connection " + index, e);
+				}
+			}
+		}
+		return connection;
+	}
+}
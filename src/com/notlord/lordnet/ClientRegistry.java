@@ -0,0 +1,98 @@
+package com.notlord.lordnet;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the connected clients of a server, by id.
+ * <br>
+ * adding, removing and looking up a client is O(1) however many clients connect and disconnect at once,
+ * and iterating never copies: it is weakly consistent, it sees every client connected for the whole iteration,
+ * and may or may not see clients that connect or disconnect meanwhile.
+ * <br>
+ * ids are allocated atomically, counting up from 0, or reusing the ids of clients that disconnected if recycling is on.
+ */
+public final class ClientRegistry<C extends IClientInstance> implements Iterable<C> {
+	private final ConcurrentHashMap<Integer, C> clients = new ConcurrentHashMap<>();
+	private final AtomicInteger next = new AtomicInteger();
+	private final Queue<Integer> free = new ConcurrentLinkedQueue<>();
+	private volatile boolean recycling = false;
+
+	/**
+	 * set if ids of clients that disconnected are given to new clients, the ids freed longest ago first.
+	 * an id is freed once the disconnect of its client was passed to listeners, ids freed while recycling is off are not reused.
+	 */
+	public void setRecycling(boolean recycling){
+		this.recycling = recycling;
+	}
+
+	/**
+	 * returns a free id for a new connection.
+	 */
+	public int allocateId(){
+		if(recycling) {
+			Integer id = free.poll();
+			if(id != null) {
+				return id;
+			}
+		}
+		return next.getAndIncrement();
+	}
+
+	/**
+	 * frees the id of a connection that ended, to be reused if recycling is on.
+	 */
+	public void releaseId(int id){
+		if(recycling) {
+			free.add(id);
+		}
+	}
+
+	public void add(C client){
+		clients.put(client.getID(), client);
+	}
+
+	/**
+	 * removes the client, if its id still belongs to it.
+	 */
+	public boolean remove(C client){
+		return clients.remove(client.getID(), client);
+	}
+
+	/**
+	 * returns the client of the id.
+	 * @return null if no connected client has the id.
+	 */
+	public C get(int id){
+		return clients.get(id);
+	}
+
+	public boolean isEmpty(){
+		return clients.isEmpty();
+	}
+
+	public int size(){
+		return clients.size();
+	}
+
+	public void clear(){
+		clients.clear();
+	}
+
+	/**
+	 * returns a live, read only view of the clients, weakly consistent like iterating the registry.
+	 */
+	public Collection<C> view(){
+		return Collections.unmodifiableCollection(clients.values());
+	}
+
+	@Override
+	public Iterator<C> iterator() {
+		return view().iterator();
+	}
+}
@@ -0,0 +1,20 @@
+package com.notlord.lordnet;
+
+/**
+ * how a server handles the connections of its clients.
+ */
+public enum ConnectionMode {
+	/**
+	 * every client instance reads on its own platform thread (default).
+	 */
+	THREAD,
+	/**
+	 * every client instance reads on its own virtual thread, requires java 21+.
+	 * keeps the blocking read loop while allowing a very large amount of mostly idle connections.
+	 */
+	VIRTUAL_THREAD,
+	/**
+	 * client instances are multiplexed on a small, fixed group of selector threads.
+	 */
+	EVENT_LOOP
+}
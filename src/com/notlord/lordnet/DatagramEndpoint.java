@@ -0,0 +1,155 @@
+package com.notlord.lordnet;
+
+import com.notlord.lordnet.metrics.ConnectionMetrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * the unreliable channel of a server or client, a udp socket next to its tcp connections.
+ * <br>
+ * every datagram is the token of its connection, a sequence number, a frame body and a mac of them:
+ * [8 bytes token][4 bytes sequence][frame body][16 bytes mac].
+ * the token and the key of the mac are given to the client in the handshake,
+ * datagrams with an unknown token or a wrong mac are dropped.
+ * a single thread reads datagrams and passes them to the receiver, any thread may send.
+ * <br>
+ * datagrams are authenticated but not encrypted, and may be lost, duplicated or reordered, stale ones are dropped by {@link DatagramPeer}.
+ */
+final class DatagramEndpoint implements Runnable {
+	static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+	/**
+	 * largest udp payload over ipv4, datagrams larger than the path mtu (around 1400 bytes) are fragmented and lost more often.
+	 */
+	static final int MAX_DATAGRAM_SIZE = 65507;
+	private static final int SERVER_RECEIVE_BUFFER_SIZE = 1024 * 1024;
+	private static final ThreadLocal<ByteBuffer> sendBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE));
+	private final DatagramChannel channel;
+	private final Receiver receiver;
+
+	/**
+	 * receives the datagrams of the endpoint.
+	 */
+	interface Receiver {
+		/**
+		 * @param token the token the datagram claims, it is authenticated by {@link DatagramPeer#accept(ByteBuffer, SocketAddress)}.
+		 * @param datagram the whole datagram between position and limit, only valid during the call.
+		 */
+		void receive(long token, ByteBuffer datagram, SocketAddress sender);
+	}
+
+	private DatagramEndpoint(DatagramChannel channel, Receiver receiver) {
+		this.channel = channel;
+		this.receiver = receiver;
+	}
+
+	/**
+	 * opens the endpoint of a server, receiving from any address.
+	 * @param port 0 for any free port.
+	 */
+	static DatagramEndpoint bind(int port, Receiver receiver) throws IOException {
+		DatagramChannel channel = DatagramChannel.open();
+		// one socket receives from every client, the default buffer overflows on short bursts. the os may cap it lower.
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, SERVER_RECEIVE_BUFFER_SIZE);
+		channel.bind(new InetSocketAddress(port));
+		return new DatagramEndpoint(channel, receiver);
+	}
+
+	/**
+	 * opens the endpoint of a client, which only receives from the server.
+	 */
+	static DatagramEndpoint connect(SocketAddress server, Receiver receiver) throws IOException {
+		DatagramChannel channel = DatagramChannel.open();
+		channel.connect(server);
+		return new DatagramEndpoint(channel, receiver);
+	}
+
+	/**
+	 * starts reading datagrams.
+	 */
+	void start(String name){
+		Threads.start(name, this, false);
+	}
+
+	int getLocalPort() throws IOException {
+		return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * sends a frame body to the peer, a datagram that can not be sent is lost like any other.
+	 * @return false if the peer has no address yet, or sending failed.
+	 * @throws IllegalArgumentException if the body does not fit in a datagram.
+	 */
+	boolean send(DatagramPeer peer, ByteBuffer body, ConnectionMetrics metrics){
+		if(body.remaining() > MAX_DATAGRAM_SIZE - HEADER_SIZE - DatagramPeer.MAC_SIZE) {
+			throw new IllegalArgumentException("Packet of " + body.remaining() + " bytes does not fit in a datagram");
+		}
+		SocketAddress address = peer.getAddress();
+		if(address == null) {
+			return false;
+		}
+		ByteBuffer datagram = sendBuffers.get().clear();
+		peer.seal(body, datagram);
+		datagram.flip();
+		try {
+			int size = datagram.remaining();
+			channel.send(datagram, address);
+			metrics.framesOut(1, size, 0);
+			return true;
+		}
+		catch (IOException e) {
+			if(channel.isOpen()) {
+				e.printStackTrace();
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public void run() {
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+		while (channel.isOpen()) {
+			SocketAddress sender;
+			try {
+				sender = channel.receive(buffer.clear());
+			}
+			catch (PortUnreachableException e) {
+				// the server's endpoint is not up yet or is gone, the tcp connection tells which.
+				continue;
+			}
+			catch (ClosedChannelException e) {
+				break;
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+				break;
+			}
+			buffer.flip();
+			if(buffer.remaining() < HEADER_SIZE + DatagramPeer.MAC_SIZE) {
+				continue;
+			}
+			try {
+				receiver.receive(buffer.getLong(0), buffer, sender);
+			}
+			catch (RuntimeException e) {
+				// the thread is shared by every connection, so a failing listener must not stop it.
+				e.printStackTrace();
+			}
+		}
+	}
+
+	void close(){
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.notlord.lordnet;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the unreliable channel of a single connection, see {@link DatagramEndpoint}.
+ * <br>
+ * holds the token that identifies its datagrams, the key that authenticates them, the address they come from,
+ * and the sequence numbers of both directions, a datagram older than the newest one received is dropped.
+ * the token travels in every datagram, the key only in the handshake over the connection,
+ * so a datagram seen on the way can not be replayed with a newer sequence, or from another address.
+ */
+final class DatagramPeer {
+	/**
+	 * size of the key given to the client in the handshake.
+	 */
+	static final int KEY_SIZE = 32;
+	/**
+	 * size of the truncated HMAC-SHA256 that ends every datagram.
+	 */
+	static final int MAC_SIZE = 16;
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final SecureRandom random = new SecureRandom();
+	private static final ThreadLocal<Mac> macs = ThreadLocal.withInitial(() -> {
+		try {
+			return Mac.getInstance(MAC_ALGORITHM);
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+	private final long token;
+	private final byte[] key;
+	private final SecretKeySpec keySpec;
+	private final AtomicInteger sent = new AtomicInteger();
+	private int received = 0;
+	private volatile SocketAddress address;
+
+	/**
+	 * creates the server side of a connection, with a new random token and key, and no address until the client is heard from.
+	 */
+	DatagramPeer() {
+		this(random.nextLong(), newKey(), null);
+	}
+
+	/**
+	 * @param token the token the server gave in the handshake.
+	 * @param key the key the server gave in the handshake.
+	 * @param address where datagrams are sent.
+	 * @throws IllegalArgumentException if the key is not {@link #KEY_SIZE} bytes.
+	 */
+	DatagramPeer(long token, byte[] key, SocketAddress address) {
+		if(key.length != KEY_SIZE) {
+			throw new IllegalArgumentException("Datagram key of " + key.length + " bytes");
+		}
+		this.token = token;
+		this.key = key.clone();
+		this.keySpec = new SecretKeySpec(this.key, MAC_ALGORITHM);
+		this.address = address;
+	}
+
+	private static byte[] newKey(){
+		byte[] key = new byte[KEY_SIZE];
+		random.nextBytes(key);
+		return key;
+	}
+
+	long getToken(){
+		return token;
+	}
+
+	byte[] getKey(){
+		return key.clone();
+	}
+
+	/**
+	 * returns where datagrams are sent, null if the peer has not sent a datagram yet.
+	 */
+	SocketAddress getAddress(){
+		return address;
+	}
+
+	/**
+	 * writes a datagram of the body into the buffer: [token][sequence][body][mac].
+	 * @param out receives the datagram from its position, must have room for the header, body and mac.
+	 */
+	void seal(ByteBuffer body, ByteBuffer out){
+		int start = out.position();
+		out.putLong(token).putInt(sent.incrementAndGet()).put(body);
+		Mac mac = mac();
+		mac.update(out.duplicate().flip().position(start));
+		out.put(mac.doFinal(), 0, MAC_SIZE);
+	}
+
+	/**
+	 * returns if the datagram is authentic and newer than every datagram accepted before,
+	 * and if so remembers where it came from, so replies follow the peer across address changes.
+	 * only called by the thread reading datagrams.
+	 * @param datagram the whole datagram between position and limit,
+	 *                 if accepted the position and limit are moved to the frame body, which may be empty.
+	 */
+	boolean accept(ByteBuffer datagram, SocketAddress from){
+		int start = datagram.position(), end = datagram.limit() - MAC_SIZE;
+		if(end - start < DatagramEndpoint.HEADER_SIZE || datagram.getLong(start) != token) {
+			return false;
+		}
+		// checked before the sequence, so a forged datagram can neither move the address nor skip sequences.
+		Mac mac = mac();
+		mac.update(datagram.duplicate().limit(end));
+		byte[] tag = mac.doFinal();
+		// compared in constant time, so the tag can not be guessed byte by byte.
+		int difference = 0;
+		for (int i = 0; i < MAC_SIZE; i++) {
+			difference |= tag[i] ^ datagram.get(end + i);
+		}
+		if(difference != 0) {
+			return false;
+		}
+		int sequence = datagram.getInt(start + Long.BYTES);
+		// compared by difference, so sequences keep working once they wrap around.
+		if(sequence - received <= 0) {
+			return false;
+		}
+		received = sequence;
+		address = from;
+		datagram.limit(end).position(start + DatagramEndpoint.HEADER_SIZE);
+		return true;
+	}
+
+	private Mac mac(){
+		Mac mac = macs.get();
+		try {
+			mac.init(keySpec);
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+		return mac;
+	}
+}
@@ -0,0 +1,125 @@
+package com.notlord.lordnet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * a single selector thread that handles the reads and writes of many client instances.
+ */
+final class EventLoop implements Runnable {
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+	private volatile boolean running = true;
+
+	EventLoop(String name) throws IOException {
+		selector = Selector.open();
+		thread = new LoopThread(this, name);
+		thread.setDaemon(true);
+	}
+
+	void start(){
+		thread.start();
+	}
+
+	Selector selector(){
+		return selector;
+	}
+
+	boolean inEventLoop(){
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * returns if the current thread runs any event loop, such threads must never block.
+	 */
+	static boolean onEventLoopThread(){
+		return Thread.currentThread() instanceof LoopThread;
+	}
+
+	/**
+	 * runs a task on the loop thread.
+	 */
+	void execute(Runnable task){
+		tasks.add(task);
+		if(!inEventLoop()) {
+			selector.wakeup();
+		}
+	}
+
+	void close(){
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				if(tasks.isEmpty()) {
+					selector.select();
+				}
+				else {
+					selector.selectNow();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				break;
+			}
+			runTasks();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				NioClientInstance client = (NioClientInstance) key.attachment();
+				try {
+					if (key.isValid() && key.isReadable()) {
+						client.handleRead(readBuffer);
+					}
+					if (key.isValid() && key.isWritable()) {
+						client.handleWritable();
+					}
+				}
+				catch (RuntimeException e) {
+					// only the failing client is closed, the loop keeps serving the others.
+					e.printStackTrace();
+					client.closeSocket();
+				}
+			}
+		}
+		runTasks();
+		for (SelectionKey key : selector.keys()) {
+			((NioClientInstance) key.attachment()).close();
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void runTasks(){
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			}
+			catch (Exception e){
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static final class LoopThread extends Thread {
+		private LoopThread(Runnable task, String name) {
+			super(task, name);
+		}
+	}
+}
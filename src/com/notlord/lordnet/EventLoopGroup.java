@@ -0,0 +1,32 @@
+package com.notlord.lordnet;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * fixed group of event loops, connections are assigned to them round-robin.
+ */
+final class EventLoopGroup {
+	private final EventLoop[] loops;
+	private final AtomicInteger next = new AtomicInteger();
+
+	EventLoopGroup(int threads) throws IOException {
+		loops = new EventLoop[Math.max(1, threads)];
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop("EventLoop-" + i);
+		}
+		for (EventLoop loop : loops) {
+			loop.start();
+		}
+	}
+
+	EventLoop next(){
+		return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+	}
+
+	void close(){
+		for (EventLoop loop : loops) {
+			loop.close();
+		}
+	}
+}
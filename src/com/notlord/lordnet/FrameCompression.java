@@ -0,0 +1,182 @@
+package com.notlord.lordnet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * deflate compression of single frames, set on the server and sent to clients in the handshake.
+ * <br>
+ * every frame is compressed on its own, so frames can be broadcast and decoded in any order.
+ * frames smaller than the threshold, or that do not shrink, are sent as they are.
+ * a preset dictionary of typical packet bytes makes even small frames compress well.
+ * deflaters and inflaters are reused, at most a few are kept per codec, since each holds native memory.
+ */
+public final class FrameCompression {
+	/**
+	 * frames smaller than this are not compressed by default.
+	 */
+	public static final int DEFAULT_THRESHOLD = 256;
+	/**
+	 * largest useful dictionary, the deflate window size.
+	 */
+	public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+	static final byte STORED = 0;
+	static final byte DEFLATED = 1;
+	private static final int RETAINED_CODERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	private final int threshold;
+	private final int level;
+	private final byte[] dictionary;
+	private final ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(RETAINED_CODERS);
+	private final ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(RETAINED_CODERS);
+
+	/**
+	 * creates a compression without a dictionary, using {@link #DEFAULT_THRESHOLD}.
+	 */
+	public FrameCompression() {
+		this(DEFAULT_THRESHOLD, Deflater.DEFAULT_COMPRESSION, null);
+	}
+
+	/**
+	 * @param threshold frames smaller than this many bytes are not compressed.
+	 * @param level deflate level, 1 (fastest) to 9 (smallest), or {@link Deflater#DEFAULT_COMPRESSION}.
+	 * @param dictionary preset dictionary, may be null, see {@link #trainDictionary(List, int)}.
+	 * @throws IllegalArgumentException if the level is invalid or the dictionary is larger than {@link #MAX_DICTIONARY_SIZE}.
+	 */
+	public FrameCompression(int threshold, int level, byte[] dictionary) {
+		if(level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		}
+		if(dictionary != null && dictionary.length > MAX_DICTIONARY_SIZE) {
+			throw new IllegalArgumentException("Dictionary of " + dictionary.length + " bytes exceeds " + MAX_DICTIONARY_SIZE);
+		}
+		this.threshold = Math.max(0, threshold);
+		this.level = level;
+		this.dictionary = dictionary == null || dictionary.length == 0 ? null : dictionary.clone();
+	}
+
+	/**
+	 * builds a preset dictionary from sample frames, such as {@link PacketCodec#encodeToArray(Object)} of typical packets.
+	 * samples seen more often are placed last, where deflate finds matches at the shortest distance.
+	 * @param samples sample frame bodies.
+	 * @param size largest dictionary size, capped to {@link #MAX_DICTIONARY_SIZE}.
+	 */
+	public static byte[] trainDictionary(List<byte[]> samples, int size){
+		size = Math.min(size, MAX_DICTIONARY_SIZE);
+		Map<ByteBuffer, Integer> counts = new LinkedHashMap<>();
+		for (byte[] sample : samples) {
+			counts.merge(ByteBuffer.wrap(sample), 1, Integer::sum);
+		}
+		List<Map.Entry<ByteBuffer, Integer>> ordered = new ArrayList<>(counts.entrySet());
+		ordered.sort(Map.Entry.comparingByValue());
+		byte[] dictionary = new byte[size];
+		int start = size;
+		for (int i = ordered.size() - 1; i >= 0 && start > 0; i--) {
+			byte[] sample = ordered.get(i).getKey().array();
+			int length = Math.min(sample.length, start);
+			start -= length;
+			System.arraycopy(sample, sample.length - length, dictionary, start, length);
+		}
+		return Arrays.copyOfRange(dictionary, start, size);
+	}
+
+	public int getThreshold(){
+		return threshold;
+	}
+
+	public int getLevel(){
+		return level;
+	}
+
+	/**
+	 * returns a copy of the preset dictionary, or null.
+	 */
+	public byte[] getDictionary(){
+		return dictionary == null ? null : dictionary.clone();
+	}
+
+	byte[] dictionary(){
+		return dictionary;
+	}
+
+	/**
+	 * returns if a frame body of this size is worth compressing.
+	 */
+	boolean shouldCompress(int size){
+		return size >= threshold;
+	}
+
+	/**
+	 * compresses a frame body into the output buffer.
+	 * @param body the frame body between position and limit, its position is undefined after the call.
+	 * @param out receives the deflated bytes from its position, up to its limit.
+	 * @return false if the deflated bytes do not fit, the body is then better sent as it is.
+	 */
+	boolean deflate(ByteBuffer body, ByteBuffer out){
+		Deflater deflater = deflaters.poll();
+		if(deflater == null) {
+			deflater = new Deflater(level, true);
+		}
+		try {
+			if(dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(body);
+			deflater.finish();
+			while (!deflater.finished() && out.hasRemaining()) {
+				deflater.deflate(out);
+			}
+			return deflater.finished();
+		}
+		finally {
+			deflater.reset();
+			if(!deflaters.offer(deflater)) {
+				deflater.end();
+			}
+		}
+	}
+
+	/**
+	 * decompresses a frame body into the output buffer.
+	 * @param in the deflated bytes between position and limit.
+	 * @param out receives exactly its remaining bytes.
+	 * @throws DataFormatException if the bytes are not a deflated body of the expected size.
+	 */
+	void inflate(ByteBuffer in, ByteBuffer out) throws DataFormatException {
+		Inflater inflater = inflaters.poll();
+		if(inflater == null) {
+			inflater = new Inflater(true);
+		}
+		try {
+			if(dictionary != null) {
+				inflater.setDictionary(dictionary);
+			}
+			inflater.setInput(in);
+			while (out.hasRemaining()) {
+				if(inflater.inflate(out) == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+			}
+			// the end of the stream may follow the last byte of output.
+			if(!out.hasRemaining() && !inflater.finished() && inflater.inflate(new byte[1]) != 0) {
+				throw new DataFormatException("Compressed frame is larger than its size");
+			}
+			if(out.hasRemaining() || !inflater.finished()) {
+				throw new DataFormatException("Compressed frame does not match its size");
+			}
+		}
+		finally {
+			inflater.reset();
+			if(!inflaters.offer(inflater)) {
+				inflater.end();
+			}
+		}
+	}
+}
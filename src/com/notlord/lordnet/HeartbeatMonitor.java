@@ -0,0 +1,116 @@
+package com.notlord.lordnet;
+
+import com.notlord.lordnet.metrics.ConnectionMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sends the heartbeats of a connection and notices when it times out, see {@link Heartbeats}.
+ * <br>
+ * checked on the shared {@link TimerWheel}, one timeout per connection at a time.
+ * what the connection read and wrote is taken from its metrics, so frames cost nothing more to read or write.
+ */
+public final class HeartbeatMonitor {
+	private final ConnectionMetrics metrics;
+	private final OutboundQueue outbound;
+	private final Runnable onTimeout;
+	private final long intervalNanos;
+	private final long readTimeoutNanos;
+	private final long idleTimeoutNanos;
+	private final long checkNanos;
+	private volatile TimerWheel.Timeout check = null;
+	private volatile boolean stopped = false;
+	// only used by the checks, which run one at a time.
+	private long framesIn;
+	private long packetsIn;
+	private long framesOut;
+	private long lastRead;
+	private long lastPacket;
+	private long lastWrite;
+
+	/**
+	 * @param metrics counters of the connection, heartbeats read must be counted with {@link ConnectionMetrics#heartbeatIn()}.
+	 * @param outbound queue heartbeats are sent through.
+	 * @param onTimeout called once the connection timed out, on the thread of the wheel, it must close the connection
+	 * without blocking, the monitor stops checking before.
+	 */
+	public HeartbeatMonitor(Heartbeats heartbeats, ConnectionMetrics metrics, OutboundQueue outbound, Runnable onTimeout) {
+		this.metrics = metrics;
+		this.outbound = outbound;
+		this.onTimeout = onTimeout;
+		this.intervalNanos = heartbeats.getInterval().toNanos();
+		this.readTimeoutNanos = heartbeats.getReadTimeout().toNanos();
+		this.idleTimeoutNanos = heartbeats.getIdleTimeout().toNanos();
+		long shortest = Long.MAX_VALUE;
+		for (long nanos : new long[]{intervalNanos, readTimeoutNanos, idleTimeoutNanos}) {
+			if(nanos > 0) {
+				shortest = Math.min(shortest, nanos);
+			}
+		}
+		this.checkNanos = Math.max(1, shortest / 2);
+	}
+
+	/**
+	 * starts checking the connection, counting from now.
+	 */
+	public void start(){
+		long now = System.nanoTime();
+		framesIn = metrics.getFramesIn();
+		packetsIn = framesIn - metrics.getHeartbeatsIn();
+		framesOut = metrics.getFramesOut();
+		lastRead = lastPacket = lastWrite = now;
+		schedule();
+	}
+
+	/**
+	 * stops checking the connection, once it closed.
+	 */
+	public void stop(){
+		stopped = true;
+		TimerWheel.Timeout check = this.check;
+		if(check != null) {
+			check.cancel();
+		}
+	}
+
+	private void schedule(){
+		check = Threads.wheel().schedule(this::check, checkNanos, TimeUnit.NANOSECONDS);
+		if(stopped) {
+			check.cancel();
+		}
+	}
+
+	private void check(){
+		if(stopped) {
+			return;
+		}
+		long now = System.nanoTime();
+		long in = metrics.getFramesIn();
+		if(in != framesIn) {
+			framesIn = in;
+			lastRead = now;
+		}
+		long packets = in - metrics.getHeartbeatsIn();
+		if(packets != packetsIn) {
+			packetsIn = packets;
+			lastPacket = now;
+		}
+		long out = metrics.getFramesOut();
+		if(out != framesOut) {
+			framesOut = out;
+			lastWrite = now;
+		}
+		if((readTimeoutNanos > 0 && now - lastRead >= readTimeoutNanos) || (idleTimeoutNanos > 0 && now - lastPacket >= idleTimeoutNanos)) {
+			stopped = true;
+			onTimeout.run();
+			return;
+		}
+		if(intervalNanos > 0 && now - lastWrite >= intervalNanos && outbound.sendHeartbeat()) {
+			metrics.heartbeatOut();
+			// counted ahead, so writing it is not taken for a later write.
+			framesOut++;
+			lastWrite = now;
+		}
+		schedule();
+	}
+}
@@ -0,0 +1,56 @@
+package com.notlord.lordnet;
+
+import java.time.Duration;
+
+/**
+ * heartbeats and timeouts of connections, checked on the shared {@link TimerWheel}, see {@link Threads#wheel()}.
+ * <br>
+ * a connection that wrote nothing for the heartbeat interval sends a heartbeat, an empty frame every peer skips.
+ * a connection that read nothing, not even a heartbeat, for the read timeout is closed, its peer is gone or unreachable,
+ * which a blocked read never notices on its own.
+ * a connection that received no packet, heartbeats aside, for the idle timeout is closed, its peer is alive but idle.
+ * <br>
+ * the peer must send heartbeats more often than the read timeout, or quiet connections time out.
+ * timeouts are checked every half of the shortest duration, so they fire up to half of it late.
+ */
+public final class Heartbeats {
+	private final Duration interval;
+	private final Duration readTimeout;
+	private final Duration idleTimeout;
+
+	/**
+	 * creates heartbeats without an idle timeout.
+	 * example: new Heartbeats(Duration.ofSeconds(5), Duration.ofSeconds(15))
+	 */
+	public Heartbeats(Duration interval, Duration readTimeout) {
+		this(interval, readTimeout, Duration.ZERO);
+	}
+
+	/**
+	 * @param interval longest time without writing before a heartbeat is sent, zero to send none.
+	 * @param readTimeout longest time without reading anything before the connection is closed, zero for none.
+	 * @param idleTimeout longest time without receiving a packet before the connection is closed, zero for none.
+	 * @throws IllegalArgumentException if a duration is negative, or all of them are zero.
+	 */
+	public Heartbeats(Duration interval, Duration readTimeout, Duration idleTimeout) {
+		if(interval.isNegative() || readTimeout.isNegative() || idleTimeout.isNegative() ||
+				(interval.isZero() && readTimeout.isZero() && idleTimeout.isZero())) {
+			throw new IllegalArgumentException("Invalid heartbeats");
+		}
+		this.interval = interval;
+		this.readTimeout = readTimeout;
+		this.idleTimeout = idleTimeout;
+	}
+
+	public Duration getInterval(){
+		return interval;
+	}
+
+	public Duration getReadTimeout(){
+		return readTimeout;
+	}
+
+	public Duration getIdleTimeout(){
+		return idleTimeout;
+	}
+}
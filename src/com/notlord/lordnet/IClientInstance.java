@@ -1,7 +1,19 @@
 package com.notlord.lordnet;
 
+import com.notlord.lordnet.metrics.ConnectionMetrics;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
 public interface IClientInstance {
 	void close();
 	void send(Object o);
+	void send(Object o, int channel);
+	CompletableFuture<Void> sendAsync(Object o);
+	CompletableFuture<Void> sendAsync(Object o, int channel);
+	CompletableFuture<Void> sendStream(InputStream in, Object metadata);
+	CompletableFuture<Void> sendStream(Path file, Object metadata);
 	int getID();
+	ConnectionMetrics getMetrics();
 }
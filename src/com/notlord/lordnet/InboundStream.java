@@ -0,0 +1,127 @@
+package com.notlord.lordnet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * a stream being received, passed to stream listeners when it opens.
+ * <br>
+ * where its data goes must be chosen in the stream listener, with {@link #onData(Consumer)} or {@link #transferTo(Path)},
+ * data of a stream nobody consumes is discarded. data is handled on the thread reading the connection,
+ * so a slow consumer slows the sender down instead of piling data up in memory.
+ */
+public final class InboundStream {
+	private final int id;
+	private final Object metadata;
+	private final CompletableFuture<Long> completion = new CompletableFuture<>();
+	private Consumer<ByteBuffer> consumer;
+	private FileChannel file;
+	private long received = 0;
+
+	InboundStream(int id, Object metadata) {
+		this.id = id;
+		this.metadata = metadata;
+	}
+
+	/**
+	 * returns the id of the stream, unique among the streams of one connection and direction.
+	 */
+	public int getId(){
+		return id;
+	}
+
+	/**
+	 * returns the packet the sender passed along with the stream, such as a file name, may be null.
+	 */
+	public Object getMetadata(){
+		return metadata;
+	}
+
+	/**
+	 * passes the data of the stream to the consumer as it arrives.
+	 * the buffer holds a chunk between position and limit and is only valid during the call.
+	 */
+	public InboundStream onData(Consumer<ByteBuffer> consumer){
+		this.consumer = consumer;
+		return this;
+	}
+
+	/**
+	 * writes the data of the stream to the file as it arrives, the file is created or truncated.
+	 * @throws IOException if the file can not be opened.
+	 */
+	public InboundStream transferTo(Path path) throws IOException {
+		file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		return this;
+	}
+
+	/**
+	 * returns a future completing with the amount of bytes received once the stream ends,
+	 * or exceptionally if the sender aborts it, the connection closes, or consuming the data fails.
+	 */
+	public CompletableFuture<Long> completion(){
+		return completion;
+	}
+
+	/**
+	 * returns the amount of bytes received so far.
+	 */
+	public long getReceived(){
+		return received;
+	}
+
+	void data(ByteBuffer chunk){
+		if(completion.isDone()) {
+			return;
+		}
+		received += chunk.remaining();
+		try {
+			if(file != null) {
+				ByteBuffer view = consumer != null ? chunk.duplicate() : chunk;
+				while (view.hasRemaining()) {
+					file.write(view);
+				}
+			}
+			if(consumer != null) {
+				consumer.accept(chunk);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			// the rest of the stream is discarded.
+			fail(e);
+		}
+	}
+
+	void end(){
+		try {
+			closeFile();
+			completion.complete(received);
+		}
+		catch (IOException e) {
+			completion.completeExceptionally(e);
+		}
+	}
+
+	void fail(Throwable cause){
+		try {
+			closeFile();
+		}
+		catch (IOException e) {
+			cause.addSuppressed(e);
+		}
+		completion.completeExceptionally(cause);
+	}
+
+	private void closeFile() throws IOException {
+		if(file != null) {
+			FileChannel file = this.file;
+			this.file = null;
+			file.close();
+		}
+	}
+}
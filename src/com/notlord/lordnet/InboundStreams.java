@@ -0,0 +1,109 @@
+package com.notlord.lordnet;
+
+import com.notlord.lordnet.serialization.MalformedPacketException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * receives the streams sent by the {@link StreamSender} of the other side, one per connection.
+ * <br>
+ * a stream frame is a flags byte marking it as a stream, the varint stream id, the frame type and its payload.
+ * not thread safe, frames must be passed by the thread reading the connection, in order.
+ */
+public final class InboundStreams {
+	static final byte OPEN = 0;
+	static final byte DATA = 1;
+	static final byte END = 2;
+	static final byte ABORT = 3;
+	private final Map<Integer, InboundStream> open = new HashMap<>();
+	private final PacketCodec codec;
+	private final Consumer<InboundStream> listener;
+
+	/**
+	 * @param codec decodes the metadata of streams.
+	 * @param listener called when a stream opens, on the reading thread.
+	 */
+	public InboundStreams(PacketCodec codec, Consumer<InboundStream> listener) {
+		this.codec = codec;
+		this.listener = listener;
+	}
+
+	/**
+	 * returns if the frame between position and limit is a stream frame, only valid on connections with frame headers.
+	 */
+	public static boolean isStream(ByteBuffer frame){
+		return frame.hasRemaining() && (frame.get(frame.position()) & PacketCodec.STREAM) != 0;
+	}
+
+	/**
+	 * handles a stream frame, the frame is not released.
+	 * @throws IOException if the frame is malformed.
+	 */
+	public void receive(ByteBuffer frame) throws IOException {
+		int id;
+		byte type;
+		try {
+			if(frame.get() != PacketCodec.STREAM) {
+				throw new IOException("Unknown stream frame flags");
+			}
+			id = Varint.read(frame);
+			type = frame.get();
+		}
+		catch (RuntimeException e) {
+			throw new IOException("Malformed stream frame", e);
+		}
+		if(type == OPEN) {
+			InboundStream stream;
+			try {
+				stream = new InboundStream(id, frame.hasRemaining() ? codec.decode(frame) : null);
+			}
+			catch (ClassNotFoundException | MalformedPacketException e) {
+				throw new IOException("Unknown stream metadata", e);
+			}
+			if(open.putIfAbsent(id, stream) != null) {
+				throw new IOException("Stream " + id + " is already open");
+			}
+			try {
+				listener.accept(stream);
+			}
+			catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		InboundStream stream = type == DATA ? open.get(id) : open.remove(id);
+		if(type == DATA) {
+			if(stream != null) {
+				stream.data(frame);
+			}
+		}
+		else if(type == END) {
+			if(stream != null) {
+				stream.end();
+			}
+		}
+		else if(type == ABORT) {
+			if(stream != null) {
+				stream.fail(new IOException("Stream aborted by sender: " + StandardCharsets.UTF_8.decode(frame)));
+			}
+		}
+		else {
+			throw new IOException("Unknown stream frame type " + type);
+		}
+	}
+
+	/**
+	 * fails every open stream, called once the connection ends.
+	 */
+	public void closeAll(){
+		for (InboundStream stream : open.values()) {
+			stream.fail(new IOException("Connection closed"));
+		}
+		open.clear();
+	}
+}
@@ -0,0 +1,150 @@
+package com.notlord.lordnet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * client instance served by an event loop instead of its own thread.
+ * frames are assembled incrementally from whatever the channel has available.
+ */
+final class NioClientInstance extends Server.ClientInstance {
+	private final SocketChannel channel;
+	private final EventLoop loop;
+	private final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+	private final OutboundQueue outbound;
+	private final AtomicBoolean open = new AtomicBoolean(true);
+	private ByteBuffer body;
+	private SelectionKey key;
+	private boolean writePending = false;
+
+	NioClientInstance(Server parentServer, SocketChannel channel, int id, EventLoop loop) throws IOException {
+		super(parentServer, id);
+		this.channel = channel;
+		this.loop = loop;
+		channel.configureBlocking(false);
+		outbound = new OutboundQueue(channel, loop::execute, bufferPool(), this::writeBlocked, e -> closeSocket());
+	}
+
+	@Override
+	protected void start() {
+		loop.execute(() -> {
+			try {
+				key = channel.register(loop.selector(), writePending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ, this);
+			} catch (IOException e) {
+				e.printStackTrace();
+				closeSocket();
+			}
+		});
+	}
+
+	@Override
+	protected OutboundQueue outbound() {
+		return outbound;
+	}
+
+	/**
+	 * called by the outbound queue on the loop when the socket buffer is full.
+	 */
+	private void writeBlocked() {
+		if(key == null) {
+			writePending = true;
+		}
+		else if(key.isValid()) {
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * continues writing once the socket is writable again, called by the loop.
+	 */
+	void handleWritable() {
+		key.interestOps(SelectionKey.OP_READ);
+		outbound.resume();
+	}
+
+	/**
+	 * reads what is available and passes every completed frame on, called by the loop.
+	 */
+	void handleRead(ByteBuffer buffer) {
+		try {
+			buffer.clear();
+			if(channel.read(buffer) < 0) {
+				closeSocket();
+				return;
+			}
+			buffer.flip();
+			readFrames(buffer);
+		} catch (IOException e) {
+			if(e.getMessage() == null || !e.getMessage().equals("Connection reset")){
+				e.printStackTrace();
+			}
+			closeSocket();
+		}
+	}
+
+	private void readFrames(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining() && open.get()) {
+			if(body == null) {
+				transfer(buffer, header);
+				if(header.hasRemaining()) {
+					break;
+				}
+				int l = header.flip().getInt();
+				header.clear();
+				if(l < 0 || l > bufferPool().getMaxFrameSize()) {
+					throw new IOException("Frame of " + l + " bytes exceeds max frame size");
+				}
+				if(l > 0) {
+					body = bufferPool().acquire(l);
+				}
+				else {
+					receiveHeartbeat();
+				}
+			}
+			else {
+				transfer(buffer, body);
+				if(!body.hasRemaining()) {
+					ByteBuffer frame = body.flip();
+					body = null;
+					receive(frame);
+				}
+			}
+		}
+	}
+
+	private static void transfer(ByteBuffer src, ByteBuffer dst) {
+		int n = Math.min(src.remaining(), dst.remaining());
+		int limit = src.limit();
+		src.limit(src.position() + n);
+		dst.put(src);
+		src.limit(limit);
+	}
+
+	@Override
+	protected void timeOut() {
+		// closed on the loop, so the disconnect is not handled on the thread of the timer wheel.
+		loop.execute(super::timeOut);
+	}
+
+	@Override
+	protected void closeSocket() {
+		if(open.compareAndSet(true, false)) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			outbound.close();
+			loop.execute(() -> {
+				if(body != null) {
+					bufferPool().release(body);
+					body = null;
+				}
+			});
+			disconnected();
+		}
+	}
+}
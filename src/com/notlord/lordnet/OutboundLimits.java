@@ -0,0 +1,80 @@
+package com.notlord.lordnet;
+
+/**
+ * limits of the outbound buffer of a single connection, and the policy applied once they are reached.
+ * <br>
+ * the high and low water marks are reported to server listeners, a client above its high water mark is not keeping up,
+ * it is reported again once its buffer drains below the low water mark.
+ */
+public final class OutboundLimits {
+	/**
+	 * no limits, the default.
+	 */
+	public static final OutboundLimits UNBOUNDED = new OutboundLimits(Integer.MAX_VALUE, Long.MAX_VALUE, OverflowPolicy.DROP_NEWEST, 0, Long.MAX_VALUE, Long.MAX_VALUE);
+	public static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 1000;
+	private final int maxFrames;
+	private final long maxBytes;
+	private final OverflowPolicy policy;
+	private final long blockTimeoutMillis;
+	private final long highWaterMark;
+	private final long lowWaterMark;
+
+	/**
+	 * creates limits with water marks at 3/4 and 1/4 of the max bytes, and a block timeout of {@link #DEFAULT_BLOCK_TIMEOUT_MILLIS}.
+	 * @param maxFrames most packets queued.
+	 * @param maxBytes most bytes queued.
+	 * @param policy what happens once a limit is reached.
+	 */
+	public OutboundLimits(int maxFrames, long maxBytes, OverflowPolicy policy) {
+		this(maxFrames, maxBytes, policy, DEFAULT_BLOCK_TIMEOUT_MILLIS, maxBytes - maxBytes / 4, maxBytes / 4);
+	}
+
+	/**
+	 * @param maxFrames most packets queued.
+	 * @param maxBytes most bytes queued.
+	 * @param policy what happens once a limit is reached.
+	 * @param blockTimeoutMillis longest a sender waits under {@link OverflowPolicy#BLOCK}.
+	 * @param highWaterMark queued bytes at which the client is reported as not keeping up.
+	 * @param lowWaterMark queued bytes at which the client is reported as keeping up again.
+	 * @throws IllegalArgumentException if a limit is not positive, or the water marks are out of order.
+	 */
+	public OutboundLimits(int maxFrames, long maxBytes, OverflowPolicy policy, long blockTimeoutMillis, long highWaterMark, long lowWaterMark) {
+		if(maxFrames < 1 || maxBytes < 1 || blockTimeoutMillis < 0 || lowWaterMark < 0 || lowWaterMark > highWaterMark) {
+			throw new IllegalArgumentException("Invalid outbound limits");
+		}
+		this.maxFrames = maxFrames;
+		this.maxBytes = maxBytes;
+		this.policy = policy;
+		this.blockTimeoutMillis = blockTimeoutMillis;
+		this.highWaterMark = highWaterMark;
+		this.lowWaterMark = lowWaterMark;
+	}
+
+	public int getMaxFrames(){
+		return maxFrames;
+	}
+
+	public long getMaxBytes(){
+		return maxBytes;
+	}
+
+	public OverflowPolicy getPolicy(){
+		return policy;
+	}
+
+	public long getBlockTimeoutMillis(){
+		return blockTimeoutMillis;
+	}
+
+	public long getHighWaterMark(){
+		return highWaterMark;
+	}
+
+	public long getLowWaterMark(){
+		return lowWaterMark;
+	}
+
+	boolean isUnbounded(){
+		return this == UNBOUNDED;
+	}
+}
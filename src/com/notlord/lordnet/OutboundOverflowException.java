@@ -0,0 +1,14 @@
+package com.notlord.lordnet;
+
+import java.io.IOException;
+
+/**
+ * a packet was not sent because the outbound buffer of the connection was full.
+ */
+public class OutboundOverflowException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public OutboundOverflowException(String message) {
+		super(message);
+	}
+}
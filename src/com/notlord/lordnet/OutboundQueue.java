@@ -0,0 +1,724 @@
+package com.notlord.lordnet;
+
+import com.notlord.lordnet.metrics.ConnectionMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * outbound frames of a single connection.
+ * <br>
+ * any thread may send, frames are pushed on a lock-free multi-producer queue and never block the caller.
+ * a single writer drains the queue on the given executor, combining everything queued (up to {@link #MAX_BATCH_FRAMES}
+ * frames) into one gathering write, so under load batches grow with the backlog, while a lone frame is written right away.
+ * <br>
+ * for non-blocking channels, when the socket buffer is full the writer stops and calls the blocked callback,
+ * the owner then calls {@link #resume()} once the channel is writable again.
+ * frame buffers are taken from a {@link BufferPool} and returned once written.
+ * <br>
+ * with {@link OutboundLimits} the queued frames and bytes are bounded, see {@link OverflowPolicy}.
+ * limits are checked as frames are queued, concurrent senders may overshoot them by a frame each.
+ * <br>
+ * with {@link ChannelPriorities} every priority has its own queue, a lane, and the writer takes frames of higher lanes first.
+ * frames larger than the chunk size are split into chunks, queued at once so chunks of a frame stay together in their lane,
+ * and a partially written frame is always finished first, so a higher lane waits at most for one chunk and one batch.
+ * <br>
+ * frames of a stream may end in a region of a file, written with {@link FileChannel#transferTo} so the bytes never
+ * enter the heap, a file region is always written on its own.
+ */
+public final class OutboundQueue {
+	/**
+	 * most frames combined into a single write.
+	 */
+	public static final int MAX_BATCH_FRAMES = 64;
+	private static final int MAX_BATCH_BYTES = 256 * 1024;
+	private static final int LOWER_LANE_BATCH_BYTES = 64 * 1024;
+	private static final int QUEUED = 0;
+	private static final int TAKEN = 1;
+	private static final int DROPPED = 2;
+	private static final AtomicIntegerFieldUpdater<Node> STATE = AtomicIntegerFieldUpdater.newUpdater(Node.class, "state");
+	private final GatheringByteChannel channel;
+	private final Executor executor;
+	private final BufferPool pool;
+	private final Runnable onBlocked;
+	private final ErrorHandler onError;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH_FRAMES];
+	private final Node[] batchNodes = new Node[MAX_BATCH_FRAMES];
+	private final Runnable drainTask = this::drainLoop;
+	private final AtomicLong queuedBytes = new AtomicLong();
+	private final AtomicInteger queuedFrames = new AtomicInteger();
+	private final AtomicBoolean aboveHighWater = new AtomicBoolean(false);
+	private final Object space = new Object();
+	private volatile OutboundLimits limits = OutboundLimits.UNBOUNDED;
+	private Runnable onHighWater;
+	private Runnable onLowWater;
+	private ConnectionMetrics metrics = null;
+	private volatile int waiters = 0;
+	private volatile boolean closed = false;
+	private volatile boolean blocked = false;
+	private ChannelPriorities channels = ChannelPriorities.NONE;
+	private Lane[] lanes = {new Lane()};
+	private Node partial = null;
+
+	/**
+	 * called when writing to the channel fails.
+	 */
+	public interface ErrorHandler {
+		void onError(IOException e);
+	}
+
+	/**
+	 * @param channel channel frames are written to.
+	 * @param executor runs the writer.
+	 * @param pool pool frame buffers are taken from, frames larger than its max frame size are allocated.
+	 * @param onBlocked called by the writer when a non-blocking channel is full, may be null for blocking channels.
+	 * @param onError called by the writer when a write fails, and by the sender when the queue overflows under {@link OverflowPolicy#DISCONNECT}.
+	 */
+	public OutboundQueue(GatheringByteChannel channel, Executor executor, BufferPool pool, Runnable onBlocked, ErrorHandler onError) {
+		this.channel = channel;
+		this.executor = executor;
+		this.pool = pool;
+		this.onBlocked = onBlocked;
+		this.onError = onError;
+	}
+
+	/**
+	 * bounds the queue, must be set before the first frame is sent.
+	 * the water mark callbacks run on the thread that crossed the mark, they must not block.
+	 * @param limits {@link OutboundLimits#UNBOUNDED} by default.
+	 * @param onHighWater called when the queued bytes rise to the high water mark, may be null.
+	 * @param onLowWater called when the queued bytes fall back to the low water mark, may be null.
+	 */
+	public void setLimits(OutboundLimits limits, Runnable onHighWater, Runnable onLowWater){
+		this.onHighWater = onHighWater;
+		this.onLowWater = onLowWater;
+		this.limits = limits;
+	}
+
+	/**
+	 * set the lanes of the queue and when frames are split into chunks, must be set before the first frame is sent.
+	 * frames are only split with more than one lane, the receiver must reassemble them with a {@link ChunkAssembler}.
+	 * @param channels {@link ChannelPriorities#NONE} by default.
+	 */
+	public void setChannels(ChannelPriorities channels){
+		Lane[] lanes = new Lane[channels.getLaneCount()];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new Lane();
+		}
+		this.lanes = lanes;
+		this.channels = channels;
+	}
+
+	/**
+	 * counts written frames and bytes in the metrics, must be set before the first frame is sent.
+	 */
+	public void setMetrics(ConnectionMetrics metrics){
+		this.metrics = metrics;
+	}
+
+	/**
+	 * queues a frame.
+	 * @param body the frame body between position and limit, copied before returning.
+	 */
+	public void send(ByteBuffer body){
+		enqueue(body, 0, null);
+	}
+
+	/**
+	 * queues a frame in the lane of the channel.
+	 * @param body the frame body between position and limit, copied before returning.
+	 */
+	public void send(ByteBuffer body, int channel){
+		enqueue(body, channel, null);
+	}
+
+	/**
+	 * queues a shared frame without copying it, the queue holds its own reference until the frame is written.
+	 * frames larger than the chunk size are split like other frames, into chunks made once and shared by every queue.
+	 */
+	public void send(SharedFrame frame){
+		if(closed) {
+			return;
+		}
+		ChannelPriorities channels = this.channels;
+		int lane = channels.getLane(0);
+		if(lanes.length > 1 && frame.size() > channels.getChunkSize()) {
+			ByteBuffer[] chunks = frame.retainChunks(channels.getChunkSize());
+			if(chunks == null) {
+				enqueueChunks(frame.body(), 0, lane, null);
+				return;
+			}
+			Node first = null, last = null;
+			for (ByteBuffer chunk : chunks) {
+				Node node = new Node(chunk, frame, null, lane);
+				node.pinned = true;
+				if(first == null) {
+					first = node;
+				}
+				else {
+					last.next = node;
+				}
+				last = node;
+			}
+			enqueue(first, last);
+			return;
+		}
+		ByteBuffer view = frame.retain();
+		Node node = new Node(view, frame, null, lane);
+		enqueue(node, node);
+	}
+
+	/**
+	 * queues a frame.
+	 * @param body the frame body between position and limit, copied before returning.
+	 * @return completes once the frame is written to the socket, or exceptionally if the connection closes first
+	 * or the frame is dropped by the overflow policy.
+	 */
+	public CompletableFuture<Void> sendAsync(ByteBuffer body){
+		return sendAsync(body, 0);
+	}
+
+	/**
+	 * queues a frame in the lane of the channel, like {@link #sendAsync(ByteBuffer)}.
+	 */
+	public CompletableFuture<Void> sendAsync(ByteBuffer body, int channel){
+		CompletableFuture<Void> promise = new CompletableFuture<>();
+		enqueue(body, channel, promise);
+		return promise;
+	}
+
+	/**
+	 * queues a frame of a stream like {@link #sendAsync(ByteBuffer)}, it is never dropped by {@link OverflowPolicy#DROP_OLDEST}
+	 * since the receiver could not rebuild the stream without it.
+	 */
+	public CompletableFuture<Void> sendStreamAsync(ByteBuffer body){
+		CompletableFuture<Void> promise = new CompletableFuture<>();
+		enqueue(body, 0, promise, true);
+		return promise;
+	}
+
+	/**
+	 * queues a frame of a stream made of a header and a region of a file, the region is written straight from the file.
+	 * the file must stay open until the returned future completes.
+	 * @param header the start of the frame body between position and limit, copied before returning.
+	 * @param count bytes of the file region, the rest of the frame body.
+	 * @return completes once the frame is written to the socket, or exceptionally if the connection closes first.
+	 */
+	public CompletableFuture<Void> sendFileAsync(ByteBuffer header, FileChannel file, long position, int count){
+		CompletableFuture<Void> promise = new CompletableFuture<>();
+		if(closed) {
+			promise.completeExceptionally(new ClosedChannelException());
+			return promise;
+		}
+		int length = header.remaining();
+		ByteBuffer frame = pool.acquire(Integer.BYTES + length);
+		frame.putInt(length + count).put(header).flip();
+		Node node = new Node(frame, null, promise, channels.getLane(0));
+		node.pinned = true;
+		node.file = file;
+		node.filePosition = position;
+		node.fileRemaining = count;
+		enqueue(node, node);
+		return promise;
+	}
+
+	/**
+	 * queues a heartbeat, an empty frame receivers skip, unless frames are already waiting, which do just as well.
+	 * never blocks and is not counted against the limits, since it is only queued on an empty queue.
+	 * @return true if a heartbeat was queued.
+	 */
+	public boolean sendHeartbeat(){
+		if(closed || !isEmpty()) {
+			return false;
+		}
+		ByteBuffer frame = pool.acquire(Integer.BYTES);
+		frame.putInt(0).flip();
+		Node node = new Node(frame, null, null, channels.getLane(0));
+		lanes[node.lane].tail.getAndSet(node).next = node;
+		schedule();
+		return true;
+	}
+
+	private void enqueue(ByteBuffer body, int channel, CompletableFuture<Void> promise){
+		enqueue(body, channel, promise, false);
+	}
+
+	private void enqueue(ByteBuffer body, int channel, CompletableFuture<Void> promise, boolean pinned){
+		if(closed) {
+			if(promise != null) {
+				promise.completeExceptionally(new ClosedChannelException());
+			}
+			return;
+		}
+		ChannelPriorities channels = this.channels;
+		int lane = channels.getLane(channel);
+		int length = body.remaining();
+		int size = Integer.BYTES + length;
+		if(lanes.length > 1 && size > channels.getChunkSize()) {
+			enqueueChunks(body, channel, lane, promise);
+			return;
+		}
+		ByteBuffer frame = size <= pool.getMaxFrameSize() ? pool.acquire(size) : ByteBuffer.allocate(size);
+		frame.putInt(length).put(body).flip();
+		Node node = new Node(frame, null, promise, lane);
+		node.pinned = pinned;
+		enqueue(node, node);
+	}
+
+	/**
+	 * splits the frame into a chain of chunks queued at once, the promise completes with the last chunk.
+	 */
+	private void enqueueChunks(ByteBuffer body, int channel, int lane, CompletableFuture<Void> promise){
+		int header = PacketCodec.chunkHeaderSize(channel);
+		int chunkLength = channels.getChunkSize() - Integer.BYTES - header;
+		Node first = null, last = null;
+		while (body.hasRemaining()) {
+			int length = Math.min(body.remaining(), chunkLength);
+			boolean more = body.remaining() > length;
+			ByteBuffer frame = pool.acquire(Integer.BYTES + header + length);
+			frame.putInt(header + length);
+			PacketCodec.writeChunkHeader(frame, channel, more);
+			frame.put(body.slice(body.position(), length)).flip();
+			body.position(body.position() + length);
+			Node node = new Node(frame, null, more ? null : promise, lane);
+			node.pinned = true;
+			if(first == null) {
+				first = node;
+			}
+			else {
+				last.next = node;
+			}
+			last = node;
+		}
+		enqueue(first, last);
+	}
+
+	/**
+	 * appends the chain of nodes from first to last to their lane.
+	 */
+	private void enqueue(Node first, Node last){
+		OutboundLimits limits = this.limits;
+		if(!limits.isUnbounded() && !reserve(first, limits)) {
+			return;
+		}
+		lanes[first.lane].tail.getAndSet(last).next = first;
+		schedule();
+		if(!limits.isUnbounded() && limits.getPolicy() == OverflowPolicy.DROP_OLDEST) {
+			dropOldest(limits, last);
+		}
+	}
+
+	/**
+	 * counts the chain of frames against the limits, applying the overflow policy when they are reached.
+	 * @return false if the frames were rejected, they are then already completed.
+	 */
+	private boolean reserve(Node first, OutboundLimits limits){
+		int size = 0, frames = 0;
+		for (Node node = first; node != null; node = node.next) {
+			size += node.length();
+			frames++;
+		}
+		if(limits.getPolicy() == OverflowPolicy.DROP_OLDEST) {
+			// older frames make room once these are queued.
+			add(size, frames, limits);
+		}
+		else if(!tryReserve(size, frames, limits)) {
+			OutboundOverflowException overflow = new OutboundOverflowException("Outbound buffer full");
+			if(limits.getPolicy() != OverflowPolicy.BLOCK || EventLoop.onEventLoopThread() || !awaitSpace(size, frames, limits)) {
+				for (Node node = first; node != null; node = node.next) {
+					complete(node, overflow);
+				}
+				if(limits.getPolicy() == OverflowPolicy.DISCONNECT) {
+					onError.onError(overflow);
+				}
+				return false;
+			}
+		}
+		for (Node node = first; node != null; node = node.next) {
+			node.size = node.length();
+		}
+		return true;
+	}
+
+	/**
+	 * counts the frames if they fit, frames always fit an empty queue.
+	 */
+	private boolean tryReserve(int size, int frames, OutboundLimits limits){
+		int queued = add(size, frames, limits);
+		if(queued > frames && (queued > limits.getMaxFrames() || queuedBytes.get() > limits.getMaxBytes())) {
+			remove(size, frames, limits);
+			return false;
+		}
+		return true;
+	}
+
+	private boolean awaitSpace(int size, int frames, OutboundLimits limits){
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(limits.getBlockTimeoutMillis());
+		synchronized (space) {
+			waiters++;
+			try {
+				while (!closed) {
+					if(tryReserve(size, frames, limits)) {
+						return true;
+					}
+					long remaining = deadline - System.nanoTime();
+					if(remaining <= 0) {
+						return false;
+					}
+					TimeUnit.NANOSECONDS.timedWait(space, remaining);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				waiters--;
+			}
+		}
+		return false;
+	}
+
+	private int add(int size, int frames, OutboundLimits limits){
+		int queued = queuedFrames.addAndGet(frames);
+		long bytes = queuedBytes.addAndGet(size);
+		if(bytes >= limits.getHighWaterMark() && !aboveHighWater.get() && aboveHighWater.compareAndSet(false, true) && onHighWater != null) {
+			onHighWater.run();
+		}
+		return queued;
+	}
+
+	private void remove(int size, int frames, OutboundLimits limits){
+		queuedFrames.addAndGet(-frames);
+		long bytes = queuedBytes.addAndGet(-size);
+		if(bytes <= limits.getLowWaterMark() && aboveHighWater.get() && aboveHighWater.compareAndSet(true, false) && onLowWater != null) {
+			onLowWater.run();
+		}
+		if(waiters > 0) {
+			synchronized (space) {
+				space.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * drops the oldest frames the writer has not taken yet, lowest lane first, until the queue is within its limits.
+	 * chunks and stream frames are never dropped, the receiver could not rebuild their frame or stream.
+	 * @param kept the frame just sent, it is kept.
+	 */
+	private void dropOldest(OutboundLimits limits, Node kept){
+		for (int i = lanes.length - 1; i >= 0; i--) {
+			Node node = lanes[i].dropFrom;
+			while (queuedFrames.get() > limits.getMaxFrames() || queuedBytes.get() > limits.getMaxBytes()) {
+				while (node != null && (node.state != QUEUED || node.pinned)) {
+					node = node.next;
+				}
+				if(node == null || node == kept) {
+					break;
+				}
+				if(STATE.compareAndSet(node, QUEUED, DROPPED)) {
+					complete(node, new OutboundOverflowException("Dropped for newer frames"));
+				}
+			}
+		}
+	}
+
+	private void schedule(){
+		if(scheduled.compareAndSet(false, true)) {
+			executor.execute(drainTask);
+		}
+	}
+
+	/**
+	 * continues writing after the channel became writable again, must be called by the thread the executor runs tasks on.
+	 */
+	public void resume(){
+		if(blocked) {
+			blocked = false;
+			drainLoop();
+		}
+	}
+
+	/**
+	 * returns if there are frames waiting to be written.
+	 */
+	public boolean isEmpty(){
+		for (Lane lane : lanes) {
+			if(lane.head.next != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * returns the bytes queued, only counted when the queue has limits.
+	 */
+	public long queuedBytes(){
+		return queuedBytes.get();
+	}
+
+	/**
+	 * runs while holding the scheduled flag, only one thread at a time drains.
+	 */
+	private void drainLoop(){
+		IOException error = null;
+		while (true) {
+			if(closed) {
+				clear();
+			}
+			else {
+				try {
+					if(!drain()) {
+						blocked = true;
+						if(!closed) {
+							if(onBlocked != null) {
+								onBlocked.run();
+							}
+							return;
+						}
+						blocked = false;
+						continue;
+					}
+				} catch (IOException e) {
+					closed = true;
+					error = e;
+					clear();
+				}
+			}
+			scheduled.set(false);
+			if(isEmpty() || !scheduled.compareAndSet(false, true)) {
+				break;
+			}
+		}
+		if(error != null) {
+			onError.onError(error);
+		}
+	}
+
+	/**
+	 * writes queued frames until the queue is empty.
+	 * @return false if the channel could not take all bytes.
+	 */
+	private boolean drain() throws IOException {
+		Lane[] lanes = this.lanes;
+		while (true) {
+			int count = 0;
+			long bytes = 0;
+			boolean region = false;
+			if(partial != null) {
+				// a partially written frame is finished before anything else, even of a higher lane.
+				batch[0] = partial.frame;
+				batchNodes[count++] = partial;
+				bytes += partial.length();
+				region = partial.file != null;
+			}
+			for (int i = 0; i < lanes.length && !region; i++) {
+				Lane lane = lanes[i];
+				// lower lanes only add a little to a batch, so a frame of a higher lane sent meanwhile waits less.
+				int maxBytes = i == 0 ? MAX_BATCH_BYTES : LOWER_LANE_BATCH_BYTES;
+				boolean taken = partial != null && partial.lane == i;
+				Node node = taken ? partial.next : lane.head.next;
+				while (node != null && count < MAX_BATCH_FRAMES && (count == 0 || bytes < maxBytes)) {
+					if(!take(node)) {
+						// dropped, it is already completed.
+						if(!taken) {
+							lane.head = node;
+						}
+						node = node.next;
+						continue;
+					}
+					if(node.file != null) {
+						// written on its own, right after the frames before it.
+						region = true;
+						if(count > 0) {
+							break;
+						}
+					}
+					taken = true;
+					batch[count] = node.frame;
+					batchNodes[count++] = node;
+					bytes += node.length();
+					node = node.next;
+					if(region) {
+						break;
+					}
+				}
+			}
+			if(count == 0) {
+				for (Lane lane : lanes) {
+					lane.dropFrom = lane.head;
+				}
+				return true;
+			}
+			long written = batchNodes[0].file != null ? writeRegion(batchNodes[0]) : channel.write(batch, 0, count);
+			int done = 0;
+			while (done < count && batchNodes[done].isWritten()) {
+				Node node = batchNodes[done];
+				complete(node, null);
+				// frames of a lane are written in order, so its head only moves forward.
+				lanes[node.lane].head = node;
+				done++;
+			}
+			partial = done < count && batch[done].position() > 0 ? batchNodes[done] : null;
+			if(metrics != null) {
+				metrics.framesOut(done, written, count);
+			}
+			for (int i = 0; i < count; i++) {
+				batch[i] = null;
+				batchNodes[i] = null;
+			}
+			for (Lane lane : lanes) {
+				lane.dropFrom = lane.head;
+			}
+			if(done < count) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * writes the header of the frame, then its file region straight from the file.
+	 * @return bytes written, stops early if a non-blocking channel is full.
+	 */
+	private long writeRegion(Node node) throws IOException {
+		long written = channel.write(node.frame);
+		while (!node.frame.hasRemaining() && node.fileRemaining > 0) {
+			long n = node.file.transferTo(node.filePosition, node.fileRemaining, channel);
+			if(n <= 0) {
+				if(node.filePosition >= node.file.size()) {
+					// the frame length is already sent, the connection can not continue.
+					throw new IOException("File truncated while being sent");
+				}
+				break;
+			}
+			node.filePosition += n;
+			node.fileRemaining -= n;
+			written += n;
+		}
+		return written;
+	}
+
+	/**
+	 * returns false if the frame was dropped.
+	 */
+	private static boolean take(Node node){
+		return node.state == TAKEN || STATE.compareAndSet(node, QUEUED, TAKEN);
+	}
+
+	/**
+	 * closes the queue, queued frames are dropped and their futures fail.
+	 */
+	public void close(){
+		closed = true;
+		if(waiters > 0) {
+			synchronized (space) {
+				space.notifyAll();
+			}
+		}
+		if(blocked) {
+			executor.execute(() -> {
+				if(blocked) {
+					blocked = false;
+					drainLoop();
+				}
+			});
+		}
+		else {
+			schedule();
+		}
+	}
+
+	private void clear(){
+		partial = null;
+		for (Lane lane : lanes) {
+			Node node;
+			while ((node = lane.head.next) != null) {
+				if(take(node)) {
+					complete(node, new ClosedChannelException());
+				}
+				lane.head = node;
+			}
+			lane.dropFrom = lane.head;
+		}
+	}
+
+	private void complete(Node node, Throwable error){
+		if(node.shared != null) {
+			node.shared.release();
+			node.shared = null;
+		}
+		else if(node.frame != null) {
+			pool.release(node.frame);
+		}
+		node.frame = null;
+		node.file = null;
+		if(node.size > 0) {
+			remove(node.size, 1, limits);
+			node.size = 0;
+		}
+		if(node.promise != null) {
+			if(error == null) {
+				node.promise.complete(null);
+			}
+			else {
+				node.promise.completeExceptionally(error);
+			}
+			node.promise = null;
+		}
+	}
+
+	private static final class Node {
+		private ByteBuffer frame;
+		private SharedFrame shared;
+		private CompletableFuture<Void> promise;
+		private final int lane;
+		private boolean pinned = false;
+		private FileChannel file;
+		private long filePosition;
+		private long fileRemaining;
+		private int size;
+		private volatile int state = QUEUED;
+		private volatile Node next;
+
+		private Node(ByteBuffer frame, SharedFrame shared, CompletableFuture<Void> promise, int lane) {
+			this.frame = frame;
+			this.shared = shared;
+			this.promise = promise;
+			this.lane = lane;
+		}
+
+		private int length(){
+			return frame.remaining() + (int) fileRemaining;
+		}
+
+		private boolean isWritten(){
+			return !frame.hasRemaining() && fileRemaining == 0;
+		}
+	}
+
+	/**
+	 * a multi-producer queue of the frames of one priority, the head is only moved by the writer.
+	 */
+	private static final class Lane {
+		private final AtomicReference<Node> tail;
+		private volatile Node dropFrom;
+		private Node head;
+
+		private Lane() {
+			head = new Node(null, null, null, 0);
+			head.state = TAKEN;
+			dropFrom = head;
+			tail = new AtomicReference<>(head);
+		}
+	}
+}
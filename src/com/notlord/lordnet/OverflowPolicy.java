@@ -0,0 +1,24 @@
+package com.notlord.lordnet;
+
+/**
+ * what happens to a packet sent to a client whose outbound buffer is full.
+ */
+public enum OverflowPolicy {
+	/**
+	 * the new packet is dropped.
+	 */
+	DROP_NEWEST,
+	/**
+	 * the oldest packets not yet being written are dropped to make room, for state updates where only the latest matters.
+	 */
+	DROP_OLDEST,
+	/**
+	 * the client is disconnected.
+	 */
+	DISCONNECT,
+	/**
+	 * the sender waits for room up to the block timeout, then the new packet is dropped.
+	 * senders on event loop threads never wait, their packet is dropped right away.
+	 */
+	BLOCK
+}
@@ -0,0 +1,719 @@
+package com.notlord.lordnet;
+
+import com.notlord.lordnet.metrics.TransportMetrics;
+import com.notlord.lordnet.serialization.GsonSerializer;
+import com.notlord.lordnet.serialization.MalformedPacketException;
+import com.notlord.lordnet.serialization.PacketSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+
+/**
+ * encodes and decodes packets of a connection, in either {@link WireProtocol}.
+ * <ul>
+ *     <li>string protocol: serialized packet + separator id + class name.</li>
+ *     <li>binary protocol: varint type id + serialized packet, type id 0 carries a string protocol packet for unregistered classes.</li>
+ * </ul>
+ * decoding works straight on the received buffer, the separator is found with a byte search
+ * and class names are resolved through a cache keyed by their bytes.
+ * <br>
+ * with frame headers every frame starts with a flags byte, telling if the rest is deflated or stored,
+ * if the frame is a request or response, and if it is sent on a channel, followed by the channel and the correlation id.
+ * a chunk frame carries a slice of a larger frame, see {@link ChunkAssembler}, a stream frame a part of a stream, see {@link InboundStreams}.
+ * frame headers are used with {@link FrameCompression} or {@link #setFrameHeaders(boolean)}.
+ */
+public final class PacketCodec {
+	private static final int INITIAL_ENCODE_BUFFER_SIZE = 4 * 1024;
+	private static final int MAX_RETAINED_ENCODE_BUFFER_SIZE = 1024 * 1024;
+	private static final ThreadLocal<ByteBuffer> encodeBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_ENCODE_BUFFER_SIZE));
+	private static final ThreadLocal<ByteBuffer> compressBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_ENCODE_BUFFER_SIZE));
+	private static final ThreadLocal<ByteBuffer> inflateBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_ENCODE_BUFFER_SIZE));
+	private static final byte HANDSHAKE_MARKER = 0;
+	private static final byte BINARY_VERSION = 2;
+	private static final byte EXTENDED_VERSION = 3;
+	private static final byte HEADER_VERSION = 4;
+	static final int PLAIN = 0;
+	static final int REQUEST = 1;
+	static final int RESPONSE = 2;
+	static final int FAILURE = 3;
+	private static final int KIND_SHIFT = 1;
+	private static final int KIND_MASK = 3;
+	static final byte CHANNEL = 1 << 3;
+	static final byte CHUNK = 1 << 4;
+	static final byte MORE = 1 << 5;
+	static final byte STREAM = 1 << 6;
+	static final byte CONTROL = (byte) (1 << 7);
+	private static final int FLAGS_MASK = FrameCompression.DEFLATED | KIND_MASK << KIND_SHIFT | CHANNEL;
+	private static final byte NO_COMPRESSION = 0;
+	private static final byte DEFLATE_COMPRESSION = 1;
+	private static final int FALLBACK_TYPE_ID = 0;
+	private static final ClassValue<byte[]> classNames = new ClassValue<>() {
+		@Override
+		protected byte[] computeValue(Class<?> type) {
+			return type.getName().getBytes(StandardCharsets.UTF_8);
+		}
+	};
+	private final String separatorId;
+	private final byte[] separator;
+	private final PacketSerializer serializer;
+	private final WireProtocol protocol;
+	private final Class<?>[] types;
+	private final Map<Class<?>, Integer> typeIds;
+	private Map<Integer, String> missingTypes = Map.of();
+	private final ConcurrentHashMap<ByteBuffer, Class<?>> classes = new ConcurrentHashMap<>();
+	private FrameCompression compression = null;
+	private boolean frameHeaders = false;
+	private int maxFrameSize = BufferPool.DEFAULT_MAX_FRAME_SIZE;
+	private TransportMetrics metrics = null;
+	private int datagramPort = 0;
+	private long datagramToken = 0;
+	private byte[] datagramKey = null;
+	private byte[] sessionToken = null;
+
+	/**
+	 * creates a codec for the string protocol, using gson.
+	 * @param separatorId separator between the packet body and the class name.
+	 */
+	public PacketCodec(String separatorId) {
+		this(separatorId, new GsonSerializer());
+	}
+
+	/**
+	 * creates a codec for the string protocol.
+	 * @param separatorId separator between the packet body and the class name.
+	 * @param serializer serializer of packet bodies.
+	 */
+	public PacketCodec(String separatorId, PacketSerializer serializer) {
+		this(separatorId, serializer, WireProtocol.STRING, new Class<?>[1]);
+	}
+
+	/**
+	 * creates a codec for the binary protocol.
+	 * @param separatorId separator used by packets of unregistered classes.
+	 * @param serializer serializer of packet bodies.
+	 * @param types registered packet classes, they get the type ids 1, 2, 3... in order.
+	 */
+	public PacketCodec(String separatorId, PacketSerializer serializer, List<Class<?>> types) {
+		this(separatorId, serializer, WireProtocol.BINARY, toTypeArray(types));
+	}
+
+	private PacketCodec(String separatorId, PacketSerializer serializer, WireProtocol protocol, Class<?>[] types) {
+		this.separatorId = separatorId;
+		this.separator = separatorId.getBytes(StandardCharsets.UTF_8);
+		this.serializer = serializer;
+		this.protocol = protocol;
+		this.types = types;
+		this.typeIds = new HashMap<>();
+		for (int id = 1; id < types.length; id++) {
+			if(types[id] != null) {
+				typeIds.put(types[id], id);
+			}
+		}
+	}
+
+	private static Class<?>[] toTypeArray(List<Class<?>> types){
+		Class<?>[] array = new Class<?>[types.size() + 1];
+		for (int i = 0; i < types.size(); i++) {
+			array[i + 1] = types.get(i);
+		}
+		return array;
+	}
+
+	public String getSeparatorId(){
+		return separatorId;
+	}
+
+	public WireProtocol getProtocol(){
+		return protocol;
+	}
+
+	/**
+	 * set the compression of frames, must be set before the codec is used.
+	 * @param compression null for no compression, the default.
+	 */
+	public void setCompression(FrameCompression compression){
+		this.compression = compression;
+	}
+
+	public FrameCompression getCompression(){
+		return compression;
+	}
+
+	/**
+	 * set if frames carry a header even without compression, needed for requests and channels, must be set before the codec is used.
+	 */
+	public void setFrameHeaders(boolean frameHeaders){
+		this.frameHeaders = frameHeaders;
+	}
+
+	/**
+	 * returns if frames carry a header, so requests, responses and packets on channels can be sent.
+	 */
+	public boolean hasFrameHeaders(){
+		return frameHeaders || compression != null;
+	}
+
+	/**
+	 * set the largest frame body a compressed frame may decompress to, must be set before the codec is used.
+	 * @param maxFrameSize {@link BufferPool#DEFAULT_MAX_FRAME_SIZE} by default.
+	 */
+	public void setMaxFrameSize(int maxFrameSize){
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * records encode and decode times in the metrics, must be set before the codec is used.
+	 * @param metrics may be null.
+	 */
+	public void setMetrics(TransportMetrics metrics){
+		this.metrics = metrics;
+	}
+
+	/**
+	 * returns the body of the handshake frame the server sends.
+	 * for the string protocol it is the separator id alone, so older clients keep working,
+	 * frame headers need the extended handshake which carries the protocol and the compression settings.
+	 */
+	public byte[] handshake(){
+		if(protocol == WireProtocol.STRING && !hasFrameHeaders()) {
+			return separator.clone();
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(HANDSHAKE_MARKER);
+		if(!hasFrameHeaders()) {
+			out.write(BINARY_VERSION);
+			writeBytes(out, separator);
+			writeTypes(out);
+			return out.toByteArray();
+		}
+		// version 3 only has headers with compression, so it is kept for compression alone.
+		out.write(frameHeaders ? HEADER_VERSION : EXTENDED_VERSION);
+		out.write(protocol.ordinal());
+		writeBytes(out, separator);
+		if(protocol == WireProtocol.BINARY) {
+			writeTypes(out);
+		}
+		if(compression == null) {
+			out.write(NO_COMPRESSION);
+			return out.toByteArray();
+		}
+		out.write(DEFLATE_COMPRESSION);
+		writeVarint(out, compression.getThreshold());
+		out.write(compression.getLevel() + 1);
+		byte[] dictionary = compression.dictionary();
+		writeBytes(out, dictionary == null ? new byte[0] : dictionary);
+		return out.toByteArray();
+	}
+
+	/**
+	 * returns the body of the handshake frame like {@link #handshake()}, followed by the port of the server's
+	 * unreliable channel, the token of the client's datagrams and the key that authenticates them, older clients ignore them.
+	 * @throws IllegalStateException if the codec has no frame headers.
+	 */
+	public byte[] handshake(int datagramPort, long datagramToken, byte[] datagramKey){
+		return handshake(datagramPort, datagramToken, datagramKey, null);
+	}
+
+	/**
+	 * returns the body of the handshake frame like {@link #handshake(int, long, byte[])}, followed by the client's session token.
+	 * @param datagramPort 0 if the server has no unreliable channel, the token and key are then ignored.
+	 * @param sessionToken null if the server does not resume sessions.
+	 * @throws IllegalStateException if the codec has no frame headers.
+	 * @throws IllegalArgumentException if the server has an unreliable channel and the key is not {@link DatagramPeer#KEY_SIZE} bytes.
+	 */
+	public byte[] handshake(int datagramPort, long datagramToken, byte[] datagramKey, byte[] sessionToken){
+		if(!frameHeaders) {
+			throw new IllegalStateException("Datagrams and sessions need frame headers");
+		}
+		if(datagramPort != 0 && (datagramKey == null || datagramKey.length != DatagramPeer.KEY_SIZE)) {
+			throw new IllegalArgumentException("Datagrams need a key of " + DatagramPeer.KEY_SIZE + " bytes");
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.writeBytes(handshake());
+		writeVarint(out, datagramPort);
+		out.writeBytes(ByteBuffer.allocate(Long.BYTES).putLong(datagramToken).array());
+		if(datagramPort != 0) {
+			// only sent over the connection, so datagrams seen on the way can not be forged.
+			out.writeBytes(datagramKey);
+		}
+		if(sessionToken != null) {
+			out.writeBytes(sessionToken);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * returns the port of the server's unreliable channel given in the handshake, 0 if it has none.
+	 */
+	int getDatagramPort(){
+		return datagramPort;
+	}
+
+	/**
+	 * returns the token of the client's datagrams given in the handshake.
+	 */
+	long getDatagramToken(){
+		return datagramToken;
+	}
+
+	/**
+	 * returns the key authenticating the client's datagrams given in the handshake, null if the server has no unreliable channel.
+	 */
+	byte[] getDatagramKey(){
+		return datagramKey;
+	}
+
+	/**
+	 * returns the client's session token given in the handshake, null if the server does not resume sessions.
+	 */
+	public byte[] getSessionToken(){
+		return sessionToken;
+	}
+
+	private void writeTypes(ByteArrayOutputStream out){
+		writeVarint(out, types.length - 1);
+		for (int id = 1; id < types.length; id++) {
+			writeVarint(out, id);
+			writeBytes(out, types[id].getName().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * creates the client side codec from the handshake frame sent by the server.
+	 * registered classes that do not exist on the client are skipped,
+	 * decoding their packets throws a {@link ClassNotFoundException} naming the class, like unknown classes of the string protocol.
+	 * @param serializer serializer of packet bodies, must be the one the server uses.
+	 * @throws IllegalArgumentException if the handshake uses an unknown protocol version, or holds a count or length beyond its end.
+	 */
+	public static PacketCodec fromHandshake(byte[] handshake, PacketSerializer serializer){
+		if(handshake.length == 0 || handshake[0] != HANDSHAKE_MARKER) {
+			return new PacketCodec(new String(handshake, StandardCharsets.UTF_8), serializer);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(handshake, 1, handshake.length - 1);
+		byte version = buffer.get();
+		if(version == BINARY_VERSION) {
+			String separatorId = new String(readBytes(buffer), StandardCharsets.UTF_8);
+			Map<Integer, String> missing = new HashMap<>();
+			PacketCodec codec = new PacketCodec(separatorId, serializer, WireProtocol.BINARY, readTypes(buffer, missing));
+			codec.missingTypes = missing;
+			return codec;
+		}
+		if(version != EXTENDED_VERSION && version != HEADER_VERSION) {
+			throw new IllegalArgumentException("Unknown protocol version " + version);
+		}
+		int protocolIndex = buffer.get();
+		if(protocolIndex < 0 || protocolIndex >= WireProtocol.values().length) {
+			throw new IllegalArgumentException("Unknown wire protocol " + protocolIndex);
+		}
+		WireProtocol protocol = WireProtocol.values()[protocolIndex];
+		String separatorId = new String(readBytes(buffer), StandardCharsets.UTF_8);
+		Map<Integer, String> missing = new HashMap<>();
+		PacketCodec codec = protocol == WireProtocol.BINARY
+				? new PacketCodec(separatorId, serializer, WireProtocol.BINARY, readTypes(buffer, missing))
+				: new PacketCodec(separatorId, serializer);
+		codec.missingTypes = missing;
+		byte algorithm = buffer.get();
+		if(algorithm == DEFLATE_COMPRESSION) {
+			int threshold = Varint.read(buffer);
+			int level = buffer.get() - 1;
+			codec.setCompression(new FrameCompression(threshold, level, readBytes(buffer)));
+		}
+		else if(algorithm != NO_COMPRESSION) {
+			throw new IllegalArgumentException("Unknown compression " + algorithm);
+		}
+		codec.setFrameHeaders(version == HEADER_VERSION);
+		if(version == HEADER_VERSION && buffer.hasRemaining()) {
+			codec.datagramPort = Varint.read(buffer);
+			codec.datagramToken = buffer.getLong();
+			if(codec.datagramPort != 0) {
+				if(buffer.remaining() < DatagramPeer.KEY_SIZE) {
+					throw new IllegalArgumentException("Handshake is missing the datagram key");
+				}
+				codec.datagramKey = new byte[DatagramPeer.KEY_SIZE];
+				buffer.get(codec.datagramKey);
+			}
+			if(buffer.remaining() >= Session.TOKEN_SIZE) {
+				codec.sessionToken = new byte[Session.TOKEN_SIZE];
+				buffer.get(codec.sessionToken);
+			}
+		}
+		return codec;
+	}
+
+	/**
+	 * reads the registered classes, the names of classes that do not exist here are put into missing by type id.
+	 */
+	private static Class<?>[] readTypes(ByteBuffer buffer, Map<Integer, String> missing){
+		int count = Varint.read(buffer);
+		// every type takes at least a byte for its id and one for the length of its name.
+		if(count < 0 || count > buffer.remaining() / 2) {
+			throw new IllegalArgumentException("Type count " + count + " exceeds the handshake");
+		}
+		Class<?>[] types = new Class<?>[count + 1];
+		for (int i = 0; i < count; i++) {
+			int id = Varint.read(buffer);
+			String name = new String(readBytes(buffer), StandardCharsets.UTF_8);
+			if(id <= 0 || id > count) {
+				throw new IllegalArgumentException("Type id " + id + " out of range");
+			}
+			try {
+				types[id] = Class.forName(name);
+			} catch (ClassNotFoundException e) {
+				missing.put(id, name);
+			}
+		}
+		return types;
+	}
+
+	/**
+	 * encodes a packet into a buffer owned by the calling thread, nothing is allocated once the buffer has grown to fit.
+	 * the returned buffer holds the frame body between its position and limit,
+	 * and is only valid until the next encode on the same thread.
+	 * the frame is compressed if the codec has a compression.
+	 */
+	public ByteBuffer encode(Object o){
+		return encode(PLAIN, 0, 0, o);
+	}
+
+	/**
+	 * encodes a packet sent on a channel like {@link #encode(Object)}, it is decoded as a {@link ChannelPacket}.
+	 * @param channel 0 is the default channel, the packet is then encoded as by {@link #encode(Object)}.
+	 * @throws IllegalArgumentException if the channel is out of range.
+	 * @throws IllegalStateException if the channel is not 0 and the codec has no frame headers.
+	 */
+	public ByteBuffer encode(Object o, int channel){
+		ChannelPriorities.checkChannel(channel);
+		if(channel != 0 && !hasFrameHeaders()) {
+			throw new IllegalStateException("Channels need frame headers");
+		}
+		return encode(PLAIN, channel, 0, o);
+	}
+
+	/**
+	 * encodes a request like {@link #encode(Object)}, the response carries the same id.
+	 * @throws IllegalStateException if the codec has no frame headers.
+	 */
+	public ByteBuffer encodeRequest(int id, Object request){
+		return encode(REQUEST, 0, id, request);
+	}
+
+	/**
+	 * encodes the response to a request like {@link #encode(Object)}.
+	 * @param response may be null.
+	 * @throws IllegalStateException if the codec has no frame headers.
+	 */
+	public ByteBuffer encodeResponse(int id, Object response){
+		return encode(RESPONSE, 0, id, response);
+	}
+
+	/**
+	 * encodes the failure of a request like {@link #encode(Object)}.
+	 * @throws IllegalStateException if the codec has no frame headers.
+	 */
+	public ByteBuffer encodeFailure(int id, String message){
+		return encode(FAILURE, 0, id, message);
+	}
+
+	private ByteBuffer encode(int kind, int channel, int id, Object o){
+		if(kind != PLAIN && !hasFrameHeaders()) {
+			throw new IllegalStateException("Requests need frame headers");
+		}
+		TransportMetrics metrics = this.metrics;
+		if(metrics == null) {
+			return encodeFrame(kind, channel, id, o);
+		}
+		long start = System.nanoTime();
+		ByteBuffer frame = encodeFrame(kind, channel, id, o);
+		metrics.serialize().recordSince(start);
+		return frame;
+	}
+
+	private ByteBuffer encodeFrame(int kind, int channel, int id, Object o){
+		FrameCompression compression = this.compression;
+		boolean headers = hasFrameHeaders();
+		ByteBuffer buffer = encodeBuffers.get();
+		int bodyStart;
+		while (true) {
+			buffer.clear();
+			try {
+				if(headers) {
+					// the flags are written in front of the body once the compression is known.
+					buffer.put(FrameCompression.STORED);
+					if(channel != 0) {
+						Varint.write(buffer, channel);
+					}
+					if(kind != PLAIN) {
+						Varint.write(buffer, id);
+					}
+				}
+				bodyStart = buffer.position();
+				if(o != null) {
+					encode(o, buffer);
+				}
+				buffer.flip();
+				break;
+			}
+			catch (BufferOverflowException e) {
+				buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+				if(buffer.capacity() <= MAX_RETAINED_ENCODE_BUFFER_SIZE) {
+					encodeBuffers.set(buffer);
+				}
+			}
+		}
+		if(!headers) {
+			return buffer;
+		}
+		byte flags = (byte) (kind << KIND_SHIFT | (channel != 0 ? CHANNEL : 0));
+		return compression == null ? buffer.put(0, flags) : compress(buffer, bodyStart, flags, compression);
+	}
+
+	private static ByteBuffer compress(ByteBuffer frame, int bodyStart, byte flags, FrameCompression compression){
+		int size = frame.remaining(), length = size - bodyStart;
+		if(compression.shouldCompress(length)) {
+			ByteBuffer out = scratch(compressBuffers, size);
+			out.put((byte) (flags | FrameCompression.DEFLATED));
+			// the channel and correlation id stay in front of the deflated body.
+			out.put(frame.limit(bodyStart).position(1));
+			frame.limit(size);
+			Varint.write(out, length);
+			// only worth it if the deflated frame is smaller than the stored one.
+			if(out.position() < size - 1) {
+				out.limit(size - 1);
+				if(compression.deflate(frame.position(bodyStart), out)) {
+					return out.flip();
+				}
+			}
+			frame.position(0);
+		}
+		return frame.put(0, flags);
+	}
+
+	/**
+	 * returns the size of the header of a chunk frame on the channel.
+	 */
+	static int chunkHeaderSize(int channel){
+		return channel == 0 ? 1 : 1 + Varint.size(channel);
+	}
+
+	/**
+	 * writes the header of a chunk frame, the chunk follows it.
+	 * @param more if more chunks of the frame follow.
+	 */
+	static void writeChunkHeader(ByteBuffer out, int channel, boolean more){
+		out.put((byte) (CHUNK | (more ? MORE : 0) | (channel != 0 ? CHANNEL : 0)));
+		if(channel != 0) {
+			Varint.write(out, channel);
+		}
+	}
+
+	private static ByteBuffer scratch(ThreadLocal<ByteBuffer> buffers, int size){
+		ByteBuffer buffer = buffers.get();
+		if(buffer.capacity() < size) {
+			buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+			if(buffer.capacity() <= MAX_RETAINED_ENCODE_BUFFER_SIZE) {
+				buffers.set(buffer);
+			}
+		}
+		return buffer.clear();
+	}
+
+	/**
+	 * encodes a packet into an uncompressed frame body at the position of the caller's buffer.
+	 * @throws BufferOverflowException if the buffer is too small, the position of the buffer is then undefined.
+	 */
+	public void encode(Object o, ByteBuffer out){
+		Integer id = protocol == WireProtocol.BINARY ? typeIds.get(o.getClass()) : null;
+		if(id != null) {
+			Varint.write(out, id);
+			serializer.serialize(o, out);
+			return;
+		}
+		if(protocol == WireProtocol.BINARY) {
+			out.put((byte) FALLBACK_TYPE_ID);
+		}
+		serializer.serialize(o, out);
+		out.put(separator);
+		out.put(classNames.get(o.getClass()));
+	}
+
+	/**
+	 * encodes a packet into a new array.
+	 */
+	public byte[] encodeToArray(Object o){
+		ByteBuffer body = encode(o);
+		byte[] bytes = new byte[body.remaining()];
+		body.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * decodes a packet from the frame between the position and limit of the buffer.
+	 * the buffer can be reused once this returns.
+	 * requests and responses are returned as a {@link RpcMessage} holding the packet,
+	 * packets sent on a channel other than the default one as a {@link ChannelPacket}.
+	 * chunk frames must be reassembled by a {@link ChunkAssembler} first, stream frames are handled by {@link InboundStreams}.
+	 * @throws ClassNotFoundException if the class or type id of the packet is unknown.
+	 * @throws MalformedPacketException if the frame header, compressed body or type id is malformed, the connection should be closed.
+	 */
+	public Object decode(ByteBuffer frame) throws ClassNotFoundException {
+		TransportMetrics metrics = this.metrics;
+		if(metrics == null) {
+			return decodeFrame(frame);
+		}
+		long start = System.nanoTime();
+		Object o = decodeFrame(frame);
+		metrics.deserialize().recordSince(start);
+		return o;
+	}
+
+	private Object decodeFrame(ByteBuffer frame) throws ClassNotFoundException {
+		if(!hasFrameHeaders()) {
+			return decodeBody(frame);
+		}
+		if(!frame.hasRemaining()) {
+			throw new MalformedPacketException("Empty frame");
+		}
+		byte flags = frame.get();
+		if((flags & ~FLAGS_MASK) != 0) {
+			throw new MalformedPacketException("Unknown frame flags " + flags);
+		}
+		int kind = flags >> KIND_SHIFT & KIND_MASK, id = 0, channel = 0;
+		try {
+			if((flags & CHANNEL) != 0) {
+				channel = Varint.read(frame);
+			}
+			if(kind != PLAIN) {
+				id = Varint.read(frame);
+			}
+		}
+		catch (RuntimeException e) {
+			throw new MalformedPacketException("Malformed frame header", e);
+		}
+		if(channel < 0 || channel >= ChannelPriorities.MAX_CHANNELS) {
+			throw new MalformedPacketException("Channel " + channel + " out of range");
+		}
+		ByteBuffer body = (flags & FrameCompression.DEFLATED) == 0 ? frame : inflate(frame);
+		if(kind == PLAIN) {
+			return channel == 0 ? decodeBody(body) : new ChannelPacket(channel, decodeBody(body));
+		}
+		return new RpcMessage(kind, id, body.hasRemaining() ? decodeBody(body) : null);
+	}
+
+	private ByteBuffer inflate(ByteBuffer frame){
+		FrameCompression compression = this.compression;
+		if(compression == null) {
+			throw new MalformedPacketException("Compressed frame without compression");
+		}
+		int length;
+		try {
+			length = Varint.read(frame);
+		}
+		catch (RuntimeException e) {
+			throw new MalformedPacketException("Malformed compressed frame size", e);
+		}
+		if(length < 0 || length > maxFrameSize) {
+			throw new MalformedPacketException("Compressed frame of " + length + " bytes exceeds max frame size");
+		}
+		ByteBuffer inflated = scratch(inflateBuffers, length).limit(length);
+		try {
+			compression.inflate(frame, inflated);
+		}
+		catch (DataFormatException | RuntimeException e) {
+			throw new MalformedPacketException("Malformed compressed frame", e);
+		}
+		return inflated.flip();
+	}
+
+	private Object decodeBody(ByteBuffer frame) throws ClassNotFoundException {
+		int start = frame.position(), end = frame.limit();
+		if(protocol == WireProtocol.BINARY) {
+			int id = 0, shift = 0;
+			byte b;
+			do {
+				if(start >= end || shift >= 35) {
+					throw new MalformedPacketException("Malformed type id");
+				}
+				b = frame.get(start++);
+				id |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			if(id != FALLBACK_TYPE_ID) {
+				if(id < 0 || id >= types.length || types[id] == null) {
+					String missing = missingTypes.get(id);
+					throw new ClassNotFoundException(missing == null ? "Unknown type id " + id : missing);
+				}
+				frame.position(start);
+				return serializer.deserialize(frame, types[id]);
+			}
+		}
+		int index = lastIndexOf(frame, start, end);
+		if(index < 0) {
+			throw new MalformedPacketException("Frame has no separator");
+		}
+		Class<?> type = resolve(frame, index + separator.length, end);
+		frame.position(start).limit(index);
+		try {
+			return serializer.deserialize(frame, type);
+		}
+		finally {
+			frame.limit(end);
+		}
+	}
+
+	private int lastIndexOf(ByteBuffer frame, int start, int end){
+		byte first = separator[0];
+		outer:
+		for (int i = end - separator.length; i >= start; i--) {
+			if(frame.get(i) != first) {
+				continue;
+			}
+			for (int j = 1; j < separator.length; j++) {
+				if(frame.get(i + j) != separator[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private Class<?> resolve(ByteBuffer frame, int start, int end) throws ClassNotFoundException {
+		ByteBuffer name = frame.duplicate().limit(end).position(start);
+		Class<?> type = classes.get(name);
+		if(type == null) {
+			byte[] bytes = new byte[end - start];
+			name.get(bytes);
+			type = Class.forName(new String(bytes, StandardCharsets.UTF_8));
+			classes.put(ByteBuffer.wrap(bytes), type);
+		}
+		return type;
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value){
+		byte[] bytes = new byte[Varint.size(value)];
+		Varint.write(bytes, 0, value);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static void writeBytes(ByteArrayOutputStream out, byte[] bytes){
+		writeVarint(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer){
+		int length = Varint.read(buffer);
+		if(length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("Length " + length + " exceeds the " + buffer.remaining() + " bytes left of the handshake");
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+}
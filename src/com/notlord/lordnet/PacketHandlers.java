@@ -0,0 +1,94 @@
+package com.notlord.lordnet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * packet handlers registered by packet class.
+ * <br>
+ * a packet is passed to the handlers of its class, then of its superclasses, then of its interfaces, and last of {@link Object}.
+ * the handlers of every packet class are resolved once and cached, so dispatching a packet is a single lookup.
+ * registering a handler clears the cache.
+ * @param <C> what handlers get along with the packet, such as the client instance that sent it.
+ */
+public final class PacketHandlers<C> {
+	@SuppressWarnings("rawtypes")
+	private static final BiConsumer[] NONE = new BiConsumer[0];
+	private final Map<Class<?>, List<BiConsumer<? super C, Object>>> registered = new HashMap<>();
+	private volatile ClassValue<BiConsumer<? super C, Object>[]> resolved = newCache();
+
+	/**
+	 * registers a handler of packets of the type, including subclasses and implementations.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> void on(Class<T> type, BiConsumer<? super C, ? super T> handler){
+		registered.computeIfAbsent(type, t -> new ArrayList<>()).add((BiConsumer<? super C, Object>) handler);
+		resolved = newCache();
+	}
+
+	/**
+	 * passes the packet to its handlers.
+	 * @return false if the packet has no handlers.
+	 */
+	public boolean dispatch(C context, Object packet){
+		BiConsumer<? super C, Object>[] handlers = resolved.get(packet.getClass());
+		for (BiConsumer<? super C, Object> handler : handlers) {
+			handler.accept(context, packet);
+		}
+		return handlers.length > 0;
+	}
+
+	private ClassValue<BiConsumer<? super C, Object>[]> newCache(){
+		return new ClassValue<>() {
+			@Override
+			protected BiConsumer<? super C, Object>[] computeValue(Class<?> type) {
+				return resolve(type);
+			}
+		};
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private synchronized BiConsumer<? super C, Object>[] resolve(Class<?> type){
+		if(registered.isEmpty()) {
+			return NONE;
+		}
+		List<BiConsumer<? super C, Object>> handlers = new ArrayList<>();
+		for (Class<?> c : lookupOrder(type)) {
+			List<BiConsumer<? super C, Object>> list = registered.get(c);
+			if(list != null) {
+				handlers.addAll(list);
+			}
+		}
+		return handlers.isEmpty() ? NONE : handlers.toArray(new BiConsumer[0]);
+	}
+
+	/**
+	 * returns the class, its superclasses, its interfaces breadth first, and last {@link Object}.
+	 */
+	static List<Class<?>> lookupOrder(Class<?> type){
+		List<Class<?>> order = new ArrayList<>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			order.add(c);
+		}
+		Set<Class<?>> interfaces = new LinkedHashSet<>();
+		ArrayDeque<Class<?>> pending = new ArrayDeque<>();
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			pending.addAll(List.of(c.getInterfaces()));
+		}
+		while (!pending.isEmpty()) {
+			Class<?> c = pending.poll();
+			if(interfaces.add(c)) {
+				pending.addAll(List.of(c.getInterfaces()));
+			}
+		}
+		order.addAll(interfaces);
+		order.add(Object.class);
+		return order;
+	}
+}
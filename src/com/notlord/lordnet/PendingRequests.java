@@ -0,0 +1,123 @@
+package com.notlord.lordnet;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * requests sent over a connection that wait for their response.
+ * <br>
+ * any number of requests may be outstanding, each is matched to its response by its correlation id.
+ * pending requests are kept in a concurrent map, ids are sequential so inserts mostly land in empty bins with a single cas,
+ * and timeouts wait on the shared {@link Threads#wheel()} instead of a thread per request,
+ * where scheduling and cancelling do not slow down as more requests are outstanding.
+ */
+public final class PendingRequests {
+	private final AtomicInteger ids = new AtomicInteger();
+	private final ConcurrentHashMap<Integer, Pending<?>> pending = new ConcurrentHashMap<>();
+
+	/**
+	 * registers a new request.
+	 * @param type class of the response.
+	 * @param timeout the request fails with a {@link TimeoutException} if no response arrives in time, null to wait until the connection closes.
+	 * @return the future of the response, holding the correlation id to send the request with.
+	 */
+	public <R> Pending<R> open(Class<R> type, Duration timeout){
+		Pending<R> request = new Pending<>(ids.incrementAndGet(), type);
+		pending.put(request.id, request);
+		if(timeout != null) {
+			request.timeout = Threads.wheel().schedule(() -> {
+				if(pending.remove(request.id, request)) {
+					request.completeExceptionally(new TimeoutException("No response within " + timeout.toMillis() + "ms"));
+				}
+			}, timeout.toNanos(), TimeUnit.NANOSECONDS);
+		}
+		return request;
+	}
+
+	/**
+	 * completes the request a response or failure belongs to.
+	 * @return false if no request waits for it, because it timed out or the id is unknown.
+	 */
+	public boolean complete(RpcMessage message){
+		Pending<?> request = pending.remove(message.getId());
+		if(request == null) {
+			return false;
+		}
+		request.cancelTimeout();
+		if(message.isFailure()) {
+			request.completeExceptionally(new RequestException(String.valueOf(message.getPayload())));
+		}
+		else {
+			request.completeWith(message.getPayload());
+		}
+		return true;
+	}
+
+	/**
+	 * fails a request, such as one that could not be sent.
+	 */
+	public void fail(int id, Throwable error){
+		Pending<?> request = pending.remove(id);
+		if(request != null) {
+			request.cancelTimeout();
+			request.completeExceptionally(error);
+		}
+	}
+
+	/**
+	 * fails all pending requests, once the connection closes.
+	 */
+	public void failAll(Throwable error){
+		for (Integer id : pending.keySet()) {
+			fail(id, error);
+		}
+	}
+
+	/**
+	 * returns the amount of requests waiting for their response.
+	 */
+	public int size(){
+		return pending.size();
+	}
+
+	/**
+	 * the future of a response.
+	 */
+	public static final class Pending<R> extends CompletableFuture<R> {
+		private final int id;
+		private final Class<R> type;
+		private volatile TimerWheel.Timeout timeout;
+
+		private Pending(int id, Class<R> type) {
+			this.id = id;
+			this.type = type;
+		}
+
+		/**
+		 * returns the correlation id of the request.
+		 */
+		public int id(){
+			return id;
+		}
+
+		private void cancelTimeout(){
+			TimerWheel.Timeout timeout = this.timeout;
+			if(timeout != null) {
+				timeout.cancel();
+			}
+		}
+
+		private void completeWith(Object response){
+			if(response == null || type.isInstance(response)) {
+				complete(type.cast(response));
+			}
+			else {
+				completeExceptionally(new ClassCastException("Response " + response.getClass().getName() + " is not a " + type.getName()));
+			}
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.notlord.lordnet;
+
+/**
+ * the first packet of every connection of a {@link ClientPool}, tells the server which pool the connection belongs to.
+ * handled by the server, it is not passed to handlers and listeners.
+ */
+final class PoolJoin {
+	private long pool;
+	private int index;
+	private int size;
+
+	PoolJoin() {}
+
+	PoolJoin(long pool, int index, int size) {
+		this.pool = pool;
+		this.index = index;
+		this.size = size;
+	}
+
+	long getPool(){
+		return pool;
+	}
+
+	int getIndex(){
+		return index;
+	}
+
+	int getSize(){
+		return size;
+	}
+}
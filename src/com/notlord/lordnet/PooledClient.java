@@ -0,0 +1,132 @@
+package com.notlord.lordnet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the connections of one {@link ClientPool}, grouped on the server as a single client.
+ * <br>
+ * every connection has a slot, packets sent by key always go to the slot of the key, so packets of a key stay in order
+ * while its connection is up. while the slot is empty, before its connection joins or after it is lost,
+ * they go to the first connection that is up instead.
+ * see {@link Server#getPool(IClientInstance)}.
+ */
+public final class PooledClient {
+	/**
+	 * most connections a pool may have.
+	 */
+	public static final int MAX_CONNECTIONS = 64;
+	private final long id;
+	private final IClientInstance[] slots;
+	private final AtomicInteger next = new AtomicInteger();
+	private int joined = 0;
+
+	PooledClient(long id, int size) {
+		this.id = id;
+		this.slots = new IClientInstance[size];
+	}
+
+	/**
+	 * returns the id the client pool chose, the same on every connection of the pool.
+	 */
+	public long getId(){
+		return id;
+	}
+
+	/**
+	 * returns the amount of connections the pool opens.
+	 */
+	public int getSize(){
+		return slots.length;
+	}
+
+	/**
+	 * returns the connections of the pool that are up, in slot order.
+	 */
+	public synchronized List<IClientInstance> getConnections(){
+		List<IClientInstance> connections = new ArrayList<>(joined);
+		for (IClientInstance slot : slots) {
+			if(slot != null) {
+				connections.add(slot);
+			}
+		}
+		return connections;
+	}
+
+	/**
+	 * send a packet on the next connection, taking turns.
+	 */
+	public void send(Object o){
+		connection(next.getAndIncrement()).send(o);
+	}
+
+	/**
+	 * send a packet on the connection of the key, packets of a key arrive in order.
+	 * @param key any object, such as an entity id, its hash code picks the connection.
+	 */
+	public void send(Object o, Object key){
+		connection(key.hashCode()).send(o);
+	}
+
+	/**
+	 * send a packet on the connection of the key, like {@link #send(Object, Object)}.
+	 * @return completes once the packet is written to the socket, or exceptionally if the connection closes first.
+	 */
+	public CompletableFuture<Void> sendAsync(Object o, Object key){
+		return connection(key.hashCode()).sendAsync(o);
+	}
+
+	/**
+	 * closes every connection of the pool.
+	 */
+	public void close(){
+		for (IClientInstance connection : getConnections()) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * @throws IllegalStateException if no connection of the pool is up.
+	 */
+	private synchronized IClientInstance connection(int hash){
+		IClientInstance connection = slots[Math.floorMod(hash, slots.length)];
+		if(connection != null) {
+			return connection;
+		}
+		for (IClientInstance slot : slots) {
+			if(slot != null) {
+				return slot;
+			}
+		}
+		throw new IllegalStateException("No connection of the pool is up");
+	}
+
+	/**
+	 * puts the connection in its slot.
+	 * @return false if the slot is taken.
+	 */
+	synchronized boolean join(int index, IClientInstance connection){
+		if(slots[index] != null) {
+			return false;
+		}
+		slots[index] = connection;
+		joined++;
+		return true;
+	}
+
+	/**
+	 * empties the slot of the connection.
+	 * @return true if it was the last connection of the pool.
+	 */
+	synchronized boolean leave(IClientInstance connection){
+		for (int i = 0; i < slots.length; i++) {
+			if(slots[i] == connection) {
+				slots[i] = null;
+				joined--;
+			}
+		}
+		return joined == 0;
+	}
+}
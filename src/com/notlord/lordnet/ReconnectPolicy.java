@@ -0,0 +1,75 @@
+package com.notlord.lordnet;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * when a client reconnects after losing its connection.
+ * <br>
+ * the delay before each attempt doubles from the min delay up to the max delay, and a random half of it is jitter,
+ * so clients that lost their connections at once do not all reconnect at once.
+ * if the server resumes sessions the client resumes its own, see {@link SessionResumption}, otherwise listeners see
+ * a disconnect and a connect. once every attempt failed the client closes.
+ */
+public final class ReconnectPolicy {
+	/**
+	 * 10 attempts, from 100 milliseconds up to 5 seconds apart.
+	 */
+	public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(Duration.ofMillis(100), Duration.ofSeconds(5), 10);
+	private final long minDelayMillis;
+	private final long maxDelayMillis;
+	private final int maxAttempts;
+	private final int replayBytes;
+
+	/**
+	 * creates a policy keeping {@link SessionResumption#DEFAULT_REPLAY_BYTES} for replay.
+	 */
+	public ReconnectPolicy(Duration minDelay, Duration maxDelay, int maxAttempts) {
+		this(minDelay, maxDelay, maxAttempts, SessionResumption.DEFAULT_REPLAY_BYTES);
+	}
+
+	/**
+	 * @param minDelay delay before the first attempt, before jitter.
+	 * @param maxDelay longest delay between attempts, before jitter.
+	 * @param maxAttempts attempts before the client gives up and closes.
+	 * @param replayBytes most bytes of frames the server has not acknowledged kept by the client, see {@link SessionResumption}.
+	 * @throws IllegalArgumentException if a delay is negative, the delays are out of order, or a limit is not positive.
+	 */
+	public ReconnectPolicy(Duration minDelay, Duration maxDelay, int maxAttempts, int replayBytes) {
+		if(minDelay.isNegative() || minDelay.compareTo(maxDelay) > 0 || maxAttempts < 1 || replayBytes < 1) {
+			throw new IllegalArgumentException("Invalid reconnect policy");
+		}
+		this.minDelayMillis = minDelay.toMillis();
+		this.maxDelayMillis = maxDelay.toMillis();
+		this.maxAttempts = maxAttempts;
+		this.replayBytes = replayBytes;
+	}
+
+	public Duration getMinDelay(){
+		return Duration.ofMillis(minDelayMillis);
+	}
+
+	public Duration getMaxDelay(){
+		return Duration.ofMillis(maxDelayMillis);
+	}
+
+	public int getMaxAttempts(){
+		return maxAttempts;
+	}
+
+	public int getReplayBytes(){
+		return replayBytes;
+	}
+
+	/**
+	 * returns the delay before the attempt, counted from 0, in milliseconds.
+	 */
+	public long delayMillis(int attempt){
+		long delay = minDelayMillis << Math.min(attempt, 30);
+		if(delay > maxDelayMillis || delay < 0) {
+			delay = maxDelayMillis;
+		}
+		long half = delay / 2;
+		return delay - half + (half == 0 ? 0 : ThreadLocalRandom.current().nextLong(half + 1));
+	}
+}
@@ -0,0 +1,72 @@
+package com.notlord.lordnet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * copies of sent frames the peer has not acknowledged yet, numbered by the count of frames sent before them.
+ * bounded in bytes, the oldest frames are dropped once it is full, frames are dropped once acknowledged.
+ * not thread safe, guarded by its {@link Session}.
+ */
+final class ReplayBuffer {
+	private final int capacity;
+	private final ArrayDeque<byte[]> frames = new ArrayDeque<>();
+	private long first = 0;
+	private long bytes = 0;
+
+	ReplayBuffer(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * copies the frame body between position and limit, the position is not moved.
+	 */
+	void record(ByteBuffer body){
+		byte[] copy = new byte[body.remaining()];
+		body.get(body.position(), copy);
+		frames.addLast(copy);
+		bytes += copy.length;
+		while (bytes > capacity && !frames.isEmpty()) {
+			bytes -= frames.pollFirst().length;
+			first++;
+		}
+	}
+
+	/**
+	 * drops the frames the peer received, the count of frames it received.
+	 */
+	void acknowledge(long count){
+		while (first < count && !frames.isEmpty()) {
+			bytes -= frames.pollFirst().length;
+			first++;
+		}
+	}
+
+	/**
+	 * returns the frames after the count of frames the peer received, in order.
+	 * @return null if some of them were already dropped, or the count is ahead of what was sent.
+	 */
+	List<byte[]> from(long count){
+		if(count < first || count > next()) {
+			return null;
+		}
+		acknowledge(count);
+		return new ArrayList<>(frames);
+	}
+
+	/**
+	 * returns the number of the oldest frame kept.
+	 */
+	long first(){
+		return first;
+	}
+
+	/**
+	 * returns the count of frames recorded.
+	 */
+	long next(){
+		return first + frames.size();
+	}
+}
@@ -0,0 +1,14 @@
+package com.notlord.lordnet;
+
+import java.io.IOException;
+
+/**
+ * a request failed, the server had no handler for it or the handler threw.
+ */
+public class RequestException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public RequestException(String message) {
+		super(message);
+	}
+}
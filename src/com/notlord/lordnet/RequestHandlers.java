@@ -0,0 +1,103 @@
+package com.notlord.lordnet;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * request handlers registered by request class, the value a handler returns is sent back as the response.
+ * <br>
+ * a request goes to the handler of its class, else of its closest superclass, then interface, then {@link Object}.
+ * like {@link PacketHandlers}, the handler of every request class is resolved once and cached.
+ * @param <C> what handlers get along with the request, such as the client instance that sent it.
+ */
+public final class RequestHandlers<C> {
+	private final Map<Class<?>, BiFunction<? super C, Object, ?>> registered = new HashMap<>();
+	private volatile ClassValue<BiFunction<? super C, Object, ?>> resolved = newCache();
+
+	/**
+	 * registers the handler of requests of the type, replacing a handler registered for the same type.
+	 * a handler may return a {@link CompletionStage}, the response is then sent once it completes.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> void on(Class<T> type, BiFunction<? super C, ? super T, ?> handler){
+		registered.put(type, (BiFunction<? super C, Object, ?>) handler);
+		resolved = newCache();
+	}
+
+	/**
+	 * returns if no handler is registered.
+	 */
+	public synchronized boolean isEmpty(){
+		return registered.isEmpty();
+	}
+
+	/**
+	 * runs the handler of the request and sends its response, or a failure if there is no handler or it throws.
+	 * @param codec encodes the response.
+	 * @param send queues the encoded response to the client, the buffer is only valid during the call.
+	 */
+	public void handle(C context, RpcMessage request, PacketCodec codec, Consumer<ByteBuffer> send){
+		int id = request.getId();
+		Object payload = request.getPayload();
+		BiFunction<? super C, Object, ?> handler = payload == null ? null : resolved.get(payload.getClass());
+		if(handler == null) {
+			send.accept(codec.encodeFailure(id, "No request handler for " + (payload == null ? null : payload.getClass().getName())));
+			return;
+		}
+		Object response;
+		try {
+			response = handler.apply(context, payload);
+		}
+		catch (Exception e) {
+			send.accept(codec.encodeFailure(id, e.toString()));
+			return;
+		}
+		if(response instanceof CompletionStage<?> stage) {
+			stage.whenComplete((result, error) -> respond(id, result, error, codec, send));
+		}
+		else {
+			respond(id, response, null, codec, send);
+		}
+	}
+
+	private static void respond(int id, Object response, Throwable error, PacketCodec codec, Consumer<ByteBuffer> send){
+		if(error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		ByteBuffer frame;
+		try {
+			frame = error != null ? codec.encodeFailure(id, error.toString()) : codec.encodeResponse(id, response);
+		}
+		catch (RuntimeException e) {
+			frame = codec.encodeFailure(id, "Failed to encode response: " + e);
+		}
+		send.accept(frame);
+	}
+
+	private ClassValue<BiFunction<? super C, Object, ?>> newCache(){
+		return new ClassValue<>() {
+			@Override
+			protected BiFunction<? super C, Object, ?> computeValue(Class<?> type) {
+				return resolve(type);
+			}
+		};
+	}
+
+	private synchronized BiFunction<? super C, Object, ?> resolve(Class<?> type){
+		if(registered.isEmpty()) {
+			return null;
+		}
+		for (Class<?> c : PacketHandlers.lookupOrder(type)) {
+			BiFunction<? super C, Object, ?> handler = registered.get(c);
+			if(handler != null) {
+				return handler;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,45 @@
+package com.notlord.lordnet;
+
+/**
+ * a request, response or request failure decoded by {@link PacketCodec}, holding its packet and correlation id.
+ */
+public final class RpcMessage {
+	private final int kind;
+	private final int id;
+	private final Object payload;
+
+	RpcMessage(int kind, int id, Object payload) {
+		this.kind = kind;
+		this.id = id;
+		this.payload = payload;
+	}
+
+	public boolean isRequest(){
+		return kind == PacketCodec.REQUEST;
+	}
+
+	public boolean isResponse(){
+		return kind == PacketCodec.RESPONSE;
+	}
+
+	/**
+	 * returns if the request failed on the other side, the payload is then the failure message.
+	 */
+	public boolean isFailure(){
+		return kind == PacketCodec.FAILURE;
+	}
+
+	/**
+	 * returns the correlation id, a response carries the id of its request.
+	 */
+	public int getId(){
+		return id;
+	}
+
+	/**
+	 * returns the packet, may be null for a response.
+	 */
+	public Object getPayload(){
+		return payload;
+	}
+}
@@ -1,28 +1,80 @@
 package com.notlord.lordnet;
 
-import com.google.gson.Gson;
 import com.notlord.lordnet.listeners.ServerListener;
+import com.notlord.lordnet.metrics.ConnectionMetrics;
+import com.notlord.lordnet.metrics.TransportMetrics;
+import com.notlord.lordnet.serialization.GsonSerializer;
+import com.notlord.lordnet.serialization.PacketSerializer;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 
 public class Server {
+	/**
+	 * connections the os queues until they are accepted, used by every server.
+	 * the default of 50 drops bursts of connects while threads are started.
+	 */
+	public static final int ACCEPT_BACKLOG = 1024;
 	private final String separatorId = UUID.randomUUID() + "-sepId";
-	private static final Gson gson = new Gson();
+	private volatile PacketCodec codec;
+	private WireProtocol protocol = WireProtocol.STRING;
+	private PacketSerializer serializer = new GsonSerializer();
+	private FrameCompression compression = null;
+	private OutboundLimits outboundLimits = OutboundLimits.UNBOUNDED;
+	private Heartbeats heartbeats = null;
+	private volatile StripedExecutor dispatcher = null;
+	private final PacketHandlers<IClientInstance> handlers = new PacketHandlers<>();
+	private final RequestHandlers<IClientInstance> requestHandlers = new RequestHandlers<>();
+	private final ChannelListeners<IClientInstance> channelListeners = new ChannelListeners<>();
+	private final List<BiConsumer<IClientInstance, InboundStream>> streamListeners = new CopyOnWriteArrayList<>();
+	private final Map<Integer, Integer> channelPriorities = new HashMap<>();
+	private int chunkSize = ChannelPriorities.DEFAULT_CHUNK_SIZE;
+	private ChannelPriorities channels = ChannelPriorities.NONE;
+	private final TransportMetrics metrics = new TransportMetrics();
+	private final List<Class<?>> packetTypes = new ArrayList<>();
 	private volatile boolean running = false;
 	private ServerSocket socket;
 	private int port;
+	private int unreliablePort = -1;
+	private DatagramEndpoint datagrams;
+	private final Map<Long, ClientInstance> datagramClients = new ConcurrentHashMap<>();
+	private final Map<Long, PooledClient> pools = new HashMap<>();
+	private SessionResumption resumption = null;
+	private final Map<ByteBuffer, ClientInstance> sessions = new ConcurrentHashMap<>();
+	private final Set<ClientInstance> handshaking = ConcurrentHashMap.newKeySet();
+	private ConnectionMode mode = ConnectionMode.THREAD;
+	private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+	private EventLoopGroup eventLoopGroup;
+	private int maxFrameSize = BufferPool.DEFAULT_MAX_FRAME_SIZE;
+	private boolean directBuffers = false;
+	private BufferPool bufferPool;
 	private final List<ServerListener> listeners = new ArrayList<>();
-	private final List<ClientInstance> clients = new CopyOnWriteArrayList<>();
-	private int id = 0;
+	private final ClientRegistry<ClientInstance> clients = new ClientRegistry<>();
+	private final ClientGroups<ClientInstance> groups = new ClientGroups<>();
 
 	/**
 	 * creates a server.
@@ -39,6 +91,112 @@ public class Server {
 		this.port = port;
 	}
 
+	/**
+	 * set how client connections are handled, takes effect on the next start.
+	 * @param mode {@link ConnectionMode#THREAD} by default.
+	 */
+	public void setConnectionMode(ConnectionMode mode) {
+		if(mode == ConnectionMode.VIRTUAL_THREAD && !Threads.virtualThreadsSupported()) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+		}
+		this.mode = mode;
+	}
+
+	/**
+	 * set the amount of event loop threads used in {@link ConnectionMode#EVENT_LOOP}.
+	 * @param threads amount of threads, defaults to the amount of available processors.
+	 */
+	public void setEventLoopThreads(int threads) {
+		this.eventLoopThreads = threads;
+	}
+
+	/**
+	 * set the largest frame a client may send, clients sending larger frames are disconnected.
+	 * also caps the size of pooled receive buffers, takes effect on the next start.
+	 * @param maxFrameSize max frame size in bytes, {@link BufferPool#DEFAULT_MAX_FRAME_SIZE} by default.
+	 */
+	public void setMaxFrameSize(int maxFrameSize) {
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * set if receive buffers are direct buffers, only used in {@link ConnectionMode#EVENT_LOOP}.
+	 * blocking modes always read into heap buffers.
+	 */
+	public void setDirectBuffers(boolean directBuffers) {
+		this.directBuffers = directBuffers;
+	}
+
+	/**
+	 * set the format of packets, takes effect on the next start.
+	 * @param protocol {@link WireProtocol#STRING} by default.
+	 */
+	public void setWireProtocol(WireProtocol protocol) {
+		this.protocol = protocol;
+	}
+
+	/**
+	 * registers packet classes for the binary protocol, they are sent as a small type id instead of their name.
+	 * type ids are given in registration order and sent to clients in the handshake, takes effect on the next start.
+	 */
+	public void registerPackets(Class<?>... types) {
+		packetTypes.addAll(List.of(types));
+	}
+
+	/**
+	 * set the serializer of packets, clients must use the same serializer, takes effect on the next start.
+	 * @param serializer {@link GsonSerializer} by default.
+	 */
+	public void setSerializer(PacketSerializer serializer) {
+		this.serializer = serializer;
+	}
+
+	/**
+	 * set the compression of frames, sent to clients in the handshake, takes effect on the next start.
+	 * compression is applied to both directions of every connection.
+	 * @param compression null for no compression, the default.
+	 */
+	public void setCompression(FrameCompression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * set the limits of every client's outbound buffer, and what happens when a client does not keep up, takes effect on the next start.
+	 * listeners are told when a client crosses the high and low water marks.
+	 * @param outboundLimits {@link OutboundLimits#UNBOUNDED} by default.
+	 */
+	public void setOutboundLimits(OutboundLimits outboundLimits) {
+		this.outboundLimits = outboundLimits;
+	}
+
+	/**
+	 * set the heartbeats and timeouts of every client's connection, see {@link Heartbeats}, takes effect on the next start.
+	 * listeners are told when a client times out, before its disconnect.
+	 * @param heartbeats null for no heartbeats, the default, connections then only end once the socket reports it.
+	 */
+	public void setHeartbeats(Heartbeats heartbeats) {
+		this.heartbeats = heartbeats;
+	}
+
+	/**
+	 * set if the ids of clients that disconnected are given to new clients, the ids freed longest ago first.
+	 * an id is freed once listeners were told of the disconnect, an id kept after that may then name another client.
+	 * @param recycle false by default, ids then count up.
+	 */
+	public void setIdRecycling(boolean recycle) {
+		clients.setRecycling(recycle);
+	}
+
+	/**
+	 * set where packets are decoded and passed to listeners.
+	 * with a dispatcher, reading threads only read, packets of a client are handled in order on the dispatcher stripe of its id,
+	 * connect and disconnect events included. the dispatcher is not closed with the server.
+	 * @param dispatcher null to handle packets inline on the reading thread, the default and lowest latency.
+	 */
+	public void setDispatcher(StripedExecutor dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
 	/**
 	 * adds a listener to the server.
 	 * @param l listener to add
@@ -46,15 +204,134 @@ public class Server {
 	public void addListener(ServerListener l){
 		listeners.add(l);
 	}
+
+	/**
+	 * registers a handler of packets of the type, including subclasses and implementations.
+	 * handlers run before the listeners, which still receive every packet.
+	 * example: server.on(MovePacket.class, (client, packet) -> ...);
+	 */
+	public <T> void on(Class<T> type, BiConsumer<IClientInstance, ? super T> handler){
+		handlers.on(type, handler);
+	}
+
+	/**
+	 * registers the handler of requests of the type, the value it returns is sent back to the client as the response.
+	 * a handler may return a CompletionStage, the response is then sent once it completes.
+	 * clients can only send requests if a request handler is registered when the server starts.
+	 * example: server.onRequest(LoginRequest.class, (client, request) -> new LoginResponse(...));
+	 */
+	public <T> void onRequest(Class<T> type, BiFunction<IClientInstance, ? super T, ?> handler){
+		requestHandlers.on(type, handler);
+	}
+
+	/**
+	 * registers a listener of packets clients send on the channel, they are not passed to handlers and listeners.
+	 * packets on channels without a channel listener are passed to handlers and listeners like any other packet.
+	 * clients can only send on channels if a channel is configured when the server starts.
+	 */
+	public void onChannel(int channel, BiConsumer<IClientInstance, Object> listener){
+		channelListeners.on(channel, listener);
+	}
+
+	/**
+	 * registers a listener of streams clients send, called when a stream opens, on the thread reading the client.
+	 * the listener chooses where the data goes, see {@link InboundStream}.
+	 * clients can only send streams if a stream listener is registered when the server starts.
+	 * example: server.onStream((client, stream) -> stream.transferTo(Path.of("upload.bin")));
+	 */
+	public void onStream(BiConsumer<IClientInstance, InboundStream> listener){
+		streamListeners.add(listener);
+	}
+
+	/**
+	 * set the priority of packets sent to clients on the channel, takes effect on the next start.
+	 * frames of a higher priority are written before frames of a lower priority queued earlier,
+	 * and large frames are split into chunks, so a large transfer does not hold back small urgent packets.
+	 * packets of one channel always arrive in order.
+	 * @param priority higher is more urgent, channels have priority 0 by default.
+	 */
+	public void setChannelPriority(int channel, int priority){
+		ChannelPriorities.checkChannel(channel);
+		channelPriorities.put(channel, priority);
+	}
+
+	/**
+	 * set the size frames to clients are split into when channels have different priorities, takes effect on the next start.
+	 * smaller chunks let urgent packets through sooner, larger chunks cost less per byte.
+	 * @param chunkSize {@link ChannelPriorities#DEFAULT_CHUNK_SIZE} by default.
+	 */
+	public void setChunkSize(int chunkSize){
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * set the port of the unreliable channel, a udp socket for packets where only the latest matters, such as positions.
+	 * clients receive the port, a token and a key authenticating their datagrams in the handshake, takes effect on the next start.
+	 * see {@link ClientInstance#sendUnreliable(Object)}.
+	 * @param port -1 for no unreliable channel, the default, 0 for any free port, may be the port of the server.
+	 */
+	public void setUnreliablePort(int port) {
+		this.unreliablePort = port;
+	}
+
+	/**
+	 * set if clients that lose their connection may resume their session, see {@link SessionResumption}, takes effect on the next start.
+	 * clients are then announced to listeners once their first frame arrives, channel priorities are not used since
+	 * both sides must write frames in the order they are sent, and outbound limits must use {@link OverflowPolicy#DISCONNECT}.
+	 * streams are not resumed, a stream in progress fails when the connection is lost.
+	 * @param resumption null to end sessions with their connection, the default.
+	 */
+	public void setSessionResumption(SessionResumption resumption) {
+		this.resumption = resumption;
+	}
+
+	/**
+	 * returns the pool the client's connection belongs to, if it was opened by a {@link ClientPool}.
+	 * @return null if the connection is not part of a pool, or has not joined its pool yet.
+	 */
+	public PooledClient getPool(IClientInstance client){
+		return client instanceof ClientInstance instance ? instance.pool : null;
+	}
+
+	/**
+	 * returns the traffic counters and latencies of the server, across all clients.
+	 * while running they are also registered over jmx, as com.notlord.lordnet:type=Server,port=...
+	 */
+	public TransportMetrics getMetrics(){
+		return metrics;
+	}
+
 	private void initialize() throws IOException {
-		socket = new ServerSocket(port);
+		bufferPool = new BufferPool(maxFrameSize, directBuffers && mode == ConnectionMode.EVENT_LOOP);
+		PacketCodec codec = protocol == WireProtocol.BINARY ? new PacketCodec(separatorId, serializer, packetTypes) : new PacketCodec(separatorId, serializer);
+		codec.setCompression(compression);
+		codec.setMaxFrameSize(maxFrameSize);
+		codec.setMetrics(metrics);
+		codec.setFrameHeaders(!requestHandlers.isEmpty() || !channelListeners.isEmpty() || !channelPriorities.isEmpty() || !streamListeners.isEmpty()
+				|| unreliablePort >= 0 || resumption != null);
+		this.codec = codec;
+		channels = resumption == null ? new ChannelPriorities(channelPriorities, chunkSize) : ChannelPriorities.NONE;
+		socket = ServerSocketChannel.open().socket();
+		socket.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+		if(mode == ConnectionMode.EVENT_LOOP) {
+			eventLoopGroup = new EventLoopGroup(eventLoopThreads);
+		}
+		if(unreliablePort >= 0) {
+			datagrams = DatagramEndpoint.bind(unreliablePort, this::datagramReceived);
+			datagrams.start("Server-Datagrams");
+		}
+		metrics.register("type=Server,port=" + socket.getLocalPort());
 		running = true;
 	}
 
 	/**
 	 * starts the server.
+	 * @throws IllegalStateException if sessions are resumed and outbound limits drop packets, which could not be replayed.
 	 */
 	public void start(){
+		if(resumption != null && outboundLimits != OutboundLimits.UNBOUNDED && outboundLimits.getPolicy() != OverflowPolicy.DISCONNECT) {
+			throw new IllegalStateException("Session resumption needs outbound limits that disconnect");
+		}
 		if(!running) {
 			running = true;
 			new Thread(this::serverClientConnectionHandle,"Server").start();
@@ -72,7 +349,22 @@ public class Server {
 					client.close();
 				}
 				clients.clear();
+				groups.clear();
+				for (ClientInstance client : handshaking) {
+					client.closeSocket();
+				}
+				handshaking.clear();
+				sessions.clear();
 				socket.close();
+				if(datagrams != null) {
+					datagrams.close();
+					datagrams = null;
+				}
+				metrics.unregister();
+				if(eventLoopGroup != null) {
+					eventLoopGroup.close();
+					eventLoopGroup = null;
+				}
 			}
 			catch (Exception e){
 				e.printStackTrace();
@@ -89,10 +381,16 @@ public class Server {
 		}
 		while (running) {
 			try {
-				clientConnect(new ClientInstance(this, socket.accept(), id));
-				id++;
+				Socket accepted = socket.accept();
+				long start = System.nanoTime();
+				accepted.setTcpNoDelay(true);
+				int id = clients.allocateId();
+				clientConnect(mode == ConnectionMode.EVENT_LOOP ?
+						new NioClientInstance(this, accepted.getChannel(), id, eventLoopGroup.next()) :
+						new SocketClientInstance(this, accepted, id, mode == ConnectionMode.VIRTUAL_THREAD));
+				metrics.accept().recordSince(start);
 			} catch (IOException e) {
-				if (!e.getMessage().equals("Socket closed"))
+				if (e.getMessage() != null && !e.getMessage().equals("Socket closed"))
 					e.printStackTrace();
 				break;
 			}
@@ -101,29 +399,436 @@ public class Server {
 	}
 
 	protected void clientConnect(ClientInstance clientSocket) throws IOException{
-		byte[] bytes = separatorId.getBytes(StandardCharsets.UTF_8);
-		clientSocket.writer.writeInt(bytes.length);
-		clientSocket.writer.write(bytes);
+		clientSocket.outbound().setMetrics(clientSocket.metrics);
+		clientSocket.outbound().setChannels(channels);
+		clientSocket.outbound().setLimits(outboundLimits,
+				() -> listeners.forEach(listener -> listener.clientHighWater(clientSocket)),
+				() -> listeners.forEach(listener -> listener.clientLowWater(clientSocket)));
+		if(heartbeats != null) {
+			clientSocket.heartbeat = new HeartbeatMonitor(heartbeats, clientSocket.metrics, clientSocket.outbound(), clientSocket::timeOut);
+			clientSocket.heartbeat.start();
+		}
+		DatagramPeer peer = clientSocket.datagramPeer;
+		Session session = clientSocket.session;
+		if(peer != null) {
+			// registered first, so the client's first datagram is not dropped.
+			datagramClients.put(peer.getToken(), clientSocket);
+		}
+		if(peer != null || session != null) {
+			clientSocket.outbound().send(ByteBuffer.wrap(codec.handshake(peer == null ? 0 : clientSocket.datagrams.getLocalPort(),
+					peer == null ? 0 : peer.getToken(), peer == null ? null : peer.getKey(), session == null ? null : session.getToken())));
+		}
+		else {
+			clientSocket.outbound().send(ByteBuffer.wrap(codec.handshake()));
+		}
+		if(session != null) {
+			// announced once its first frame tells if it resumes a session.
+			sessions.put(ByteBuffer.wrap(session.getToken()), clientSocket);
+			handshaking.add(clientSocket);
+			clientSocket.start();
+			return;
+		}
+		clientSocket.announced = true;
+		StripedExecutor dispatcher = clientSocket.dispatcher;
+		Runnable connected = () -> listeners.forEach((listener -> listener.clientConnect(clientSocket)));
+		if(dispatcher != null) {
+			// queued before reading starts, so listeners see the connect before any packet.
+			dispatcher.execute(clientSocket.getID(), connected);
+		}
 		clientSocket.start();
 		clients.add(clientSocket);
-		listeners.forEach((listener -> listener.clientConnect(clientSocket)));
+		if(dispatcher == null) {
+			connected.run();
+		}
+	}
+
+	/**
+	 * announces a client that sent its first frame to listeners, as a new client.
+	 * @param resumable false if the client never resumes its session, the session is dropped.
+	 */
+	private void announce(ClientInstance clientSocket, boolean resumable){
+		if(!resumable) {
+			sessions.remove(ByteBuffer.wrap(clientSocket.session.getToken()));
+			clientSocket.session = null;
+		}
+		handshaking.remove(clientSocket);
+		clientSocket.announced = true;
+		clients.add(clientSocket);
+		Runnable connected = () -> listeners.forEach((listener -> listener.clientConnect(clientSocket)));
+		StripedExecutor dispatcher = clientSocket.dispatcher;
+		if(dispatcher == null) {
+			connected.run();
+		}
+		else {
+			dispatcher.execute(clientSocket.getID(), connected);
+		}
+	}
+
+	/**
+	 * @throws IOException if the control frame is malformed.
+	 */
+	private void control(ClientInstance clientSocket, ByteBuffer frame) throws IOException {
+		try {
+			byte type = Session.readType(frame);
+			ClientInstance owner = clientSocket.identity;
+			if(type == Session.ACK) {
+				Session session = owner.session;
+				if(session != null) {
+					session.acknowledge(frame.getLong());
+				}
+			}
+			else if(type == Session.GOODBYE) {
+				if(owner.announced && owner.session != null) {
+					endSession(owner, false);
+				}
+			}
+			// hello and resume are only accepted as the first frame.
+			else if(!owner.announced && type == Session.HELLO) {
+				announce(clientSocket, frame.get() != 0);
+			}
+			else if(!owner.announced && type == Session.RESUME) {
+				byte[] token = new byte[Session.TOKEN_SIZE];
+				frame.get(token);
+				resume(clientSocket, token, frame.getLong(), frame.getLong());
+			}
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Client " + clientSocket.getID() + " sent a malformed control frame", e);
+		}
+	}
+
+	/**
+	 * resumes the session of the token on the connection, or goes on with the connection as a new client.
+	 * @param received count of frames the client received.
+	 * @param firstKept number of the oldest frame the client kept for replay.
+	 */
+	private void resume(ClientInstance transport, byte[] token, long received, long firstKept){
+		ClientInstance owner = sessions.get(ByteBuffer.wrap(token));
+		if(owner != null && owner != transport && owner.session != null && resume(owner, transport, received, firstKept)) {
+			return;
+		}
+		transport.outbound().send(Session.rejected());
+		if(owner != null && owner != transport && owner.session != null) {
+			// the client starts over, so its old session is over too.
+			endSession(owner, false);
+		}
+		announce(transport, true);
+	}
+
+	/**
+	 * moves the session onto the new connection, which is told what the server received, followed by what the client did not.
+	 * @return false if the session ended, or the replay buffers no longer hold all that was lost.
+	 */
+	private boolean resume(ClientInstance owner, ClientInstance transport, long received, long firstKept){
+		Session session = owner.session;
+		ClientInstance previous;
+		long bytes = 0;
+		int frames;
+		// waits for the frame the old connection is handing on, it drops later ones once the session moved.
+		synchronized (owner.delivery) {
+			synchronized (session) {
+				List<byte[]> replay = owner.ended ? null : session.replayFrom(received);
+				if(replay == null || session.getReceived() < firstKept) {
+					return false;
+				}
+				if(owner.expiry != null) {
+					owner.expiry.cancel();
+					owner.expiry = null;
+				}
+				sessions.remove(ByteBuffer.wrap(transport.session.getToken()));
+				handshaking.remove(transport);
+				transport.session = null;
+				transport.identity = owner;
+				transport.outbound().send(Session.resumed(session.getReceived()));
+				for (byte[] frame : replay) {
+					transport.outbound().send(ByteBuffer.wrap(frame));
+					bytes += frame.length;
+				}
+				frames = replay.size();
+				previous = owner.carrier;
+				owner.carrier = transport;
+			}
+		}
+		if(previous != null) {
+			// a connection the server did not notice was lost yet.
+			previous.closeSocket();
+		}
+		metrics.resumed(frames, bytes);
+		return true;
+	}
+
+	/**
+	 * keeps the session of a client whose connection was lost, until the keep alive ends.
+	 * @return false if the session ended with the connection, and the client is disconnected.
+	 */
+	private boolean suspend(ClientInstance owner, ClientInstance transport){
+		synchronized (owner.session) {
+			if(owner.carrier != transport) {
+				// the session already moved on to a new connection, or ended.
+				return true;
+			}
+			owner.carrier = null;
+			if(owner.ended || !running) {
+				owner.ended = true;
+				return false;
+			}
+			owner.expiry = Threads.wheel().schedule(() -> endSession(owner, true), resumption.getKeepAlive().toNanos(), TimeUnit.NANOSECONDS);
+			return true;
+		}
+	}
+
+	/**
+	 * ends the session, closing its connection, the client is disconnected once.
+	 * a client that is still connected is told goodbye, so it does not try to resume.
+	 * @param expired true if the keep alive ended, the session then only ends if it was not resumed meanwhile.
+	 */
+	private void endSession(ClientInstance owner, boolean expired){
+		ClientInstance carrier;
+		synchronized (owner.session) {
+			if(owner.ended || expired && owner.carrier != null) {
+				return;
+			}
+			owner.ended = true;
+			if(owner.expiry != null) {
+				owner.expiry.cancel();
+				owner.expiry = null;
+			}
+			carrier = owner.carrier;
+		}
+		if(carrier == null) {
+			owner.notifyDisconnect();
+		}
+		else if(!running) {
+			carrier.closeSocket();
+		}
+		else {
+			// the connection ends once what was sent before is written, and disconnects the client.
+			carrier.outbound().sendAsync(Session.goodbye())
+					.orTimeout(Session.GOODBYE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+					.whenComplete((written, e) -> carrier.closeSocket());
+		}
 	}
 
 	protected void clientDisconnect(ClientInstance clientSocket){
+		Session session = clientSocket.session;
+		if(session != null) {
+			sessions.remove(ByteBuffer.wrap(session.getToken()));
+		}
 		listeners.forEach((listener -> listener.clientDisconnect(clientSocket)));
 		clients.remove(clientSocket);
+		groups.leaveAll(clientSocket);
+		PooledClient pool = clientSocket.pool;
+		if(pool != null) {
+			boolean last;
+			synchronized (pools) {
+				last = pool.leave(clientSocket);
+				if(last) {
+					pools.remove(pool.getId());
+				}
+			}
+			if(last) {
+				listeners.forEach(listener -> listener.clientPoolDisconnect(pool));
+			}
+		}
+		clients.releaseId(clientSocket.getID());
+	}
+
+	protected void clientTimeout(ClientInstance clientSocket){
+		listeners.forEach((listener -> listener.clientTimeout(clientSocket)));
 	}
 
 	protected void clientInput(ClientInstance clientSocket, Object o){
+		long start = System.nanoTime();
+		if(o instanceof RpcMessage message) {
+			if(message.isRequest()) {
+				requestHandlers.handle(clientSocket, message, codec, clientSocket::write);
+			}
+		}
+		else if(o instanceof ChannelPacket packet) {
+			if(!channelListeners.dispatch(clientSocket, packet)) {
+				dispatch(clientSocket, packet.getPacket());
+			}
+		}
+		else if(o instanceof PoolJoin join) {
+			joinPool(clientSocket, join);
+		}
+		else {
+			dispatch(clientSocket, o);
+		}
+		metrics.handler().recordSince(start);
+	}
+
+	private void joinPool(ClientInstance clientSocket, PoolJoin join){
+		int size = join.getSize();
+		if(clientSocket.pool != null || size <= 0 || size > PooledClient.MAX_CONNECTIONS || join.getIndex() < 0 || join.getIndex() >= size) {
+			return;
+		}
+		PooledClient pool;
+		boolean created = false;
+		synchronized (pools) {
+			pool = pools.get(join.getPool());
+			if(pool == null) {
+				pool = new PooledClient(join.getPool(), size);
+				pools.put(pool.getId(), pool);
+				created = true;
+			}
+			if(pool.getSize() != size || !pool.join(join.getIndex(), clientSocket)) {
+				return;
+			}
+			clientSocket.pool = pool;
+		}
+		if(created) {
+			PooledClient joined = pool;
+			listeners.forEach(listener -> listener.clientPoolConnect(joined));
+		}
+	}
+
+	private void datagramReceived(long token, ByteBuffer datagram, SocketAddress sender){
+		ClientInstance clientSocket = datagramClients.get(token);
+		int size = datagram.remaining();
+		if(clientSocket != null && clientSocket.datagramPeer.accept(datagram, sender) && datagram.hasRemaining()) {
+			clientSocket.receiveDatagram(datagram, size);
+		}
+	}
+
+	private void streamOpen(ClientInstance clientSocket, InboundStream stream){
+		streamListeners.forEach(listener -> listener.accept(clientSocket, stream));
+	}
+
+	private void dispatch(ClientInstance clientSocket, Object o){
+		handlers.dispatch(clientSocket, o);
 		listeners.forEach((listener -> listener.clientReceive(clientSocket, o)));
 	}
 
+	/**
+	 * returns the connected client of the id, in O(1).
+	 * @return null if no connected client has the id.
+	 */
+	public ClientInstance getClient(int id){
+		return clients.get(id);
+	}
+
+	/**
+	 * returns a live, read only view of the connected clients.
+	 * iterating it never copies, and sees clients that connect or disconnect meanwhile or not.
+	 */
+	public Collection<ClientInstance> getClients(){
+		return clients.view();
+	}
+
+	/**
+	 * sends a packet to the client of the id.
+	 * @return false if no connected client has the id.
+	 */
+	public boolean sendTo(int id, Object o){
+		ClientInstance clientInstance = clients.get(id);
+		if(clientInstance == null) {
+			return false;
+		}
+		clientInstance.send(o);
+		return true;
+	}
+
+	/**
+	 * sends a packet to the clients of the ids, ids without a connected client are skipped.
+	 * the packet is encoded once and the same frame is queued to every client.
+	 * @return the amount of clients the packet was sent to.
+	 */
+	public int sendTo(int[] ids, Object o){
+		SharedFrame frame = null;
+		int sent = 0;
+		try {
+			for (int id : ids) {
+				ClientInstance clientInstance = clients.get(id);
+				if(clientInstance == null) {
+					continue;
+				}
+				if(frame == null) {
+					frame = SharedFrame.of(codec.encode(o), bufferPool);
+				}
+				clientInstance.send(frame);
+				sent++;
+			}
+		}
+		finally {
+			if(frame != null) {
+				frame.release();
+			}
+		}
+		return sent;
+	}
+
+	/**
+	 * adds the client to the named group, such as a room or a topic.
+	 * groups are created on their first member and removed with their last,
+	 * clients leave all their groups once listeners were told of their disconnect.
+	 * @return false if the client already is a member, or is not connected to this server.
+	 */
+	public boolean joinGroup(String group, IClientInstance client){
+		ClientInstance member = clients.get(client.getID());
+		if(member != client || !groups.join(group, member)) {
+			return false;
+		}
+		if(clients.get(member.getID()) != member) {
+			// disconnected while joining, maybe after its groups were left.
+			groups.leaveAll(member);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * removes the client from the named group.
+	 * @return false if the client was not a member.
+	 */
+	public boolean leaveGroup(String group, IClientInstance client){
+		return client instanceof ClientInstance member && groups.leave(group, member);
+	}
+
+	/**
+	 * returns a live, read only view of the members of the named group.
+	 */
+	public Collection<ClientInstance> getGroupMembers(String group){
+		return groups.members(group);
+	}
+
+	/**
+	 * returns a live, read only view of the names of the groups of the client.
+	 */
+	public Set<String> getGroups(IClientInstance client){
+		return client instanceof ClientInstance member ? groups.groupsOf(member) : Set.of();
+	}
+
+	/**
+	 * sends a packet to the members of the named group, only they are visited.
+	 * the packet is encoded once and the same frame is queued to every member.
+	 * @return the amount of clients the packet was sent to.
+	 */
+	public int sendToGroup(String group, Object o){
+		Collection<ClientInstance> members = groups.members(group);
+		if(members.isEmpty()) {
+			return 0;
+		}
+		SharedFrame frame = SharedFrame.of(codec.encode(o), bufferPool);
+		int sent = 0;
+		try {
+			for (ClientInstance clientInstance : members) {
+				clientInstance.send(frame);
+				sent++;
+			}
+		}
+		finally {
+			frame.release();
+		}
+		return sent;
+	}
+
 	/**
 	 * sends a packet to all client instances.
 	 * @param o the packet
 	 */
 	public void sendAll(Object o){
-		clients.forEach(clientInstance -> clientInstance.send(o));
+		sendAllExcludeIds(o);
 	}
 
 	/**
@@ -132,12 +837,36 @@ public class Server {
 	 * @param excludedClients the client instances that should not receive the packet.
 	 */
 	public void sendAllExclude(Object o, ClientInstance... excludedClients){
-		List<ClientInstance> excludedInstances = new ArrayList<>(List.of(excludedClients));
-		clients.forEach(clientInstance -> {
-			if(!excludedInstances.contains(clientInstance)){
-				clientInstance.send(o);
+		int[] excludedIds = new int[excludedClients.length];
+		for (int i = 0; i < excludedClients.length; i++) {
+			excludedIds[i] = excludedClients[i].getID();
+		}
+		sendAllExcludeIds(o, excludedIds);
+	}
+
+	/**
+	 * sends a packet to all client instances but the ones with the specified ids.
+	 * the packet is encoded once and the same frame is queued to every client.
+	 * @param o the packet
+	 * @param excludedIds ids of the client instances that should not receive the packet.
+	 */
+	public void sendAllExcludeIds(Object o, int... excludedIds){
+		if(clients.isEmpty()) {
+			return;
+		}
+		int[] excluded = excludedIds.clone();
+		Arrays.sort(excluded);
+		SharedFrame frame = SharedFrame.of(codec.encode(o), bufferPool);
+		try {
+			for (ClientInstance clientInstance : clients) {
+				if(excluded.length == 0 || Arrays.binarySearch(excluded, clientInstance.getID()) < 0) {
+					clientInstance.send(frame);
+				}
 			}
-		});
+		}
+		finally {
+			frame.release();
+		}
 	}
 
 	/**
@@ -147,83 +876,543 @@ public class Server {
 		return running;
 	}
 
-	public static class ClientInstance extends Thread implements IClientInstance{
+	/**
+	 * an instance of a client, on the server side.
+	 * handles packet encoding, how frames are moved over the connection is up to the implementation.
+	 */
+	public abstract static class ClientInstance implements IClientInstance{
 		private final Server parentServer;
+		private final int id;
+		private final StripedExecutor dispatcher;
+		private final ConnectionMetrics metrics;
+		private final ChunkAssembler chunks;
+		private final InboundStreams streams;
+		private final DatagramEndpoint datagrams;
+		private final DatagramPeer datagramPeer;
+		private StreamSender streamSender;
+		private volatile HeartbeatMonitor heartbeat = null;
+		private volatile boolean timedOut = false;
+		private volatile PooledClient pool;
+		private volatile Session session;
+		// the client whose session the connection carries, itself unless it resumed an older session.
+		private volatile ClientInstance identity = this;
+		// the connection carrying the session, null while it waits to be resumed.
+		private volatile ClientInstance carrier = this;
+		private volatile boolean announced = false;
+		// held while a frame is counted and handed on, so a resume waits for the frame the old connection is handling.
+		private final Object delivery = new Object();
+		// guarded by the session.
+		private boolean ended = false;
+		private TimerWheel.Timeout expiry = null;
+
+		/**
+		 * @param parentServer the server the client instance is tied to.
+		 * @param id the id of the instance.
+		 */
+		protected ClientInstance(Server parentServer, int id) {
+			this.parentServer = parentServer;
+			this.id = id;
+			// fixed for the life of the connection, so its packets stay in order.
+			this.dispatcher = parentServer.dispatcher;
+			this.metrics = parentServer.metrics.openConnection();
+			this.chunks = new ChunkAssembler(parentServer.bufferPool);
+			this.streams = new InboundStreams(parentServer.codec, stream -> parentServer.streamOpen(identity, stream));
+			this.datagrams = parentServer.datagrams;
+			this.datagramPeer = datagrams == null ? null : new DatagramPeer();
+			this.session = parentServer.resumption == null ? null : new Session(parentServer.resumption.getReplayBytes());
+		}
+
+		/**
+		 * starts reading from the client.
+		 */
+		protected abstract void start();
+
+		/**
+		 * returns the queue of frames waiting to be written to the client.
+		 */
+		protected abstract OutboundQueue outbound();
+
+		/**
+		 * closes the connection, the client may still resume its session on a new connection.
+		 */
+		protected abstract void closeSocket();
+
+		/**
+		 * closes the connection once it timed out, called on the thread of the timer wheel, see {@link Heartbeats}.
+		 */
+		protected void timeOut(){
+			timedOut = true;
+			parentServer.metrics.timeout();
+			closeSocket();
+		}
+
+		/**
+		 * counts a heartbeat read from the client, an empty frame.
+		 */
+		protected void receiveHeartbeat(){
+			metrics.heartbeatIn();
+		}
+
+		/**
+		 * closes the connection to the client, ending its session.
+		 */
+		public void close(){
+			if(session != null && announced) {
+				parentServer.endSession(this, false);
+			}
+			else {
+				closeSocket();
+			}
+		}
+
+		/**
+		 * queues a single frame to the client.
+		 * @param body the frame body between position and limit, only valid during the call.
+		 */
+		protected void write(ByteBuffer body){
+			queue(body, 0);
+		}
+
+		/**
+		 * queues an already encoded frame shared with other clients.
+		 */
+		protected void send(SharedFrame frame){
+			Session session = this.session;
+			if(session == null) {
+				outbound().send(frame);
+				return;
+			}
+			synchronized (session) {
+				session.record(frame.body());
+				ClientInstance carrier = this.carrier;
+				if(carrier != null) {
+					carrier.outbound().send(frame);
+				}
+			}
+		}
+
+		/**
+		 * queues a frame on the connection carrying the session, recorded for replay first,
+		 * under the session lock so frames are recorded in the order they are written.
+		 * while the session waits to be resumed the frame is only recorded.
+		 */
+		private void queue(ByteBuffer body, int channel){
+			Session session = this.session;
+			if(session == null) {
+				outbound().send(body, channel);
+				return;
+			}
+			synchronized (session) {
+				session.record(body);
+				ClientInstance carrier = this.carrier;
+				if(carrier != null) {
+					carrier.outbound().send(body, channel);
+				}
+			}
+		}
+
+		/**
+		 * queues a frame like {@link #queue(ByteBuffer, int)}.
+		 * @return completes once the frame is written, or at once if the session waits to be resumed.
+		 */
+		private CompletableFuture<Void> queueAsync(ByteBuffer body, int channel){
+			Session session = this.session;
+			if(session == null) {
+				return outbound().sendAsync(body, channel);
+			}
+			synchronized (session) {
+				session.record(body);
+				ClientInstance carrier = this.carrier;
+				return carrier == null ? CompletableFuture.completedFuture(null) : carrier.outbound().sendAsync(body, channel);
+			}
+		}
+
+		/**
+		 * returns the pool receive buffers are taken from.
+		 */
+		protected BufferPool bufferPool(){
+			return parentServer.bufferPool;
+		}
+
+		/**
+		 * decodes a received frame and passes the packet to the server, inline or on the dispatcher.
+		 * takes ownership of the pooled frame, it is returned to the pool once decoded.
+		 */
+		protected void receive(ByteBuffer frame){
+			metrics.frameIn(frame.remaining() + Integer.BYTES);
+			boolean headers = parentServer.codec.hasFrameHeaders();
+			if(headers && ChunkAssembler.isChunk(frame)) {
+				try {
+					frame = chunks.add(frame);
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+					closeSocket();
+					return;
+				}
+				if(frame == null) {
+					return;
+				}
+			}
+			if(headers && Session.isControl(frame)) {
+				try {
+					parentServer.control(this, frame);
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+					closeSocket();
+				}
+				finally {
+					bufferPool().release(frame);
+				}
+				return;
+			}
+			if(headers && InboundStreams.isStream(frame)) {
+				// handled on the reading thread, so a slow stream consumer slows the sender down.
+				try {
+					streams.receive(frame);
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+					closeSocket();
+				}
+				finally {
+					bufferPool().release(frame);
+				}
+				return;
+			}
+			if(!identity.announced) {
+				// a client that does not know sessions sends packets right away.
+				parentServer.announce(this, false);
+			}
+			ClientInstance owner = identity;
+			if(owner.session == null) {
+				handle(frame);
+				return;
+			}
+			synchronized (owner.delivery) {
+				if(counted(owner)) {
+					handle(frame);
+				}
+				else {
+					bufferPool().release(frame);
+				}
+			}
+		}
+
+		/**
+		 * counts a frame received for the session, acknowledging every few.
+		 * @return false if the connection no longer carries the session, the frame is dropped since the client sends it again.
+		 */
+		private boolean counted(ClientInstance owner){
+			Session session = owner.session;
+			boolean acknowledge;
+			synchronized (session) {
+				if(owner.carrier != this) {
+					return false;
+				}
+				acknowledge = session.received();
+			}
+			if(acknowledge) {
+				outbound().send(Session.ack(session.getReceived()));
+			}
+			return true;
+		}
+
+		/**
+		 * decodes a datagram of the unreliable channel like a received frame, on the thread reading datagrams.
+		 * chunks, streams and control frames are only sent over the connection, so datagrams claiming to be one are dropped.
+		 */
+		private void receiveDatagram(ByteBuffer body, int size){
+			metrics.frameIn(size);
+			if(body.remaining() > bufferPool().getMaxFrameSize() || ChunkAssembler.isChunk(body) || InboundStreams.isStream(body)
+					|| Session.isControl(body)) {
+				return;
+			}
+			ByteBuffer frame = bufferPool().acquire(body.remaining());
+			frame.put(body).flip();
+			handle(frame);
+		}
+
+		private void handle(ByteBuffer frame){
+			ClientInstance owner = identity;
+			if(dispatcher == null) {
+				owner.decode(frame);
+			}
+			else {
+				dispatcher.execute(owner.id, () -> owner.decode(frame));
+			}
+		}
+
+		/**
+		 * a malformed packet or a failing listener closes the connection, instead of the thread reading it.
+		 */
+		private void decode(ByteBuffer frame){
+			try {
+				parentServer.clientInput(this, parentServer.codec.decode(frame));
+			} catch (ClassNotFoundException ignored) {}
+			catch (RuntimeException e) {
+				e.printStackTrace();
+				ClientInstance carrier = this.carrier;
+				if(carrier != null) {
+					carrier.closeSocket();
+				}
+			}
+			finally {
+				bufferPool().release(frame);
+			}
+		}
+
+		/**
+		 * notifies the server the connection has ended, after the packets received before.
+		 * if the server resumes sessions, the session waits for the client instead.
+		 */
+		protected void disconnected(){
+			if(heartbeat != null) {
+				heartbeat.stop();
+			}
+			chunks.clear();
+			streams.closeAll();
+			parentServer.metrics.closeConnection();
+			if(datagramPeer != null) {
+				parentServer.datagramClients.remove(datagramPeer.getToken());
+			}
+			ClientInstance owner = identity;
+			if(owner != this) {
+				// the connection resumed the session of another client, its own id was never used.
+				parentServer.clients.releaseId(id);
+			}
+			if(!owner.announced) {
+				// never announced, so nothing to tell.
+				parentServer.clients.releaseId(id);
+				parentServer.handshaking.remove(this);
+				Session session = this.session;
+				if(session != null) {
+					parentServer.sessions.remove(ByteBuffer.wrap(session.getToken()));
+				}
+				return;
+			}
+			if(timedOut) {
+				owner.notifyTimeout();
+			}
+			if(owner.session != null && parentServer.suspend(owner, this)) {
+				return;
+			}
+			owner.notifyDisconnect();
+		}
+
+		private void notifyTimeout(){
+			if(dispatcher == null) {
+				parentServer.clientTimeout(this);
+			}
+			else {
+				dispatcher.execute(id, () -> parentServer.clientTimeout(this));
+			}
+		}
+
+		private void notifyDisconnect(){
+			if(dispatcher == null) {
+				parentServer.clientDisconnect(this);
+			}
+			else {
+				dispatcher.execute(id, () -> parentServer.clientDisconnect(this));
+			}
+		}
+
+		/**
+		 * send a packet to the client the instance is connected to.
+		 * can send any object, the packet is queued and written by the connection's writer, so this never blocks.
+		 */
+		public void send(Object o){
+			queue(parentServer.codec.encode(o), 0);
+		}
+
+		/**
+		 * send a packet to the client the instance is connected to.
+		 * @return completes once the packet is written to the socket, or exceptionally if the connection closes first.
+		 * while the client's session waits to be resumed, it completes once the packet is kept for replay.
+		 */
+		public CompletableFuture<Void> sendAsync(Object o){
+			return queueAsync(parentServer.codec.encode(o), 0);
+		}
+
+		/**
+		 * send a packet to the client on a channel, packets of a channel arrive in order,
+		 * a channel of a higher priority is written first, see {@link Server#setChannelPriority(int, int)}.
+		 * @throws IllegalStateException if the server has no channels configured and the channel is not 0.
+		 */
+		public void send(Object o, int channel){
+			queue(parentServer.codec.encode(o, channel), channel);
+		}
+
+		/**
+		 * send a packet to the client on a channel, like {@link #send(Object, int)}.
+		 * @return completes once the packet is written to the socket, or exceptionally if the connection closes first.
+		 */
+		public CompletableFuture<Void> sendAsync(Object o, int channel){
+			return queueAsync(parentServer.codec.encode(o, channel), channel);
+		}
+
+		/**
+		 * send a packet to the client over the unreliable channel, see {@link Server#setUnreliablePort(int)}.
+		 * the packet may be lost, and is dropped by the client if a later one arrived first, so it suits state sent many times a second.
+		 * until the client's first datagram arrives the server does not know where to send, and packets are dropped.
+		 * @throws IllegalStateException if the server has no unreliable channel.
+		 * @throws IllegalArgumentException if the encoded packet does not fit in a datagram.
+		 */
+		public void sendUnreliable(Object o){
+			if(datagramPeer == null) {
+				throw new IllegalStateException("Server has no unreliable channel");
+			}
+			ClientInstance carrier = this.carrier;
+			if(carrier != null) {
+				// datagrams go to where the connection carrying the session came from.
+				datagrams.send(carrier.datagramPeer, parentServer.codec.encode(o), carrier.metrics);
+			}
+		}
+
+		/**
+		 * sends the bytes of the input stream to the client without holding them in memory, the input stream is closed at the end.
+		 * the client receives it in its stream listener.
+		 * @param metadata a packet passed along with the stream, such as a file name, may be null.
+		 * @return completes once the whole stream is written, or exceptionally if reading fails or the connection closes.
+		 * @throws IllegalStateException if the server has no frame headers, see {@link Server#onStream(BiConsumer)},
+		 * or the connection was lost and the client's session waits to be resumed.
+		 */
+		public CompletableFuture<Void> sendStream(InputStream in, Object metadata){
+			return streamSender().send(in, streamMetadata(metadata));
+		}
+
+		/**
+		 * sends the file to the client like {@link #sendStream(InputStream, Object)}, straight from the file to the socket.
+		 */
+		public CompletableFuture<Void> sendStream(Path file, Object metadata){
+			return streamSender().send(file, streamMetadata(metadata));
+		}
+
+		private ByteBuffer streamMetadata(Object metadata){
+			PacketCodec codec = parentServer.codec;
+			if(!codec.hasFrameHeaders()) {
+				throw new IllegalStateException("Streams need frame headers");
+			}
+			return metadata == null ? null : codec.encode(metadata);
+		}
+
+		/**
+		 * returns the stream sender of the connection carrying the session, streams are bound to their connection.
+		 */
+		private StreamSender streamSender(){
+			ClientInstance carrier = this.carrier;
+			if(carrier == null) {
+				throw new IllegalStateException("Connection lost, the session waits to be resumed");
+			}
+			return carrier.connectionStreamSender();
+		}
+
+		private synchronized StreamSender connectionStreamSender(){
+			if(streamSender == null) {
+				streamSender = new StreamSender(body -> outbound().sendStreamAsync(body), outbound());
+			}
+			return streamSender;
+		}
+
+		/**
+		 * get id of the instance.
+		 * every instance has a unique id.
+		 */
+		public int getID(){
+			return id;
+		}
+
+		/**
+		 * get the traffic counters of the instance, of the connection carrying its session if it was resumed.
+		 */
+		public ConnectionMetrics getMetrics(){
+			ClientInstance carrier = this.carrier;
+			return carrier == null ? metrics : carrier.metrics;
+		}
+	}
+
+	private static class SocketClientInstance extends ClientInstance implements Runnable{
 		private final Socket socket;
-		private final DataOutputStream writer;
+		private final OutboundQueue outbound;
 		private final DataInputStream reader;
-		private final int id;
+		private final boolean virtual;
 		private boolean running = true;
 		/**
 		 * an instance of a client, on the server side.
 		 * @param parentServer the server the client instance is tied to.
 		 * @param socket the socket of the instance.
 		 * @param id the id of the instance.
+		 * @param virtual if the instance reads on a virtual thread.
 		 * @throws IOException thrown when an error with creating an input/output stream occurs.
 		 */
-		protected ClientInstance(Server parentServer, Socket socket, int id) throws IOException {
-			this.id = id;
-			this.parentServer = parentServer;
+		protected SocketClientInstance(Server parentServer, Socket socket, int id, boolean virtual) throws IOException {
+			super(parentServer, id);
 			this.socket = socket;
-			writer = new DataOutputStream(socket.getOutputStream());
+			this.virtual = virtual;
+			outbound = new OutboundQueue(socket.getChannel(), Threads.writers(virtual), parentServer.bufferPool, null, e -> closeSocket());
 			reader = new DataInputStream(socket.getInputStream());
 		}
 
+		@Override
+		protected void start() {
+			Threads.start("ClientInstance-" + getID(), this, virtual);
+		}
+
 		@Override
 		public void run() {
 			clientRunHandle();
 		}
 
 		private void clientRunHandle() {
-			byte[] bytes;
+			BufferPool pool = bufferPool();
+			ByteBuffer buffer;
 			while (!socket.isClosed()){
 				try {
 					int l = reader.readInt();
+					if(l > pool.getMaxFrameSize() || l < 0){
+						throw new IOException("Frame of " + l + " bytes exceeds max frame size");
+					}
 					if(l > 0){
-						bytes = new byte[l];
-						reader.readFully(bytes,0,l);
+						buffer = pool.acquire(l);
+						try {
+							reader.readFully(buffer.array(), buffer.arrayOffset(), l);
+						}
+						catch (IOException e){
+							pool.release(buffer);
+							throw e;
+						}
 					}
 					else{
-						bytes = null;
+						buffer = null;
+						receiveHeartbeat();
 					}
 				}
 				catch (Exception e) {
-					if(!e.getMessage().equals("Connection reset") && !e.getMessage().equals("Socket closed")){
+					if(e.getMessage() != null && !e.getMessage().equals("Connection reset") && !e.getMessage().equals("Socket closed")){
 						e.printStackTrace();
 					}
 					break;
 				}
-				if(bytes != null) {
-					try {
-						String input = new String(bytes, StandardCharsets.UTF_8);
-						Object o = gson.fromJson(input.split(parentServer.separatorId)[0], Class.forName(input.split(parentServer.separatorId)[1]));
-						parentServer.clientInput(this, o);
-					} catch (ClassNotFoundException ignored) {}
+				if(buffer != null) {
+					receive(buffer);
 				}
 			}
-			parentServer.clientDisconnect(this);
-			close();
+			disconnected();
+			closeSocket();
 		}
 
-		/**
-		 * send a packet to the client the instance is connected to.
-		 * can send any object.
-		 */
-		public void send(Object o){
-			byte[] bytes = (gson.toJson(o) + parentServer.separatorId + o.getClass().toString().split(" ")[1]).getBytes(StandardCharsets.UTF_8);
-			try {
-				writer.writeInt(bytes.length);
-				writer.write(bytes);
-			}
-			catch (IOException e){
-				e.printStackTrace();
-			}
+		@Override
+		protected OutboundQueue outbound() {
+			return outbound;
 		}
 
-		public void close() {
+		@Override
+		protected void closeSocket() {
 			if(running) {
 				try {
-					writer.close();
+					outbound.close();
 					reader.close();
 					socket.close();
 				} catch (Exception e) {
@@ -232,13 +1421,5 @@ public class Server {
 				running = false;
 			}
 		}
-
-		/**
-		 * get id of the instance.
-		 * every instance has a unique id.
-		 */
-		public int getID(){
-			return id;
-		}
 	}
 }
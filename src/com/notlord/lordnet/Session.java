@@ -0,0 +1,165 @@
+package com.notlord.lordnet;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * the resumable side of a connection, see {@link SessionResumption}: the token naming it, the frames sent that the
+ * peer has not acknowledged, and the count of frames received.
+ * <br>
+ * frames are counted as packets, chunks once reassembled, and stream frames and datagrams are not counted,
+ * so both sides count the same frames as long as the writer keeps them in order, which lanes do not.
+ * every {@link #ACK_INTERVAL} frames received are acknowledged, to drop them from the peer's replay buffer.
+ * <br>
+ * sessions are opened and resumed with control frames, which are neither counted nor replayed:
+ * a hello or resume as the client's first frame, the server's answer to a resume, acknowledgements,
+ * and a goodbye from the side closing the connection on purpose, so the session ends instead of waiting to be resumed.
+ * secured connections first agree on a key for the resumed connection, so their resume is the first sealed frame.
+ */
+public final class Session {
+	public static final int TOKEN_SIZE = 16;
+	public static final int ACK_INTERVAL = 32;
+	public static final byte HELLO = 0;
+	public static final byte RESUME = 1;
+	public static final byte RESUMED = 2;
+	public static final byte REJECTED = 3;
+	public static final byte ACK = 4;
+	public static final byte GOODBYE = 5;
+	/**
+	 * longest a goodbye waits for the frames sent before it to be written, before the connection is closed anyway.
+	 */
+	public static final long GOODBYE_TIMEOUT_MILLIS = 1000;
+	private static final SecureRandom random = new SecureRandom();
+	private final byte[] token;
+	private final ReplayBuffer replay;
+	private long received = 0;
+
+	/**
+	 * creates a session with a new random token, on the server.
+	 */
+	public Session(int replayBytes) {
+		this(newToken(), replayBytes);
+	}
+
+	/**
+	 * creates the session of the token, on the client.
+	 */
+	public Session(byte[] token, int replayBytes) {
+		this.token = token;
+		this.replay = new ReplayBuffer(replayBytes);
+	}
+
+	private static byte[] newToken(){
+		byte[] token = new byte[TOKEN_SIZE];
+		random.nextBytes(token);
+		return token;
+	}
+
+	public byte[] getToken(){
+		return token;
+	}
+
+	/**
+	 * records a frame about to be sent, sent frames must be recorded in the order they are written.
+	 */
+	public synchronized void record(ByteBuffer body){
+		replay.record(body);
+	}
+
+	/**
+	 * counts a received frame.
+	 * @return true if the frames received so far are due to be acknowledged.
+	 */
+	public synchronized boolean received(){
+		return ++received % ACK_INTERVAL == 0;
+	}
+
+	public synchronized long getReceived(){
+		return received;
+	}
+
+	/**
+	 * returns the number of the oldest frame still kept for replay.
+	 */
+	public synchronized long getFirstKept(){
+		return replay.first();
+	}
+
+	/**
+	 * drops the frames the peer acknowledged, the count of frames it received.
+	 */
+	public synchronized void acknowledge(long count){
+		replay.acknowledge(count);
+	}
+
+	/**
+	 * returns the frames to send again after the count of frames the peer received.
+	 * @return null if the replay buffer no longer holds all of them.
+	 */
+	public synchronized List<byte[]> replayFrom(long count){
+		return replay.from(count);
+	}
+
+	/**
+	 * returns if the frame body is a control frame.
+	 */
+	public static boolean isControl(ByteBuffer frame){
+		return frame.hasRemaining() && (frame.get(frame.position()) & PacketCodec.CONTROL) != 0;
+	}
+
+	/**
+	 * reads the type of a control frame, the frame is left at the rest of its body.
+	 */
+	public static byte readType(ByteBuffer frame){
+		frame.get();
+		return frame.get();
+	}
+
+	/**
+	 * the first frame of a new client.
+	 * @param resumable false if the client never resumes, the server then keeps nothing for replay.
+	 */
+	public static ByteBuffer hello(boolean resumable){
+		return control(HELLO, 1).put((byte) (resumable ? 1 : 0)).flip();
+	}
+
+	/**
+	 * the first frame of a client resuming its session.
+	 * @param received count of frames the client received.
+	 * @param firstKept number of the oldest frame the client kept for replay.
+	 */
+	public static ByteBuffer resume(byte[] token, long received, long firstKept){
+		return control(RESUME, TOKEN_SIZE + 2 * Long.BYTES).put(token).putLong(received).putLong(firstKept).flip();
+	}
+
+	/**
+	 * the server's answer to a resume it accepted, followed by the frames the client did not receive.
+	 * @param received count of frames the server received.
+	 */
+	public static ByteBuffer resumed(long received){
+		return control(RESUMED, Long.BYTES).putLong(received).flip();
+	}
+
+	/**
+	 * the server's answer to a resume of a session it no longer has, the connection goes on as a new client.
+	 */
+	public static ByteBuffer rejected(){
+		return control(REJECTED, 0).flip();
+	}
+
+	/**
+	 * @param received count of frames received.
+	 */
+	public static ByteBuffer ack(long received){
+		return control(ACK, Long.BYTES).putLong(received).flip();
+	}
+
+	public static ByteBuffer goodbye(){
+		return control(GOODBYE, 0).flip();
+	}
+
+	private static ByteBuffer control(byte type, int size){
+		return ByteBuffer.allocate(2 + size).put(PacketCodec.CONTROL).put(type);
+	}
+}
@@ -0,0 +1,52 @@
+package com.notlord.lordnet;
+
+import java.time.Duration;
+
+/**
+ * how long the server keeps the session of a client whose connection was lost, and how much it keeps to replay.
+ * <br>
+ * the server gives every client a session token in the handshake, a client with a {@link ReconnectPolicy} that loses
+ * its connection reconnects and resumes the session with it. both sides then send again what the other did not receive,
+ * from a replay buffer of the frames the other has not acknowledged yet, so no packet is lost or received twice,
+ * and listeners see neither a disconnect nor a connect.
+ * a session that is not resumed within the keep alive, or whose replay buffer no longer holds what was lost,
+ * ends like a lost connection, and the client reconnects as a new client.
+ */
+public final class SessionResumption {
+	/**
+	 * frames kept for replay per side by default, in bytes.
+	 */
+	public static final int DEFAULT_REPLAY_BYTES = 1024 * 1024;
+	private final Duration keepAlive;
+	private final int replayBytes;
+
+	/**
+	 * creates a session resumption keeping {@link #DEFAULT_REPLAY_BYTES} for replay.
+	 * @param keepAlive how long a session waits for its client after the connection is lost.
+	 */
+	public SessionResumption(Duration keepAlive) {
+		this(keepAlive, DEFAULT_REPLAY_BYTES);
+	}
+
+	/**
+	 * @param keepAlive how long a session waits for its client after the connection is lost.
+	 * @param replayBytes most bytes of unacknowledged frames kept per client, older frames are dropped,
+	 * after which the session can not be resumed if they were not received.
+	 * @throws IllegalArgumentException if the keep alive is negative or the replay buffer is not positive.
+	 */
+	public SessionResumption(Duration keepAlive, int replayBytes) {
+		if(keepAlive.isNegative() || replayBytes < 1) {
+			throw new IllegalArgumentException("Invalid session resumption");
+		}
+		this.keepAlive = keepAlive;
+		this.replayBytes = replayBytes;
+	}
+
+	public Duration getKeepAlive(){
+		return keepAlive;
+	}
+
+	public int getReplayBytes(){
+		return replayBytes;
+	}
+}
@@ -0,0 +1,126 @@
+package com.notlord.lordnet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * an encoded, length prefixed frame shared by many outbound queues, used to broadcast a packet that is encoded once.
+ * the frame is immutable, every queue writes from its own view of the same bytes.
+ * queues that split large frames into chunks take views of chunks made once from the frame, and shared the same way.
+ * the buffers go back to their pool once every holder released them.
+ */
+public final class SharedFrame {
+	private final ByteBuffer frame;
+	private final BufferPool pool;
+	private final AtomicInteger references = new AtomicInteger(1);
+	// chunks of the frame back to back, each with its own length prefix, made on first use.
+	private ByteBuffer chunks = null;
+	private int[] chunkEnds;
+	private int chunkSize;
+
+	private SharedFrame(ByteBuffer frame, BufferPool pool) {
+		this.frame = frame;
+		this.pool = pool;
+	}
+
+	/**
+	 * creates a frame holding a copy of the body, the caller holds the first reference.
+	 * @param body the frame body between position and limit.
+	 * @param pool pool the frame buffer is taken from, frames larger than its max frame size are allocated.
+	 */
+	public static SharedFrame of(ByteBuffer body, BufferPool pool){
+		int length = body.remaining();
+		int size = Integer.BYTES + length;
+		ByteBuffer frame = size <= pool.getMaxFrameSize() ? pool.acquire(size) : ByteBuffer.allocate(size);
+		frame.putInt(length).put(body).flip();
+		return new SharedFrame(frame, pool);
+	}
+
+	/**
+	 * adds a reference and returns a new view of the frame, positioned at its start.
+	 * @throws IllegalStateException if the frame was already fully released.
+	 */
+	ByteBuffer retain(){
+		int count;
+		do {
+			count = references.get();
+			if(count <= 0) {
+				throw new IllegalStateException("Frame already released");
+			}
+		} while (!references.compareAndSet(count, count + 1));
+		return frame.duplicate();
+	}
+
+	/**
+	 * adds a reference per chunk and returns views of the frame split into chunk frames of at most chunkSize bytes,
+	 * like {@link OutboundQueue} splits frames of the default channel.
+	 * @return null if the chunks were already made with another chunk size, the caller then copies the frame instead.
+	 * @throws IllegalStateException if the frame was already fully released.
+	 */
+	synchronized ByteBuffer[] retainChunks(int chunkSize){
+		if(chunks == null) {
+			split(chunkSize);
+		}
+		else if(this.chunkSize != chunkSize) {
+			return null;
+		}
+		ByteBuffer[] views = new ByteBuffer[chunkEnds.length];
+		for (int i = 0; i < views.length; i++) {
+			retain();
+			views[i] = chunks.duplicate().limit(chunkEnds[i]).position(i == 0 ? 0 : chunkEnds[i - 1]);
+		}
+		return views;
+	}
+
+	private void split(int chunkSize){
+		int header = PacketCodec.chunkHeaderSize(0);
+		int chunkLength = chunkSize - Integer.BYTES - header;
+		ByteBuffer body = body();
+		int count = (body.remaining() + chunkLength - 1) / chunkLength;
+		int size = body.remaining() + count * (Integer.BYTES + header);
+		ByteBuffer chunks = size <= pool.getMaxFrameSize() ? pool.acquire(size) : ByteBuffer.allocate(size);
+		int[] chunkEnds = new int[count];
+		for (int i = 0; i < count; i++) {
+			int length = Math.min(body.remaining(), chunkLength);
+			chunks.putInt(header + length);
+			PacketCodec.writeChunkHeader(chunks, 0, i < count - 1);
+			chunks.put(body.slice(body.position(), length));
+			body.position(body.position() + length);
+			chunkEnds[i] = chunks.position();
+		}
+		this.chunks = chunks.flip();
+		this.chunkEnds = chunkEnds;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * returns a view of the frame body without its length prefix, valid while a reference is held.
+	 */
+	ByteBuffer body(){
+		return frame.duplicate().position(Integer.BYTES);
+	}
+
+	/**
+	 * drops a reference, the last one returns the buffer to the pool.
+	 */
+	public void release(){
+		if(references.decrementAndGet() == 0) {
+			pool.release(frame);
+			ByteBuffer chunks;
+			synchronized (this) {
+				chunks = this.chunks;
+				this.chunks = null;
+			}
+			if(chunks != null) {
+				pool.release(chunks);
+			}
+		}
+	}
+
+	/**
+	 * returns the size of the frame, length prefix included.
+	 */
+	public int size(){
+		return frame.limit();
+	}
+}
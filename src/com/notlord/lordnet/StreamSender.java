@@ -0,0 +1,170 @@
+package com.notlord.lordnet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * sends streams over a connection, one per connection.
+ * <br>
+ * a stream is an open frame carrying its metadata, data frames of up to {@link #CHUNK_SIZE} bytes, and an end frame,
+ * or an abort frame if reading the source fails. the data is read on a thread of its own, only a few chunks
+ * are queued at a time, the next chunk is read once an earlier one is written, so a stream of any size
+ * takes a fixed amount of memory and a slow receiver slows the stream down through tcp.
+ * files sent over a plain connection never enter the heap, their regions are written with {@link FileChannel#transferTo}.
+ */
+public final class StreamSender {
+	/**
+	 * largest amount of stream data in a frame, peers need a max frame size above it.
+	 */
+	public static final int CHUNK_SIZE = 32 * 1024;
+	private static final int WINDOW = 8;
+	private final AtomicInteger ids = new AtomicInteger();
+	private final FrameSender frames;
+	private final OutboundQueue zeroCopy;
+
+	/**
+	 * queues a frame body of a stream.
+	 */
+	public interface FrameSender {
+		/**
+		 * @param body the frame body between position and limit, only valid during the call.
+		 * @return completes once the frame is written.
+		 */
+		CompletableFuture<Void> send(ByteBuffer body);
+	}
+
+	/**
+	 * @param frames queues stream frames, they must never be dropped, see {@link OutboundQueue#sendStreamAsync(ByteBuffer)}.
+	 * @param zeroCopy the queue file regions are sent through, null if frames must go through the frame sender,
+	 * such as on encrypted connections.
+	 */
+	public StreamSender(FrameSender frames, OutboundQueue zeroCopy) {
+		this.frames = frames;
+		this.zeroCopy = zeroCopy;
+	}
+
+	/**
+	 * sends the bytes of the input stream until it ends, then closes it.
+	 * @param metadata the encoded metadata packet between position and limit, copied before returning, may be null.
+	 * @return completes once the whole stream is written, or exceptionally if reading fails or the connection closes.
+	 */
+	public CompletableFuture<Void> send(InputStream in, ByteBuffer metadata){
+		int id = open(metadata);
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		Threads.start("Stream-" + id, () -> {
+			try (in) {
+				copy(id, in);
+				end(id, result);
+			}
+			catch (IOException | CompletionException e) {
+				abort(id, e, result);
+			}
+		}, false);
+		return result;
+	}
+
+	/**
+	 * sends the content of the file.
+	 * @param metadata the encoded metadata packet between position and limit, copied before returning, may be null.
+	 * @return completes once the whole file is written, or exceptionally if reading fails or the connection closes.
+	 */
+	public CompletableFuture<Void> send(Path file, ByteBuffer metadata){
+		if(zeroCopy == null) {
+			try {
+				return send(Files.newInputStream(file), metadata);
+			}
+			catch (IOException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+		int id = open(metadata);
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		Threads.start("Stream-" + id, () -> {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				transfer(id, channel);
+				end(id, result);
+			}
+			catch (IOException | CompletionException e) {
+				abort(id, e, result);
+			}
+		}, false);
+		return result;
+	}
+
+	private int open(ByteBuffer metadata){
+		int id = ids.getAndIncrement();
+		ByteBuffer frame = header(id, InboundStreams.OPEN, metadata == null ? 0 : metadata.remaining());
+		if(metadata != null) {
+			frame.put(metadata);
+		}
+		frames.send(frame.flip());
+		return id;
+	}
+
+	private void copy(int id, InputStream in) throws IOException {
+		ByteBuffer frame = header(id, InboundStreams.DATA, CHUNK_SIZE);
+		int start = frame.position();
+		ArrayDeque<CompletableFuture<Void>> window = new ArrayDeque<>();
+		int n;
+		while ((n = in.read(frame.array(), start, CHUNK_SIZE)) >= 0) {
+			if(n > 0) {
+				window.add(frames.send(frame.position(0).limit(start + n)));
+				// flow control, the next chunk is only read once the oldest queued one is written.
+				if(window.size() >= WINDOW) {
+					window.poll().join();
+				}
+			}
+		}
+		window.forEach(CompletableFuture::join);
+	}
+
+	private void transfer(int id, FileChannel channel) throws IOException {
+		ByteBuffer header = header(id, InboundStreams.DATA, 0).flip();
+		ArrayDeque<CompletableFuture<Void>> window = new ArrayDeque<>();
+		long size = channel.size();
+		for (long position = 0; position < size; position += CHUNK_SIZE) {
+			int count = (int) Math.min(CHUNK_SIZE, size - position);
+			window.add(zeroCopy.sendFileAsync(header.duplicate(), channel, position, count));
+			if(window.size() >= WINDOW) {
+				window.poll().join();
+			}
+		}
+		// the file is closed once the writer is done with every region.
+		window.forEach(CompletableFuture::join);
+	}
+
+	private void end(int id, CompletableFuture<Void> result){
+		frames.send(header(id, InboundStreams.END, 0).flip()).whenComplete((v, e) -> {
+			if(e == null) {
+				result.complete(null);
+			}
+			else {
+				result.completeExceptionally(e);
+			}
+		});
+	}
+
+	private void abort(int id, Exception e, CompletableFuture<Void> result){
+		Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+		byte[] message = String.valueOf(cause.getMessage()).getBytes(StandardCharsets.UTF_8);
+		frames.send(header(id, InboundStreams.ABORT, message.length).put(message).flip());
+		result.completeExceptionally(cause);
+	}
+
+	private static ByteBuffer header(int id, byte type, int capacity){
+		ByteBuffer frame = ByteBuffer.allocate(2 + Varint.size(id) + capacity);
+		frame.put(PacketCodec.STREAM);
+		Varint.write(frame, id);
+		return frame.put(type);
+	}
+}
@@ -0,0 +1,107 @@
+package com.notlord.lordnet;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * runs tasks on a worker pool, keeping tasks of the same key in order.
+ * <br>
+ * every key maps to a stripe, a stripe runs its tasks one at a time in submission order,
+ * while different stripes run in parallel on the pool. used to dispatch packets by client id,
+ * so packets of one client are handled in order and different clients use all cores.
+ */
+public final class StripedExecutor {
+	static final int MAX_TASKS_PER_RUN = 256;
+	private final Executor executor;
+	private final ExecutorService ownedExecutor;
+	private final Stripe[] stripes;
+
+	/**
+	 * creates an executor with its own pool of daemon threads.
+	 * @param threads amount of worker threads, every thread serves 4 stripes.
+	 */
+	public StripedExecutor(int threads) {
+		this(newPool(threads), threads * 4, true);
+	}
+
+	/**
+	 * creates an executor running on the caller's pool, the pool is not shut down by {@link #close()}.
+	 * @param executor the pool stripes run on.
+	 * @param stripes amount of stripes, more stripes make it less likely two busy keys share one.
+	 */
+	public StripedExecutor(Executor executor, int stripes) {
+		this(executor, stripes, false);
+	}
+
+	private StripedExecutor(Executor executor, int stripes, boolean owned) {
+		if(stripes < 1) {
+			throw new IllegalArgumentException("Invalid stripe count " + stripes);
+		}
+		this.executor = executor;
+		this.ownedExecutor = owned ? (ExecutorService) executor : null;
+		this.stripes = new Stripe[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe();
+		}
+	}
+
+	private static ExecutorService newPool(int threads){
+		AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "Dispatcher-" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * runs the task after all tasks submitted earlier with a key of the same stripe.
+	 */
+	public void execute(int key, Runnable task){
+		stripes[Math.floorMod(key, stripes.length)].execute(task);
+	}
+
+	/**
+	 * shuts down the pool if it was created by this executor.
+	 */
+	public void close(){
+		if(ownedExecutor != null) {
+			ownedExecutor.shutdown();
+		}
+	}
+
+	private final class Stripe implements Runnable {
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		private void execute(Runnable task){
+			tasks.add(task);
+			if(scheduled.compareAndSet(false, true)) {
+				executor.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			Runnable task;
+			// a busy stripe gives its thread back now and then, so other stripes are not starved.
+			for (int i = 0; i < MAX_TASKS_PER_RUN && (task = tasks.poll()) != null; i++) {
+				try {
+					task.run();
+				}
+				catch (Exception e){
+					e.printStackTrace();
+				}
+			}
+			scheduled.set(false);
+			if(!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+				executor.execute(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.notlord.lordnet;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * the threads shared by connections: reading threads, either platform threads or virtual threads,
+ * the writers outbound queues drain on, and the timer wheel every timeout waits on.
+ * virtual threads are looked up reflectively so the library still runs on java 17,
+ * where only platform threads are available.
+ */
+public final class Threads {
+	private static final Method OF_VIRTUAL;
+	private static final Method NAME;
+	private static final Method START;
+
+	static {
+		Method ofVirtual = null, name = null, start = null;
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class);
+			start = builder.getMethod("start", Runnable.class);
+			// fails on versions where virtual threads are still a disabled preview feature.
+			builder.getMethod("factory").invoke(ofVirtual.invoke(null));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		START = start;
+	}
+
+	private Threads() {}
+
+	private static final class Writers {
+		private static final ExecutorService PLATFORM = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "Writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static final class Wheel {
+		private static final TimerWheel INSTANCE = new TimerWheel("TimerWheel", Duration.ofMillis(100), 512);
+	}
+
+	private static final Executor VIRTUAL_WRITERS = task -> start("Writer", task, true);
+
+	/**
+	 * returns the shared executor outbound queues of blocking connections drain on.
+	 * a writer thread only lives while it has frames to write, so idle connections hold no writer thread.
+	 * @param virtual if writers should run on virtual threads.
+	 */
+	public static Executor writers(boolean virtual){
+		return virtual ? VIRTUAL_WRITERS : Writers.PLATFORM;
+	}
+
+	/**
+	 * returns the timer wheel shared by all connections, ticking every 100 milliseconds.
+	 * heartbeats, request timeouts and the expiry of suspended sessions all wait on it, they fire up to a tick late.
+	 * tasks must be short since they run on the single thread of the wheel.
+	 */
+	public static TimerWheel wheel(){
+		return Wheel.INSTANCE;
+	}
+
+	/**
+	 * returns if the running jvm supports virtual threads (java 21+).
+	 */
+	public static boolean virtualThreadsSupported(){
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * starts a new thread running the task.
+	 * @param name name of the thread.
+	 * @param task the task to run.
+	 * @param virtual if the thread should be a virtual thread.
+	 * @throws UnsupportedOperationException if a virtual thread is requested but not supported.
+	 */
+	public static Thread start(String name, Runnable task, boolean virtual){
+		if(!virtual) {
+			Thread thread = new Thread(task, name);
+			thread.start();
+			return thread;
+		}
+		if(OF_VIRTUAL == null) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+		}
+		try {
+			return (Thread) START.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), name), task);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Failed to start virtual thread", e);
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package com.notlord.lordnet;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * a hashed timer wheel, for many timeouts that rarely fire and need no better precision than a tick,
+ * such as the heartbeats of every connection and the timeouts of requests, see {@link Threads#wheel()}.
+ * <br>
+ * timeouts are hashed into a ring of buckets by their deadline, and a single thread moves on to the next bucket
+ * every tick, running the timeouts of that bucket that are due. scheduling and cancelling are O(1),
+ * and a tick only visits its own bucket, so the cost does not grow with the amount of timeouts waiting.
+ * timeouts fire up to a tick late. tasks run on the thread of the wheel, so they must be short.
+ */
+public final class TimerWheel {
+	// most timeouts moved into buckets per tick, so a burst of schedules does not stall the wheel.
+	private static final int MAX_TRANSFERS = 100_000;
+	private static final int PENDING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+	private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+	private final long tickNanos;
+	private final Bucket[] buckets;
+	private final int mask;
+	private final long start = System.nanoTime();
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+	private volatile boolean closed = false;
+	// ticks passed, only used by the thread of the wheel.
+	private long tick = 0;
+
+	/**
+	 * creates a timer wheel and starts its thread, a daemon thread.
+	 * @param name name of the thread.
+	 * @param tick time between ticks, the precision of the timeouts.
+	 * @param buckets amount of buckets, rounded up to a power of two, a round of the wheel lasts tick * buckets,
+	 * longer timeouts wait for several rounds.
+	 * @throws IllegalArgumentException if the tick or the amount of buckets is not positive.
+	 */
+	public TimerWheel(String name, Duration tick, int buckets) {
+		if(tick.isNegative() || tick.isZero() || buckets < 1 || buckets > 1 << 30) {
+			throw new IllegalArgumentException("Invalid timer wheel");
+		}
+		this.tickNanos = tick.toNanos();
+		int size = Integer.highestOneBit(buckets);
+		if(size < buckets) {
+			size <<= 1;
+		}
+		this.buckets = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			this.buckets[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		Thread thread = new Thread(this::run, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * runs the task once the delay has passed, on the thread of the wheel.
+	 * @return the timeout, to cancel it.
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit){
+		long elapsed = System.nanoTime() - start;
+		long deadline = elapsed + Math.max(0, unit.toNanos(delay));
+		if(deadline < 0) {
+			deadline = Long.MAX_VALUE;
+		}
+		Timeout timeout = new Timeout(this, task, deadline);
+		added.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * stops the thread of the wheel, timeouts waiting never fire.
+	 */
+	public void close(){
+		closed = true;
+	}
+
+	private void run(){
+		while (!closed) {
+			long deadline = (tick + 1) * tickNanos;
+			long sleep = deadline - (System.nanoTime() - start);
+			if(sleep > 0) {
+				LockSupport.parkNanos(this, sleep);
+				continue;
+			}
+			transfer();
+			removeCancelled();
+			buckets[(int) (tick & mask)].expire(deadline);
+			tick++;
+		}
+	}
+
+	/**
+	 * moves newly scheduled timeouts into the bucket of their deadline.
+	 */
+	private void transfer(){
+		for (int i = 0; i < MAX_TRANSFERS; i++) {
+			Timeout timeout = added.poll();
+			if(timeout == null) {
+				return;
+			}
+			if(timeout.state != PENDING) {
+				continue;
+			}
+			long due = timeout.deadline / tickNanos;
+			timeout.rounds = (due - tick) / buckets.length;
+			// a deadline already passed goes in the current bucket.
+			buckets[(int) (Math.max(due, tick) & mask)].add(timeout);
+		}
+	}
+
+	private void removeCancelled(){
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null) {
+			if(timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	/**
+	 * a task waiting on the wheel.
+	 */
+	public static final class Timeout {
+		private final TimerWheel wheel;
+		private final Runnable task;
+		private final long deadline;
+		private volatile int state = PENDING;
+		// only used by the thread of the wheel.
+		private long rounds;
+		private Bucket bucket;
+		private Timeout previous;
+		private Timeout next;
+
+		private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+			this.wheel = wheel;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * cancels the timeout, unless it already fired.
+		 * @return true if the timeout was cancelled by this call.
+		 */
+		public boolean cancel(){
+			if(!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+				return false;
+			}
+			// removed from its bucket by the thread of the wheel.
+			wheel.cancelled.add(this);
+			return true;
+		}
+
+		public boolean isCancelled(){
+			return state == CANCELLED;
+		}
+
+		private void expire(){
+			if(!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+				return;
+			}
+			try {
+				task.run();
+			}
+			catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * the timeouts hashed to a slot of the wheel, a doubly linked list only used by the thread of the wheel.
+	 */
+	private static final class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		private void add(Timeout timeout){
+			timeout.bucket = this;
+			if(head == null) {
+				head = tail = timeout;
+			}
+			else {
+				tail.next = timeout;
+				timeout.previous = tail;
+				tail = timeout;
+			}
+		}
+
+		private void remove(Timeout timeout){
+			if(timeout.previous == null) {
+				head = timeout.next;
+			}
+			else {
+				timeout.previous.next = timeout.next;
+			}
+			if(timeout.next == null) {
+				tail = timeout.previous;
+			}
+			else {
+				timeout.next.previous = timeout.previous;
+			}
+			timeout.bucket = null;
+			timeout.previous = null;
+			timeout.next = null;
+		}
+
+		/**
+		 * runs the timeouts due by the deadline, the end of the current tick, the others wait for another round.
+		 */
+		private void expire(long deadline){
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if(timeout.state == CANCELLED) {
+					remove(timeout);
+				}
+				else if(timeout.rounds <= 0 && timeout.deadline <= deadline) {
+					remove(timeout);
+					timeout.expire();
+				}
+				else {
+					timeout.rounds--;
+				}
+				timeout = next;
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.notlord.lordnet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * unsigned LEB128 variable length ints, 7 bits per byte.
+ */
+public final class Varint {
+	private Varint() {}
+
+	/**
+	 * returns the amount of bytes the value takes.
+	 */
+	public static int size(int value){
+		return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+	}
+
+	/**
+	 * writes the value into the array, returns the index after it.
+	 */
+	public static int write(byte[] bytes, int offset, int value){
+		while ((value & ~0x7F) != 0) {
+			bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[offset++] = (byte) value;
+		return offset;
+	}
+
+	/**
+	 * writes the value at the position of the buffer.
+	 */
+	public static void write(ByteBuffer buffer, int value){
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * reads a value from the position of the buffer.
+	 * @throws IllegalArgumentException if the value is longer than 5 bytes.
+	 */
+	public static int read(ByteBuffer buffer){
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+}
@@ -0,0 +1,17 @@
+package com.notlord.lordnet;
+
+/**
+ * format of the packets a server sends and expects, clients pick it up from the handshake.
+ */
+public enum WireProtocol {
+	/**
+	 * json + separator id + class name of the packet (default).
+	 * understood by every client version.
+	 */
+	STRING,
+	/**
+	 * varint type id + json of the packet.
+	 * type ids of registered packets are sent once in the handshake, unregistered packets fall back to the string format.
+	 */
+	BINARY
+}
@@ -1,10 +1,38 @@
 package com.notlord.lordnet.listeners;
 
 import com.notlord.lordnet.IClientInstance;
+import com.notlord.lordnet.PooledClient;
 
 public interface ServerListener {
 	void clientConnect(IClientInstance client);
 	void clientReceive(IClientInstance client, Object o);
 	void clientDisconnect(IClientInstance client);
 	void serverClose();
+
+	/**
+	 * called when the outbound buffer of a client rises to its high water mark, the client is not keeping up.
+	 */
+	default void clientHighWater(IClientInstance client) {}
+
+	/**
+	 * called when the outbound buffer of a client drains back to its low water mark.
+	 */
+	default void clientLowWater(IClientInstance client) {}
+
+	/**
+	 * called when a client's connection timed out, see {@link com.notlord.lordnet.Heartbeats},
+	 * before its disconnect, or before its session waits to be resumed.
+	 */
+	default void clientTimeout(IClientInstance client) {}
+
+	/**
+	 * called when the first connection of a {@link com.notlord.lordnet.ClientPool} joins its pool,
+	 * after the connect of that connection.
+	 */
+	default void clientPoolConnect(PooledClient pool) {}
+
+	/**
+	 * called when the last connection of a pool disconnects, after the disconnect of that connection.
+	 */
+	default void clientPoolDisconnect(PooledClient pool) {}
 }
@@ -0,0 +1,82 @@
+package com.notlord.lordnet.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * traffic counters of a single connection, also counted in the totals of its {@link TransportMetrics}.
+ */
+public final class ConnectionMetrics {
+	private final TransportMetrics parent;
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder framesIn = new LongAdder();
+	private final LongAdder framesOut = new LongAdder();
+	private final LongAdder heartbeatsIn = new LongAdder();
+
+	ConnectionMetrics(TransportMetrics parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * counts a frame read from the connection.
+	 * @param bytes size of the frame, including its length prefix.
+	 */
+	public void frameIn(int bytes){
+		bytesIn.add(bytes);
+		framesIn.increment();
+		parent.frameIn(bytes);
+	}
+
+	/**
+	 * counts a heartbeat read from the connection, an empty frame.
+	 */
+	public void heartbeatIn(){
+		heartbeatsIn.increment();
+		parent.heartbeatIn();
+		frameIn(Integer.BYTES);
+	}
+
+	/**
+	 * counts a heartbeat queued on the connection, the frame is counted once written.
+	 */
+	public void heartbeatOut(){
+		parent.heartbeatOut();
+	}
+
+	/**
+	 * counts frames written to the connection by a single write.
+	 * @param frames amount of frames written, including frames written partially before.
+	 * @param bytes bytes written.
+	 * @param queued frames the write took from the outbound queue, its depth at that time.
+	 */
+	public void framesOut(int frames, long bytes, int queued){
+		bytesOut.add(bytes);
+		framesOut.add(frames);
+		parent.framesOut(frames, bytes, queued);
+	}
+
+	public long getBytesIn(){
+		return bytesIn.sum();
+	}
+
+	public long getBytesOut(){
+		return bytesOut.sum();
+	}
+
+	public long getFramesIn(){
+		return framesIn.sum();
+	}
+
+	public long getFramesOut(){
+		return framesOut.sum();
+	}
+
+	public long getHeartbeatsIn(){
+		return heartbeatsIn.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "in=" + getFramesIn() + "/" + getBytesIn() + "B out=" + getFramesOut() + "/" + getBytesOut() + "B";
+	}
+}
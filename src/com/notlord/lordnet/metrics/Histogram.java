@@ -0,0 +1,77 @@
+package com.notlord.lordnet.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * lock-free histogram of non-negative values, such as latencies in nanoseconds.
+ * <br>
+ * values are counted in log-linear buckets, 8 per power of two, so percentiles are accurate to 12.5%
+ * over the whole range of long, in a fixed 4 KiB of counters. recording never allocates.
+ */
+public final class Histogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * records a value, negative values are counted as 0.
+	 */
+	public void record(long value){
+		if(value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+			Thread.onSpinWait();
+		}
+	}
+
+	/**
+	 * records the time since the start, in nanoseconds.
+	 * @param startNanos a {@link System#nanoTime()} taken before the measured work.
+	 */
+	public void recordSince(long startNanos){
+		record(System.nanoTime() - startNanos);
+	}
+
+	static int bucket(long value){
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * returns the highest value counted in the bucket.
+	 */
+	static long bucketLimit(int bucket){
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+		return low + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * returns the values recorded so far, recording may continue during the snapshot.
+	 */
+	public HistogramSnapshot snapshot(){
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return new HistogramSnapshot(counts, count.sum(), sum.sum(), max.get());
+	}
+}
@@ -0,0 +1,78 @@
+package com.notlord.lordnet.metrics;
+
+/**
+ * values of a {@link Histogram} at one point in time.
+ */
+public final class HistogramSnapshot {
+	private final long[] counts;
+	private final long count;
+	private final long sum;
+	private final long max;
+
+	HistogramSnapshot(long[] counts, long count, long sum, long max) {
+		this.counts = counts;
+		this.count = count;
+		this.sum = sum;
+		this.max = max;
+	}
+
+	public long getCount(){
+		return count;
+	}
+
+	public long getSum(){
+		return sum;
+	}
+
+	public long getMax(){
+		return max;
+	}
+
+	public double getMean(){
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * returns the value at or below which the given share of values fall, rounded up to its bucket.
+	 * @param percentile between 0 and 100.
+	 */
+	public long getPercentile(double percentile){
+		long total = 0;
+		for (long c : counts) {
+			total += c;
+		}
+		if(total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min(Histogram.bucketLimit(i), max);
+			}
+		}
+		return max;
+	}
+
+	public long getP50(){
+		return getPercentile(50);
+	}
+
+	public long getP90(){
+		return getPercentile(90);
+	}
+
+	public long getP99(){
+		return getPercentile(99);
+	}
+
+	public long getP999(){
+		return getPercentile(99.9);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + " mean=" + (long) getMean() + " p50=" + getP50() + " p99=" + getP99() + " max=" + max;
+	}
+}
@@ -0,0 +1,157 @@
+package com.notlord.lordnet.metrics;
+
+/**
+ * values of a {@link TransportMetrics} at one point in time, durations are in nanoseconds.
+ */
+public final class MetricsSnapshot {
+	private final long bytesIn;
+	private final long bytesOut;
+	private final long framesIn;
+	private final long framesOut;
+	private final long connectionsOpened;
+	private final long connectionsClosed;
+	private final long sessionsResumed;
+	private final long framesResent;
+	private final long bytesResent;
+	private final long heartbeatsIn;
+	private final long heartbeatsOut;
+	private final long timeouts;
+	private final HistogramSnapshot serializeNanos;
+	private final HistogramSnapshot deserializeNanos;
+	private final HistogramSnapshot encryptNanos;
+	private final HistogramSnapshot decryptNanos;
+	private final HistogramSnapshot handlerNanos;
+	private final HistogramSnapshot outboundQueueDepth;
+	private final HistogramSnapshot acceptNanos;
+	private final HistogramSnapshot handshakeNanos;
+	private final HistogramSnapshot reconnectNanos;
+
+	MetricsSnapshot(TransportMetrics metrics) {
+		connectionsClosed = metrics.getConnectionsClosed();
+		connectionsOpened = metrics.getConnectionsOpened();
+		bytesIn = metrics.getBytesIn();
+		bytesOut = metrics.getBytesOut();
+		framesIn = metrics.getFramesIn();
+		framesOut = metrics.getFramesOut();
+		sessionsResumed = metrics.getSessionsResumed();
+		framesResent = metrics.getFramesResent();
+		bytesResent = metrics.getBytesResent();
+		heartbeatsIn = metrics.getHeartbeatsIn();
+		heartbeatsOut = metrics.getHeartbeatsOut();
+		timeouts = metrics.getTimeouts();
+		serializeNanos = metrics.getSerializeNanos();
+		deserializeNanos = metrics.getDeserializeNanos();
+		encryptNanos = metrics.getEncryptNanos();
+		decryptNanos = metrics.getDecryptNanos();
+		handlerNanos = metrics.getHandlerNanos();
+		outboundQueueDepth = metrics.getOutboundQueueDepth();
+		acceptNanos = metrics.getAcceptNanos();
+		handshakeNanos = metrics.getHandshakeNanos();
+		reconnectNanos = metrics.getReconnectNanos();
+	}
+
+	public long getBytesIn(){
+		return bytesIn;
+	}
+
+	public long getBytesOut(){
+		return bytesOut;
+	}
+
+	public long getFramesIn(){
+		return framesIn;
+	}
+
+	public long getFramesOut(){
+		return framesOut;
+	}
+
+	public long getConnectionsOpened(){
+		return connectionsOpened;
+	}
+
+	public long getConnectionsClosed(){
+		return connectionsClosed;
+	}
+
+	public long getOpenConnections(){
+		return Math.max(0, connectionsOpened - connectionsClosed);
+	}
+
+	public long getSessionsResumed(){
+		return sessionsResumed;
+	}
+
+	public long getFramesResent(){
+		return framesResent;
+	}
+
+	public long getBytesResent(){
+		return bytesResent;
+	}
+
+	public long getHeartbeatsIn(){
+		return heartbeatsIn;
+	}
+
+	public long getHeartbeatsOut(){
+		return heartbeatsOut;
+	}
+
+	public long getTimeouts(){
+		return timeouts;
+	}
+
+	public HistogramSnapshot getSerializeNanos(){
+		return serializeNanos;
+	}
+
+	public HistogramSnapshot getDeserializeNanos(){
+		return deserializeNanos;
+	}
+
+	public HistogramSnapshot getEncryptNanos(){
+		return encryptNanos;
+	}
+
+	public HistogramSnapshot getDecryptNanos(){
+		return decryptNanos;
+	}
+
+	public HistogramSnapshot getHandlerNanos(){
+		return handlerNanos;
+	}
+
+	public HistogramSnapshot getOutboundQueueDepth(){
+		return outboundQueueDepth;
+	}
+
+	public HistogramSnapshot getAcceptNanos(){
+		return acceptNanos;
+	}
+
+	public HistogramSnapshot getHandshakeNanos(){
+		return handshakeNanos;
+	}
+
+	public HistogramSnapshot getReconnectNanos(){
+		return reconnectNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "connections=" + getOpenConnections() + " (" + connectionsOpened + " opened)" +
+				"\nin=" + framesIn + " frames/" + bytesIn + "B out=" + framesOut + " frames/" + bytesOut + "B" +
+				"\nserialize: " + serializeNanos +
+				"\ndeserialize: " + deserializeNanos +
+				"\nencrypt: " + encryptNanos +
+				"\ndecrypt: " + decryptNanos +
+				"\nhandler: " + handlerNanos +
+				"\noutbound queue depth: " + outboundQueueDepth +
+				"\naccept: " + acceptNanos +
+				"\nhandshake: " + handshakeNanos +
+				"\nreconnect: " + reconnectNanos +
+				"\nresumed=" + sessionsResumed + " resent=" + framesResent + " frames/" + bytesResent + "B" +
+				"\nheartbeats in=" + heartbeatsIn + " out=" + heartbeatsOut + " timeouts=" + timeouts;
+	}
+}
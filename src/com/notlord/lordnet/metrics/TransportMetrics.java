@@ -0,0 +1,305 @@
+package com.notlord.lordnet.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * counters and latency histograms of a server or client.
+ * <br>
+ * recording only adds to striped counters, so it is lock-free, allocation-free and cheap enough to leave on.
+ * read the values live through the getters, at once through {@link #snapshot()}, or over jmx after {@link #register(String)}.
+ */
+public final class TransportMetrics implements TransportMetricsMXBean {
+	/**
+	 * jmx domain of registered metrics.
+	 */
+	public static final String DOMAIN = "com.notlord.lordnet";
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder framesIn = new LongAdder();
+	private final LongAdder framesOut = new LongAdder();
+	private final LongAdder connectionsOpened = new LongAdder();
+	private final LongAdder connectionsClosed = new LongAdder();
+	private final LongAdder sessionsResumed = new LongAdder();
+	private final LongAdder framesResent = new LongAdder();
+	private final LongAdder bytesResent = new LongAdder();
+	private final LongAdder heartbeatsIn = new LongAdder();
+	private final LongAdder heartbeatsOut = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final Histogram serialize = new Histogram();
+	private final Histogram deserialize = new Histogram();
+	private final Histogram encrypt = new Histogram();
+	private final Histogram decrypt = new Histogram();
+	private final Histogram handler = new Histogram();
+	private final Histogram outboundQueueDepth = new Histogram();
+	private final Histogram accept = new Histogram();
+	private final Histogram handshake = new Histogram();
+	private final Histogram reconnect = new Histogram();
+	private ObjectName registeredName = null;
+
+	/**
+	 * creates the counters of a new connection and counts it as opened.
+	 */
+	public ConnectionMetrics openConnection(){
+		connectionsOpened.increment();
+		return new ConnectionMetrics(this);
+	}
+
+	/**
+	 * counts a connection as closed.
+	 */
+	public void closeConnection(){
+		connectionsClosed.increment();
+	}
+
+	/**
+	 * counts a resumed session, and the frames sent again from its replay buffer.
+	 */
+	public void resumed(int frames, long bytes){
+		sessionsResumed.increment();
+		framesResent.add(frames);
+		bytesResent.add(bytes);
+	}
+
+	/**
+	 * counts a connection closed since it timed out, see {@link com.notlord.lordnet.Heartbeats}.
+	 */
+	public void timeout(){
+		timeouts.increment();
+	}
+
+	void heartbeatIn(){
+		heartbeatsIn.increment();
+	}
+
+	void heartbeatOut(){
+		heartbeatsOut.increment();
+	}
+
+	void frameIn(int bytes){
+		bytesIn.add(bytes);
+		framesIn.increment();
+	}
+
+	void framesOut(int frames, long bytes, int queued){
+		bytesOut.add(bytes);
+		framesOut.add(frames);
+		if(queued > 0) {
+			outboundQueueDepth.record(queued);
+		}
+	}
+
+	/**
+	 * time spent encoding packets into frame bodies, including compression.
+	 */
+	public Histogram serialize(){
+		return serialize;
+	}
+
+	/**
+	 * time spent decoding frame bodies into packets, including decompression.
+	 */
+	public Histogram deserialize(){
+		return deserialize;
+	}
+
+	/**
+	 * time spent encrypting frames, secured connections only.
+	 */
+	public Histogram encrypt(){
+		return encrypt;
+	}
+
+	/**
+	 * time spent decrypting frames, secured connections only.
+	 */
+	public Histogram decrypt(){
+		return decrypt;
+	}
+
+	/**
+	 * time spent in packet handlers and listeners.
+	 */
+	public Histogram handler(){
+		return handler;
+	}
+
+	/**
+	 * time from accepting a connection until it is started.
+	 */
+	public Histogram accept(){
+		return accept;
+	}
+
+	/**
+	 * time spent on the handshake, including the key exchange of secured connections.
+	 */
+	public Histogram handshake(){
+		return handshake;
+	}
+
+	/**
+	 * time from losing a connection until the client reconnected, or resumed its session, clients only.
+	 */
+	public Histogram reconnect(){
+		return reconnect;
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	@Override
+	public long getFramesIn() {
+		return framesIn.sum();
+	}
+
+	@Override
+	public long getFramesOut() {
+		return framesOut.sum();
+	}
+
+	@Override
+	public long getConnectionsOpened() {
+		return connectionsOpened.sum();
+	}
+
+	@Override
+	public long getConnectionsClosed() {
+		return connectionsClosed.sum();
+	}
+
+	@Override
+	public long getOpenConnections() {
+		// closed is read first, so a connection closing in between is not counted as open twice.
+		long closed = connectionsClosed.sum();
+		return Math.max(0, connectionsOpened.sum() - closed);
+	}
+
+	@Override
+	public long getSessionsResumed() {
+		return sessionsResumed.sum();
+	}
+
+	@Override
+	public long getFramesResent() {
+		return framesResent.sum();
+	}
+
+	@Override
+	public long getBytesResent() {
+		return bytesResent.sum();
+	}
+
+	@Override
+	public long getHeartbeatsIn() {
+		return heartbeatsIn.sum();
+	}
+
+	@Override
+	public long getHeartbeatsOut() {
+		return heartbeatsOut.sum();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	@Override
+	public HistogramSnapshot getSerializeNanos() {
+		return serialize.snapshot();
+	}
+
+	@Override
+	public HistogramSnapshot getDeserializeNanos() {
+		return deserialize.snapshot();
+	}
+
+	@Override
+	public HistogramSnapshot getEncryptNanos() {
+		return encrypt.snapshot();
+	}
+
+	@Override
+	public HistogramSnapshot getDecryptNanos() {
+		return decrypt.snapshot();
+	}
+
+	@Override
+	public HistogramSnapshot getHandlerNanos() {
+		return handler.snapshot();
+	}
+
+	/**
+	 * frames waiting in an outbound queue when a write took them, recorded per write.
+	 */
+	@Override
+	public HistogramSnapshot getOutboundQueueDepth() {
+		return outboundQueueDepth.snapshot();
+	}
+
+	@Override
+	public HistogramSnapshot getAcceptNanos() {
+		return accept.snapshot();
+	}
+
+	@Override
+	public HistogramSnapshot getHandshakeNanos() {
+		return handshake.snapshot();
+	}
+
+	@Override
+	public HistogramSnapshot getReconnectNanos() {
+		return reconnect.snapshot();
+	}
+
+	/**
+	 * returns all values at once.
+	 */
+	public MetricsSnapshot snapshot(){
+		return new MetricsSnapshot(this);
+	}
+
+	/**
+	 * registers the metrics in the platform mbean server, as {@link #DOMAIN}:type=..., replacing a previous registration.
+	 * @param properties key properties of the object name, such as "type=Server,port=2000".
+	 */
+	public synchronized void register(String properties){
+		unregister();
+		try {
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+			registeredName = name;
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * removes the metrics from the platform mbean server, if registered.
+	 */
+	public synchronized void unregister(){
+		if(registeredName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+		} catch (JMException ignored) {
+		}
+		registeredName = null;
+	}
+}
@@ -0,0 +1,29 @@
+package com.notlord.lordnet.metrics;
+
+/**
+ * jmx view of {@link TransportMetrics}, durations are in nanoseconds.
+ */
+public interface TransportMetricsMXBean {
+	long getBytesIn();
+	long getBytesOut();
+	long getFramesIn();
+	long getFramesOut();
+	long getConnectionsOpened();
+	long getConnectionsClosed();
+	long getOpenConnections();
+	long getSessionsResumed();
+	long getFramesResent();
+	long getBytesResent();
+	long getHeartbeatsIn();
+	long getHeartbeatsOut();
+	long getTimeouts();
+	HistogramSnapshot getSerializeNanos();
+	HistogramSnapshot getDeserializeNanos();
+	HistogramSnapshot getEncryptNanos();
+	HistogramSnapshot getDecryptNanos();
+	HistogramSnapshot getHandlerNanos();
+	HistogramSnapshot getOutboundQueueDepth();
+	HistogramSnapshot getAcceptNanos();
+	HistogramSnapshot getHandshakeNanos();
+	HistogramSnapshot getReconnectNanos();
+}
@@ -0,0 +1,121 @@
+package com.notlord.lordnet.secured;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * rsa key pairs generated ahead of demand, so secured connections do not wait for key generation.
+ * <br>
+ * a background thread fills the pool up to its depth whenever it drops to the refill threshold.
+ * when the pool is empty a key pair is generated on the calling thread.
+ */
+public final class KeyPairPool {
+	/**
+	 * size of the generated rsa keys.
+	 */
+	public static final int KEY_SIZE = 2048;
+	public static final int DEFAULT_DEPTH = 4;
+	public static final int DEFAULT_REFILL_THRESHOLD = 1;
+	private static volatile KeyPairPool shared;
+	private final int depth;
+	private final int refillThreshold;
+	private final ArrayBlockingQueue<KeyPair> pairs;
+	private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+	/**
+	 * creates a pool of {@link #DEFAULT_DEPTH} key pairs, refilled at {@link #DEFAULT_REFILL_THRESHOLD}.
+	 */
+	public KeyPairPool() {
+		this(DEFAULT_DEPTH, DEFAULT_REFILL_THRESHOLD);
+	}
+
+	/**
+	 * creates a pool, generation only starts on the first {@link #take()} or {@link #prefill()}.
+	 * @param depth most key pairs kept ready.
+	 * @param refillThreshold the pool is refilled once it holds this many key pairs or less.
+	 * @throws IllegalArgumentException if depth is not positive or the threshold is not below depth.
+	 */
+	public KeyPairPool(int depth, int refillThreshold) {
+		if(depth < 1 || refillThreshold < 0 || refillThreshold >= depth) {
+			throw new IllegalArgumentException("Invalid depth " + depth + " and refill threshold " + refillThreshold);
+		}
+		this.depth = depth;
+		this.refillThreshold = refillThreshold;
+		this.pairs = new ArrayBlockingQueue<>(depth);
+	}
+
+	/**
+	 * returns the pool secured clients and servers use by default.
+	 */
+	public static KeyPairPool shared(){
+		KeyPairPool pool = shared;
+		if(pool == null) {
+			synchronized (KeyPairPool.class) {
+				pool = shared;
+				if(pool == null) {
+					shared = pool = new KeyPairPool();
+				}
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * takes a key pair, every key pair is handed out once.
+	 */
+	public KeyPair take(){
+		KeyPair pair = pairs.poll();
+		refillIfNeeded();
+		return pair != null ? pair : generate();
+	}
+
+	/**
+	 * starts filling the pool in the background, call early so the first connection does not wait.
+	 */
+	public void prefill(){
+		refillIfNeeded();
+	}
+
+	/**
+	 * returns the number of key pairs ready.
+	 */
+	public int available(){
+		return pairs.size();
+	}
+
+	private void refillIfNeeded(){
+		if(pairs.size() <= refillThreshold && refilling.compareAndSet(false, true)) {
+			Thread thread = new Thread(this::refill, "KeyPairPool");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+	}
+
+	private void refill(){
+		do {
+			try {
+				while (pairs.size() < depth) {
+					pairs.offer(generate());
+				}
+			}
+			finally {
+				refilling.set(false);
+			}
+			// a take may have drained the pool after the last check, without starting a refill.
+		} while (pairs.size() <= refillThreshold && refilling.compareAndSet(false, true));
+	}
+
+	private static KeyPair generate(){
+		try {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(KEY_SIZE);
+			return generator.generateKeyPair();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("RSA is not available", e);
+		}
+	}
+}
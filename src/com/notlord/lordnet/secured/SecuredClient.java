@@ -1,34 +1,91 @@
 package com.notlord.lordnet.secured;
 
-import com.google.gson.Gson;
+import com.notlord.lordnet.BufferPool;
+import com.notlord.lordnet.ChannelListeners;
+import com.notlord.lordnet.ChannelPacket;
+import com.notlord.lordnet.HeartbeatMonitor;
+import com.notlord.lordnet.Heartbeats;
+import com.notlord.lordnet.InboundStream;
+import com.notlord.lordnet.InboundStreams;
+import com.notlord.lordnet.OutboundQueue;
+import com.notlord.lordnet.PacketCodec;
+import com.notlord.lordnet.PacketHandlers;
+import com.notlord.lordnet.PendingRequests;
+import com.notlord.lordnet.ReconnectPolicy;
+import com.notlord.lordnet.RequestException;
+import com.notlord.lordnet.RpcMessage;
+import com.notlord.lordnet.Session;
+import com.notlord.lordnet.SessionResumption;
+import com.notlord.lordnet.StreamSender;
+import com.notlord.lordnet.StripedExecutor;
+import com.notlord.lordnet.Threads;
 import com.notlord.lordnet.listeners.ClientListener;
+import com.notlord.lordnet.metrics.ConnectionMetrics;
+import com.notlord.lordnet.metrics.TransportMetrics;
+import com.notlord.lordnet.serialization.GsonSerializer;
+import com.notlord.lordnet.serialization.PacketSerializer;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.security.*;
 import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-import static com.notlord.lordnet.secured.SecuredUtilities.decryptPacketMessage;
-import static com.notlord.lordnet.secured.SecuredUtilities.encryptPacketMessage;
+import static com.notlord.lordnet.secured.SecuredUtilities.KEY_HALF_LENGTH;
+import static com.notlord.lordnet.secured.SecuredUtilities.MAX_PUBLIC_KEY_LENGTH;
+import static com.notlord.lordnet.secured.SecuredUtilities.decryptKeyHalf;
+import static com.notlord.lordnet.secured.SecuredUtilities.deriveResumeKey;
+import static com.notlord.lordnet.secured.SecuredUtilities.deriveSessionKey;
+import static com.notlord.lordnet.secured.SecuredUtilities.encryptKeyHalf;
+import static com.notlord.lordnet.secured.SecuredUtilities.newKeyHalf;
 
 public class SecuredClient {
-	private volatile String separatorId = null;
-	private static final Gson gson = new Gson();
+	private volatile PacketCodec codec = null;
+	private int maxFrameSize = BufferPool.DEFAULT_MAX_FRAME_SIZE;
+	private PacketSerializer serializer = new GsonSerializer();
 	private Socket socket;
 	private DataOutputStream writer;
 	private DataInputStream reader;
-	private PrivateKey privateKey;
-	private PublicKey publicKey;
+	private BufferPool bufferPool;
+	private OutboundQueue outbound;
+	private boolean connectionOpen = false;
+	private KeyPairPool keyPairPool = KeyPairPool.shared();
+	// the cipher of the current connection, bound to its outbound queue.
+	private volatile SessionCipher cipher;
+	private byte[] sessionKey;
+	private ReconnectPolicy reconnect = null;
+	private volatile Session session = null;
+	// the session whose frames are only kept for replay while the connection is lost, guarded by that session.
+	private Session suspended = null;
+	private final PacketHandlers<Object> handlers = new PacketHandlers<>();
+	private final PendingRequests requests = new PendingRequests();
+	private final ChannelListeners<Object> channelListeners = new ChannelListeners<>();
+	private final List<Consumer<InboundStream>> streamListeners = new CopyOnWriteArrayList<>();
+	private InboundStreams streams;
+	private StreamSender streamSender;
+	private final TransportMetrics metrics = new TransportMetrics();
+	private ConnectionMetrics connectionMetrics;
+	private Heartbeats heartbeats = null;
+	private HeartbeatMonitor heartbeat = null;
 	private final List<ClientListener> listeners = new ArrayList<>();
 	private volatile boolean running = false;
+	private boolean virtualThread = false;
+	private StripedExecutor dispatcher = null;
+	private volatile StripedExecutor activeDispatcher = null;
 	private String host;
 	private int port;
 
@@ -52,6 +109,49 @@ public class SecuredClient {
 		this.port = port;
 	}
 
+	/**
+	 * set if the client reads on a virtual thread instead of a platform thread, requires java 21+.
+	 */
+	public void setVirtualThread(boolean virtualThread){
+		if(virtualThread && !Threads.virtualThreadsSupported()) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+		}
+		this.virtualThread = virtualThread;
+	}
+
+	/**
+	 * set the largest frame the client accepts from the server, also caps the size of pooled receive buffers.
+	 * @param maxFrameSize max frame size in bytes, {@link BufferPool#DEFAULT_MAX_FRAME_SIZE} by default.
+	 */
+	public void setMaxFrameSize(int maxFrameSize){
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * set the serializer of packets, must be the serializer the server uses.
+	 * @param serializer {@link GsonSerializer} by default.
+	 */
+	public void setSerializer(PacketSerializer serializer){
+		this.serializer = serializer;
+	}
+
+	/**
+	 * set where packets are decoded and passed to listeners, takes effect on the next start.
+	 * with a dispatcher, the reading thread only reads, packets are still handled in order.
+	 * @param dispatcher null to handle packets inline on the reading thread, the default and lowest latency.
+	 */
+	public void setDispatcher(StripedExecutor dispatcher){
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * set the pool the rsa key pair of each connection is taken from.
+	 * @param keyPairPool {@link KeyPairPool#shared()} by default.
+	 */
+	public void setKeyPairPool(KeyPairPool keyPairPool){
+		this.keyPairPool = keyPairPool;
+	}
+
 	/**
 	 * add listener to the client.
 	 */
@@ -59,13 +159,67 @@ public class SecuredClient {
 		listeners.add(listener);
 	}
 
+	/**
+	 * registers a handler of packets of the type, including subclasses and implementations.
+	 * handlers run before the listeners, which still receive every packet.
+	 * example: client.on(MovePacket.class, packet -> ...);
+	 */
+	public <T> void on(Class<T> type, Consumer<? super T> handler){
+		handlers.on(type, (client, packet) -> handler.accept(packet));
+	}
+
+	/**
+	 * registers a listener of packets the server sends on the channel, they are not passed to handlers and listeners.
+	 * packets on channels without a channel listener are passed to handlers and listeners like any other packet.
+	 */
+	public void onChannel(int channel, Consumer<Object> listener){
+		channelListeners.on(channel, (client, packet) -> listener.accept(packet));
+	}
+
+	/**
+	 * registers a listener of streams the server sends, called when a stream opens, on the thread reading the connection.
+	 * the listener chooses where the data goes, see {@link InboundStream}.
+	 * example: client.onStream(stream -> stream.onData(chunk -> ...));
+	 */
+	public void onStream(Consumer<InboundStream> listener){
+		streamListeners.add(listener);
+	}
+
+	/**
+	 * set if the client reconnects when its connection is lost, instead of closing.
+	 * if the server keeps sessions the client resumes its own, see {@link SecuredServer#setSessionResumption(SessionResumption)},
+	 * without a new rsa key exchange, packets sent meanwhile are sent once it is resumed and listeners see neither a disconnect
+	 * nor a connect. otherwise listeners see a disconnect and a connect once it reconnected.
+	 * @param reconnect null to close when the connection is lost, the default.
+	 */
+	public void setReconnect(ReconnectPolicy reconnect){
+		this.reconnect = reconnect;
+	}
+
+	/**
+	 * set the heartbeats and timeouts of the connection, see {@link Heartbeats}, takes effect on the next connection.
+	 * a connection that timed out is lost like any other, so the client reconnects if it has a reconnect policy, or closes.
+	 * @param heartbeats null for no heartbeats, the default.
+	 */
+	public void setHeartbeats(Heartbeats heartbeats){
+		this.heartbeats = heartbeats;
+	}
+
+	/**
+	 * returns the traffic counters and latencies of the client, across all its connections.
+	 * not registered over jmx by default, see {@link TransportMetrics#register(String)}.
+	 */
+	public TransportMetrics getMetrics(){
+		return metrics;
+	}
+
 	/**
 	 * starts the client.
 	 */
 	public void start(){
 		if(!running) {
 			running = true;
-			new Thread(this::run,"Client").start();
+			Threads.start("Client", this::run, virtualThread);
 		}
 	}
 
@@ -73,118 +227,632 @@ public class SecuredClient {
 		try {
 			initialize();
 			handleClient();
-		} catch (IOException | ClassNotFoundException | NoSuchAlgorithmException e) {
+		} catch (IOException | ClassNotFoundException e) {
 			if (!e.getMessage().equals("Connection refused: connect"))
 				e.printStackTrace();
 			running = false;
 		}
 	}
 
-	private void initialize() throws IOException, NoSuchAlgorithmException {
-		socket = new Socket(host, port);
-		writer = new DataOutputStream(socket.getOutputStream());
-		reader = new DataInputStream(socket.getInputStream());
-		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
-		generator.initialize(2048);
-		KeyPair pair = generator.generateKeyPair();
-		privateKey = pair.getPrivate();
+	private void initialize() throws IOException {
+		long start = System.nanoTime();
+		bufferPool = new BufferPool(maxFrameSize, false);
+		connect();
 		try {
-			writer.writeInt(pair.getPublic().getEncoded().length);
-			writer.write(pair.getPublic().getEncoded());
-			writer.flush();
-			int l = reader.readInt();
-			byte[] bytes = new byte[l];
-			reader.readFully(bytes,0,l);
-			separatorId = new String(bytes, StandardCharsets.UTF_8);
-			l = reader.readInt();
-			bytes = new byte[l];
-			reader.readFully(bytes,0,l);
-			publicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(bytes));
+			PacketCodec handshakeCodec = handshake();
+			byte[] token = handshakeCodec.getSessionToken();
+			if(token != null) {
+				// the server keeps what it sends for replay only if the client may resume.
+				ReconnectPolicy reconnect = this.reconnect;
+				cipher.send(Session.hello(reconnect != null));
+				session = reconnect == null ? null : new Session(token, reconnect.getReplayBytes());
+			}
+			open(handshakeCodec);
+			metrics.handshake().recordSince(start);
 		}
 		catch (Exception e){
 			System.out.println("Failed to acquire separator Id from server");
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * opens a connection to the server, packets are sent on it once it is opened for the codec of its handshake.
+	 * @throws IOException if connecting fails or the client was closed.
+	 */
+	private void connect() throws IOException {
+		Socket socket = SocketChannel.open(new InetSocketAddress(host, port)).socket();
+		synchronized (this) {
+			if(!running) {
+				socket.close();
+				throw new IOException("Client closed");
+			}
+			socket.setTcpNoDelay(true);
+			this.socket = socket;
+			writer = new DataOutputStream(socket.getOutputStream());
+			reader = new DataInputStream(socket.getInputStream());
+			// a failed write closes the socket, which ends reading, so the client reconnects or closes.
+			outbound = new OutboundQueue(socket.getChannel(), Threads.writers(virtualThread), bufferPool, null, e -> closeSocket(socket));
+			connectionMetrics = metrics.openConnection();
+			connectionOpen = true;
+			outbound.setMetrics(connectionMetrics);
+		}
+	}
+
+	/**
+	 * runs the full handshake on the connection, an rsa key exchange agreeing on a new session key.
+	 * @return the codec of the server's handshake.
+	 */
+	private PacketCodec handshake() throws IOException, GeneralSecurityException {
+		KeyPair pair = keyPairPool.take();
+		PrivateKey privateKey = pair.getPrivate();
+		writer.writeInt(pair.getPublic().getEncoded().length);
+		writer.write(pair.getPublic().getEncoded());
+		writer.flush();
+		byte[] bytes = readHandshakeBlock(maxFrameSize);
+		PacketCodec handshakeCodec = PacketCodec.fromHandshake(bytes, serializer);
+		handshakeCodec.setMaxFrameSize(maxFrameSize);
+		handshakeCodec.setMetrics(metrics);
+		bytes = readHandshakeBlock(MAX_PUBLIC_KEY_LENGTH);
+		PublicKey publicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(bytes));
+		bytes = readHandshakeBlock(maxFrameSize);
+		byte[] serverHalf = decryptKeyHalf(privateKey, bytes);
+		byte[] clientHalf = newKeyHalf();
+		bytes = encryptKeyHalf(publicKey, clientHalf);
+		writer.writeInt(bytes.length);
+		writer.write(bytes);
+		writer.flush();
+		sessionKey = deriveSessionKey(serverHalf, clientHalf);
+		cipher = new SessionCipher(sessionKey, false, outbound, metrics);
+		return handshakeCodec;
+	}
+
+	/**
+	 * reads a length prefixed part of the handshake.
+	 * @param max the largest length the part may have.
+	 * @throws IOException if the length is not positive or larger than max.
+	 */
+	private byte[] readHandshakeBlock(int max) throws IOException {
+		int l = reader.readInt();
+		if(l <= 0 || l > max) {
+			throw new IOException("Invalid handshake part of " + l + " bytes");
+		}
+		byte[] bytes = new byte[l];
+		reader.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * sets up the connection for the codec of its handshake, packets are sent once the codec is set.
+	 */
+	private void open(PacketCodec handshakeCodec){
+		streams = new InboundStreams(handshakeCodec, stream -> streamListeners.forEach(listener -> listener.accept(stream)));
+		SessionCipher cipher = this.cipher;
+		// stream frames are sealed like any other frame, so files are read through the heap, they are not kept for replay.
+		streamSender = new StreamSender(body -> sendAsync(cipher, body), null);
+		codec = handshakeCodec;
+		if(heartbeats != null) {
+			// started after the handshake, which is written around the outbound queue.
+			Socket socket = this.socket;
+			heartbeat = new HeartbeatMonitor(heartbeats, connectionMetrics, outbound, () -> {
+				metrics.timeout();
+				closeSocket(socket);
+			});
+			heartbeat.start();
+		}
+	}
+
 	protected void handleClient() throws IOException, ClassNotFoundException {
-		listeners.forEach(ClientListener::connect);
-		byte[] bytes;
+		activeDispatcher = dispatcher;
+		dispatch(() -> listeners.forEach(ClientListener::connect));
+		boolean ended;
+		do {
+			ended = readFrames();
+			if(streams != null) {
+				// not opened if the handshake failed.
+				streams.closeAll();
+			}
+		} while (running && !ended && reconnect());
+		if(running) close();
+	}
+
+	/**
+	 * reads frames until the connection ends.
+	 * @return true if the server closed the connection on purpose, the client then does not reconnect.
+	 */
+	private boolean readFrames(){
+		BufferPool pool = bufferPool;
+		Socket socket = this.socket;
+		DataInputStream reader = this.reader;
+		SessionCipher cipher = this.cipher;
+		ByteBuffer buffer;
 		while (!socket.isClosed()){
 			try {
-
 				int l = reader.readInt();
+				if(l > pool.getMaxFrameSize() || l < 0){
+					throw new IOException("Frame of " + l + " bytes exceeds max frame size");
+				}
 				if(l > 0) {
-					bytes = new byte[l];
-					reader.readFully(bytes,0,l);
+					if(l < SessionCipher.TAG_LENGTH){
+						throw new IOException("Frame of " + l + " bytes is too short");
+					}
+					buffer = pool.acquire(l);
+					try {
+						reader.readFully(buffer.array(), buffer.arrayOffset(), l);
+					}
+					catch (IOException e){
+						pool.release(buffer);
+						throw e;
+					}
 				}
 				else{
-					bytes = null;
+					buffer = null;
+					connectionMetrics.heartbeatIn();
 				}
 			}
 			catch (Exception e) {
-				if(!e.getMessage().equals("Socket closed") && !e.getMessage().equals("Connection reset")){
+				if(e.getMessage() != null && !e.getMessage().equals("Socket closed") && !e.getMessage().equals("Connection reset")){
 					e.printStackTrace();
 				}
 				break;
 			}
-			if (bytes != null) {
+			if (buffer != null) {
+				connectionMetrics.frameIn(buffer.remaining() + Integer.BYTES);
+				// decrypted in order on the reading thread, since nonces follow the frame order.
+				ByteBuffer decrypted = pool.acquire(buffer.limit() - SessionCipher.TAG_LENGTH);
 				try {
-					String decrypted = decryptPacketMessage(privateKey, bytes);
-					Object o = gson.fromJson(decrypted.split(separatorId)[0], Class.forName(decrypted.split(separatorId)[1]));
-					listeners.forEach(clientListener -> clientListener.receive(o));
+					cipher.open(buffer, decrypted);
 				}
-				catch (ClassNotFoundException ignored){}
-				catch (NoSuchPaddingException | IllegalBlockSizeException | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException e) {
+				catch (GeneralSecurityException e) {
+					// a frame that fails authentication breaks the nonce sequence, the connection can not continue.
 					e.printStackTrace();
+					pool.release(decrypted);
+					break;
+				}
+				finally {
+					pool.release(buffer);
+				}
+				ByteBuffer frame = decrypted.flip();
+				boolean headers = codec.hasFrameHeaders();
+				if(headers && Session.isControl(frame)) {
+					boolean goodbye;
+					try {
+						goodbye = control(frame);
+					}
+					catch (IOException e) {
+						e.printStackTrace();
+						break;
+					}
+					finally {
+						pool.release(frame);
+					}
+					if(goodbye) {
+						return true;
+					}
+					continue;
 				}
+				Session session = this.session;
+				if(session != null && !(headers && InboundStreams.isStream(frame)) && session.received()) {
+					try {
+						cipher.send(Session.ack(session.getReceived()));
+					}
+					catch (GeneralSecurityException e) {
+						e.printStackTrace();
+					}
+				}
+				receive(frame);
 			}
 		}
-		if(running) close();
+		return false;
+	}
+
+	/**
+	 * @return true if the frame is a goodbye.
+	 * @throws IOException if the control frame is malformed.
+	 */
+	private boolean control(ByteBuffer frame) throws IOException {
+		Session session = this.session;
+		try {
+			byte type = Session.readType(frame);
+			if(type == Session.ACK && session != null) {
+				session.acknowledge(frame.getLong());
+			}
+			return type == Session.GOODBYE;
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Server sent a malformed control frame", e);
+		}
+	}
+
+	/**
+	 * reconnects after the connection was lost, resuming the session if the server still has it.
+	 * @return false if the client does not reconnect, every attempt failed, or it was closed meanwhile.
+	 */
+	private boolean reconnect(){
+		ReconnectPolicy reconnect = this.reconnect;
+		if(reconnect == null) {
+			return false;
+		}
+		long start = System.nanoTime();
+		Session session = this.session;
+		if(session != null) {
+			synchronized (session) {
+				suspended = session;
+			}
+		}
+		closeConnection();
+		for (int attempt = 0; attempt < reconnect.getMaxAttempts() && running; attempt++) {
+			try {
+				Thread.sleep(reconnect.delayMillis(attempt));
+				connect();
+				if(session == null || !resume(session)) {
+					restart(handshake(), reconnect);
+				}
+				metrics.reconnect().recordSince(start);
+				return true;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			catch (IOException | GeneralSecurityException | RuntimeException e) {
+				closeConnection();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * resumes the session on the new connection, then sends the server what it did not receive.
+	 * no rsa key is used, the key of the connection is derived from the session key and a fresh nonce of each side,
+	 * and the first sealed frame proves to the server the client holds the session key.
+	 * @return false if the server no longer has the session, the client then goes on with a full handshake on the connection.
+	 * @throws IOException if the connection fails, or the client no longer holds what the server did not receive.
+	 */
+	private boolean resume(Session session) throws IOException, GeneralSecurityException {
+		byte[] clientNonce = newKeyHalf();
+		writer.writeInt(SecuredServer.RESUME_MARKER);
+		writer.write(session.getToken());
+		writer.write(clientNonce);
+		writer.flush();
+		int l = reader.readInt();
+		if(l == 0) {
+			return false;
+		}
+		if(l != KEY_HALF_LENGTH) {
+			throw new IOException("Invalid answer to resume");
+		}
+		byte[] serverNonce = new byte[l];
+		reader.readFully(serverNonce);
+		SessionCipher cipher = new SessionCipher(deriveResumeKey(sessionKey, clientNonce, serverNonce), false, outbound, metrics);
+		cipher.send(Session.resume(session.getToken(), session.getReceived(), session.getFirstKept()));
+		// the server answers before sending anything else.
+		ByteBuffer answer = cipher.read(reader, bufferPool.getMaxFrameSize());
+		byte type = Session.isControl(answer) ? Session.readType(answer) : -1;
+		if(type == Session.REJECTED) {
+			// the server closes the connection, the client goes on as a new client on a new one.
+			closeConnection();
+			connect();
+			return false;
+		}
+		if(type != Session.RESUMED) {
+			throw new IOException("Invalid answer to resume");
+		}
+		long bytesResent = 0;
+		int framesResent;
+		synchronized (session) {
+			List<byte[]> replay = session.replayFrom(answer.getLong());
+			if(replay == null) {
+				throw new IOException("Frames the server did not receive are no longer kept");
+			}
+			for (byte[] frame : replay) {
+				cipher.send(ByteBuffer.wrap(frame));
+				bytesResent += frame.length;
+			}
+			framesResent = replay.size();
+			this.cipher = cipher;
+			open(codec);
+			suspended = null;
+		}
+		metrics.resumed(framesResent, bytesResent);
+		return true;
+	}
+
+	/**
+	 * goes on with the new connection as a new client, listeners see a disconnect and a connect.
+	 */
+	private void restart(PacketCodec handshakeCodec, ReconnectPolicy reconnect) throws GeneralSecurityException {
+		requests.failAll(new IOException("Connection lost"));
+		dispatch(() -> listeners.forEach(ClientListener::disconnect));
+		byte[] token = handshakeCodec.getSessionToken();
+		if(token != null) {
+			cipher.send(Session.hello(true));
+		}
+		// frames of the old session that were only kept stay unsent.
+		session = token == null ? null : new Session(token, reconnect.getReplayBytes());
+		open(handshakeCodec);
+		dispatch(() -> listeners.forEach(ClientListener::connect));
+	}
+
+	/**
+	 * decodes a received frame and passes the packet to the listeners, inline or on the dispatcher.
+	 * takes ownership of the pooled frame.
+	 */
+	private void receive(ByteBuffer frame){
+		if(codec.hasFrameHeaders() && InboundStreams.isStream(frame)) {
+			try {
+				streams.receive(frame);
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+				close();
+			}
+			finally {
+				bufferPool.release(frame);
+			}
+			return;
+		}
+		StripedExecutor dispatcher = activeDispatcher;
+		if(dispatcher == null) {
+			decode(frame);
+		}
+		else {
+			dispatcher.execute(System.identityHashCode(this), () -> decode(frame));
+		}
+	}
+
+	private void decode(ByteBuffer frame){
+		try {
+			Object o = codec.decode(frame);
+			long start = System.nanoTime();
+			if(o instanceof RpcMessage message) {
+				requests.complete(message);
+			}
+			else if(o instanceof ChannelPacket packet) {
+				if(!channelListeners.dispatch(this, packet)) {
+					dispatch(packet.getPacket());
+				}
+			}
+			else {
+				dispatch(o);
+			}
+			metrics.handler().recordSince(start);
+		}
+		catch (ClassNotFoundException ignored) {}
+		catch (RuntimeException e) {
+			// a malformed packet or a failing listener closes the client, instead of the thread reading it.
+			e.printStackTrace();
+			close();
+		}
+		finally {
+			bufferPool.release(frame);
+		}
+	}
+
+	private void dispatch(Object o){
+		handlers.dispatch(this, o);
+		listeners.forEach(clientListener -> clientListener.receive(o));
+	}
+
+	private void dispatch(Runnable task){
+		StripedExecutor dispatcher = activeDispatcher;
+		if(dispatcher == null) {
+			task.run();
+		}
+		else {
+			dispatcher.execute(System.identityHashCode(this), task);
+		}
 	}
 
 	/**
 	 * send packet to the server.
-	 * can send any object.
+	 * can send any object, the packet is queued and written by the connection's writer, so this never blocks.
 	 */
 	public void send(Object o) {
-		while (separatorId == null) {
-			Thread.onSpinWait();
-		}
+		queue(awaitCodec().encode(o));
+	}
+
+	/**
+	 * send packet to the server.
+	 * @return completes once the packet is written to the socket, or exceptionally if the connection closes first.
+	 * while the client resumes its session, it completes once the packet is kept for replay.
+	 */
+	public CompletableFuture<Void> sendAsync(Object o) {
+		return queueAsync(awaitCodec().encode(o));
+	}
+
+	/**
+	 * seals and queues a frame, recorded for replay first if the client has a session,
+	 * under the session lock so frames are recorded in the order they are written.
+	 * while the session is being resumed the frame is only recorded.
+	 */
+	private void queue(ByteBuffer body){
+		Session session = this.session;
 		try {
-			byte[] bytes = (gson.toJson(o) + separatorId + o.getClass().toString().split(" ")[1]).getBytes(StandardCharsets.UTF_8);
-			bytes = encryptPacketMessage(publicKey,bytes);
-			writer.writeInt(bytes.length);
-			writer.write(bytes);
-		} catch (NoSuchPaddingException | NoSuchAlgorithmException | IllegalBlockSizeException | BadPaddingException | InvalidKeyException | IOException e) {
+			if(session == null) {
+				cipher.send(body);
+				return;
+			}
+			synchronized (session) {
+				session.record(body);
+				if(suspended != session) {
+					cipher.send(body);
+				}
+			}
+		} catch (GeneralSecurityException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * seals and queues a frame like {@link #queue(ByteBuffer)}.
+	 * @return completes once the frame is written, or at once if the session is being resumed.
+	 */
+	private CompletableFuture<Void> queueAsync(ByteBuffer body){
+		Session session = this.session;
+		try {
+			if(session == null) {
+				return cipher.sendAsync(body);
+			}
+			synchronized (session) {
+				session.record(body);
+				return suspended == session ? CompletableFuture.completedFuture(null) : cipher.sendAsync(body);
+			}
+		} catch (GeneralSecurityException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * seals and queues a frame that is not kept for replay, such as a stream frame.
+	 */
+	private static CompletableFuture<Void> sendAsync(SessionCipher cipher, ByteBuffer body){
+		try {
+			return cipher.sendAsync(body);
+		} catch (GeneralSecurityException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * send packet to the server on a channel, packets of a channel arrive in order.
+	 * @throws IllegalStateException if the server has no channel listeners and the channel is not 0.
+	 */
+	public void send(Object o, int channel) {
+		queue(awaitCodec().encode(o, channel));
+	}
+
+	/**
+	 * send packet to the server on a channel, like {@link #send(Object, int)}.
+	 * @return completes once the packet is written to the socket, or exceptionally if the connection closes first.
+	 */
+	public CompletableFuture<Void> sendAsync(Object o, int channel) {
+		return queueAsync(awaitCodec().encode(o, channel));
+	}
+
+	/**
+	 * sends the bytes of the input stream to the server without holding them in memory, the input stream is closed at the end.
+	 * the server receives it in its stream listener.
+	 * @param metadata a packet passed along with the stream, such as a file name, may be null.
+	 * @return completes once the whole stream is written, or exceptionally if reading fails or the connection closes.
+	 * @throws IllegalStateException if the server has no stream listeners.
+	 */
+	public CompletableFuture<Void> sendStream(InputStream in, Object metadata) {
+		ByteBuffer encoded = streamMetadata(metadata);
+		return streamSender.send(in, encoded);
+	}
+
+	/**
+	 * sends the file to the server like {@link #sendStream(InputStream, Object)}.
+	 */
+	public CompletableFuture<Void> sendStream(Path file, Object metadata) {
+		ByteBuffer encoded = streamMetadata(metadata);
+		return streamSender.send(file, encoded);
+	}
+
+	private ByteBuffer streamMetadata(Object metadata){
+		PacketCodec codec = awaitCodec();
+		if(!codec.hasFrameHeaders()) {
+			throw new IllegalStateException("Server has no stream listeners");
+		}
+		return metadata == null ? null : codec.encode(metadata);
+	}
+
+	/**
+	 * sends a request to the server, which replies with what its request handler returns.
+	 * requests are pipelined, any number of them may wait for their response at once.
+	 * @param type class of the response.
+	 * @param timeout the request fails with a TimeoutException if no response arrives in time, null to wait until the connection closes.
+	 * @return completes with the response, or exceptionally with a {@link RequestException} if the server failed to handle the request.
+	 */
+	public <R> CompletableFuture<R> request(Object request, Class<R> type, Duration timeout) {
+		PacketCodec codec = awaitCodec();
+		if(!codec.hasFrameHeaders()) {
+			return CompletableFuture.failedFuture(new RequestException("Server has no request handlers"));
+		}
+		PendingRequests.Pending<R> pending = requests.open(type, timeout);
+		try {
+			queue(codec.encodeRequest(pending.id(), request));
+		}
+		catch (RuntimeException e) {
+			requests.fail(pending.id(), e);
+		}
+		return pending;
+	}
+
+	/**
+	 * waits for the handshake, the cipher is set before the codec.
+	 */
+	private PacketCodec awaitCodec(){
+		PacketCodec codec;
+		while ((codec = this.codec) == null) {
+			Thread.onSpinWait();
+		}
+		return codec;
+	}
+
 	/**
 	 * close the client.
 	 */
 	public void close() {
 		if(running) {
 			running = false;
-			listeners.forEach(ClientListener::disconnect);
-			try {
-				writer.close();
-				reader.close();
-			}
-			catch (IOException e){
-				System.out.println("Failed to close streams.");
-				e.printStackTrace();
-			}
-			try {
-				socket.close();
+			requests.failAll(new IOException("Connection closed"));
+			dispatch(() -> listeners.forEach(ClientListener::disconnect));
+			SessionCipher cipher = this.cipher;
+			if(session != null && cipher != null) {
+				// the server ends the session right away instead of waiting for a resume, once what was sent before is written.
+				try {
+					cipher.sendAsync(Session.goodbye())
+							.orTimeout(Session.GOODBYE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+							.whenComplete((written, e) -> closeConnection());
+				}
+				catch (GeneralSecurityException e) {
+					e.printStackTrace();
+					closeConnection();
+				}
 			}
-			catch (IOException e){
-				System.out.println("Failed to close socket.");
-				e.printStackTrace();
+			else {
+				closeConnection();
 			}
 		}
 	}
 
+	/**
+	 * closes the current connection, if it is still open.
+	 */
+	private synchronized void closeConnection(){
+		if(!connectionOpen) {
+			return;
+		}
+		connectionOpen = false;
+		if(heartbeat != null) {
+			heartbeat.stop();
+			heartbeat = null;
+		}
+		metrics.closeConnection();
+		try {
+			outbound.close();
+			writer.close();
+			reader.close();
+		}
+		catch (IOException e){
+			System.out.println("Failed to close streams.");
+			e.printStackTrace();
+		}
+		closeSocket(socket);
+	}
+
+	private static void closeSocket(Socket socket){
+		try {
+			socket.close();
+		}
+		catch (IOException e){
+			System.out.println("Failed to close socket.");
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * returns if the client is connected to server
 	 */
@@ -1,37 +1,113 @@
 package com.notlord.lordnet.secured;
 
-import com.google.gson.Gson;
+import com.notlord.lordnet.BufferPool;
+import com.notlord.lordnet.ChannelListeners;
+import com.notlord.lordnet.ChannelPacket;
+import com.notlord.lordnet.ClientGroups;
+import com.notlord.lordnet.ClientRegistry;
+import com.notlord.lordnet.ConnectionMode;
+import com.notlord.lordnet.FrameCompression;
+import com.notlord.lordnet.HeartbeatMonitor;
+import com.notlord.lordnet.Heartbeats;
 import com.notlord.lordnet.IClientInstance;
+import com.notlord.lordnet.InboundStream;
+import com.notlord.lordnet.InboundStreams;
+import com.notlord.lordnet.OutboundLimits;
+import com.notlord.lordnet.OutboundQueue;
+import com.notlord.lordnet.OverflowPolicy;
+import com.notlord.lordnet.PacketCodec;
+import com.notlord.lordnet.PacketHandlers;
+import com.notlord.lordnet.RequestHandlers;
+import com.notlord.lordnet.RpcMessage;
+import com.notlord.lordnet.Server;
+import com.notlord.lordnet.Session;
+import com.notlord.lordnet.SessionResumption;
+import com.notlord.lordnet.StreamSender;
+import com.notlord.lordnet.StripedExecutor;
+import com.notlord.lordnet.Threads;
+import com.notlord.lordnet.TimerWheel;
+import com.notlord.lordnet.WireProtocol;
 import com.notlord.lordnet.listeners.ServerListener;
+import com.notlord.lordnet.metrics.ConnectionMetrics;
+import com.notlord.lordnet.metrics.TransportMetrics;
+import com.notlord.lordnet.serialization.GsonSerializer;
+import com.notlord.lordnet.serialization.PacketSerializer;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
 import java.security.*;
+import java.security.cert.Certificate;
 import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 
-import static com.notlord.lordnet.secured.SecuredUtilities.decryptPacketMessage;
-import static com.notlord.lordnet.secured.SecuredUtilities.encryptPacketMessage;
+import static com.notlord.lordnet.secured.SecuredUtilities.KEY_HALF_LENGTH;
+import static com.notlord.lordnet.secured.SecuredUtilities.MAX_PUBLIC_KEY_LENGTH;
+import static com.notlord.lordnet.secured.SecuredUtilities.decryptKeyHalf;
+import static com.notlord.lordnet.secured.SecuredUtilities.deriveResumeKey;
+import static com.notlord.lordnet.secured.SecuredUtilities.deriveSessionKey;
+import static com.notlord.lordnet.secured.SecuredUtilities.encryptKeyHalf;
+import static com.notlord.lordnet.secured.SecuredUtilities.newKeyHalf;
 
 public class SecuredServer {
+	/**
+	 * sent by a client in place of the length of its public key, to resume its session instead of a full handshake.
+	 */
+	static final int RESUME_MARKER = 0;
+	/**
+	 * longest a client may take to send each part of its handshake by default.
+	 */
+	public static final Duration DEFAULT_HANDSHAKE_TIMEOUT = Duration.ofSeconds(10);
 	private final String separatorId = UUID.randomUUID() + "-si";
-	private static final Gson gson = new Gson();
+	private volatile PacketCodec codec;
+	private WireProtocol protocol = WireProtocol.STRING;
+	private PacketSerializer serializer = new GsonSerializer();
+	private FrameCompression compression = null;
+	private OutboundLimits outboundLimits = OutboundLimits.UNBOUNDED;
+	private Heartbeats heartbeats = null;
+	private SessionResumption resumption = null;
+	private final Map<ByteBuffer, ClientInstance> sessions = new ConcurrentHashMap<>();
+	private final Set<Connection> handshaking = ConcurrentHashMap.newKeySet();
+	private Duration handshakeTimeout = DEFAULT_HANDSHAKE_TIMEOUT;
+	private volatile StripedExecutor dispatcher = null;
+	private final PacketHandlers<IClientInstance> handlers = new PacketHandlers<>();
+	private final RequestHandlers<IClientInstance> requestHandlers = new RequestHandlers<>();
+	private final ChannelListeners<IClientInstance> channelListeners = new ChannelListeners<>();
+	private final List<BiConsumer<IClientInstance, InboundStream>> streamListeners = new CopyOnWriteArrayList<>();
+	private final TransportMetrics metrics = new TransportMetrics();
+	private final List<Class<?>> packetTypes = new ArrayList<>();
 	private volatile boolean running = false;
 	private ServerSocket socket;
 	private int port;
+	private ConnectionMode mode = ConnectionMode.THREAD;
+	private int maxFrameSize = BufferPool.DEFAULT_MAX_FRAME_SIZE;
+	private BufferPool bufferPool;
 	private final List<ServerListener> listeners = new ArrayList<>();
-	private final List<ClientInstance> clients = new CopyOnWriteArrayList<>();
-	private int id = 0;
+	private final ClientRegistry<ClientInstance> clients = new ClientRegistry<>();
+	private final ClientGroups<ClientInstance> groups = new ClientGroups<>();
+	private KeyPair keyPair;
+	private KeyPairPool keyPairPool = KeyPairPool.shared();
 	private PrivateKey privateKey;
 	private PublicKey publicKey;
 
@@ -50,6 +126,156 @@ public class SecuredServer {
 		this.port = port;
 	}
 
+	/**
+	 * set how client connections are handled, takes effect on the next start.
+	 * @param mode {@link ConnectionMode#THREAD} by default, {@link ConnectionMode#EVENT_LOOP} is not supported.
+	 */
+	public void setConnectionMode(ConnectionMode mode) {
+		if(mode == ConnectionMode.EVENT_LOOP) {
+			throw new IllegalArgumentException("Secured server does not support " + mode);
+		}
+		if(mode == ConnectionMode.VIRTUAL_THREAD && !Threads.virtualThreadsSupported()) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+		}
+		this.mode = mode;
+	}
+
+	/**
+	 * set how long the server waits for each part of a client's handshake, clients that take longer are disconnected.
+	 * every handshake runs on its own thread, a slow client only holds up its own connection, takes effect on the next start.
+	 * @param handshakeTimeout {@link #DEFAULT_HANDSHAKE_TIMEOUT} by default, zero to wait forever.
+	 */
+	public void setHandshakeTimeout(Duration handshakeTimeout) {
+		if(handshakeTimeout.isNegative()) {
+			throw new IllegalArgumentException("Negative handshake timeout");
+		}
+		this.handshakeTimeout = handshakeTimeout;
+	}
+
+	/**
+	 * set the largest frame a client may send, clients sending larger frames are disconnected.
+	 * also caps the size of pooled receive buffers, takes effect on the next start.
+	 * @param maxFrameSize max frame size in bytes, {@link BufferPool#DEFAULT_MAX_FRAME_SIZE} by default.
+	 */
+	public void setMaxFrameSize(int maxFrameSize) {
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * set the format of packets, takes effect on the next start.
+	 * @param protocol {@link WireProtocol#STRING} by default.
+	 */
+	public void setWireProtocol(WireProtocol protocol) {
+		this.protocol = protocol;
+	}
+
+	/**
+	 * registers packet classes for the binary protocol, they are sent as a small type id instead of their name.
+	 * type ids are given in registration order and sent to clients in the handshake, takes effect on the next start.
+	 */
+	public void registerPackets(Class<?>... types) {
+		packetTypes.addAll(List.of(types));
+	}
+
+	/**
+	 * set the serializer of packets, clients must use the same serializer, takes effect on the next start.
+	 * @param serializer {@link GsonSerializer} by default.
+	 */
+	public void setSerializer(PacketSerializer serializer) {
+		this.serializer = serializer;
+	}
+
+	/**
+	 * set the compression of frames, sent to clients in the handshake, takes effect on the next start.
+	 * compression is applied to both directions of every connection, before encryption.
+	 * @param compression null for no compression, the default.
+	 */
+	public void setCompression(FrameCompression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * set the limits of every client's outbound buffer, and what happens when a client does not keep up, takes effect on the next start.
+	 * listeners are told when a client crosses the high and low water marks.
+	 * @param outboundLimits {@link OutboundLimits#UNBOUNDED} by default.
+	 */
+	public void setOutboundLimits(OutboundLimits outboundLimits) {
+		this.outboundLimits = outboundLimits;
+	}
+
+	/**
+	 * set the heartbeats and timeouts of every client's connection, see {@link Heartbeats}, takes effect on the next start.
+	 * listeners are told when a client times out, before its disconnect.
+	 * @param heartbeats null for no heartbeats, the default, connections then only end once the socket reports it.
+	 */
+	public void setHeartbeats(Heartbeats heartbeats) {
+		this.heartbeats = heartbeats;
+	}
+
+	/**
+	 * set if clients that lose their connection may resume their session, see {@link SessionResumption}, takes effect on the next start.
+	 * a resumed connection skips the rsa key exchange, its key is derived from the session key and a fresh nonce of each side.
+	 * outbound limits must use {@link OverflowPolicy#DISCONNECT}, and streams are not resumed,
+	 * a stream in progress fails when the connection is lost.
+	 * @param resumption null to end sessions with their connection, the default.
+	 */
+	public void setSessionResumption(SessionResumption resumption) {
+		this.resumption = resumption;
+	}
+
+	/**
+	 * set if the ids of clients that disconnected are given to new clients, the ids freed longest ago first.
+	 * an id is freed once listeners were told of the disconnect, an id kept after that may then name another client.
+	 * @param recycle false by default, ids then count up.
+	 */
+	public void setIdRecycling(boolean recycle) {
+		clients.setRecycling(recycle);
+	}
+
+	/**
+	 * set where packets are decoded and passed to listeners.
+	 * with a dispatcher, reading threads only read, packets of a client are handled in order on the dispatcher stripe of its id,
+	 * connect and disconnect events included. the dispatcher is not closed with the server.
+	 * @param dispatcher null to handle packets inline on the reading thread, the default and lowest latency.
+	 */
+	public void setDispatcher(StripedExecutor dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * set the rsa key pair of the server, used for the key exchange with clients.
+	 * without a key pair, one is taken from the key pair pool on every start.
+	 */
+	public void setKeyPair(KeyPair keyPair) {
+		this.keyPair = keyPair;
+	}
+
+	/**
+	 * loads a persistent rsa key pair from a keystore file, so the server does not generate one on start.
+	 * the keystore type (pkcs12 or jks) is detected from the file.
+	 * @param keystore path of the keystore.
+	 * @param password password of the keystore and the key.
+	 * @param alias alias of the key entry.
+	 * @throws GeneralSecurityException if the entry is missing or is not an rsa key pair.
+	 */
+	public void loadKeyPair(Path keystore, char[] password, String alias) throws IOException, GeneralSecurityException {
+		KeyStore store = KeyStore.getInstance(keystore.toFile(), password);
+		Key key = store.getKey(alias, password);
+		Certificate certificate = store.getCertificate(alias);
+		if(!(key instanceof PrivateKey) || certificate == null || !"RSA".equals(key.getAlgorithm())) {
+			throw new GeneralSecurityException("No RSA key pair with alias " + alias);
+		}
+		keyPair = new KeyPair(certificate.getPublicKey(), (PrivateKey) key);
+	}
+
+	/**
+	 * set the pool the server key pair is taken from when none is set.
+	 * @param keyPairPool {@link KeyPairPool#shared()} by default.
+	 */
+	public void setKeyPairPool(KeyPairPool keyPairPool) {
+		this.keyPairPool = keyPairPool;
+	}
+
 	/**
 	 * adds a listener to the server.
 	 * @param l listener to add
@@ -57,20 +283,78 @@ public class SecuredServer {
 	public void addListener(ServerListener l){
 		listeners.add(l);
 	}
-	private void initialize() throws IOException, NoSuchAlgorithmException {
-		socket = new ServerSocket(port);
+
+	/**
+	 * registers a handler of packets of the type, including subclasses and implementations.
+	 * handlers run before the listeners, which still receive every packet.
+	 * example: server.on(MovePacket.class, (client, packet) -> ...);
+	 */
+	public <T> void on(Class<T> type, BiConsumer<IClientInstance, ? super T> handler){
+		handlers.on(type, handler);
+	}
+
+	/**
+	 * registers the handler of requests of the type, the value it returns is sent back to the client as the response.
+	 * a handler may return a CompletionStage, the response is then sent once it completes.
+	 * clients can only send requests if a request handler is registered when the server starts.
+	 * example: server.onRequest(LoginRequest.class, (client, request) -> new LoginResponse(...));
+	 */
+	public <T> void onRequest(Class<T> type, BiFunction<IClientInstance, ? super T, ?> handler){
+		requestHandlers.on(type, handler);
+	}
+
+	/**
+	 * registers a listener of packets clients send on the channel, they are not passed to handlers and listeners.
+	 * packets on channels without a channel listener are passed to handlers and listeners like any other packet.
+	 * channels can only be used if a channel listener is registered when the server starts.
+	 * sealed frames must be written in order, so channels of a secured connection have no priorities and frames are never split.
+	 */
+	public void onChannel(int channel, BiConsumer<IClientInstance, Object> listener){
+		channelListeners.on(channel, listener);
+	}
+
+	/**
+	 * registers a listener of streams clients send, called when a stream opens, on the thread reading the client.
+	 * the listener chooses where the data goes, see {@link InboundStream}.
+	 * clients can only send streams if a stream listener is registered when the server starts.
+	 */
+	public void onStream(BiConsumer<IClientInstance, InboundStream> listener){
+		streamListeners.add(listener);
+	}
+
+	/**
+	 * returns the traffic counters and latencies of the server, across all clients.
+	 * while running they are also registered over jmx, as com.notlord.lordnet:type=SecuredServer,port=...
+	 */
+	public TransportMetrics getMetrics(){
+		return metrics;
+	}
+
+	private void initialize() throws IOException {
+		bufferPool = new BufferPool(maxFrameSize, false);
+		PacketCodec codec = protocol == WireProtocol.BINARY ? new PacketCodec(separatorId, serializer, packetTypes) : new PacketCodec(separatorId, serializer);
+		codec.setCompression(compression);
+		codec.setMaxFrameSize(maxFrameSize);
+		codec.setMetrics(metrics);
+		codec.setFrameHeaders(!requestHandlers.isEmpty() || !channelListeners.isEmpty() || !streamListeners.isEmpty() || resumption != null);
+		this.codec = codec;
+		socket = ServerSocketChannel.open().socket();
+		socket.bind(new InetSocketAddress(port), Server.ACCEPT_BACKLOG);
+		metrics.register("type=SecuredServer,port=" + socket.getLocalPort());
 		running = true;
-		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
-		generator.initialize(2048);
-		KeyPair pair = generator.generateKeyPair();
+		KeyPair pair = keyPair != null ? keyPair : keyPairPool.take();
 		privateKey = pair.getPrivate();
 		publicKey = pair.getPublic();
 	}
 
 	/**
 	 * starts the server.
+	 * @throws IllegalStateException if sessions are resumed and outbound limits drop packets, which could not be replayed.
 	 */
 	public void start(){
+		if(resumption != null && outboundLimits != OutboundLimits.UNBOUNDED && outboundLimits.getPolicy() != OverflowPolicy.DISCONNECT) {
+			throw new IllegalStateException("Session resumption needs outbound limits that disconnect");
+		}
 		if(!running) {
 			running = true;
 			new Thread(this::serverClientConnectionHandle,"Server").start();
@@ -88,7 +372,14 @@ public class SecuredServer {
 					client.close();
 				}
 				clients.clear();
+				groups.clear();
+				for (Connection connection : handshaking) {
+					connection.close();
+				}
+				handshaking.clear();
+				sessions.clear();
 				socket.close();
+				metrics.unregister();
 			}
 			catch (Exception e){
 				e.printStackTrace();
@@ -99,48 +390,475 @@ public class SecuredServer {
 	private void serverClientConnectionHandle() {
 		try {
 			initialize();
-		} catch (IOException | NoSuchAlgorithmException e) {
+		} catch (IOException e) {
 			running = false;
 			e.printStackTrace();
 		}
 		while (running) {
+			Socket accepted;
 			try {
-				clientConnect(new ClientInstance(this,privateKey,socket.accept(), id));
-				id++;
+				accepted = socket.accept();
 			} catch (IOException e) {
-				if (!e.getMessage().equals("Socket closed"))
+				if (e.getMessage() != null && !e.getMessage().equals("Socket closed"))
 					e.printStackTrace();
 				break;
 			}
+			startHandshake(accepted);
 		}
 		listeners.forEach(ServerListener::serverClose);
 	}
 
-	protected void clientConnect(ClientInstance clientSocket) throws IOException{
-		clientSocket.writer.writeInt(separatorId.getBytes(StandardCharsets.UTF_8).length);
-		clientSocket.writer.write(separatorId.getBytes(StandardCharsets.UTF_8));
-		clientSocket.writer.writeInt(publicKey.getEncoded().length);
-		clientSocket.writer.write(publicKey.getEncoded());
+	/**
+	 * starts the handshake of an accepted connection on a thread of its own, reads time out after the handshake timeout.
+	 * the handshake blocks on the client, so a client that is slow, silent or fails only ends its own connection.
+	 */
+	private void startHandshake(Socket accepted){
+		long start = System.nanoTime();
+		boolean virtual = mode == ConnectionMode.VIRTUAL_THREAD;
+		Connection connection;
+		try {
+			accepted.setTcpNoDelay(true);
+			accepted.setSoTimeout((int) Math.min(handshakeTimeout.toMillis(), Integer.MAX_VALUE));
+			connection = new Connection(this, accepted, virtual);
+		} catch (IOException e) {
+			e.printStackTrace();
+			try {
+				accepted.close();
+			} catch (IOException ignored) {}
+			return;
+		}
+		handshaking.add(connection);
+		Threads.start("Handshake", () -> handshake(connection, start), virtual);
+	}
+
+	private void handshake(Connection connection, long start){
+		try {
+			accept(connection);
+			metrics.accept().recordSince(start);
+		}
+		catch (IOException | GeneralSecurityException | RuntimeException e) {
+			// a connection closed by the server while it stops is not an error.
+			if(running) {
+				e.printStackTrace();
+			}
+			connection.close();
+			metrics.closeConnection();
+		}
+		finally {
+			handshaking.remove(connection);
+		}
+	}
+
+	/**
+	 * goes on with an accepted connection as a new client, or resumes the session the client asks for.
+	 * @throws IOException if the connection fails or times out, the caller closes it.
+	 * @throws GeneralSecurityException if the key exchange fails, the caller closes the connection.
+	 */
+	private void accept(Connection connection) throws IOException, GeneralSecurityException {
+		int keyLength = connection.reader.readInt();
+		if(keyLength == RESUME_MARKER && resumption != null) {
+			if(resume(connection)) {
+				return;
+			}
+			// the server no longer has the session, the client goes on with a full handshake.
+			keyLength = connection.reader.readInt();
+		}
+		PublicKey clientKey = readPublicKey(connection, keyLength);
+		int id = clients.allocateId();
+		try {
+			clientConnect(new ClientInstance(this, privateKey, clientKey, connection, id, mode == ConnectionMode.VIRTUAL_THREAD));
+		}
+		catch (IOException | GeneralSecurityException e) {
+			clients.releaseId(id);
+			throw e;
+		}
+	}
+
+	/**
+	 * reads the public key of a client.
+	 * @param keyLength the length of the key, read from the connection.
+	 * @throws IOException if the length is not one of an rsa key.
+	 * @throws GeneralSecurityException if the key is not a valid rsa public key.
+	 */
+	private static PublicKey readPublicKey(Connection connection, int keyLength) throws IOException, GeneralSecurityException {
+		if(keyLength <= 0 || keyLength > MAX_PUBLIC_KEY_LENGTH) {
+			throw new IOException("Invalid public key of " + keyLength + " bytes");
+		}
+		byte[] bytes = new byte[keyLength];
+		connection.reader.readFully(bytes);
+		return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(bytes));
+	}
+
+	/**
+	 * runs the key exchange with a new client, then starts reading from it and tells listeners it connected.
+	 * @throws IOException if the connection fails or times out during the key exchange.
+	 * @throws GeneralSecurityException if the key exchange fails.
+	 */
+	protected void clientConnect(ClientInstance clientSocket) throws IOException, GeneralSecurityException {
+		Connection connection = clientSocket.connection;
+		Session session = clientSocket.session;
+		long start = System.nanoTime();
+		byte[] handshake = session == null ? codec.handshake() : codec.handshake(0, 0, null, session.getToken());
+		connection.writer.writeInt(handshake.length);
+		connection.writer.write(handshake);
+		connection.writer.writeInt(publicKey.getEncoded().length);
+		connection.writer.write(publicKey.getEncoded());
+		clientSocket.agreeSessionKey();
+		// heartbeats time out established connections, if set.
+		connection.socket.setSoTimeout(0);
+		metrics.handshake().recordSince(start);
+		// started after the handshake, which is written around the outbound queue.
+		attach(clientSocket, connection);
+		if(session != null) {
+			// the client's first frame tells if it may resume the session.
+			clientSocket.greeting = true;
+			sessions.put(ByteBuffer.wrap(session.getToken()), clientSocket);
+		}
+		StripedExecutor dispatcher = clientSocket.dispatcher;
+		Runnable connected = () -> listeners.forEach((listener -> listener.clientConnect(clientSocket)));
+		if(dispatcher != null) {
+			// queued before reading starts, so listeners see the connect before any packet.
+			dispatcher.execute(clientSocket.getID(), connected);
+		}
 		clientSocket.start();
 		clients.add(clientSocket);
-		listeners.forEach((listener -> listener.clientConnect(clientSocket)));
+		if(dispatcher == null) {
+			connected.run();
+		}
+	}
+
+	/**
+	 * sets up a connection of the client once its key is agreed.
+	 */
+	private void attach(ClientInstance clientSocket, Connection connection){
+		clientSocket.metrics = connection.metrics;
+		connection.outbound.setLimits(outboundLimits,
+				() -> listeners.forEach(listener -> listener.clientHighWater(clientSocket)),
+				() -> listeners.forEach(listener -> listener.clientLowWater(clientSocket)));
+		connection.streams = new InboundStreams(codec, stream -> streamOpen(clientSocket, stream));
+		// stream frames are sealed like any other frame, so files are read through the heap, they are not kept for replay.
+		connection.streamSender = new StreamSender(connection::sendAsync, null);
+		if(heartbeats != null) {
+			connection.heartbeat = new HeartbeatMonitor(heartbeats, connection.metrics, connection.outbound, () -> clientSocket.timeOut(connection));
+			connection.heartbeat.start();
+		}
+	}
+
+	/**
+	 * resumes the session a client asks for on its new connection, instead of a full handshake.
+	 * the client sends its session token and a nonce, the server answers with a nonce of its own, and both derive the key
+	 * of the connection from the session key and the nonces. the client's first sealed frame proves it holds the session key,
+	 * the server then tells what it received, followed by what the client did not.
+	 * @return false if the server does not have the session, the client then goes on with a full handshake on the connection.
+	 * @throws IOException if the connection fails, or the client does not prove it holds the session.
+	 */
+	private boolean resume(Connection connection) throws IOException, GeneralSecurityException {
+		byte[] token = new byte[Session.TOKEN_SIZE];
+		connection.reader.readFully(token);
+		byte[] clientNonce = new byte[KEY_HALF_LENGTH];
+		connection.reader.readFully(clientNonce);
+		ClientInstance owner = sessions.get(ByteBuffer.wrap(token));
+		if(owner == null) {
+			connection.writer.writeInt(0);
+			connection.writer.flush();
+			return false;
+		}
+		byte[] serverNonce = newKeyHalf();
+		connection.writer.writeInt(serverNonce.length);
+		connection.writer.write(serverNonce);
+		connection.writer.flush();
+		connection.cipher = new SessionCipher(deriveResumeKey(owner.sessionKey, clientNonce, serverNonce), true, connection.outbound, metrics);
+		ByteBuffer frame = connection.cipher.read(connection.reader, bufferPool.getMaxFrameSize());
+		try {
+			if(!Session.isControl(frame) || Session.readType(frame) != Session.RESUME || !Arrays.equals(token, readToken(frame))) {
+				throw new IOException("Invalid resume");
+			}
+			long received = frame.getLong();
+			long firstKept = frame.getLong();
+			// heartbeats time out established connections, if set.
+			connection.socket.setSoTimeout(0);
+			Session session = owner.session;
+			if(session != null && resume(owner, session, connection, received, firstKept)) {
+				return true;
+			}
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Invalid resume", e);
+		}
+		// the connection ends once the client was told, it starts over as a new client, so its old session is over too.
+		connection.cipher.sendAsync(Session.rejected())
+				.orTimeout(Session.GOODBYE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+				.whenComplete((written, e) -> connection.close());
+		metrics.closeConnection();
+		Session session = owner.session;
+		if(session != null) {
+			endSession(owner, session, false);
+		}
+		return true;
+	}
+
+	private static byte[] readToken(ByteBuffer frame){
+		byte[] token = new byte[Session.TOKEN_SIZE];
+		frame.get(token);
+		return token;
+	}
+
+	/**
+	 * moves the session onto the new connection, which is told what the server received, followed by what the client did not.
+	 * @return false if the session ended, or the replay buffers no longer hold all that was lost.
+	 */
+	private boolean resume(ClientInstance owner, Session session, Connection connection, long received, long firstKept) throws GeneralSecurityException {
+		Connection previous;
+		long bytes = 0;
+		int frames;
+		// waits for the frame the old connection is handing on, it drops later ones once the session moved.
+		synchronized (owner.delivery) {
+			synchronized (session) {
+				List<byte[]> replay = owner.ended ? null : session.replayFrom(received);
+				if(replay == null || session.getReceived() < firstKept) {
+					return false;
+				}
+				if(owner.expiry != null) {
+					owner.expiry.cancel();
+					owner.expiry = null;
+				}
+				connection.cipher.send(Session.resumed(session.getReceived()));
+				for (byte[] frame : replay) {
+					connection.cipher.send(ByteBuffer.wrap(frame));
+					bytes += frame.length;
+				}
+				frames = replay.size();
+				attach(owner, connection);
+				previous = owner.connection;
+				owner.connection = connection;
+			}
+		}
+		if(previous != null) {
+			// a connection the server did not notice was lost yet.
+			previous.close();
+		}
+		owner.start(connection);
+		metrics.resumed(frames, bytes);
+		return true;
+	}
+
+	/**
+	 * keeps the session of a client whose connection was lost, until the keep alive ends.
+	 * @return false if the session ended with the connection, and the client is disconnected.
+	 */
+	private boolean suspend(ClientInstance owner, Session session, Connection connection){
+		synchronized (session) {
+			if(owner.connection != connection) {
+				// the session already moved on to a new connection.
+				return true;
+			}
+			owner.connection = null;
+			if(owner.ended || !running) {
+				owner.ended = true;
+				return false;
+			}
+			owner.expiry = Threads.wheel().schedule(() -> endSession(owner, session, true), resumption.getKeepAlive().toNanos(), TimeUnit.NANOSECONDS);
+			return true;
+		}
+	}
+
+	/**
+	 * ends the session, closing its connection, the client is disconnected once.
+	 * a client that is still connected is told goodbye, so it does not try to resume.
+	 * @param expired true if the keep alive ended, the session then only ends if it was not resumed meanwhile.
+	 */
+	private void endSession(ClientInstance owner, Session session, boolean expired){
+		Connection connection;
+		synchronized (session) {
+			if(owner.ended || expired && owner.connection != null) {
+				return;
+			}
+			owner.ended = true;
+			if(owner.expiry != null) {
+				owner.expiry.cancel();
+				owner.expiry = null;
+			}
+			connection = owner.connection;
+		}
+		if(connection == null) {
+			owner.notifyDisconnect();
+		}
+		else if(!running) {
+			connection.close();
+		}
+		else {
+			// the connection ends once what was sent before is written, and disconnects the client.
+			try {
+				connection.cipher.sendAsync(Session.goodbye())
+						.orTimeout(Session.GOODBYE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+						.whenComplete((written, e) -> connection.close());
+			}
+			catch (GeneralSecurityException e) {
+				e.printStackTrace();
+				connection.close();
+			}
+		}
 	}
 
 	protected void clientDisconnect(ClientInstance clientSocket){
+		Session session = clientSocket.session;
+		if(session != null) {
+			sessions.remove(ByteBuffer.wrap(session.getToken()));
+		}
 		listeners.forEach((listener -> listener.clientDisconnect(clientSocket)));
 		clients.remove(clientSocket);
+		groups.leaveAll(clientSocket);
+		clients.releaseId(clientSocket.getID());
+	}
+
+	protected void clientTimeout(ClientInstance clientSocket){
+		listeners.forEach((listener -> listener.clientTimeout(clientSocket)));
 	}
 
 	protected void clientInput(ClientInstance clientSocket, Object o){
+		long start = System.nanoTime();
+		if(o instanceof RpcMessage message) {
+			if(message.isRequest()) {
+				requestHandlers.handle(clientSocket, message, codec, clientSocket::sendEncoded);
+			}
+		}
+		else if(o instanceof ChannelPacket packet) {
+			if(!channelListeners.dispatch(clientSocket, packet)) {
+				dispatch(clientSocket, packet.getPacket());
+			}
+		}
+		else {
+			dispatch(clientSocket, o);
+		}
+		metrics.handler().recordSince(start);
+	}
+
+	private void streamOpen(ClientInstance clientSocket, InboundStream stream){
+		streamListeners.forEach(listener -> listener.accept(clientSocket, stream));
+	}
+
+	private void dispatch(ClientInstance clientSocket, Object o){
+		handlers.dispatch(clientSocket, o);
 		listeners.forEach((listener -> listener.clientReceive(clientSocket, o)));
 	}
 
+	/**
+	 * returns the connected client of the id, in O(1).
+	 * @return null if no connected client has the id.
+	 */
+	public ClientInstance getClient(int id){
+		return clients.get(id);
+	}
+
+	/**
+	 * returns a live, read only view of the connected clients.
+	 * iterating it never copies, and sees clients that connect or disconnect meanwhile or not.
+	 */
+	public Collection<ClientInstance> getClients(){
+		return clients.view();
+	}
+
+	/**
+	 * sends a packet to the client of the id.
+	 * @return false if no connected client has the id.
+	 */
+	public boolean sendTo(int id, Object o){
+		ClientInstance clientInstance = clients.get(id);
+		if(clientInstance == null) {
+			return false;
+		}
+		clientInstance.send(o);
+		return true;
+	}
+
+	/**
+	 * sends a packet to the clients of the ids, ids without a connected client are skipped.
+	 * the packet is encoded once, then sealed for every client.
+	 * @return the amount of clients the packet was sent to.
+	 */
+	public int sendTo(int[] ids, Object o){
+		ByteBuffer body = null;
+		int sent = 0;
+		for (int id : ids) {
+			ClientInstance clientInstance = clients.get(id);
+			if(clientInstance == null) {
+				continue;
+			}
+			if(body == null) {
+				body = copyOf(codec.encode(o));
+			}
+			clientInstance.sendEncoded(body.duplicate());
+			sent++;
+		}
+		return sent;
+	}
+
+	/**
+	 * adds the client to the named group, such as a room or a topic.
+	 * groups are created on their first member and removed with their last,
+	 * clients leave all their groups once listeners were told of their disconnect.
+	 * @return false if the client already is a member, or is not connected to this server.
+	 */
+	public boolean joinGroup(String group, IClientInstance client){
+		ClientInstance member = clients.get(client.getID());
+		if(member != client || !groups.join(group, member)) {
+			return false;
+		}
+		if(clients.get(member.getID()) != member) {
+			// disconnected while joining, maybe after its groups were left.
+			groups.leaveAll(member);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * removes the client from the named group.
+	 * @return false if the client was not a member.
+	 */
+	public boolean leaveGroup(String group, IClientInstance client){
+		return client instanceof ClientInstance member && groups.leave(group, member);
+	}
+
+	/**
+	 * returns a live, read only view of the members of the named group.
+	 */
+	public Collection<ClientInstance> getGroupMembers(String group){
+		return groups.members(group);
+	}
+
+	/**
+	 * returns a live, read only view of the names of the groups of the client.
+	 */
+	public Set<String> getGroups(IClientInstance client){
+		return client instanceof ClientInstance member ? groups.groupsOf(member) : Set.of();
+	}
+
+	/**
+	 * sends a packet to the members of the named group, only they are visited.
+	 * the packet is encoded once, then sealed for every member.
+	 * @return the amount of clients the packet was sent to.
+	 */
+	public int sendToGroup(String group, Object o){
+		Collection<ClientInstance> members = groups.members(group);
+		if(members.isEmpty()) {
+			return 0;
+		}
+		ByteBuffer body = copyOf(codec.encode(o));
+		int sent = 0;
+		for (ClientInstance clientInstance : members) {
+			clientInstance.sendEncoded(body.duplicate());
+			sent++;
+		}
+		return sent;
+	}
+
 	/**
 	 * sends a packet to all client instances.
 	 * @param o the packet
 	 */
 	public void sendAll(Object o){
-		clients.forEach(clientInstance -> clientInstance.send(o));
+		sendAllExcludeIds(o);
 	}
 
 	/**
@@ -149,12 +867,39 @@ public class SecuredServer {
 	 * @param excludedClients the client instances that should not receive the packet.
 	 */
 	public void sendAllExclude(Object o, ClientInstance... excludedClients){
-		List<ClientInstance> excludedInstances = new ArrayList<>(List.of(excludedClients));
-		clients.forEach(clientInstance -> {
-			if(!excludedInstances.contains(clientInstance)){
-				clientInstance.send(o);
+		int[] excludedIds = new int[excludedClients.length];
+		for (int i = 0; i < excludedClients.length; i++) {
+			excludedIds[i] = excludedClients[i].getID();
+		}
+		sendAllExcludeIds(o, excludedIds);
+	}
+
+	/**
+	 * sends a packet to all client instances but the ones with the specified ids.
+	 * the packet is serialized once, only the encryption is done per client, with the client's session key.
+	 * @param o the packet
+	 * @param excludedIds ids of the client instances that should not receive the packet.
+	 */
+	public void sendAllExcludeIds(Object o, int... excludedIds){
+		if(clients.isEmpty()) {
+			return;
+		}
+		int[] excluded = excludedIds.clone();
+		Arrays.sort(excluded);
+		ByteBuffer body = copyOf(codec.encode(o));
+		for (ClientInstance clientInstance : clients) {
+			if(excluded.length == 0 || Arrays.binarySearch(excluded, clientInstance.getID()) < 0) {
+				clientInstance.sendEncoded(body.duplicate());
 			}
-		});
+		}
+	}
+
+	/**
+	 * copies a body out of the encoding thread's buffer before it is sealed for several clients,
+	 * since a listener called while sending, such as on a high water mark or a disconnect, may encode on the same thread.
+	 */
+	private static ByteBuffer copyOf(ByteBuffer body){
+		return ByteBuffer.allocate(body.remaining()).put(body).flip();
 	}
 
 	/**
@@ -164,102 +909,518 @@ public class SecuredServer {
 		return running;
 	}
 
-	public static class ClientInstance extends Thread implements IClientInstance {
-		private final SecuredServer parentServer;
+	/**
+	 * a connection of a client, the session of the client moves on to a new connection when it resumes it.
+	 */
+	private static final class Connection {
 		private final Socket socket;
 		private final DataOutputStream writer;
 		private final DataInputStream reader;
+		private final OutboundQueue outbound;
+		private final ConnectionMetrics metrics;
+		// set once the key is agreed, before the connection is read by its own thread.
+		private SessionCipher cipher;
+		private InboundStreams streams;
+		private StreamSender streamSender;
+		private HeartbeatMonitor heartbeat = null;
+		private volatile boolean timedOut = false;
+		private boolean open = true;
+
+		private Connection(SecuredServer server, Socket socket, boolean virtual) throws IOException {
+			this.socket = socket;
+			this.metrics = server.metrics.openConnection();
+			writer = new DataOutputStream(socket.getOutputStream());
+			reader = new DataInputStream(socket.getInputStream());
+			outbound = new OutboundQueue(socket.getChannel(), Threads.writers(virtual), server.bufferPool, null, e -> close());
+			outbound.setMetrics(metrics);
+		}
+
+		/**
+		 * seals and queues a frame that is not kept for replay, such as a control frame.
+		 */
+		private void send(ByteBuffer body){
+			try {
+				cipher.send(body);
+			} catch (GeneralSecurityException e) {
+				e.printStackTrace();
+			}
+		}
+
+		/**
+		 * seals and queues a frame that is not kept for replay, such as a stream frame.
+		 */
+		private CompletableFuture<Void> sendAsync(ByteBuffer body){
+			try {
+				return cipher.sendAsync(body);
+			} catch (GeneralSecurityException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+
+		private synchronized void close(){
+			if(open) {
+				open = false;
+				try {
+					outbound.close();
+					writer.close();
+					reader.close();
+					socket.close();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	public static class ClientInstance implements IClientInstance, Runnable {
+		private final SecuredServer parentServer;
 		private final PrivateKey privateKey;
 		private final int id;
-		private boolean running = true;
-		private PublicKey publicKey;
+		private final boolean virtual;
+		private final StripedExecutor dispatcher;
+		private final PublicKey publicKey;
+		private byte[] sessionKey;
+		private volatile ConnectionMetrics metrics;
+		private volatile Session session;
+		// the connection carrying the session, null while it waits to be resumed.
+		private volatile Connection connection;
+		// set until the first frame of a client offered a session, read by the thread reading its first connection.
+		private boolean greeting = false;
+		// held while a frame is counted and handed on, so a resume waits for the frame the old connection is handling.
+		private final Object delivery = new Object();
+		// guarded by the session.
+		private boolean ended = false;
+		private TimerWheel.Timeout expiry = null;
 		/**
 		 * an instance of a client, on the server side.
 		 * @param parentServer the server the client instance is tied to.
-		 * @param socket the socket of the instance.
+		 * @param publicKey the public key of the client.
+		 * @param connection the connection of the instance.
 		 * @param id the id of the instance.
-		 * @throws IOException thrown when an error with creating an input/output stream occurs.
+		 * @param virtual if the instance reads on a virtual thread.
 		 */
-		protected ClientInstance(SecuredServer parentServer, PrivateKey privateKey, Socket socket, int id) throws IOException {
+		private ClientInstance(SecuredServer parentServer, PrivateKey privateKey, PublicKey publicKey, Connection connection, int id, boolean virtual) {
 			this.id = id;
+			this.virtual = virtual;
+			// fixed for the life of the client, so its packets stay in order.
+			this.dispatcher = parentServer.dispatcher;
 			this.parentServer = parentServer;
-			this.socket = socket;
+			this.connection = connection;
+			this.metrics = connection.metrics;
 			this.privateKey = privateKey;
-			writer = new DataOutputStream(socket.getOutputStream());
-			reader = new DataInputStream(socket.getInputStream());
-			try {
-				int l = reader.readInt();
-				byte[] bytes = new byte[l];
-				reader.readFully(bytes,0,l);
-				publicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(bytes));
+			this.publicKey = publicKey;
+			this.session = parentServer.resumption == null ? null : new Session(parentServer.resumption.getReplayBytes());
+		}
+
+		/**
+		 * agrees on the aes session key, each side sends a random key half encrypted with the other side's rsa key.
+		 */
+		private void agreeSessionKey() throws IOException, GeneralSecurityException {
+			Connection connection = this.connection;
+			byte[] serverHalf = newKeyHalf();
+			byte[] encrypted = encryptKeyHalf(publicKey, serverHalf);
+			connection.writer.writeInt(encrypted.length);
+			connection.writer.write(encrypted);
+			connection.writer.flush();
+			int l = connection.reader.readInt();
+			if(l <= 0 || l > parentServer.bufferPool.getMaxFrameSize()) {
+				throw new IOException("Invalid key exchange frame of " + l + " bytes");
 			}
-			catch (Exception ignored) {}
+			encrypted = new byte[l];
+			connection.reader.readFully(encrypted, 0, l);
+			sessionKey = deriveSessionKey(serverHalf, decryptKeyHalf(privateKey, encrypted));
+			connection.cipher = new SessionCipher(sessionKey, true, connection.outbound, parentServer.metrics);
+		}
+
+		/**
+		 * starts reading from the client.
+		 */
+		protected void start() {
+			start(connection);
+		}
+
+		private void start(Connection connection) {
+			Threads.start("ClientInstance-" + id, () -> read(connection), virtual);
 		}
 
 		@Override
 		public void run() {
-			clientRunHandle();
+			read(connection);
 		}
 
-		private void clientRunHandle() {
-			byte[] bytes;
-			while (!socket.isClosed()){
+		private void read(Connection connection) {
+			BufferPool pool = parentServer.bufferPool;
+			DataInputStream reader = connection.reader;
+			ByteBuffer buffer;
+			while (!connection.socket.isClosed()){
 				try {
 					int l = reader.readInt();
+					if(l > pool.getMaxFrameSize() || l < 0){
+						throw new IOException("Frame of " + l + " bytes exceeds max frame size");
+					}
 					if(l > 0) {
-						bytes = new byte[l];
-						reader.readFully(bytes,0,l);
+						if(l < SessionCipher.TAG_LENGTH){
+							throw new IOException("Frame of " + l + " bytes is too short");
+						}
+						buffer = pool.acquire(l);
+						try {
+							reader.readFully(buffer.array(), buffer.arrayOffset(), l);
+						}
+						catch (IOException e){
+							pool.release(buffer);
+							throw e;
+						}
 					}
 					else{
-						bytes = null;
+						buffer = null;
+						connection.metrics.heartbeatIn();
 					}
 				}
 				catch (Exception e) {
-					if(!e.getMessage().equals("Connection reset") && !e.getMessage().equals("Socket closed")){
+					if(e.getMessage() != null && !e.getMessage().equals("Connection reset") && !e.getMessage().equals("Socket closed")){
 						e.printStackTrace();
 					}
 					break;
 				}
-				if (bytes != null) {
+				if (buffer != null) {
+					connection.metrics.frameIn(buffer.remaining() + Integer.BYTES);
+					// decrypted in order on the reading thread, since nonces follow the frame order.
+					ByteBuffer decrypted = pool.acquire(buffer.limit() - SessionCipher.TAG_LENGTH);
 					try {
-						String decrypted = decryptPacketMessage(privateKey,bytes);
-						Object o = gson.fromJson(decrypted.split(parentServer.separatorId)[0], Class.forName(decrypted.split(parentServer.separatorId)[1]));
-						parentServer.clientInput(this, o);
+						connection.cipher.open(buffer, decrypted);
 					}
-					catch (ClassNotFoundException ignored) {}
-					catch (NoSuchPaddingException | IllegalBlockSizeException | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException e) {
+					catch (GeneralSecurityException e) {
+						// a frame that fails authentication breaks the nonce sequence, the connection can not continue.
 						e.printStackTrace();
+						pool.release(decrypted);
+						break;
+					}
+					finally {
+						pool.release(buffer);
 					}
+					receive(connection, decrypted.flip());
+				}
+			}
+			if(connection.heartbeat != null) {
+				connection.heartbeat.stop();
+			}
+			if(connection.streams != null) {
+				connection.streams.closeAll();
+			}
+			parentServer.metrics.closeConnection();
+			if(greeting) {
+				// lost before the client told if it may resume.
+				greeting = false;
+				dropSession();
+			}
+			if(connection.timedOut) {
+				if(dispatcher == null) {
+					parentServer.clientTimeout(this);
 				}
+				else {
+					dispatcher.execute(id, () -> parentServer.clientTimeout(this));
+				}
+			}
+			Session session = this.session;
+			if(session == null || !parentServer.suspend(this, session, connection)) {
+				notifyDisconnect();
+			}
+			connection.close();
+		}
+
+		private void notifyDisconnect(){
+			if(dispatcher == null) {
+				parentServer.clientDisconnect(this);
+			}
+			else {
+				dispatcher.execute(id, () -> parentServer.clientDisconnect(this));
+			}
+		}
+
+		/**
+		 * the client never resumes its session, nothing is kept for replay.
+		 */
+		private void dropSession(){
+			Session session = this.session;
+			if(session != null) {
+				parentServer.sessions.remove(ByteBuffer.wrap(session.getToken()));
+				this.session = null;
+			}
+		}
+
+		/**
+		 * decodes a decrypted frame and passes the packet to the server, inline or on the dispatcher.
+		 * takes ownership of the pooled frame.
+		 */
+		private void receive(Connection connection, ByteBuffer frame){
+			BufferPool pool = parentServer.bufferPool;
+			boolean headers = parentServer.codec.hasFrameHeaders();
+			if(headers && Session.isControl(frame)) {
+				try {
+					control(frame);
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+					connection.close();
+				}
+				finally {
+					pool.release(frame);
+				}
+				return;
+			}
+			if(greeting) {
+				// a client that does not know sessions sends packets right away.
+				greeting = false;
+				dropSession();
+			}
+			if(headers && InboundStreams.isStream(frame)) {
+				try {
+					connection.streams.receive(frame);
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+					connection.close();
+				}
+				finally {
+					pool.release(frame);
+				}
+				return;
+			}
+			Session session = this.session;
+			if(session == null) {
+				handle(frame);
+				return;
+			}
+			synchronized (delivery) {
+				if(counted(session, connection)) {
+					handle(frame);
+				}
+				else {
+					pool.release(frame);
+				}
+			}
+		}
+
+		/**
+		 * @throws IOException if the control frame is malformed.
+		 */
+		private void control(ByteBuffer frame) throws IOException {
+			try {
+				byte type = Session.readType(frame);
+				Session session = this.session;
+				if(type == Session.ACK) {
+					if(session != null) {
+						session.acknowledge(frame.getLong());
+					}
+				}
+				else if(type == Session.GOODBYE) {
+					if(session != null) {
+						parentServer.endSession(this, session, false);
+					}
+				}
+				// a hello is only accepted as the first frame.
+				else if(type == Session.HELLO && greeting) {
+					greeting = false;
+					if(frame.get() == 0) {
+						dropSession();
+					}
+				}
+			}
+			catch (BufferUnderflowException e) {
+				throw new IOException("Client " + id + " sent a malformed control frame", e);
+			}
+		}
+
+		/**
+		 * counts a frame received for the session, acknowledging every few.
+		 * @return false if the connection no longer carries the session, the frame is dropped since the client sends it again.
+		 */
+		private boolean counted(Session session, Connection connection){
+			boolean acknowledge;
+			synchronized (session) {
+				if(this.connection != connection) {
+					return false;
+				}
+				acknowledge = session.received();
+			}
+			if(acknowledge) {
+				connection.send(Session.ack(session.getReceived()));
+			}
+			return true;
+		}
+
+		private void handle(ByteBuffer frame){
+			if(dispatcher == null) {
+				decode(frame);
+			}
+			else {
+				dispatcher.execute(id, () -> decode(frame));
+			}
+		}
+
+		/**
+		 * a malformed packet or a failing listener closes the connection, instead of the thread reading it.
+		 */
+		private void decode(ByteBuffer frame){
+			try {
+				parentServer.clientInput(this, parentServer.codec.decode(frame));
+			}
+			catch (ClassNotFoundException ignored) {}
+			catch (RuntimeException e) {
+				e.printStackTrace();
+				Connection connection = this.connection;
+				if(connection != null) {
+					connection.close();
+				}
+			}
+			finally {
+				parentServer.bufferPool.release(frame);
 			}
-			parentServer.clientDisconnect(this);
-			close();
 		}
 
 		/**
 		 * send a packet to the client the instance is connected to.
-		 * can send any object.
+		 * can send any object, the packet is queued and written by the connection's writer, so this never blocks.
 		 */
 		public void send(Object o){
+			sendEncoded(parentServer.codec.encode(o));
+		}
+
+		/**
+		 * seals and queues a frame on the connection carrying the session, recorded for replay first,
+		 * under the session lock so frames are recorded in the order they are written.
+		 * while the session waits to be resumed the frame is only recorded.
+		 */
+		private void sendEncoded(ByteBuffer body){
+			Session session = this.session;
 			try {
-				byte[] bytes = encryptPacketMessage(publicKey,(gson.toJson(o) + parentServer.separatorId + o.getClass().toString().split(" ")[1]).getBytes(StandardCharsets.UTF_8));
-				writer.writeInt(bytes.length);
-				writer.write(bytes);
-			} catch (NoSuchPaddingException | NoSuchAlgorithmException | IllegalBlockSizeException | BadPaddingException | InvalidKeyException | IOException e) {
+				if(session == null) {
+					connection.cipher.send(body);
+					return;
+				}
+				synchronized (session) {
+					session.record(body);
+					Connection connection = this.connection;
+					if(connection != null) {
+						connection.cipher.send(body);
+					}
+				}
+			} catch (GeneralSecurityException e) {
 				e.printStackTrace();
 			}
 		}
 
-		public void close() {
-			if(running) {
-				try {
-					writer.close();
-					reader.close();
-					socket.close();
-				} catch (Exception e) {
-					e.printStackTrace();
+		/**
+		 * send a packet to the client the instance is connected to.
+		 * @return completes once the packet is written to the socket, or exceptionally if the connection closes first.
+		 * while the client's session waits to be resumed, it completes once the packet is kept for replay.
+		 */
+		public CompletableFuture<Void> sendAsync(Object o){
+			return sendEncodedAsync(parentServer.codec.encode(o));
+		}
+
+		/**
+		 * seals and queues a frame like {@link #sendEncoded(ByteBuffer)}.
+		 * @return completes once the frame is written, or at once if the session waits to be resumed.
+		 */
+		private CompletableFuture<Void> sendEncodedAsync(ByteBuffer body){
+			Session session = this.session;
+			try {
+				if(session == null) {
+					return connection.cipher.sendAsync(body);
+				}
+				synchronized (session) {
+					session.record(body);
+					Connection connection = this.connection;
+					return connection == null ? CompletableFuture.completedFuture(null) : connection.cipher.sendAsync(body);
 				}
-				running = false;
+			} catch (GeneralSecurityException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+
+		/**
+		 * send a packet to the client on a channel, packets of a channel arrive in order.
+		 * @throws IllegalStateException if the server has no channel listeners and the channel is not 0.
+		 */
+		public void send(Object o, int channel){
+			sendEncoded(parentServer.codec.encode(o, channel));
+		}
+
+		/**
+		 * send a packet to the client on a channel, like {@link #send(Object, int)}.
+		 * @return completes once the packet is written to the socket, or exceptionally if the connection closes first.
+		 */
+		public CompletableFuture<Void> sendAsync(Object o, int channel){
+			return sendEncodedAsync(parentServer.codec.encode(o, channel));
+		}
+
+		/**
+		 * sends the bytes of the input stream to the client without holding them in memory, the input stream is closed at the end.
+		 * the client receives it in its stream listener.
+		 * @param metadata a packet passed along with the stream, such as a file name, may be null.
+		 * @return completes once the whole stream is written, or exceptionally if reading fails or the connection closes.
+		 * @throws IllegalStateException if the server has no frame headers, see {@link SecuredServer#onStream(BiConsumer)},
+		 * or the connection was lost and the client's session waits to be resumed.
+		 */
+		public CompletableFuture<Void> sendStream(InputStream in, Object metadata){
+			return streamSender().send(in, streamMetadata(metadata));
+		}
+
+		/**
+		 * sends the file to the client like {@link #sendStream(InputStream, Object)}.
+		 */
+		public CompletableFuture<Void> sendStream(Path file, Object metadata){
+			return streamSender().send(file, streamMetadata(metadata));
+		}
+
+		/**
+		 * returns the stream sender of the connection carrying the session, streams are bound to their connection.
+		 */
+		private StreamSender streamSender(){
+			Connection connection = this.connection;
+			if(connection == null) {
+				throw new IllegalStateException("Connection lost, the session waits to be resumed");
+			}
+			return connection.streamSender;
+		}
+
+		private ByteBuffer streamMetadata(Object metadata){
+			PacketCodec codec = parentServer.codec;
+			if(!codec.hasFrameHeaders()) {
+				throw new IllegalStateException("Streams need frame headers");
+			}
+			return metadata == null ? null : codec.encode(metadata);
+		}
+
+		/**
+		 * closes the connection once it timed out, called on the thread of the timer wheel, see {@link Heartbeats}.
+		 * the client may still resume its session on a new connection.
+		 */
+		protected void timeOut() {
+			Connection connection = this.connection;
+			if(connection != null) {
+				timeOut(connection);
+			}
+		}
+
+		private void timeOut(Connection connection) {
+			connection.timedOut = true;
+			parentServer.metrics.timeout();
+			connection.close();
+		}
+
+		/**
+		 * closes the connection to the client, ending its session.
+		 */
+		public void close() {
+			Session session = this.session;
+			Connection connection = this.connection;
+			if(session != null) {
+				parentServer.endSession(this, session, false);
+			}
+			else if(connection != null) {
+				connection.close();
 			}
 		}
 
@@ -270,6 +1431,13 @@ public class SecuredServer {
 		public int getID(){
 			return id;
 		}
+
+		/**
+		 * get the traffic counters of the instance, of the connection carrying its session if it was resumed.
+		 */
+		public ConnectionMetrics getMetrics(){
+			return metrics;
+		}
 	}
 
 }
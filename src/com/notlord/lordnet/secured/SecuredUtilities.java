@@ -1,24 +1,74 @@
 package com.notlord.lordnet.secured;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.SecureRandom;
 
 public class SecuredUtilities {
-	protected static byte[] encryptPacketMessage(PublicKey publicKey, byte[] msg) throws NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
-		Cipher encrypt = Cipher.getInstance("RSA");
+	/**
+	 * size of the key half each side contributes to the session key.
+	 */
+	protected static final int KEY_HALF_LENGTH = 32;
+	/**
+	 * largest encoded public key a client may send, fits rsa keys of up to 16384 bits.
+	 */
+	protected static final int MAX_PUBLIC_KEY_LENGTH = 4096;
+	private static final String KEY_EXCHANGE_TRANSFORMATION = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
+	private static final SecureRandom random = new SecureRandom();
+
+	/**
+	 * returns a new random key half.
+	 */
+	protected static byte[] newKeyHalf(){
+		byte[] half = new byte[KEY_HALF_LENGTH];
+		random.nextBytes(half);
+		return half;
+	}
+
+	/**
+	 * encrypts a key half with the public key of the other side, used only during the handshake.
+	 */
+	protected static byte[] encryptKeyHalf(PublicKey publicKey, byte[] half) throws GeneralSecurityException {
+		Cipher encrypt = Cipher.getInstance(KEY_EXCHANGE_TRANSFORMATION);
 		encrypt.init(Cipher.ENCRYPT_MODE, publicKey);
-		return encrypt.doFinal(msg);
+		return encrypt.doFinal(half);
 	}
-	protected static String decryptPacketMessage(PrivateKey privateKey, byte[] msg) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
-		Cipher decrypt = Cipher.getInstance("RSA");
+
+	/**
+	 * decrypts a key half sent by the other side, used only during the handshake.
+	 */
+	protected static byte[] decryptKeyHalf(PrivateKey privateKey, byte[] encrypted) throws GeneralSecurityException {
+		Cipher decrypt = Cipher.getInstance(KEY_EXCHANGE_TRANSFORMATION);
 		decrypt.init(Cipher.DECRYPT_MODE, privateKey);
-		return new String(decrypt.doFinal(msg), StandardCharsets.UTF_8);
+		byte[] half = decrypt.doFinal(encrypted);
+		if(half.length != KEY_HALF_LENGTH) {
+			throw new GeneralSecurityException("Key half of " + half.length + " bytes");
+		}
+		return half;
+	}
+
+	/**
+	 * derives the aes session key from the halves of both sides, so neither side alone picks the key.
+	 */
+	protected static byte[] deriveSessionKey(byte[] serverHalf, byte[] clientHalf) throws GeneralSecurityException {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update(serverHalf);
+		digest.update(clientHalf);
+		return digest.digest();
+	}
+
+	/**
+	 * derives the aes key of a connection resuming a session from the session key and a random nonce of each side,
+	 * so the nonces of the new connection's frames never repeat those of an earlier connection.
+	 */
+	protected static byte[] deriveResumeKey(byte[] sessionKey, byte[] clientNonce, byte[] serverNonce) throws GeneralSecurityException {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update(sessionKey);
+		digest.update(clientNonce);
+		digest.update(serverNonce);
+		return digest.digest();
 	}
 }
@@ -0,0 +1,133 @@
+package com.notlord.lordnet.secured;
+
+import com.notlord.lordnet.OutboundQueue;
+import com.notlord.lordnet.metrics.TransportMetrics;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * aes-gcm encryption of the packets of one connection, keyed by the session key agreed in the handshake,
+ * or by a key derived from it for a connection resuming a session, so counters start over without reusing a nonce.
+ * <br>
+ * both ciphers are created once per connection. nonces are a direction prefix and a frame counter,
+ * they are never sent since tcp keeps frames in order, so a frame is sealed and queued under one lock.
+ * the jdk runs aes-gcm on the cpu's aes instructions where available.
+ */
+final class SessionCipher {
+	/**
+	 * bytes a sealed frame adds to its body.
+	 */
+	static final int TAG_LENGTH = 16;
+	private static final int NONCE_LENGTH = 12;
+	private static final int SERVER_TO_CLIENT = 0x53524356;
+	private static final int CLIENT_TO_SERVER = 0x434C4E54;
+	private final SecretKeySpec key;
+	private final Cipher encrypt;
+	private final Cipher decrypt;
+	private final int sendDirection;
+	private final int receiveDirection;
+	private final OutboundQueue outbound;
+	private final TransportMetrics metrics;
+	private final byte[] sendNonce = new byte[NONCE_LENGTH];
+	private final byte[] receiveNonce = new byte[NONCE_LENGTH];
+	private long sendCounter = 0;
+	private long receiveCounter = 0;
+	private ByteBuffer sealed = ByteBuffer.allocate(4 * 1024);
+
+	/**
+	 * @param sessionKey the agreed aes key.
+	 * @param server if this is the server side of the connection.
+	 * @param outbound the queue of the connection sealed frames are sent on.
+	 * @param metrics receives encrypt and decrypt times.
+	 */
+	SessionCipher(byte[] sessionKey, boolean server, OutboundQueue outbound, TransportMetrics metrics) throws GeneralSecurityException {
+		this.outbound = outbound;
+		this.metrics = metrics;
+		key = new SecretKeySpec(sessionKey, "AES");
+		encrypt = Cipher.getInstance("AES/GCM/NoPadding");
+		decrypt = Cipher.getInstance("AES/GCM/NoPadding");
+		sendDirection = server ? SERVER_TO_CLIENT : CLIENT_TO_SERVER;
+		receiveDirection = server ? CLIENT_TO_SERVER : SERVER_TO_CLIENT;
+	}
+
+	/**
+	 * encrypts a frame body and queues it.
+	 * @param body the frame body between position and limit.
+	 */
+	synchronized void send(ByteBuffer body) throws GeneralSecurityException {
+		outbound.send(seal(body));
+	}
+
+	/**
+	 * encrypts a frame body and queues it.
+	 * @param body the frame body between position and limit.
+	 * @return completes once the frame is written to the socket.
+	 */
+	synchronized CompletableFuture<Void> sendAsync(ByteBuffer body) throws GeneralSecurityException {
+		return outbound.sendAsync(seal(body));
+	}
+
+	private ByteBuffer seal(ByteBuffer body) throws GeneralSecurityException {
+		int size = body.remaining() + TAG_LENGTH;
+		if(sealed.capacity() < size) {
+			sealed = ByteBuffer.allocate(Math.max(size, sealed.capacity() * 2));
+		}
+		sealed.clear();
+		long start = System.nanoTime();
+		encrypt.init(Cipher.ENCRYPT_MODE, key, nonce(sendNonce, sendDirection, sendCounter++));
+		encrypt.doFinal(body, sealed);
+		metrics.encrypt().recordSince(start);
+		return sealed.flip();
+	}
+
+	/**
+	 * decrypts a received frame into the output buffer, must only be called by the reading thread.
+	 * @param frame the sealed frame between position and limit.
+	 * @param out receives the frame body, needs {@link #TAG_LENGTH} bytes less than the frame.
+	 * @throws GeneralSecurityException if the frame was altered, or is out of order.
+	 */
+	void open(ByteBuffer frame, ByteBuffer out) throws GeneralSecurityException {
+		long start = System.nanoTime();
+		decrypt.init(Cipher.DECRYPT_MODE, key, nonce(receiveNonce, receiveDirection, receiveCounter++));
+		decrypt.doFinal(frame, out);
+		metrics.decrypt().recordSince(start);
+	}
+
+	/**
+	 * reads a sealed frame from the connection and opens it, for frames read before the connection has its reading thread.
+	 * @return the frame body.
+	 * @throws IOException if reading fails, or the frame is shorter than a tag or longer than the max frame size.
+	 * @throws GeneralSecurityException if the frame was altered, or is out of order.
+	 */
+	ByteBuffer read(DataInputStream reader, int maxFrameSize) throws IOException, GeneralSecurityException {
+		int l = reader.readInt();
+		if(l < TAG_LENGTH || l > maxFrameSize) {
+			throw new IOException("Invalid sealed frame of " + l + " bytes");
+		}
+		byte[] frame = new byte[l];
+		reader.readFully(frame);
+		ByteBuffer body = ByteBuffer.allocate(l - TAG_LENGTH);
+		open(ByteBuffer.wrap(frame), body);
+		return body.flip();
+	}
+
+	private static GCMParameterSpec nonce(byte[] nonce, int direction, long counter){
+		if(counter < 0) {
+			throw new IllegalStateException("Session nonces exhausted");
+		}
+		for (int i = 0; i < 4; i++) {
+			nonce[i] = (byte) (direction >>> (24 - 8 * i));
+		}
+		for (int i = 0; i < 8; i++) {
+			nonce[4 + i] = (byte) (counter >>> (56 - 8 * i));
+		}
+		return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+	}
+}
@@ -0,0 +1,568 @@
+package com.notlord.lordnet.serialization;
+
+import com.notlord.lordnet.Varint;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * compact binary serializer, primitives and strings are written straight into the buffer.
+ * <br>
+ * the field layout of every class is resolved once, on first use, and cached.
+ * fields are written in name order per class, starting from the top superclass, static and transient fields are skipped.
+ * <br>
+ * supported field types: primitives and their boxes, strings, enums, arrays, lists, sets, maps,
+ * and classes made of those with a no-arg constructor. fields are written as their declared type,
+ * so a subclass instance in a field loses its extra fields.
+ * <br>
+ * lengths read are checked against the bytes left before anything is allocated, so malformed input
+ * throws a {@link MalformedPacketException} instead of allocating more than the frame holds.
+ */
+public class BinarySerializer implements PacketSerializer {
+	private final ClassValue<ObjectCodec> layouts = new ClassValue<>() {
+		@Override
+		protected ObjectCodec computeValue(Class<?> type) {
+			return new ObjectCodec(type);
+		}
+	};
+
+	@Override
+	public void serialize(Object o, ByteBuffer out) {
+		layouts.get(o.getClass()).writeFields(o, out);
+	}
+
+	/**
+	 * @throws MalformedPacketException if the bytes are truncated or hold a length or an enum ordinal out of range.
+	 */
+	@Override
+	public <T> T deserialize(ByteBuffer in, Class<T> type) {
+		try {
+			return type.cast(layouts.get(type).readFields(in));
+		}
+		catch (BufferUnderflowException e) {
+			throw new MalformedPacketException("Truncated " + type.getName(), e);
+		}
+	}
+
+	private interface ValueCodec {
+		void write(ByteBuffer out, Object value);
+		Object read(ByteBuffer in);
+	}
+
+	private interface FieldCodec {
+		void write(Object owner, ByteBuffer out) throws IllegalAccessException;
+		void read(Object owner, ByteBuffer in) throws IllegalAccessException;
+	}
+
+	/**
+	 * codec of a class made of fields, the fields are resolved lazily so classes may reference themselves.
+	 */
+	private final class ObjectCodec implements ValueCodec {
+		private final Class<?> type;
+		private volatile FieldCodec[] fields;
+		private Constructor<?> constructor;
+
+		private ObjectCodec(Class<?> type) {
+			this.type = type;
+		}
+
+		private FieldCodec[] fields(){
+			FieldCodec[] fields = this.fields;
+			if(fields == null) {
+				synchronized (this) {
+					if(this.fields == null) {
+						this.fields = resolve();
+					}
+					fields = this.fields;
+				}
+			}
+			return fields;
+		}
+
+		private FieldCodec[] resolve(){
+			if(type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.isArray() || type.isPrimitive()) {
+				throw new IllegalArgumentException("Cannot serialize " + type.getName() + " as an object");
+			}
+			try {
+				constructor = type.getDeclaredConstructor();
+				constructor.setAccessible(true);
+			} catch (NoSuchMethodException e) {
+				throw new IllegalArgumentException(type.getName() + " needs a no-arg constructor", e);
+			}
+			List<Class<?>> hierarchy = new ArrayList<>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				hierarchy.add(0, c);
+			}
+			List<FieldCodec> codecs = new ArrayList<>();
+			for (Class<?> c : hierarchy) {
+				Field[] declared = c.getDeclaredFields();
+				Arrays.sort(declared, Comparator.comparing(Field::getName));
+				for (Field field : declared) {
+					int modifiers = field.getModifiers();
+					if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+						continue;
+					}
+					field.setAccessible(true);
+					codecs.add(fieldCodec(field));
+				}
+			}
+			return codecs.toArray(new FieldCodec[0]);
+		}
+
+		void writeFields(Object o, ByteBuffer out){
+			try {
+				for (FieldCodec field : fields()) {
+					field.write(o, out);
+				}
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		Object readFields(ByteBuffer in){
+			FieldCodec[] fields = fields();
+			try {
+				Object o = constructor.newInstance();
+				for (FieldCodec field : fields) {
+					field.read(o, in);
+				}
+				return o;
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Failed to create " + type.getName(), e);
+			}
+		}
+
+		@Override
+		public void write(ByteBuffer out, Object value) {
+			if(value == null) {
+				out.put((byte) 0);
+				return;
+			}
+			out.put((byte) 1);
+			writeFields(value, out);
+		}
+
+		@Override
+		public Object read(ByteBuffer in) {
+			return in.get() == 0 ? null : readFields(in);
+		}
+	}
+
+	private FieldCodec fieldCodec(Field f){
+		Class<?> type = f.getType();
+		if(type == int.class) {
+			return field((o, out) -> out.putInt(f.getInt(o)), (o, in) -> f.setInt(o, in.getInt()));
+		}
+		if(type == long.class) {
+			return field((o, out) -> out.putLong(f.getLong(o)), (o, in) -> f.setLong(o, in.getLong()));
+		}
+		if(type == double.class) {
+			return field((o, out) -> out.putDouble(f.getDouble(o)), (o, in) -> f.setDouble(o, in.getDouble()));
+		}
+		if(type == float.class) {
+			return field((o, out) -> out.putFloat(f.getFloat(o)), (o, in) -> f.setFloat(o, in.getFloat()));
+		}
+		if(type == boolean.class) {
+			return field((o, out) -> out.put((byte) (f.getBoolean(o) ? 1 : 0)), (o, in) -> f.setBoolean(o, in.get() != 0));
+		}
+		if(type == byte.class) {
+			return field((o, out) -> out.put(f.getByte(o)), (o, in) -> f.setByte(o, in.get()));
+		}
+		if(type == short.class) {
+			return field((o, out) -> out.putShort(f.getShort(o)), (o, in) -> f.setShort(o, in.getShort()));
+		}
+		if(type == char.class) {
+			return field((o, out) -> out.putChar(f.getChar(o)), (o, in) -> f.setChar(o, in.getChar()));
+		}
+		ValueCodec codec = valueCodec(f.getGenericType(), f.getDeclaringClass().getName() + "." + f.getName());
+		return field((o, out) -> codec.write(out, f.get(o)), (o, in) -> f.set(o, codec.read(in)));
+	}
+
+	private interface FieldWriter {
+		void write(Object owner, ByteBuffer out) throws IllegalAccessException;
+	}
+
+	private interface FieldReader {
+		void read(Object owner, ByteBuffer in) throws IllegalAccessException;
+	}
+
+	private static FieldCodec field(FieldWriter writer, FieldReader reader){
+		return new FieldCodec() {
+			@Override
+			public void write(Object owner, ByteBuffer out) throws IllegalAccessException {
+				writer.write(owner, out);
+			}
+
+			@Override
+			public void read(Object owner, ByteBuffer in) throws IllegalAccessException {
+				reader.read(owner, in);
+			}
+		};
+	}
+
+	/**
+	 * returns the codec of a reference type, every value is prefixed so it can be null.
+	 */
+	private ValueCodec valueCodec(Type generic, String where){
+		if(generic instanceof GenericArrayType) {
+			Type component = ((GenericArrayType) generic).getGenericComponentType();
+			return arrayCodec(rawType(component, where), valueCodec(component, where));
+		}
+		Class<?> type = rawType(generic, where);
+		if(type == String.class) {
+			return STRING;
+		}
+		if(type.isPrimitive()) {
+			type = boxed(type);
+		}
+		if(type == Integer.class) {
+			return nullable((out, v) -> out.putInt((Integer) v), ByteBuffer::getInt);
+		}
+		if(type == Long.class) {
+			return nullable((out, v) -> out.putLong((Long) v), ByteBuffer::getLong);
+		}
+		if(type == Double.class) {
+			return nullable((out, v) -> out.putDouble((Double) v), ByteBuffer::getDouble);
+		}
+		if(type == Float.class) {
+			return nullable((out, v) -> out.putFloat((Float) v), ByteBuffer::getFloat);
+		}
+		if(type == Boolean.class) {
+			return nullable((out, v) -> out.put((byte) ((Boolean) v ? 1 : 0)), in -> in.get() != 0);
+		}
+		if(type == Byte.class) {
+			return nullable((out, v) -> out.put((Byte) v), ByteBuffer::get);
+		}
+		if(type == Short.class) {
+			return nullable((out, v) -> out.putShort((Short) v), ByteBuffer::getShort);
+		}
+		if(type == Character.class) {
+			return nullable((out, v) -> out.putChar((Character) v), ByteBuffer::getChar);
+		}
+		if(type.isEnum()) {
+			Object[] constants = type.getEnumConstants();
+			String name = type.getName();
+			return sized((out, v) -> ((Enum<?>) v).ordinal(), (in, ordinal) -> {
+				if(ordinal >= constants.length) {
+					throw new MalformedPacketException("Ordinal " + ordinal + " out of range of " + name);
+				}
+				return constants[ordinal];
+			});
+		}
+		if(type == byte[].class) {
+			return sized((out, v) -> {
+				byte[] bytes = (byte[]) v;
+				Varint.write(out, bytes.length + 1);
+				out.put(bytes);
+				return -1;
+			}, (in, length) -> {
+				checkLength(in, length, 1);
+				byte[] bytes = new byte[length];
+				in.get(bytes);
+				return bytes;
+			});
+		}
+		if(type.isArray()) {
+			Class<?> component = type.getComponentType();
+			return arrayCodec(component, component.isPrimitive() ? primitiveCodec(component) : valueCodec(component, where));
+		}
+		if(Collection.class.isAssignableFrom(type)) {
+			ValueCodec element = valueCodec(typeArgument(generic, 0, where), where);
+			boolean set = Set.class.isAssignableFrom(type);
+			if(!type.isInterface() && !type.isAssignableFrom(set ? HashSet.class : ArrayList.class)) {
+				throw new IllegalArgumentException("Unsupported collection type " + type.getName() + " at " + where);
+			}
+			return sized((out, v) -> {
+				Collection<?> collection = (Collection<?>) v;
+				Varint.write(out, collection.size() + 1);
+				for (Object e : collection) {
+					element.write(out, e);
+				}
+				return -1;
+			}, (in, size) -> {
+				checkLength(in, size, 1);
+				Collection<Object> collection = set ? new LinkedHashSet<>(size * 2) : new ArrayList<>(size);
+				for (int i = 0; i < size; i++) {
+					collection.add(element.read(in));
+				}
+				return collection;
+			});
+		}
+		if(Map.class.isAssignableFrom(type)) {
+			ValueCodec key = valueCodec(typeArgument(generic, 0, where), where);
+			ValueCodec value = valueCodec(typeArgument(generic, 1, where), where);
+			if(!type.isInterface() && !type.isAssignableFrom(HashMap.class)) {
+				throw new IllegalArgumentException("Unsupported map type " + type.getName() + " at " + where);
+			}
+			return sized((out, v) -> {
+				Map<?, ?> map = (Map<?, ?>) v;
+				Varint.write(out, map.size() + 1);
+				for (Map.Entry<?, ?> e : map.entrySet()) {
+					key.write(out, e.getKey());
+					value.write(out, e.getValue());
+				}
+				return -1;
+			}, (in, size) -> {
+				// every entry takes a byte for its key and one for its value at least.
+				checkLength(in, size, 2);
+				Map<Object, Object> map = new LinkedHashMap<>(size * 2);
+				for (int i = 0; i < size; i++) {
+					map.put(key.read(in), value.read(in));
+				}
+				return map;
+			});
+		}
+		if(type == Object.class || type.isInterface()) {
+			throw new IllegalArgumentException("Unsupported field type " + type.getName() + " at " + where);
+		}
+		return layouts.get(type);
+	}
+
+	private static final ValueCodec STRING = new ValueCodec() {
+		@Override
+		public void write(ByteBuffer out, Object value) {
+			if(value == null) {
+				out.put((byte) 0);
+				return;
+			}
+			String s = (String) value;
+			int length = Utf8.length(s);
+			Varint.write(out, length + 1);
+			if(out.remaining() < length) {
+				throw new BufferOverflowException();
+			}
+			Utf8.put(out, s);
+		}
+
+		@Override
+		public Object read(ByteBuffer in) {
+			int length = readSize(in);
+			if(length < 0) {
+				return null;
+			}
+			checkLength(in, length, 1);
+			String s;
+			if(in.hasArray()) {
+				s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+				in.position(in.position() + length);
+			}
+			else {
+				byte[] bytes = new byte[length];
+				in.get(bytes);
+				s = new String(bytes, StandardCharsets.UTF_8);
+			}
+			return s;
+		}
+	};
+
+	private interface ValueWriter {
+		void write(ByteBuffer out, Object value);
+	}
+
+	private interface ValueReader {
+		Object read(ByteBuffer in);
+	}
+
+	/**
+	 * value prefixed by a presence byte.
+	 */
+	private static ValueCodec nullable(ValueWriter writer, ValueReader reader){
+		return new ValueCodec() {
+			@Override
+			public void write(ByteBuffer out, Object value) {
+				if(value == null) {
+					out.put((byte) 0);
+					return;
+				}
+				out.put((byte) 1);
+				writer.write(out, value);
+			}
+
+			@Override
+			public Object read(ByteBuffer in) {
+				return in.get() == 0 ? null : reader.read(in);
+			}
+		};
+	}
+
+	private interface SizedWriter {
+		/**
+		 * returns the varint to write, or -1 if the writer wrote size + 1 and the content itself.
+		 */
+		int write(ByteBuffer out, Object value);
+	}
+
+	private interface SizedReader {
+		Object read(ByteBuffer in, int size);
+	}
+
+	/**
+	 * value prefixed by a varint of its size + 1, 0 meaning null.
+	 */
+	private static ValueCodec sized(SizedWriter writer, SizedReader reader){
+		return new ValueCodec() {
+			@Override
+			public void write(ByteBuffer out, Object value) {
+				if(value == null) {
+					out.put((byte) 0);
+					return;
+				}
+				int size = writer.write(out, value);
+				if(size >= 0) {
+					Varint.write(out, size + 1);
+				}
+			}
+
+			@Override
+			public Object read(ByteBuffer in) {
+				int size = readSize(in);
+				return size < 0 ? null : reader.read(in, size);
+			}
+		};
+	}
+
+	/**
+	 * reads a varint of a size + 1, 0 meaning null.
+	 * @return the size, or -1 for null.
+	 */
+	private static int readSize(ByteBuffer in){
+		int size;
+		try {
+			size = Varint.read(in) - 1;
+		}
+		catch (IllegalArgumentException e) {
+			throw new MalformedPacketException("Malformed size", e);
+		}
+		if(size < -1) {
+			throw new MalformedPacketException("Size " + size + " out of range");
+		}
+		return size;
+	}
+
+	/**
+	 * checks a length read fits into the bytes left, every element taking at least the given amount of bytes.
+	 */
+	private static void checkLength(ByteBuffer in, int length, int elementSize){
+		if((long) length * elementSize > in.remaining()) {
+			throw new MalformedPacketException("Length " + length + " exceeds the " + in.remaining() + " bytes left");
+		}
+	}
+
+	private static ValueCodec arrayCodec(Class<?> component, ValueCodec element){
+		return sized((out, v) -> {
+			int length = Array.getLength(v);
+			Varint.write(out, length + 1);
+			for (int i = 0; i < length; i++) {
+				element.write(out, Array.get(v, i));
+			}
+			return -1;
+		}, (in, length) -> {
+			checkLength(in, length, component.isPrimitive() ? primitiveSize(component) : 1);
+			Object array = Array.newInstance(component, length);
+			for (int i = 0; i < length; i++) {
+				Array.set(array, i, element.read(in));
+			}
+			return array;
+		});
+	}
+
+	/**
+	 * element codec of primitive arrays, elements cannot be null so they have no prefix.
+	 */
+	private static ValueCodec primitiveCodec(Class<?> type){
+		if(type == int.class) {
+			return primitive((out, v) -> out.putInt((Integer) v), ByteBuffer::getInt);
+		}
+		if(type == long.class) {
+			return primitive((out, v) -> out.putLong((Long) v), ByteBuffer::getLong);
+		}
+		if(type == double.class) {
+			return primitive((out, v) -> out.putDouble((Double) v), ByteBuffer::getDouble);
+		}
+		if(type == float.class) {
+			return primitive((out, v) -> out.putFloat((Float) v), ByteBuffer::getFloat);
+		}
+		if(type == boolean.class) {
+			return primitive((out, v) -> out.put((byte) ((Boolean) v ? 1 : 0)), in -> in.get() != 0);
+		}
+		if(type == short.class) {
+			return primitive((out, v) -> out.putShort((Short) v), ByteBuffer::getShort);
+		}
+		if(type == char.class) {
+			return primitive((out, v) -> out.putChar((Character) v), ByteBuffer::getChar);
+		}
+		return primitive((out, v) -> out.put((Byte) v), ByteBuffer::get);
+	}
+
+	private static ValueCodec primitive(ValueWriter writer, ValueReader reader){
+		return new ValueCodec() {
+			@Override
+			public void write(ByteBuffer out, Object value) {
+				writer.write(out, value);
+			}
+
+			@Override
+			public Object read(ByteBuffer in) {
+				return reader.read(in);
+			}
+		};
+	}
+
+	private static Class<?> rawType(Type type, String where){
+		if(type instanceof Class) {
+			return (Class<?>) type;
+		}
+		if(type instanceof ParameterizedType) {
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		}
+		if(type instanceof GenericArrayType) {
+			return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType(), where), 0).getClass();
+		}
+		throw new IllegalArgumentException("Unsupported generic type " + type + " at " + where);
+	}
+
+	private static Type typeArgument(Type type, int index, String where){
+		if(type instanceof ParameterizedType) {
+			return ((ParameterizedType) type).getActualTypeArguments()[index];
+		}
+		throw new IllegalArgumentException("Raw collection type at " + where + ", declare its type arguments");
+	}
+
+	private static int primitiveSize(Class<?> type){
+		if(type == long.class || type == double.class) return Long.BYTES;
+		if(type == int.class || type == float.class) return Integer.BYTES;
+		if(type == short.class || type == char.class) return Short.BYTES;
+		return 1;
+	}
+
+	private static Class<?> boxed(Class<?> type){
+		if(type == int.class) return Integer.class;
+		if(type == long.class) return Long.class;
+		if(type == double.class) return Double.class;
+		if(type == float.class) return Float.class;
+		if(type == boolean.class) return Boolean.class;
+		if(type == byte.class) return Byte.class;
+		if(type == short.class) return Short.class;
+		return Character.class;
+	}
+}
@@ -0,0 +1,97 @@
+package com.notlord.lordnet.serialization;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+
+/**
+ * reads utf-8 text straight out of a buffer slice, without copying it into a string first.
+ * malformed input is replaced with U+FFFD.
+ */
+final class ByteBufferReader extends Reader {
+	private static final char REPLACEMENT = '\uFFFD';
+	private final ByteBuffer buffer;
+	private final int end;
+	private int position;
+	private char pendingLowSurrogate;
+
+	/**
+	 * @param buffer buffer to read from, read with absolute gets so its position is left untouched.
+	 * @param start index of the first byte.
+	 * @param end index after the last byte.
+	 */
+	ByteBufferReader(ByteBuffer buffer, int start, int end) {
+		this.buffer = buffer;
+		this.position = start;
+		this.end = end;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) {
+		if(len == 0) {
+			return 0;
+		}
+		int n = 0;
+		if(pendingLowSurrogate != 0) {
+			cbuf[off + n++] = pendingLowSurrogate;
+			pendingLowSurrogate = 0;
+		}
+		while (n < len && position < end) {
+			int b = buffer.get(position);
+			if(b >= 0) {
+				cbuf[off + n++] = (char) b;
+				position++;
+				continue;
+			}
+			int cp = decode(b);
+			if(cp >= 0x10000) {
+				cbuf[off + n++] = Character.highSurrogate(cp);
+				if(n < len) {
+					cbuf[off + n++] = Character.lowSurrogate(cp);
+				}
+				else {
+					pendingLowSurrogate = Character.lowSurrogate(cp);
+				}
+			}
+			else {
+				cbuf[off + n++] = (char) cp;
+			}
+		}
+		return n == 0 ? -1 : n;
+	}
+
+	private int decode(int b) {
+		int extra, cp, min;
+		if((b & 0xE0) == 0xC0) {
+			extra = 1; cp = b & 0x1F; min = 0x80;
+		}
+		else if((b & 0xF0) == 0xE0) {
+			extra = 2; cp = b & 0x0F; min = 0x800;
+		}
+		else if((b & 0xF8) == 0xF0) {
+			extra = 3; cp = b & 0x07; min = 0x10000;
+		}
+		else {
+			position++;
+			return REPLACEMENT;
+		}
+		position++;
+		for (int i = 0; i < extra; i++) {
+			if(position >= end) {
+				return REPLACEMENT;
+			}
+			int c = buffer.get(position);
+			if((c & 0xC0) != 0x80) {
+				return REPLACEMENT;
+			}
+			cp = (cp << 6) | (c & 0x3F);
+			position++;
+		}
+		if(cp < min || cp > Character.MAX_CODE_POINT || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+			return REPLACEMENT;
+		}
+		return cp;
+	}
+
+	@Override
+	public void close() {}
+}
@@ -0,0 +1,83 @@
+package com.notlord.lordnet.serialization;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * writes text as utf-8 straight into a buffer, without building a string first.
+ * throws {@link java.nio.BufferOverflowException} once the buffer is full.
+ */
+final class ByteBufferWriter extends Writer {
+	private final ByteBuffer buffer;
+	private char pendingHighSurrogate;
+
+	ByteBufferWriter(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public void write(int c) {
+		writeChar((char) c);
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			writeChar(cbuf[i]);
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			writeChar(str.charAt(i));
+		}
+	}
+
+	@Override
+	public Writer append(CharSequence csq) {
+		return append(csq, 0, csq.length());
+	}
+
+	@Override
+	public Writer append(CharSequence csq, int start, int end) {
+		for (int i = start; i < end; i++) {
+			writeChar(csq.charAt(i));
+		}
+		return this;
+	}
+
+	private void writeChar(char c) {
+		if(pendingHighSurrogate != 0) {
+			char high = pendingHighSurrogate;
+			pendingHighSurrogate = 0;
+			if(Character.isLowSurrogate(c)) {
+				Utf8.putCodePoint(buffer, Character.toCodePoint(high, c));
+				return;
+			}
+			Utf8.putCodePoint(buffer, '?');
+		}
+		if(Character.isHighSurrogate(c)) {
+			pendingHighSurrogate = c;
+		}
+		else if(c < 0x80) {
+			buffer.put((byte) c);
+		}
+		else {
+			Utf8.putCodePoint(buffer, Character.isLowSurrogate(c) ? '?' : c);
+		}
+	}
+
+	@Override
+	public void flush() {
+		if(pendingHighSurrogate != 0) {
+			pendingHighSurrogate = 0;
+			buffer.put((byte) '?');
+		}
+	}
+
+	@Override
+	public void close() {
+		flush();
+	}
+}
@@ -0,0 +1,38 @@
+package com.notlord.lordnet.serialization;
+
+import com.google.gson.Gson;
+
+import java.nio.ByteBuffer;
+
+/**
+ * json serializer using gson, the default serializer.
+ * json is written to and read from the buffer directly as utf-8.
+ */
+public class GsonSerializer implements PacketSerializer {
+	private final Gson gson;
+
+	public GsonSerializer() {
+		this(new Gson());
+	}
+
+	/**
+	 * @param gson gson instance to use, allows custom type adapters.
+	 */
+	public GsonSerializer(Gson gson) {
+		this.gson = gson;
+	}
+
+	@Override
+	public void serialize(Object o, ByteBuffer out) {
+		ByteBufferWriter writer = new ByteBufferWriter(out);
+		gson.toJson(o, writer);
+		writer.flush();
+	}
+
+	@Override
+	public <T> T deserialize(ByteBuffer in, Class<T> type) {
+		T o = gson.fromJson(new ByteBufferReader(in, in.position(), in.limit()), type);
+		in.position(in.limit());
+		return o;
+	}
+}
@@ -0,0 +1,16 @@
+package com.notlord.lordnet.serialization;
+
+/**
+ * a packet could not be deserialized, its bytes are truncated or hold lengths or values out of range.
+ */
+public class MalformedPacketException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public MalformedPacketException(String message) {
+		super(message);
+	}
+
+	public MalformedPacketException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,22 @@
+package com.notlord.lordnet.serialization;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * turns packets into bytes and back.
+ * the server and its clients must use the same serializer, {@link GsonSerializer} by default.
+ * implementations must be thread safe.
+ */
+public interface PacketSerializer {
+	/**
+	 * writes the packet at the position of the buffer, advancing it.
+	 * @throws BufferOverflowException if the buffer is too small, the caller retries with a larger buffer.
+	 */
+	void serialize(Object o, ByteBuffer out);
+
+	/**
+	 * reads a packet of the given type from the position to the limit of the buffer.
+	 */
+	<T> T deserialize(ByteBuffer in, Class<T> type);
+}
@@ -0,0 +1,76 @@
+package com.notlord.lordnet.serialization;
+
+import java.nio.ByteBuffer;
+
+/**
+ * utf-8 helpers for writing text straight into buffers.
+ */
+final class Utf8 {
+	private Utf8() {}
+
+	/**
+	 * returns the amount of bytes the utf-8 form of the string takes, unpaired surrogates count as '?'.
+	 */
+	static int length(String s){
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(c < 0x80) {
+				length++;
+			}
+			else if(c < 0x800) {
+				length += 2;
+			}
+			else if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			}
+			else if(Character.isSurrogate(c)) {
+				length++;
+			}
+			else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * writes the string as utf-8, must match {@link #length(String)}.
+	 */
+	static void put(ByteBuffer buffer, String s){
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(c < 0x80) {
+				buffer.put((byte) c);
+			}
+			else if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				putCodePoint(buffer, Character.toCodePoint(c, s.charAt(++i)));
+			}
+			else {
+				putCodePoint(buffer, Character.isSurrogate(c) ? '?' : c);
+			}
+		}
+	}
+
+	static void putCodePoint(ByteBuffer buffer, int cp){
+		if(cp < 0x80) {
+			buffer.put((byte) cp);
+		}
+		else if(cp < 0x800) {
+			buffer.put((byte) (0xC0 | (cp >> 6)));
+			buffer.put((byte) (0x80 | (cp & 0x3F)));
+		}
+		else if(cp < 0x10000) {
+			buffer.put((byte) (0xE0 | (cp >> 12)));
+			buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+			buffer.put((byte) (0x80 | (cp & 0x3F)));
+		}
+		else {
+			buffer.put((byte) (0xF0 | (cp >> 18)));
+			buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+			buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+			buffer.put((byte) (0x80 | (cp & 0x3F)));
+		}
+	}
+}
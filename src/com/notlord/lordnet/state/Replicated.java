@@ -0,0 +1,182 @@
+package com.notlord.lordnet.state;
+
+import com.notlord.lordnet.IClientInstance;
+import com.notlord.lordnet.Server;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * an object replicated by a {@link StateServer} to the clients added to it,
+ * a single client for state of its own such as an inventory, or many for shared state such as a match.
+ * @param <T> type of the object.
+ */
+public final class Replicated<T> {
+	private final StateServer owner;
+	private final int id;
+	private final T object;
+	private final StateLayout layout;
+	private final Map<Integer, Viewer> viewers = new ConcurrentHashMap<>();
+	private final Snapshot[] history = new Snapshot[StateServer.HISTORY];
+	private Snapshot latest = null;
+
+	/**
+	 * a client the object is replicated to, its baseline is the version it acknowledged.
+	 */
+	private static final class Viewer {
+		private final IClientInstance client;
+		private volatile int acked = 0;
+		private int sent = 0;
+
+		private Viewer(IClientInstance client) {
+			this.client = client;
+		}
+	}
+
+	Replicated(StateServer owner, int id, T object, StateLayout layout) {
+		this.owner = owner;
+		this.id = id;
+		this.object = object;
+		this.layout = layout;
+	}
+
+	/**
+	 * returns the id of the object, the same on the server and its clients.
+	 */
+	public int getId(){
+		return id;
+	}
+
+	public T get(){
+		return object;
+	}
+
+	/**
+	 * replicates the object to the client, the whole object is sent on the next update.
+	 */
+	public void addClient(IClientInstance client){
+		viewers.putIfAbsent(client.getID(), new Viewer(client));
+	}
+
+	/**
+	 * stops replicating the object to the client, the client drops its copy.
+	 */
+	public void removeClient(IClientInstance client){
+		Viewer viewer = viewers.remove(client.getID());
+		if(viewer != null) {
+			client.send(StateDelta.removed(id));
+		}
+	}
+
+	/**
+	 * stops replicating the object to every client.
+	 */
+	public void remove(){
+		owner.remove(this);
+		for (Viewer viewer : viewers.values()) {
+			removeClient(viewer.client);
+		}
+	}
+
+	/**
+	 * forgets a disconnected client.
+	 */
+	void disconnected(IClientInstance client){
+		viewers.remove(client.getID());
+	}
+
+	void acknowledged(IClientInstance client, int version){
+		Viewer viewer = viewers.get(client.getID());
+		Snapshot latest = latest();
+		// acks of one client arrive in order, a lower one is from a resent delta.
+		if(viewer != null && latest != null && version > viewer.acked && version <= latest.version) {
+			viewer.acked = version;
+		}
+	}
+
+	private synchronized Snapshot latest(){
+		return latest;
+	}
+
+	/**
+	 * snapshots the object and sends every client the changes since the version it acknowledged.
+	 * clients with the same baseline share the delta. only called by the state server, one update at a time.
+	 */
+	void update(){
+		Snapshot snapshot = snapshot();
+		Map<Integer, StateDelta> deltas = new HashMap<>();
+		for (Viewer viewer : viewers.values()) {
+			int acked = viewer.acked;
+			if(acked == snapshot.version) {
+				continue;
+			}
+			Snapshot baseline = acked == 0 ? null : history[acked % StateServer.HISTORY];
+			if(baseline != null && baseline.version != acked) {
+				// acknowledged too long ago, the baseline is gone.
+				baseline = null;
+			}
+			// a delta sent over the connection arrives, so it is not sent again until the object changes.
+			boolean reliable = !owner.isUnreliable() || baseline == null;
+			if(reliable && viewer.sent == snapshot.version) {
+				continue;
+			}
+			Snapshot from = baseline;
+			StateDelta delta = deltas.computeIfAbsent(from == null ? 0 : from.version, version ->
+					new StateDelta(id, snapshot.version, version, from == null ? object.getClass().getName() : null, snapshot.delta(from)));
+			if(reliable || !(viewer.client instanceof Server.ClientInstance)) {
+				// clients of a secured server have no unreliable channel.
+				viewer.client.send(delta);
+			}
+			else {
+				((Server.ClientInstance) viewer.client).sendUnreliable(delta);
+			}
+			viewer.sent = snapshot.version;
+		}
+	}
+
+	/**
+	 * returns a snapshot of the current fields of the object, the latest snapshot if no field changed.
+	 */
+	private Snapshot snapshot(){
+		Snapshot previous = latest;
+		byte[][] fields = new byte[layout.size()][];
+		boolean changed = previous == null;
+		for (int i = 0; i < fields.length; i++) {
+			ByteBuffer value = write(i);
+			byte[] before = previous == null ? null : previous.fields[i];
+			if(before != null && Arrays.equals(before, 0, before.length, value.array(), 0, value.limit())) {
+				fields[i] = before;
+			}
+			else {
+				fields[i] = Arrays.copyOf(value.array(), value.limit());
+				changed = true;
+			}
+		}
+		if(!changed) {
+			return previous;
+		}
+		Snapshot snapshot = new Snapshot(previous == null ? 1 : previous.version + 1, fields);
+		history[snapshot.version % StateServer.HISTORY] = snapshot;
+		synchronized (this) {
+			latest = snapshot;
+		}
+		return snapshot;
+	}
+
+	private ByteBuffer write(int field){
+		while (true) {
+			ByteBuffer buffer = owner.scratch().clear();
+			try {
+				layout.write(object, field, buffer, owner.getSerializer());
+				return buffer.flip();
+			}
+			catch (BufferOverflowException e) {
+				owner.growScratch();
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.notlord.lordnet.state;
+
+import com.notlord.lordnet.Varint;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * a version of a replicated object, every field in its compact byte form.
+ * snapshots are never changed once made, so consecutive versions share the bytes of fields that did not change.
+ */
+final class Snapshot {
+	final int version;
+	final byte[][] fields;
+
+	Snapshot(int version, byte[][] fields) {
+		this.version = version;
+		this.fields = fields;
+	}
+
+	/**
+	 * returns the fields of this snapshot that differ from the baseline, every field if the baseline is null:
+	 * [varint field][varint length][bytes] per field.
+	 */
+	byte[] delta(Snapshot baseline){
+		int size = 0;
+		for (int i = 0; i < fields.length; i++) {
+			if(baseline == null || !Arrays.equals(baseline.fields[i], fields[i])) {
+				size += Varint.size(i) + Varint.size(fields[i].length) + fields[i].length;
+			}
+		}
+		ByteBuffer out = ByteBuffer.allocate(size);
+		for (int i = 0; i < fields.length; i++) {
+			if(baseline == null || !Arrays.equals(baseline.fields[i], fields[i])) {
+				Varint.write(out, i);
+				Varint.write(out, fields[i].length);
+				out.put(fields[i]);
+			}
+		}
+		return out.array();
+	}
+
+	/**
+	 * returns the snapshot made by applying a delta to this one, or to nothing if the baseline is null.
+	 * @throws IllegalArgumentException if the delta is malformed or does not set every field of a full snapshot.
+	 */
+	static Snapshot apply(Snapshot baseline, int version, int fieldCount, byte[] delta){
+		byte[][] fields = baseline == null ? new byte[fieldCount][] : baseline.fields.clone();
+		ByteBuffer in = ByteBuffer.wrap(delta);
+		while (in.hasRemaining()) {
+			int field = Varint.read(in);
+			int length = Varint.read(in);
+			if(field < 0 || field >= fieldCount || length < 0 || length > in.remaining()) {
+				throw new IllegalArgumentException("Malformed state delta");
+			}
+			fields[field] = new byte[length];
+			in.get(fields[field]);
+		}
+		for (byte[] field : fields) {
+			if(field == null) {
+				throw new IllegalArgumentException("State snapshot is missing fields");
+			}
+		}
+		return new Snapshot(version, fields);
+	}
+}
@@ -0,0 +1,25 @@
+package com.notlord.lordnet.state;
+
+/**
+ * a packet sent by {@link StateClient}, the latest version of a replicated object the client has,
+ * the server sends the next changes against it.
+ */
+public class StateAck {
+	private int id;
+	private int version;
+
+	public StateAck() {}
+
+	StateAck(int id, int version) {
+		this.id = id;
+		this.version = version;
+	}
+
+	int getId(){
+		return id;
+	}
+
+	int getVersion(){
+		return version;
+	}
+}
@@ -0,0 +1,161 @@
+package com.notlord.lordnet.state;
+
+import com.notlord.lordnet.Client;
+import com.notlord.lordnet.secured.SecuredClient;
+import com.notlord.lordnet.serialization.GsonSerializer;
+import com.notlord.lordnet.serialization.PacketSerializer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * the client side of a {@link StateServer}, keeps a local copy of every object replicated to the client.
+ * <br>
+ * a delta is applied to the snapshot of its baseline, kept for the last {@link StateServer#HISTORY} versions received,
+ * so deltas may be lost or arrive out of order, older ones are dropped. every applied version is acknowledged.
+ * listeners are told which fields changed, on the thread that received the delta.
+ */
+public final class StateClient {
+	private final ClassValue<StateLayout> layouts = new ClassValue<>() {
+		@Override
+		protected StateLayout computeValue(Class<?> type) {
+			return new StateLayout(type);
+		}
+	};
+	private final Map<Integer, Replica> replicas = new ConcurrentHashMap<>();
+	private final List<TypedListener<?>> listeners = new CopyOnWriteArrayList<>();
+	private final Consumer<Object> sender;
+	private volatile PacketSerializer serializer = new GsonSerializer();
+
+	private static final class Replica {
+		private final Object object;
+		private final StateLayout layout;
+		private final Snapshot[] history = new Snapshot[StateServer.HISTORY];
+		private Snapshot current;
+
+		private Replica(Object object, StateLayout layout) {
+			this.object = object;
+			this.layout = layout;
+		}
+
+		private Snapshot baseline(int version){
+			Snapshot snapshot = history[version % StateServer.HISTORY];
+			return snapshot != null && snapshot.version == version ? snapshot : null;
+		}
+	}
+
+	private static final class TypedListener<T> {
+		private final Class<T> type;
+		private final StateListener<? super T> listener;
+
+		private TypedListener(Class<T> type, StateListener<? super T> listener) {
+			this.type = type;
+			this.listener = listener;
+		}
+
+		private void changed(int id, Object state, List<String> fields){
+			if(type.isInstance(state)) {
+				listener.changed(id, type.cast(state), fields);
+			}
+		}
+
+		private void removed(int id, Object state){
+			if(type.isInstance(state)) {
+				listener.removed(id, type.cast(state));
+			}
+		}
+	}
+
+	/**
+	 * creates the state client of a client, deltas are received through a packet handler.
+	 */
+	public StateClient(Client client) {
+		this.sender = client::send;
+		client.on(StateDelta.class, this::received);
+	}
+
+	/**
+	 * creates the state client of a secured client, like {@link #StateClient(Client)}.
+	 */
+	public StateClient(SecuredClient client) {
+		this.sender = client::send;
+		client.on(StateDelta.class, this::received);
+	}
+
+	/**
+	 * set the serializer of fields that are not primitives, boxes, strings or enums, must be the serializer of the state server.
+	 * @param serializer {@link GsonSerializer} by default.
+	 */
+	public void setSerializer(PacketSerializer serializer){
+		this.serializer = serializer;
+	}
+
+	/**
+	 * registers a listener of replicated objects of the type, including subclasses and implementations.
+	 * example: stateClient.on(Player.class, (id, player, fields) -> ...);
+	 */
+	public <T> void on(Class<T> type, StateListener<? super T> listener){
+		listeners.add(new TypedListener<>(type, listener));
+	}
+
+	/**
+	 * returns the local copy of the replicated object, null if the client has none.
+	 */
+	public Object get(int id){
+		Replica replica = replicas.get(id);
+		return replica == null ? null : replica.object;
+	}
+
+	private synchronized void received(StateDelta delta){
+		int id = delta.getId();
+		if(delta.isRemoval()) {
+			Replica replica = replicas.remove(id);
+			if(replica != null) {
+				listeners.forEach(listener -> listener.removed(id, replica.object));
+			}
+			return;
+		}
+		Replica replica = replicas.get(id);
+		if(replica != null && delta.getVersion() <= replica.current.version) {
+			return;
+		}
+		Snapshot baseline = null;
+		if(delta.getBaseline() != 0) {
+			baseline = replica == null ? null : replica.baseline(delta.getBaseline());
+			if(baseline == null) {
+				// the baseline was not received yet or is gone, the server sends a newer delta or the whole object.
+				return;
+			}
+		}
+		if(replica == null) {
+			try {
+				StateLayout layout = layouts.get(Class.forName(delta.getType()));
+				replica = new Replica(layout.newInstance(), layout);
+			} catch (ClassNotFoundException e) {
+				return;
+			}
+		}
+		Snapshot snapshot = Snapshot.apply(baseline, delta.getVersion(), replica.layout.size(), delta.getData());
+		List<String> changed = new ArrayList<>();
+		for (int i = 0; i < snapshot.fields.length; i++) {
+			if(replica.current == null || !Arrays.equals(replica.current.fields[i], snapshot.fields[i])) {
+				replica.layout.read(replica.object, i, snapshot.fields[i], serializer);
+				changed.add(replica.layout.name(i));
+			}
+		}
+		replica.current = snapshot;
+		replica.history[snapshot.version % StateServer.HISTORY] = snapshot;
+		replicas.put(id, replica);
+		sender.accept(new StateAck(id, snapshot.version));
+		if(!changed.isEmpty()) {
+			Object state = replica.object;
+			List<String> fields = List.copyOf(changed);
+			listeners.forEach(listener -> listener.changed(id, state, fields));
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.notlord.lordnet.state;
+
+/**
+ * a packet sent by {@link StateServer}, the fields of a replicated object that changed since a baseline version
+ * the client acknowledged, or every field and the class of the object if the baseline is 0.
+ * version 0 tells the client the object is no longer replicated to it.
+ */
+public class StateDelta {
+	private int id;
+	private int version;
+	private int baseline;
+	private String type;
+	private byte[] data;
+
+	public StateDelta() {}
+
+	StateDelta(int id, int version, int baseline, String type, byte[] data) {
+		this.id = id;
+		this.version = version;
+		this.baseline = baseline;
+		this.type = type;
+		this.data = data;
+	}
+
+	static StateDelta removed(int id){
+		return new StateDelta(id, 0, 0, null, null);
+	}
+
+	int getId(){
+		return id;
+	}
+
+	int getVersion(){
+		return version;
+	}
+
+	int getBaseline(){
+		return baseline;
+	}
+
+	String getType(){
+		return type;
+	}
+
+	byte[] getData(){
+		return data;
+	}
+
+	boolean isRemoval(){
+		return version == 0;
+	}
+}
@@ -0,0 +1,209 @@
+package com.notlord.lordnet.state;
+
+import com.notlord.lordnet.Varint;
+import com.notlord.lordnet.serialization.MalformedPacketException;
+import com.notlord.lordnet.serialization.PacketSerializer;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the replicated fields of a class, and their compact byte form.
+ * <br>
+ * fields are ordered by name per class, starting from the top superclass, static and transient fields are skipped.
+ * primitives, their boxes, strings and enums are written directly, other fields with the {@link PacketSerializer}
+ * as their declared type. two values are equal if their bytes are.
+ */
+final class StateLayout {
+	private static final Map<Class<?>, Class<?>> BOXES = Map.of(Boolean.class, boolean.class, Byte.class, byte.class,
+			Short.class, short.class, Character.class, char.class, Integer.class, int.class, Long.class, long.class,
+			Float.class, float.class, Double.class, double.class);
+	private final Class<?> type;
+	private final Field[] fields;
+	private final String[] names;
+	private final Constructor<?> constructor;
+
+	StateLayout(Class<?> type) {
+		if(type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.isArray() || type.isPrimitive()) {
+			throw new IllegalArgumentException("Cannot replicate " + type.getName());
+		}
+		this.type = type;
+		try {
+			constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(type.getName() + " needs a no-arg constructor", e);
+		}
+		List<Class<?>> hierarchy = new ArrayList<>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			hierarchy.add(0, c);
+		}
+		List<Field> replicated = new ArrayList<>();
+		for (Class<?> c : hierarchy) {
+			Field[] declared = c.getDeclaredFields();
+			Arrays.sort(declared, Comparator.comparing(Field::getName));
+			for (Field field : declared) {
+				int modifiers = field.getModifiers();
+				if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+					continue;
+				}
+				field.setAccessible(true);
+				replicated.add(field);
+			}
+		}
+		fields = replicated.toArray(new Field[0]);
+		names = new String[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			names[i] = fields[i].getName();
+		}
+	}
+
+	int size(){
+		return fields.length;
+	}
+
+	String name(int field){
+		return names[field];
+	}
+
+	Object newInstance(){
+		try {
+			return constructor.newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Failed to create " + type.getName(), e);
+		}
+	}
+
+	/**
+	 * writes the field of the object at the position of the buffer.
+	 * @throws java.nio.BufferOverflowException if the buffer is too small, the caller retries with a larger buffer.
+	 */
+	void write(Object owner, int field, ByteBuffer out, PacketSerializer serializer){
+		Field f = fields[field];
+		Class<?> type = f.getType();
+		try {
+			if(type.isPrimitive()) {
+				writePrimitive(type, f.get(owner), out);
+				return;
+			}
+			Object value = f.get(owner);
+			if(value == null) {
+				out.put((byte) 0);
+				return;
+			}
+			out.put((byte) 1);
+			if(type == String.class) {
+				out.put(((String) value).getBytes(StandardCharsets.UTF_8));
+			}
+			else if(type.isEnum()) {
+				Varint.write(out, ((Enum<?>) value).ordinal());
+			}
+			else if(BOXES.containsKey(type)) {
+				writePrimitive(BOXES.get(type), value, out);
+			}
+			else {
+				serializer.serialize(value, out);
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * sets the field of the object to the value written by {@link #write(Object, int, ByteBuffer, PacketSerializer)}.
+	 * @throws MalformedPacketException if an enum ordinal is out of range.
+	 */
+	void read(Object owner, int field, byte[] value, PacketSerializer serializer){
+		Field f = fields[field];
+		Class<?> type = f.getType();
+		ByteBuffer in = ByteBuffer.wrap(value);
+		try {
+			if(type.isPrimitive()) {
+				f.set(owner, readPrimitive(type, in));
+				return;
+			}
+			if(in.get() == 0) {
+				f.set(owner, null);
+			}
+			else if(type == String.class) {
+				f.set(owner, new String(value, 1, value.length - 1, StandardCharsets.UTF_8));
+			}
+			else if(type.isEnum()) {
+				Object[] constants = type.getEnumConstants();
+				int ordinal = Varint.read(in);
+				if(ordinal < 0 || ordinal >= constants.length) {
+					throw new MalformedPacketException("Ordinal " + ordinal + " out of range of " + type.getName());
+				}
+				f.set(owner, constants[ordinal]);
+			}
+			else if(BOXES.containsKey(type)) {
+				f.set(owner, readPrimitive(BOXES.get(type), in));
+			}
+			else {
+				f.set(owner, serializer.deserialize(in, type));
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void writePrimitive(Class<?> type, Object value, ByteBuffer out){
+		if(type == boolean.class) {
+			out.put((byte) ((Boolean) value ? 1 : 0));
+		}
+		else if(type == byte.class) {
+			out.put((Byte) value);
+		}
+		else if(type == short.class) {
+			out.putShort((Short) value);
+		}
+		else if(type == char.class) {
+			out.putChar((Character) value);
+		}
+		else if(type == int.class) {
+			out.putInt((Integer) value);
+		}
+		else if(type == long.class) {
+			out.putLong((Long) value);
+		}
+		else if(type == float.class) {
+			out.putFloat((Float) value);
+		}
+		else {
+			out.putDouble((Double) value);
+		}
+	}
+
+	private static Object readPrimitive(Class<?> type, ByteBuffer in){
+		if(type == boolean.class) {
+			return in.get() != 0;
+		}
+		if(type == byte.class) {
+			return in.get();
+		}
+		if(type == short.class) {
+			return in.getShort();
+		}
+		if(type == char.class) {
+			return in.getChar();
+		}
+		if(type == int.class) {
+			return in.getInt();
+		}
+		if(type == long.class) {
+			return in.getLong();
+		}
+		if(type == float.class) {
+			return in.getFloat();
+		}
+		return in.getDouble();
+	}
+}
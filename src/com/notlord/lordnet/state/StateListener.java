@@ -0,0 +1,21 @@
+package com.notlord.lordnet.state;
+
+import java.util.List;
+
+/**
+ * listens to the replicated objects of a {@link StateClient}.
+ * @param <T> type of the objects listened to.
+ */
+public interface StateListener<T> {
+	/**
+	 * called when an object is first received and every time it changes, after the changes are applied to it.
+	 * @param id id of the object given by the server.
+	 * @param fields names of the fields that changed, every field when the object is first received.
+	 */
+	void changed(int id, T state, List<String> fields);
+
+	/**
+	 * called when the server stops replicating the object to the client.
+	 */
+	default void removed(int id, T state) {}
+}
@@ -0,0 +1,144 @@
+package com.notlord.lordnet.state;
+
+import com.notlord.lordnet.IClientInstance;
+import com.notlord.lordnet.Server;
+import com.notlord.lordnet.listeners.ServerListener;
+import com.notlord.lordnet.secured.SecuredServer;
+import com.notlord.lordnet.serialization.GsonSerializer;
+import com.notlord.lordnet.serialization.PacketSerializer;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * replicates objects to clients of a server, sending only the fields that changed since the version each client acknowledged.
+ * <br>
+ * register an object, add the clients it is replicated to, and call {@link #update()} after changing it, such as once per tick.
+ * an update snapshots every object once, fields in a compact byte form shared with the previous snapshot if they did not change,
+ * and keeps the last {@link #HISTORY} snapshots of every object. a client's baseline is only the version it acknowledged,
+ * clients whose baseline is older than the history get the whole object.
+ * <br>
+ * deltas are sent over the connection, or over the unreliable channel with {@link #setUnreliable(boolean)}.
+ * the client side is {@link StateClient}.
+ */
+public final class StateServer {
+	/**
+	 * amount of snapshots kept per object, and so how many updates a client may be behind and still get a delta.
+	 */
+	public static final int HISTORY = 32;
+	private static final int INITIAL_SCRATCH_SIZE = 256;
+	private final ClassValue<StateLayout> layouts = new ClassValue<>() {
+		@Override
+		protected StateLayout computeValue(Class<?> type) {
+			return new StateLayout(type);
+		}
+	};
+	private final Map<Integer, Replicated<?>> objects = new ConcurrentHashMap<>();
+	private final AtomicInteger ids = new AtomicInteger();
+	private volatile PacketSerializer serializer = new GsonSerializer();
+	private volatile boolean unreliable = false;
+	private ByteBuffer scratch = ByteBuffer.allocate(INITIAL_SCRATCH_SIZE);
+
+	/**
+	 * creates the state server of a server, acknowledgements are received through a packet handler,
+	 * and disconnected clients are forgotten through a listener.
+	 */
+	public StateServer(Server server) {
+		server.on(StateAck.class, this::acknowledged);
+		server.addListener(listener());
+	}
+
+	/**
+	 * creates the state server of a secured server, like {@link #StateServer(Server)}.
+	 */
+	public StateServer(SecuredServer server) {
+		server.on(StateAck.class, this::acknowledged);
+		server.addListener(listener());
+	}
+
+	/**
+	 * set the serializer of fields that are not primitives, boxes, strings or enums, clients must use the same serializer.
+	 * @param serializer {@link GsonSerializer} by default.
+	 */
+	public void setSerializer(PacketSerializer serializer){
+		this.serializer = serializer;
+	}
+
+	/**
+	 * set if deltas are sent over the unreliable channel, see {@link Server#setUnreliablePort(int)}.
+	 * a lost delta is covered by the next update, which is sent against the same acknowledged version.
+	 * whole objects are still sent over the connection, since they may not fit in a datagram,
+	 * and so are deltas to clients of a secured server, which has no unreliable channel.
+	 */
+	public void setUnreliable(boolean unreliable){
+		this.unreliable = unreliable;
+	}
+
+	/**
+	 * registers an object to replicate, add clients to the returned handle.
+	 * @throws IllegalArgumentException if the class of the object has no no-arg constructor.
+	 */
+	public <T> Replicated<T> register(T object){
+		Replicated<T> replicated = new Replicated<>(this, ids.incrementAndGet(), object, layouts.get(object.getClass()));
+		objects.put(replicated.getId(), replicated);
+		return replicated;
+	}
+
+	/**
+	 * snapshots every registered object and sends clients what changed, call it on the thread that changes the objects.
+	 */
+	public synchronized void update(){
+		for (Replicated<?> replicated : objects.values()) {
+			replicated.update();
+		}
+	}
+
+	void remove(Replicated<?> replicated){
+		objects.remove(replicated.getId());
+	}
+
+	boolean isUnreliable(){
+		return unreliable;
+	}
+
+	PacketSerializer getSerializer(){
+		return serializer;
+	}
+
+	ByteBuffer scratch(){
+		return scratch;
+	}
+
+	void growScratch(){
+		scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+	}
+
+	private void acknowledged(IClientInstance client, StateAck ack){
+		Replicated<?> replicated = objects.get(ack.getId());
+		if(replicated != null) {
+			replicated.acknowledged(client, ack.getVersion());
+		}
+	}
+
+	private ServerListener listener(){
+		return new ServerListener() {
+			@Override
+			public void clientConnect(IClientInstance client) {}
+
+			@Override
+			public void clientReceive(IClientInstance client, Object o) {}
+
+			@Override
+			public void clientDisconnect(IClientInstance client) {
+				for (Replicated<?> replicated : objects.values()) {
+					replicated.disconnected(client);
+				}
+			}
+
+			@Override
+			public void serverClose() {}
+		};
+	}
+}